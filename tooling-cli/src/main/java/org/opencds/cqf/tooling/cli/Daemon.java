@@ -0,0 +1,310 @@
+package org.opencds.cqf.tooling.cli;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.opencds.cqf.tooling.exception.InvalidOperationArgs;
+import org.opencds.cqf.tooling.exception.OperationExit;
+import org.opencds.cqf.tooling.processor.ValueSetsProcessor;
+import org.opencds.cqf.tooling.utilities.FhirContextCache;
+import org.opencds.cqf.tooling.utilities.HttpClientUtils;
+import org.opencds.cqf.tooling.utilities.IOUtils;
+import org.opencds.cqf.tooling.utilities.ResourceUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+
+/**
+ * Keeps the tooling resident so that a series of operations shares one JVM.
+ * <p>
+ * Every command line run pays for JVM startup and then rebuilds the same FhirContexts, npm packages and validation
+ * support from scratch. In daemon mode those live in static caches that outlast a single operation, so only the first
+ * request that needs them pays to build them: FhirContexts, the npm packages loaded from the package cache (while their
+ * folders are unchanged) with the index of their libraries, and the validation support of profile conformance checks.
+ * CQL translation state (model infos, compiled libraries and ELM) is built from the folders being translated, which
+ * may change between requests, so it is not kept: each request loads model infos and translates as a new run would.
+ * Requests are the same arguments the command line takes, sent
+ * as a JSON array of strings on one line; each gets a one line JSON object in reply with a "status" of "ok" or "error".
+ * Requests are served over a socket bound to the loopback address, or over stdin and stdout with -stdin, and run one at
+ * a time: operations are not written to run concurrently with one another. Operation output still goes to the daemon's
+ * log, and paths are resolved against the daemon's working directory, not the client's.
+ * <p>
+ * Other local users can reach the loopback address too, so a socket connection must first send the daemon's token on a
+ * line of its own. The token is generated when the daemon starts and written to a file only its owner can read, which
+ * is where the client reads it from. What an operation leaves behind in the tooling's static state (read resources,
+ * value sets, file indexes, POST settings) is cleared once it finishes, so each request starts as a new run would.
+ */
+class Daemon {
+    private static final Logger logger = LoggerFactory.getLogger(Daemon.class);
+
+    static final int DEFAULT_PORT = 7847;
+    static final String SHUTDOWN = "-Shutdown";
+
+    private static final Gson gson = new Gson();
+
+    private static final int TOKEN_BYTES = 32;
+
+    private Daemon() {
+
+    }
+
+    /*
+        Daemon options: (-port=<port>) (-tokenfile=<path>) (-stdin) (-warm=<fhir version>,...)
+    */
+    static void serve(String[] args) throws IOException {
+        Map<String, String> options = parseOptions(args);
+
+        if (options.containsKey("warm")) {
+            for (String version : options.get("warm").split(",")) {
+                long start = System.currentTimeMillis();
+                FhirContextCache.getContext(version.trim());
+                logger.info("Loaded FhirContext for {} in {} ms", version.trim(), System.currentTimeMillis() - start);
+            }
+        }
+
+        if (options.containsKey("stdin")) {
+            // Keep stdout for replies; anything the operations print goes to stderr instead
+            PrintStream replies = System.out;
+            System.setOut(System.err);
+            serve(new InputStreamReader(System.in, StandardCharsets.UTF_8),
+                    new OutputStreamWriter(replies, StandardCharsets.UTF_8));
+            return;
+        }
+
+        int port = options.containsKey("port") ? Integer.parseInt(options.get("port")) : DEFAULT_PORT;
+        Path tokenFile = getTokenFile(options.get("tokenfile"), port);
+        try (ServerSocket server = new ServerSocket(port, 0, InetAddress.getLoopbackAddress())) {
+            // Only once the port is ours, so a daemon already running on it keeps its token
+            String token = writeToken(tokenFile);
+            logger.info("cqf-tooling daemon listening on {}:{}, token in {}",
+                    server.getInetAddress().getHostAddress(), server.getLocalPort(), tokenFile);
+            try {
+                boolean running = true;
+                while (running) {
+                    try (Socket socket = server.accept()) {
+                        running = serve(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8),
+                                new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), token);
+                    } catch (IOException e) {
+                        logger.warn("Connection closed: {}", e.getMessage());
+                    }
+                }
+            } finally {
+                Files.deleteIfExists(tokenFile);
+            }
+        }
+        logger.info("cqf-tooling daemon stopped");
+    }
+
+    /**
+     * Serves requests without checking a token; for stdin, which only the process that started the daemon can write to.
+     *
+     * @return false if the daemon was asked to shut down
+     */
+    static boolean serve(Reader in, Writer out) throws IOException {
+        return serve(in, out, null);
+    }
+
+    /**
+     * Serves requests until the reader is exhausted or a shutdown request is received. When a token is given, the first
+     * line must be that token, or the connection is refused without serving any requests.
+     *
+     * @return false if the daemon was asked to shut down
+     */
+    static boolean serve(Reader in, Writer out, String token) throws IOException {
+        BufferedReader reader = new BufferedReader(in);
+        if (token != null) {
+            String presented = reader.readLine();
+            if (presented == null || !MessageDigest.isEqual(presented.trim().getBytes(StandardCharsets.UTF_8),
+                    token.getBytes(StandardCharsets.UTF_8))) {
+                logger.warn("Refused a connection without the daemon's token");
+                reply(out, error("A valid daemon token is required"));
+                return true;
+            }
+        }
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            String[] request;
+            try {
+                request = gson.fromJson(line, String[].class);
+            } catch (JsonParseException e) {
+                reply(out, error("Requests must be a JSON array of arguments: " + e.getMessage()));
+                continue;
+            }
+            if (request != null && request.length > 0 && SHUTDOWN.equals(request[0])) {
+                JsonObject response = new JsonObject();
+                response.addProperty("status", "ok");
+                reply(out, response);
+                return false;
+            }
+            reply(out, execute(request == null ? new String[]{} : request));
+        }
+        return true;
+    }
+
+    static synchronized JsonObject execute(String[] args) {
+        long start = System.currentTimeMillis();
+        try {
+            if (args.length == 0 || !args[0].startsWith("-")) {
+                throw new IllegalArgumentException("Invalid operation: " + (args.length == 0 ? "" : args[0]));
+            }
+            logger.info("Running {}", String.join(" ", args));
+            OperationFactory.createOperation(args[0].substring(1)).execute(args);
+        } catch (OperationExit e) {
+            if (e.getStatus() != 0) {
+                logger.error("{} exited with status {}", args[0], e.getStatus());
+                return error(String.format("%s exited with status %d", args[0], e.getStatus()));
+            }
+        } catch (Exception e) {
+            logger.error(String.format("%s failed", args.length == 0 ? "Request" : args[0]), e);
+            return error(e.getMessage() == null ? e.getClass().getName() : e.getMessage());
+        } finally {
+            resetState();
+        }
+        JsonObject response = new JsonObject();
+        response.addProperty("status", "ok");
+        response.addProperty("elapsedMillis", System.currentTimeMillis() - start);
+        return response;
+    }
+
+    /*
+        Client options: (-port=<port>) (-tokenfile=<path>) (-stop) [operation and its arguments]
+    */
+    static void forward(String[] args) throws IOException {
+        int port = DEFAULT_PORT;
+        String tokenFile = null;
+        int first = 1;
+        String[] request = null;
+        for (; first < args.length; first++) {
+            if (args[first].startsWith("-port=")) {
+                port = Integer.parseInt(args[first].substring("-port=".length()));
+            }
+            else if (args[first].startsWith("-tokenfile=")) {
+                tokenFile = args[first].substring("-tokenfile=".length());
+            }
+            else if (args[first].equals("-stop")) {
+                request = new String[]{ SHUTDOWN };
+            }
+            else {
+                break;
+            }
+        }
+        if (request == null) {
+            if (first == args.length) {
+                throw new InvalidOperationArgs("An operation to forward to the daemon is required");
+            }
+            request = new String[args.length - first];
+            System.arraycopy(args, first, request, 0, request.length);
+        }
+
+        Path tokenPath = getTokenFile(tokenFile, port);
+        if (!Files.isReadable(tokenPath)) {
+            throw new IOException("No daemon token at " + tokenPath + "; is the daemon running on port " + port + "?");
+        }
+        String token = new String(Files.readAllBytes(tokenPath), StandardCharsets.UTF_8).trim();
+
+        JsonObject response;
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+            out.write(token + "\n");
+            out.write(gson.toJson(request) + "\n");
+            out.flush();
+            String line = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8)).readLine();
+            if (line == null) {
+                throw new IOException("The daemon closed the connection without replying");
+            }
+            response = gson.fromJson(line, JsonObject.class);
+        }
+
+        if (!"ok".equals(response.get("status").getAsString())) {
+            System.err.println(response.get("message").getAsString());
+            System.exit(1);
+        }
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 1; i < args.length; ++i) {
+            String[] argAndValue = args[i].split("=", 2);
+            options.put(argAndValue[0].replace("-", ""), argAndValue.length == 2 ? argAndValue[1] : "");
+        }
+        return options;
+    }
+
+    private static void reply(Writer out, JsonObject response) throws IOException {
+        out.write(response + "\n");
+        out.flush();
+    }
+
+    private static JsonObject error(String message) {
+        JsonObject response = new JsonObject();
+        response.addProperty("status", "error");
+        response.addProperty("message", message);
+        return response;
+    }
+
+    // Clears what operations cache in static state, which would otherwise leak into the next request: resources read
+    // from files that may have changed since, CQL translations, value sets, file indexes and POST settings. FhirContexts,
+    // npm packages and validation support are kept; they don't depend on the request
+    static void resetState() {
+        IOUtils.cleanUp();
+        IOUtils.clearDevicePaths();
+        IOUtils.resourceDirectories.clear();
+        ResourceUtils.cleanUp();
+        ValueSetsProcessor.clearCachedValueSets();
+        HttpClientUtils.resetPostSettings();
+    }
+
+    static Path getTokenFile(String tokenFile, int port) {
+        return tokenFile != null
+                ? Paths.get(tokenFile)
+                : Paths.get(System.getProperty("user.home"), ".cqf-tooling", "daemon-" + port + ".token");
+    }
+
+    // Writes a new random token to a file that only the current user can read
+    private static String writeToken(Path tokenFile) throws IOException {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        new SecureRandom().nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+
+        Path parent = tokenFile.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Files.deleteIfExists(tokenFile);
+        if (parent.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            Files.createFile(tokenFile, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } else {
+            Files.createFile(tokenFile);
+            // The closest there is to owner-only permissions without POSIX attributes
+            tokenFile.toFile().setReadable(false, false);
+            tokenFile.toFile().setReadable(true, true);
+            tokenFile.toFile().setWritable(false, false);
+            tokenFile.toFile().setWritable(true, true);
+        }
+        Files.write(tokenFile, token.getBytes(StandardCharsets.UTF_8));
+        return token;
+    }
+}
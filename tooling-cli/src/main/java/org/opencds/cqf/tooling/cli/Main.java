@@ -188,6 +188,8 @@ package org.opencds.cqf.tooling.cli;
         - VmrToFhirTransformer
             - command: mvn exec: java -Dexec.args="-VmrToFhir -ifp=./src/test/resources/org/opencds/cqf/tooling/operation/VmrToFhir -op=./src/test/resources/org/opencds/cqf/tooling/operation/VmrToFhir/vMROutput.xml -e=xml"
             - this tooling transforms vMR data to FHIR data
+            - If -ifp is a directory, every xml file in it is transformed, in parallel
+            - The -s (-streaming) flag reads clinical statements one at a time, for documents too large to read into memory whole
 
         - EnsureExecutableValueSet
             - command: mvn exec: java -Dexec.args="-EnsureExecutableValueSet [-valuesetpath | -vsp] (-outputpath | -op) (-declarecpg | -cpg) (-force | -f)"
@@ -228,6 +230,26 @@ package org.opencds.cqf.tooling.cli;
                 So if you want both json and xml bundles, you would specify both -e=json and -e=xml. If no encoding argument
                 is supplied, the transformer will assume "json" as the default and output a single JSON-encoded bundle.
 
+        - Daemon
+            - command: java -jar tooling-cli.jar -Daemon (-port=<port>) (-tokenfile=<path>) (-stdin) (-warm=<fhir version>,...)
+            - Keeps the tooling running and serves operation requests, so JVM startup, FhirContexts, npm packages (while their
+                package cache folders are unchanged) and validation support are paid for once rather than on every run;
+                model infos and CQL translations are still loaded by each request
+            - Listens on the loopback address, port 7847 by default; with -stdin, requests are read from stdin and replies written to stdout
+            - Each socket connection must first send the daemon's token on a line of its own. The token is generated at startup
+                and written to -tokenfile, ~/.cqf-tooling/daemon-<port>.token by default, readable only by the daemon's user
+            - A request is a single line JSON array of the usual command line arguments, e.g. ["-RefreshIG", "-ini=ig.ini"],
+                and gets a single line JSON reply: {"status":"ok"} or {"status":"error","message":"..."}
+            - Requests run one at a time, and relative paths resolve against the daemon's working directory; resources and
+                settings cached by one request are cleared before the next
+            - The -warm argument creates FhirContexts for the listed versions (e.g. -warm=r4,dstu3) before the first request
+            - ["-Shutdown"] stops the daemon
+
+        - DaemonClient
+            - command: java -jar tooling-cli.jar -DaemonClient (-port=<port>) (-tokenfile=<path>) (-stop) [operation] {operation arguments}
+            - Example: java -jar tooling-cli.jar -DaemonClient -RefreshIG -ini=/path/to/ig.ini -fv=r4
+            - Forwards an operation to a running daemon and exits with status 1 if it fails; -stop shuts the daemon down
+
         */
 
 //import org.opencds.cqf.tooling.exception.InvalidOperationArgs;
@@ -237,7 +259,11 @@ package org.opencds.cqf.tooling.cli;
 //import org.opencds.cqf.tooling.operations.Operation;
 //import org.reflections.Reflections;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
 import org.opencds.cqf.tooling.common.ThreadUtils;
+import org.opencds.cqf.tooling.exception.OperationExit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -300,6 +326,23 @@ public class Main {
             throw new IllegalArgumentException("Invalid operation: " + operation);
         }
 
-        OperationFactory.createOperation(operation.substring(1)).execute(args);
+        try {
+            if (operation.equals("-Daemon")) {
+                Daemon.serve(args);
+                return;
+            }
+            if (operation.equals("-DaemonClient")) {
+                Daemon.forward(args);
+                return;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        try {
+            OperationFactory.createOperation(operation.substring(1)).execute(args);
+        } catch (OperationExit e) {
+            System.exit(e.getStatus());
+        }
     }
 }
@@ -0,0 +1,80 @@
+package org.opencds.cqf.tooling.cli;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import org.opencds.cqf.tooling.utilities.HttpClientUtils;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+public class DaemonIT {
+   @Test
+   void invalidRequestsDoNotStopTheDaemon() throws IOException {
+      StringWriter out = new StringWriter();
+      boolean running = Daemon.serve(new StringReader(
+            "not a request\n[\"NoDash\"]\n[\"-NonexistentOperationName\"]\n"), out);
+
+      Assert.assertTrue(running);
+      String[] replies = out.toString().split("\n");
+      Assert.assertEquals(replies.length, 3);
+      for (String reply : replies) {
+         JsonObject response = JsonParser.parseString(reply).getAsJsonObject();
+         Assert.assertEquals(response.get("status").getAsString(), "error");
+         Assert.assertTrue(response.has("message"));
+      }
+   }
+
+   @Test
+   void shutdownStopsServing() throws IOException {
+      StringWriter out = new StringWriter();
+      boolean running = Daemon.serve(new StringReader(
+            "[\"" + Daemon.SHUTDOWN + "\"]\n[\"-NonexistentOperationName\"]\n"), out);
+
+      Assert.assertFalse(running);
+      String[] replies = out.toString().split("\n");
+      Assert.assertEquals(replies.length, 1);
+      Assert.assertEquals(JsonParser.parseString(replies[0]).getAsJsonObject().get("status").getAsString(), "ok");
+   }
+
+   @Test
+   void connectionsWithoutTheTokenAreRefused() throws IOException {
+      StringWriter out = new StringWriter();
+      boolean running = Daemon.serve(new StringReader(
+            "not-the-token\n[\"" + Daemon.SHUTDOWN + "\"]\n"), out, "the-token");
+
+      Assert.assertTrue(running);
+      String[] replies = out.toString().split("\n");
+      Assert.assertEquals(replies.length, 1);
+      Assert.assertEquals(JsonParser.parseString(replies[0]).getAsJsonObject().get("status").getAsString(), "error");
+   }
+
+   @Test
+   void connectionsWithTheTokenAreServed() throws IOException {
+      StringWriter out = new StringWriter();
+      boolean running = Daemon.serve(new StringReader(
+            "the-token\n[\"" + Daemon.SHUTDOWN + "\"]\n"), out, "the-token");
+
+      Assert.assertFalse(running);
+      Assert.assertEquals(JsonParser.parseString(out.toString().trim()).getAsJsonObject().get("status").getAsString(), "ok");
+   }
+
+   @Test
+   void operationExitIsReportedWithoutStoppingTheDaemon() {
+      // RefreshIG exits with status 1 when its arguments can't be parsed
+      JsonObject response = Daemon.execute(new String[] { "-RefreshIG", "-unknownArgument" });
+
+      Assert.assertEquals(response.get("status").getAsString(), "error");
+      Assert.assertTrue(response.get("message").getAsString().contains("status 1"));
+   }
+
+   @Test
+   void postSettingsDoNotCarryOverToTheNextRequest() {
+      HttpClientUtils.setMaxSimultaneousPostCount(3);
+      Daemon.resetState();
+      Assert.assertEquals(HttpClientUtils.getMaxSimultaneousPostCount(), HttpClientUtils.DEFAULT_MAX_SIMULTANEOUS_POST_COUNT);
+   }
+}
@@ -7,23 +7,32 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 public class ThreadUtils {
     protected static final Logger logger = LoggerFactory.getLogger(ThreadUtils.class);
 
-    private static List<ExecutorService> runningExecutors = new ArrayList<>();
+    private static final int PARALLELISM = Math.max(1, Runtime.getRuntime().availableProcessors());
+    //The pool adds threads beyond PARALLELISM only to compensate for workers blocked in blocking tasks (see
+    //executeBlockingTasks) or in joins that can't be helped along; this bounds how many it may add. Once the bound is
+    //reached, blocked workers are simply not compensated for.
+    private static final int MAX_POOL_SIZE = PARALLELISM + 256;
+
+    private static List<ExecutorService> runningExecutors = new CopyOnWriteArrayList<>();
+    private static ForkJoinPool sharedPool;
 
     /**
-     * Executes a list of tasks concurrently using a thread pool.
+     * Executes a list of tasks concurrently using the given executor, which is shut down once all tasks complete.
      * <p>
-     * This method takes a list of Callable tasks and executes them concurrently using a thread pool. It utilizes
-     * an ExecutorService with a cached thread pool configuration to manage the execution of the tasks.
      * The method waits for all tasks to complete before returning.
      *
-     * @param tasks A list of Callable tasks to execute concurrently.
+     * @param tasks    A list of Callable tasks to execute concurrently.
+     * @param executor The executor to run the tasks on.
      */
     public static void executeTasks(List<Callable<Void>> tasks, ExecutorService executor) {
         if (tasks == null || tasks.isEmpty()) {
@@ -31,53 +40,161 @@ public class ThreadUtils {
         }
 
         runningExecutors.add(executor);
-
-        List<Callable<Void>> retryTasks = new ArrayList<>();
-
-        //let OS handle threading:
         try {
             List<Future<Void>> futures = new ArrayList<>();
             for (Callable<Void> task : tasks) {
-                try {
-                    futures.add(executor.submit(task));
-                } catch (OutOfMemoryError e) {
-                    retryTasks.add(task);
-                }
+                futures.add(executor.submit(task));
             }
 
             // Wait for all tasks to complete
             for (Future<Void> future : futures) {
-                future.get();
+                try {
+                    future.get();
+                } catch (Exception e) {
+                    logger.error("ThreadUtils.executeTasks: ", e);
+                }
             }
-        } catch (Exception e) {
-            logger.error("ThreadUtils.executeTasks: ", e);
         } finally {
-            if (retryTasks.isEmpty()) {
-                runningExecutors.remove(executor);
-                executor.shutdown();
-            }else{
-                executeTasks(retryTasks, executor);
-            }
+            runningExecutors.remove(executor);
+            executor.shutdown();
         }
     }
 
+    /**
+     * Executes a list of tasks concurrently on the shared, process-wide work-stealing pool, which is sized to the
+     * number of available processors.
+     * <p>
+     * The method waits for all tasks to complete before returning. Tasks may themselves call executeTasks: nested
+     * tasks are forked onto the calling worker's queue and the worker helps run them while it waits, so nesting can't
+     * exhaust the pool.
+     *
+     * @param tasks A list of Callable tasks to execute concurrently.
+     */
     public static void executeTasks(List<Callable<Void>> tasks) {
-        executeTasks(tasks, Executors.newCachedThreadPool());
+        execute(tasks, false);
     }
 
     public static void executeTasks(Queue<Callable<Void>> callables) {
-        executeTasks(new ArrayList<>(callables), Executors.newCachedThreadPool());
+        executeTasks(new ArrayList<>(callables));
+    }
+
+    /**
+     * Executes a list of I/O-bound tasks on the shared pool. While a task runs, the pool may start a compensating
+     * thread (up to a bound) so that tasks blocked on I/O don't hold back CPU-bound work.
+     *
+     * @param tasks A list of Callable tasks to execute concurrently.
+     */
+    public static void executeBlockingTasks(List<Callable<Void>> tasks) {
+        execute(tasks, true);
+    }
+
+    private static void execute(List<Callable<Void>> tasks, boolean blocking) {
+        if (tasks == null || tasks.isEmpty()) {
+            return;
+        }
+
+        ForkJoinPool pool = getSharedPool();
+        boolean nested = ForkJoinTask.getPool() == pool;
+
+        List<ForkJoinTask<Void>> forkJoinTasks = new ArrayList<>();
+        for (Callable<Void> task : tasks) {
+            ForkJoinTask<Void> forkJoinTask = ForkJoinTask.adapt(blocking ? new ManagedBlockingTask(task) : task);
+            if (nested) {
+                forkJoinTask.fork();
+            } else {
+                pool.execute(forkJoinTask);
+            }
+            forkJoinTasks.add(forkJoinTask);
+        }
+
+        // Join the most recently forked task first; a worker can then run its own forked tasks directly
+        for (int i = forkJoinTasks.size() - 1; i >= 0; i--) {
+            try {
+                forkJoinTasks.get(i).join();
+            } catch (Exception e) {
+                logger.error("ThreadUtils.executeTasks: ", e);
+            }
+        }
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("ThreadUtils.executeTasks: {} tasks completed. Pool size: {}, active threads: {}, queued tasks: {}",
+                    tasks.size(), pool.getPoolSize(), getActiveThreadCount(), getQueuedTaskCount());
+        }
+    }
+
+    private static synchronized ForkJoinPool getSharedPool() {
+        if (sharedPool == null || sharedPool.isShutdown()) {
+            sharedPool = new ForkJoinPool(PARALLELISM, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, false,
+                    0, MAX_POOL_SIZE, 1, pool -> true, 60, TimeUnit.SECONDS);
+        }
+        return sharedPool;
+    }
+
+    /**
+     * @return The number of tasks submitted to or forked in the shared pool that have not started running yet.
+     */
+    public static synchronized long getQueuedTaskCount() {
+        return sharedPool == null ? 0 : sharedPool.getQueuedTaskCount() + sharedPool.getQueuedSubmissionCount();
+    }
+
+    /**
+     * @return The number of threads of the shared pool that are running or stealing tasks.
+     */
+    public static synchronized int getActiveThreadCount() {
+        return sharedPool == null ? 0 : sharedPool.getActiveThreadCount();
     }
 
-    public static void shutdownRunningExecutors() {
+    public static synchronized void shutdownRunningExecutors() {
         try {
+            if (sharedPool != null) {
+                sharedPool.shutdownNow();
+                sharedPool = null;
+            }
             if (runningExecutors.isEmpty()) return;
             for (ExecutorService es : runningExecutors) {
                 es.shutdownNow();
             }
-            runningExecutors = new ArrayList<>();
+            runningExecutors = new CopyOnWriteArrayList<>();
         }catch (Exception e){
             //fail silently, shutting down anyways
         }
     }
+
+    /**
+     * Runs a task as a ForkJoinPool.ManagedBlocker, so the pool knows the worker running it may block.
+     */
+    private static class ManagedBlockingTask implements Callable<Void>, ForkJoinPool.ManagedBlocker {
+        private final Callable<Void> task;
+        private Exception exception;
+        private boolean done;
+
+        ManagedBlockingTask(Callable<Void> task) {
+            this.task = task;
+        }
+
+        @Override
+        public Void call() throws Exception {
+            ForkJoinPool.managedBlock(this);
+            if (exception != null) {
+                throw exception;
+            }
+            return null;
+        }
+
+        @Override
+        public boolean block() {
+            try {
+                task.call();
+            } catch (Exception e) {
+                exception = e;
+            }
+            done = true;
+            return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            return done;
+        }
+    }
 }
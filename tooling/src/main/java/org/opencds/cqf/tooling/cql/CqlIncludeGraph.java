@@ -0,0 +1,141 @@
+package org.opencds.cqf.tooling.cql;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The include graph of a set of CQL files, built from the library, using, and include declarations in the
+ * library headers without translating the files.
+ * <p>
+ * Only includes of libraries defined by files in the set are tracked; includes of libraries resolved from elsewhere
+ * (e.g. NPM packages) are ignored.
+ */
+public class CqlIncludeGraph {
+
+    private static final String IDENTIFIER = "(\"[^\"]+\"|[A-Za-z_][\\w.]*)";
+    private static final String VERSION = "(?:\\s+version\\s+'([^']*)')?";
+    private static final Pattern LIBRARY_PATTERN = Pattern.compile("^\\s*library\\s+" + IDENTIFIER + VERSION, Pattern.MULTILINE);
+    private static final Pattern USING_PATTERN = Pattern.compile("^\\s*using\\s+" + IDENTIFIER + VERSION, Pattern.MULTILINE);
+    private static final Pattern INCLUDE_PATTERN = Pattern.compile("^\\s*include\\s+" + IDENTIFIER + VERSION, Pattern.MULTILINE);
+
+    private final List<File> files;
+    private final Map<File, Set<File>> includes = new LinkedHashMap<>();
+    private final Map<String, String> models = new LinkedHashMap<>();
+
+    private CqlIncludeGraph(List<File> files) {
+        this.files = files;
+    }
+
+    public static CqlIncludeGraph fromFiles(List<File> files) throws IOException {
+        CqlIncludeGraph graph = new CqlIncludeGraph(new ArrayList<>(files));
+        Map<File, List<String>> includedNames = new HashMap<>();
+        Map<String, File> filesByLibraryName = new HashMap<>();
+
+        for (File file : files) {
+            String cql = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+
+            Matcher libraryMatcher = LIBRARY_PATTERN.matcher(cql);
+            String libraryName = libraryMatcher.find() ? getName(libraryMatcher.group(1)) : getBaseName(file);
+            filesByLibraryName.putIfAbsent(libraryName, file);
+
+            Matcher usingMatcher = USING_PATTERN.matcher(cql);
+            while (usingMatcher.find()) {
+                graph.models.putIfAbsent(getName(usingMatcher.group(1)), usingMatcher.group(2));
+            }
+
+            List<String> names = new ArrayList<>();
+            Matcher includeMatcher = INCLUDE_PATTERN.matcher(cql);
+            while (includeMatcher.find()) {
+                names.add(getName(includeMatcher.group(1)));
+            }
+            includedNames.put(file, names);
+        }
+
+        for (File file : files) {
+            Set<File> dependencies = new LinkedHashSet<>();
+            for (String name : includedNames.get(file)) {
+                File dependency = filesByLibraryName.get(name);
+                if (dependency != null && !dependency.equals(file)) {
+                    dependencies.add(dependency);
+                }
+            }
+            graph.includes.put(file, dependencies);
+        }
+
+        return graph;
+    }
+
+    /**
+     * @return The local files directly included by the given file
+     */
+    public Set<File> getIncludes(File file) {
+        return includes.getOrDefault(file, Collections.emptySet());
+    }
+
+    /**
+     * @return The models named in using declarations, mapped to the first version declared for each (may be null)
+     */
+    public Map<String, String> getModels() {
+        return models;
+    }
+
+    /**
+     * Groups the files into waves such that every file only includes files in earlier waves. Files within a wave are
+     * independent of each other and may be translated concurrently. Files within each wave keep their original order.
+     * Files that are part of an include cycle are placed together in a final wave.
+     *
+     * @return The files grouped into translation waves
+     */
+    public List<List<File>> getTranslationWaves() {
+        List<List<File>> waves = new ArrayList<>();
+        Set<File> translated = new LinkedHashSet<>();
+        List<File> remaining = new ArrayList<>(files);
+
+        while (!remaining.isEmpty()) {
+            List<File> wave = new ArrayList<>();
+            for (File file : remaining) {
+                if (translated.containsAll(getIncludes(file))) {
+                    wave.add(file);
+                }
+            }
+
+            if (wave.isEmpty()) {
+                waves.add(remaining);
+                break;
+            }
+
+            waves.add(wave);
+            translated.addAll(wave);
+            remaining.removeAll(wave);
+        }
+
+        return waves;
+    }
+
+    private static String getName(String identifier) {
+        if (identifier.startsWith("\"")) {
+            return identifier.substring(1, identifier.length() - 1);
+        }
+
+        // Strip any namespace qualifier
+        return identifier.substring(identifier.lastIndexOf('.') + 1);
+    }
+
+    private static String getBaseName(File file) {
+        String name = file.getName();
+        int index = name.lastIndexOf('.');
+        return index > 0 ? name.substring(0, index) : name;
+    }
+}
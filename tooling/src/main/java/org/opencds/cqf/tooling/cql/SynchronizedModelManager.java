@@ -0,0 +1,37 @@
+package org.opencds.cqf.tooling.cql;
+
+import org.cqframework.cql.cql2elm.ModelManager;
+import org.cqframework.cql.cql2elm.model.Model;
+import org.hl7.cql.model.ModelIdentifier;
+
+/**
+ * A ModelManager that can be shared by translations running on several threads.
+ * <p>
+ * The ModelManager loads models lazily into unsynchronized maps the first time a translation asks for them: the
+ * models named in using declarations, but also the System model, the models those require, and models supplied by
+ * included or NPM libraries, none of which are known before translation. Model resolution is serialized here instead,
+ * so each model is still loaded once and then shared. Model info providers must be registered before the manager is
+ * shared.
+ */
+public class SynchronizedModelManager extends ModelManager {
+
+    @Override
+    public synchronized Model resolveModel(String modelName) {
+        return super.resolveModel(modelName);
+    }
+
+    @Override
+    public synchronized Model resolveModel(String modelName, String version) {
+        return super.resolveModel(modelName, version);
+    }
+
+    @Override
+    public synchronized Model resolveModel(ModelIdentifier modelIdentifier) {
+        return super.resolveModel(modelIdentifier);
+    }
+
+    @Override
+    public synchronized Model resolveModelByUri(String namespaceUri) {
+        return super.resolveModelByUri(namespaceUri);
+    }
+}
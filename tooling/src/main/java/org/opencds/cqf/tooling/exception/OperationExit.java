@@ -0,0 +1,20 @@
+package org.opencds.cqf.tooling.exception;
+
+/**
+ * Ends an operation with an exit status, for the command line to exit with. Thrown instead of calling System.exit so
+ * that a process running several operations (such as the tooling-cli daemon) can carry on with the next.
+ */
+public class OperationExit extends RuntimeException {
+   static final long serialVersionUID = 1L;
+
+   private final int status;
+
+   public OperationExit(int status) {
+      super("Operation exited with status " + status);
+      this.status = status;
+   }
+
+   public int getStatus() {
+      return status;
+   }
+}
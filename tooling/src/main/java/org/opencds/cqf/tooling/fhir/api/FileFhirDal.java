@@ -2,7 +2,6 @@ package org.opencds.cqf.tooling.fhir.api;
 
 import java.io.File;
 import java.io.FileOutputStream;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
@@ -20,11 +19,13 @@ import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.model.api.IQueryParameterType;
 import ca.uhn.fhir.parser.IParser;
 import ca.uhn.fhir.rest.api.EncodingEnum;
+import ca.uhn.fhir.util.BundleBuilder;
 
-public class FileFhirDal implements FhirDal {
+public class FileFhirDal implements FhirDal, AutoCloseable {
   protected final String resourceDir;
   protected final EncodingEnum encoding;
   protected final FhirContext fhirContext;
+  private final FileFhirIndex index;
   private static final Logger logger = LoggerFactory.getLogger(FileFhirDal.class);
 
 
@@ -32,12 +33,14 @@ public class FileFhirDal implements FhirDal {
     this.resourceDir = resourceDir;
     this.encoding = EncodingEnum.JSON;
     this.fhirContext = FhirContext.forR4();
+    this.index = new FileFhirIndex(this.resourceDir, this.encoding, this.fhirContext);
   }
 
   public FileFhirDal(FileFhirPlatformParameters params){
     this.resourceDir = params.resourceDir;
     this.encoding = params.encoding;
     this.fhirContext = params.fhirContext;
+    this.index = new FileFhirIndex(this.resourceDir, this.encoding, this.fhirContext);
   }
 
   @Override
@@ -59,7 +62,23 @@ public class FileFhirDal implements FhirDal {
 
   @Override
   public IBaseResource read(IIdType id){
-    return resourceTypeDefined(id) ? readResource(getPath(id)) : null;
+    if (!resourceTypeDefined(id)) {
+      return null;
+    }
+
+    IBaseResource resource = index.read(id.getResourceType(), id.getIdPart());
+    if (resource == null) {
+      logger.warn("{} does not exist", id);
+    }
+    return resource;
+  }
+
+  /**
+   * @return The resource with the given canonical url and version (or any version, if version is null), or null if
+   * there is no such resource in the resource directory.
+   */
+  public IBaseResource readByCanonical(String resourceType, String url, String version) {
+    return index.readByCanonical(resourceType, url, version);
   }
 
   @Override
@@ -85,36 +104,11 @@ public class FileFhirDal implements FhirDal {
         if (!file.delete()){
           logger.warn("Could not delete {} :", id.getIdPart());
         }
+        index.refresh(file.getPath());
       }
     }
   }
 
-  // TODO: search package cache if resource not found
-  private IBaseResource readResource(String path){
-    IParser parser = this.encoding.newParser(this.fhirContext);
-    IBaseResource resource;
-    File file = new File(path);
-
-    if (!file.exists()){
-      logger.warn("{} does not exist", file.getName());
-      return null;
-    }
-
-    if (file.isDirectory()) {
-      logger.warn("Cannot read a resource from a directory: {}", file.getName());
-      return null;
-    }
-
-    try (FileReader reader = new FileReader(file)){
-      resource = parser.parseResource(reader);
-    } catch (IOException e){
-      e.printStackTrace();
-      throw new RuntimeException(String.format("Cannot read a resource from a directory: %s", file.getName()));
-    }
-
-    return resource;
-  }
-
   private void writeResource(String path, IBaseResource resource){
     IParser parser = this.encoding.newParser(this.fhirContext);
 
@@ -125,6 +119,7 @@ public class FileFhirDal implements FhirDal {
       e.printStackTrace();
       throw new RuntimeException("Error writing resource to file: " + e.getMessage());
     }
+    index.refresh(path);
   }
 
   private String getPath(IBaseResource resource){
@@ -155,9 +150,22 @@ public class FileFhirDal implements FhirDal {
     }
   }
 
-  // TODO: search resource directory / package cache
+  // TODO: search package cache
   @Override
   public IBaseBundle search(String resourceType, Map<String, List<List<IQueryParameterType>>> searchParameters){
-    return null;
-  };
+    BundleBuilder builder = new BundleBuilder(this.fhirContext);
+    builder.setType("searchset");
+    for (IBaseResource resource : index.search(resourceType, searchParameters)) {
+      builder.addCollectionEntry(resource);
+    }
+    return builder.getBundle();
+  }
+
+  /**
+   * Stops watching the resource directory for changes.
+   */
+  @Override
+  public void close() {
+    index.close();
+  }
 }
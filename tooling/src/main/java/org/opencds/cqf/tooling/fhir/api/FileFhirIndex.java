@@ -0,0 +1,631 @@
+package org.opencds.cqf.tooling.fhir.api;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import org.hl7.fhir.instance.model.api.IBase;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.instance.model.api.IPrimitiveType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ca.uhn.fhir.context.BaseRuntimeElementDefinition;
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.RuntimeResourceDefinition;
+import ca.uhn.fhir.context.RuntimeSearchParam;
+import ca.uhn.fhir.fhirpath.IFhirPath;
+import ca.uhn.fhir.model.api.IQueryParameterType;
+import ca.uhn.fhir.model.api.TemporalPrecisionEnum;
+import ca.uhn.fhir.model.primitive.IdDt;
+import ca.uhn.fhir.parser.IParser;
+import ca.uhn.fhir.rest.api.EncodingEnum;
+import ca.uhn.fhir.rest.api.RestSearchParameterTypeEnum;
+import ca.uhn.fhir.rest.param.DateParam;
+import ca.uhn.fhir.rest.param.ParamPrefixEnum;
+import ca.uhn.fhir.rest.param.ReferenceParam;
+import ca.uhn.fhir.rest.param.StringParam;
+import ca.uhn.fhir.rest.param.TokenParam;
+import ca.uhn.fhir.rest.param.UriParam;
+import ca.uhn.fhir.util.FhirTerser;
+
+/**
+ * An in-memory index of the resources in a FileFhirDal resource directory.
+ * <p>
+ * The index is built on first use by parsing every resource file under the directory once. Resources are indexed by
+ * type and id, by canonical url (and version), and by the values of commonly used search parameters (see
+ * INDEXED_SEARCH_PARAMETERS). Values of other search parameters are extracted from each resource the first time they
+ * are searched on. While the index is in use, a file watcher queues changed files, which are re-indexed before the
+ * next read or search. Resources are returned as copies, so callers can modify them without corrupting the index.
+ */
+class FileFhirIndex implements AutoCloseable {
+  private static final Logger logger = LoggerFactory.getLogger(FileFhirIndex.class);
+
+  static final Set<String> INDEXED_SEARCH_PARAMETERS = new HashSet<>(Arrays.asList(
+          "code", "subject", "patient", "encounter", "date", "status", "identifier", "url", "version"));
+
+  private static final Pattern RESOLVE_TYPE_PATTERN = Pattern.compile("\\.where\\(resolve\\(\\) is (\\w+)\\)");
+
+  private final Path resourceDir;
+  private final EncodingEnum encoding;
+  private final String extension;
+  private final FhirContext fhirContext;
+  private final IFhirPath fhirPath;
+  private final FhirTerser terser;
+
+  private boolean built;
+  private final Map<String, Map<String, IndexedResource>> resourcesByType = new HashMap<>();
+  private final Map<Path, IndexedResource> resourcesByPath = new HashMap<>();
+  private final Map<String, List<IndexedResource>> resourcesByUrl = new HashMap<>();
+  // resource type -> search parameter -> value key -> resources
+  private final Map<String, Map<String, Map<String, Set<IndexedResource>>>> searchIndex = new HashMap<>();
+
+  private WatchService watchService;
+  private final Set<Path> changedPaths = ConcurrentHashMap.newKeySet();
+
+  FileFhirIndex(String resourceDir, EncodingEnum encoding, FhirContext fhirContext) {
+    this.resourceDir = Paths.get(resourceDir).toAbsolutePath().normalize();
+    this.encoding = encoding;
+    this.extension = "." + encoding.toString().toLowerCase();
+    this.fhirContext = fhirContext;
+    this.fhirPath = fhirContext.newFhirPath();
+    this.terser = fhirContext.newTerser();
+  }
+
+  synchronized IBaseResource read(String resourceType, String id) {
+    ensureCurrent();
+    IndexedResource indexed = resourcesByType.getOrDefault(resourceType, Collections.emptyMap()).get(id);
+    return indexed != null ? copy(indexed.resource) : null;
+  }
+
+  /**
+   * @return The resource with the given canonical url and version, or, if version is null, the first indexed resource
+   * with the url.
+   */
+  synchronized IBaseResource readByCanonical(String resourceType, String url, String version) {
+    ensureCurrent();
+    for (IndexedResource indexed : resourcesByUrl.getOrDefault(url, Collections.emptyList())) {
+      if ((resourceType == null || resourceType.equals(indexed.resourceType))
+              && (version == null || version.equals(indexed.version))) {
+        return copy(indexed.resource);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Finds the resources of the given type matching all (AND) of the search parameters, where each parameter matches
+   * if any (OR) of its values match.
+   */
+  synchronized List<IBaseResource> search(String resourceType, Map<String, List<List<IQueryParameterType>>> searchParameters) {
+    ensureCurrent();
+    Collection<IndexedResource> candidates = resourcesByType.getOrDefault(resourceType, Collections.emptyMap()).values();
+
+    if (searchParameters != null) {
+      // Narrow the candidates using the inverted index where a parameter allows it
+      for (Map.Entry<String, List<List<IQueryParameterType>>> parameter : searchParameters.entrySet()) {
+        for (List<IQueryParameterType> orList : parameter.getValue()) {
+          Set<IndexedResource> indexedCandidates = getIndexedCandidates(resourceType, parameter.getKey(), orList);
+          if (indexedCandidates != null && indexedCandidates.size() < candidates.size()) {
+            candidates = indexedCandidates;
+          }
+        }
+      }
+    }
+
+    List<IBaseResource> results = new ArrayList<>();
+    for (IndexedResource candidate : candidates) {
+      if (matches(candidate, searchParameters)) {
+        results.add(copy(candidate.resource));
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Re-indexes the resource file at the given path (or removes it from the index if it no longer exists).
+   */
+  synchronized void refresh(String path) {
+    if (built) {
+      reindex(Paths.get(path).toAbsolutePath().normalize());
+    }
+  }
+
+  @Override
+  public synchronized void close() {
+    if (watchService != null) {
+      try {
+        watchService.close();
+      } catch (IOException e) {
+        logger.warn("Error closing file watcher for {}: {}", resourceDir, e.getMessage());
+      }
+      watchService = null;
+    }
+  }
+
+  private void ensureCurrent() {
+    if (!built) {
+      build();
+      return;
+    }
+
+    if (!changedPaths.isEmpty()) {
+      List<Path> paths = new ArrayList<>(changedPaths);
+      changedPaths.removeAll(paths);
+      for (Path path : paths) {
+        reindex(path);
+      }
+    }
+  }
+
+  private void build() {
+    if (!Files.isDirectory(resourceDir)) {
+      return;
+    }
+    built = true;
+
+    long start = System.currentTimeMillis();
+    startWatching();
+    try {
+      Files.walkFileTree(resourceDir, new SimpleFileVisitor<Path>() {
+        @Override
+        public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+          watch(dir);
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+          if (isResourceFile(file)) {
+            reindex(file);
+          }
+          return FileVisitResult.CONTINUE;
+        }
+      });
+    } catch (IOException e) {
+      throw new RuntimeException(String.format("Error indexing resources in %s: %s", resourceDir, e.getMessage()), e);
+    }
+    logger.debug("Indexed {} resources in {} in {}ms", resourcesByPath.size(), resourceDir, System.currentTimeMillis() - start);
+  }
+
+  private boolean isResourceFile(Path file) {
+    return file.getFileName().toString().toLowerCase().endsWith(extension);
+  }
+
+  private void reindex(Path path) {
+    IndexedResource previous = resourcesByPath.remove(path);
+    if (previous != null) {
+      remove(previous);
+    }
+
+    if (!Files.isRegularFile(path) || !isResourceFile(path)) {
+      return;
+    }
+
+    IBaseResource resource = parse(path.toFile());
+    if (resource == null || !resource.getIdElement().hasIdPart()) {
+      return;
+    }
+
+    IndexedResource indexed = new IndexedResource(resource, fhirContext.getResourceType(resource));
+    resourcesByPath.put(path, indexed);
+    resourcesByType.computeIfAbsent(indexed.resourceType, x -> new LinkedHashMap<>()).put(indexed.id, indexed);
+
+    RuntimeResourceDefinition definition = fhirContext.getResourceDefinition(resource);
+    if (definition.getChildByName("url") != null) {
+      indexed.url = getString(resource, "url");
+      if (indexed.url != null) {
+        indexed.version = definition.getChildByName("version") != null ? getString(resource, "version") : null;
+        resourcesByUrl.computeIfAbsent(indexed.url, x -> new ArrayList<>()).add(indexed);
+      }
+    }
+
+    for (String parameterName : INDEXED_SEARCH_PARAMETERS) {
+      RuntimeSearchParam searchParam = getSearchParam(indexed.resourceType, parameterName);
+      if (searchParam != null && searchParam.getParamType() != RestSearchParameterTypeEnum.DATE) {
+        Map<String, Set<IndexedResource>> parameterIndex = searchIndex
+                .computeIfAbsent(indexed.resourceType, x -> new HashMap<>())
+                .computeIfAbsent(parameterName, x -> new HashMap<>());
+        for (String key : indexed.getValues(searchParam).keys) {
+          parameterIndex.computeIfAbsent(key, x -> new HashSet<>()).add(indexed);
+        }
+      }
+    }
+  }
+
+  private void remove(IndexedResource indexed) {
+    Map<String, IndexedResource> resourcesOfType = resourcesByType.get(indexed.resourceType);
+    if (resourcesOfType != null && resourcesOfType.get(indexed.id) == indexed) {
+      resourcesOfType.remove(indexed.id);
+    }
+    if (indexed.url != null) {
+      resourcesByUrl.getOrDefault(indexed.url, new ArrayList<>()).remove(indexed);
+    }
+    for (Map<String, Set<IndexedResource>> parameterIndex : searchIndex.getOrDefault(indexed.resourceType, Collections.emptyMap()).values()) {
+      for (Set<IndexedResource> resources : parameterIndex.values()) {
+        resources.remove(indexed);
+      }
+    }
+  }
+
+  private IBaseResource copy(IBaseResource resource) {
+    return terser.clone(resource);
+  }
+
+  private IBaseResource parse(File file) {
+    IParser parser = encoding.newParser(fhirContext);
+    try (FileReader reader = new FileReader(file)) {
+      return parser.parseResource(reader);
+    } catch (Exception e) {
+      logger.warn("Unable to index {}: {}", file.getPath(), e.getMessage());
+      return null;
+    }
+  }
+
+  private RuntimeSearchParam getSearchParam(String resourceType, String parameterName) {
+    RuntimeResourceDefinition definition = fhirContext.getResourceDefinition(resourceType);
+    RuntimeSearchParam searchParam = definition.getSearchParam(parameterName);
+    return searchParam != null && searchParam.getPath() != null && !searchParam.getPath().isEmpty() ? searchParam : null;
+  }
+
+  private Set<IndexedResource> getIndexedCandidates(String resourceType, String parameterName, List<IQueryParameterType> orList) {
+    Map<String, Set<IndexedResource>> parameterIndex = searchIndex.getOrDefault(resourceType, Collections.emptyMap()).get(parameterName);
+    if (parameterIndex == null) {
+      return null;
+    }
+
+    Set<IndexedResource> candidates = new HashSet<>();
+    for (IQueryParameterType value : orList) {
+      String key = getKey(value);
+      if (key == null) {
+        return null;
+      }
+      candidates.addAll(parameterIndex.getOrDefault(key, Collections.emptySet()));
+    }
+    return candidates;
+  }
+
+  private boolean matches(IndexedResource indexed, Map<String, List<List<IQueryParameterType>>> searchParameters) {
+    if (searchParameters == null) {
+      return true;
+    }
+
+    for (Map.Entry<String, List<List<IQueryParameterType>>> parameter : searchParameters.entrySet()) {
+      for (List<IQueryParameterType> orList : parameter.getValue()) {
+        boolean anyMatch = false;
+        for (IQueryParameterType value : orList) {
+          if (matches(indexed, parameter.getKey(), value)) {
+            anyMatch = true;
+            break;
+          }
+        }
+        if (!anyMatch) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  private boolean matches(IndexedResource indexed, String parameterName, IQueryParameterType value) {
+    if (parameterName.equals("_id")) {
+      return indexed.id.equals(value.getValueAsQueryToken(fhirContext));
+    }
+
+    RuntimeSearchParam searchParam = getSearchParam(indexed.resourceType, parameterName);
+    if (searchParam == null) {
+      logger.warn("Unsupported search parameter for {}: {}", indexed.resourceType, parameterName);
+      return false;
+    }
+
+    SearchValues values = indexed.getValues(searchParam);
+    if (value instanceof DateParam) {
+      return matchesDate(values.dateRanges, (DateParam) value);
+    }
+    if (value instanceof StringParam && !((StringParam) value).isExact()) {
+      String prefix = ((StringParam) value).getValue().toLowerCase();
+      for (String key : values.keys) {
+        if (key.toLowerCase().startsWith(prefix)) {
+          return true;
+        }
+      }
+      return false;
+    }
+    String key = getKey(value);
+    return key != null && values.keys.contains(key);
+  }
+
+  private String getKey(IQueryParameterType value) {
+    if (value instanceof TokenParam) {
+      TokenParam token = (TokenParam) value;
+      if (token.getModifier() != null) {
+        return null;
+      }
+      return token.getSystem() == null ? token.getValue() : token.getSystem() + "|" + token.getValue();
+    }
+    if (value instanceof ReferenceParam) {
+      ReferenceParam reference = (ReferenceParam) value;
+      if (reference.getChain() != null) {
+        return null;
+      }
+      return reference.getResourceType() != null ? reference.getResourceType() + "/" + reference.getIdPart() : reference.getIdPart();
+    }
+    if (value instanceof UriParam) {
+      return ((UriParam) value).getValue();
+    }
+    if (value instanceof StringParam) {
+      return ((StringParam) value).isExact() ? ((StringParam) value).getValue() : null;
+    }
+    if (value instanceof DateParam) {
+      return null;
+    }
+    return value.getValueAsQueryToken(fhirContext);
+  }
+
+  private static boolean matchesDate(List<long[]> ranges, DateParam dateParam) {
+    if (dateParam.getValue() == null) {
+      return false;
+    }
+    TemporalPrecisionEnum precision = dateParam.getPrecision() != null ? dateParam.getPrecision() : TemporalPrecisionEnum.MILLI;
+    long low = dateParam.getValue().getTime();
+    long high = precision.add(dateParam.getValue(), 1).getTime() - 1;
+    ParamPrefixEnum prefix = dateParam.getPrefix() != null ? dateParam.getPrefix() : ParamPrefixEnum.EQUAL;
+
+    for (long[] range : ranges) {
+      boolean match;
+      switch (prefix) {
+        case NOT_EQUAL: match = !(range[0] >= low && range[1] <= high); break;
+        case GREATERTHAN: match = range[1] > high; break;
+        case LESSTHAN: match = range[0] < low; break;
+        case GREATERTHAN_OR_EQUALS: match = range[1] >= low; break;
+        case LESSTHAN_OR_EQUALS: match = range[0] <= high; break;
+        case STARTS_AFTER: match = range[0] > high; break;
+        case ENDS_BEFORE: match = range[1] < low; break;
+        case APPROXIMATE: match = range[0] <= high && range[1] >= low; break;
+        default: match = range[0] >= low && range[1] <= high; break;
+      }
+      if (match) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private SearchValues extractValues(IBaseResource resource, RuntimeSearchParam searchParam) {
+    SearchValues values = new SearchValues();
+    // Evaluate each branch of the path separately so that reference type filters (resolve() is X) apply to their branch
+    for (String branch : searchParam.getPath().split("\\|")) {
+      String path = branch.trim();
+      String targetType = null;
+      Matcher matcher = RESOLVE_TYPE_PATTERN.matcher(path);
+      if (matcher.find()) {
+        targetType = matcher.group(1);
+        path = matcher.replaceAll("");
+      }
+
+      List<IBase> elements;
+      try {
+        elements = fhirPath.evaluate(resource, path, IBase.class);
+      } catch (Exception e) {
+        logger.debug("Unable to evaluate search parameter path {}: {}", path, e.getMessage());
+        continue;
+      }
+      for (IBase element : elements) {
+        addValues(values, element, targetType);
+      }
+    }
+    return values;
+  }
+
+  private void addValues(SearchValues values, IBase element, String targetType) {
+    BaseRuntimeElementDefinition<?> definition = fhirContext.getElementDefinition(element.getClass());
+    String typeName = definition != null ? definition.getName() : "";
+    switch (typeName) {
+      case "CodeableConcept":
+        for (IBase coding : terser.getValues(element, "coding")) {
+          addValues(values, coding, targetType);
+        }
+        break;
+      case "Coding":
+        addToken(values, getString(element, "system"), getString(element, "code"));
+        break;
+      case "Identifier":
+        addToken(values, getString(element, "system"), getString(element, "value"));
+        break;
+      case "ContactPoint":
+        addToken(values, null, getString(element, "value"));
+        break;
+      case "Reference":
+        addReference(values, getString(element, "reference"), targetType);
+        break;
+      case "Period":
+        addDateRange(values, getString(element, "start"), getString(element, "end"));
+        break;
+      case "date":
+      case "dateTime":
+      case "instant":
+        String date = ((IPrimitiveType<?>) element).getValueAsString();
+        addDateRange(values, date, date);
+        break;
+      default:
+        if (element instanceof IPrimitiveType && ((IPrimitiveType<?>) element).getValueAsString() != null) {
+          String value = ((IPrimitiveType<?>) element).getValueAsString();
+          if (typeName.equals("canonical")) {
+            addReference(values, value, targetType);
+          }
+          addToken(values, null, value);
+        }
+        break;
+    }
+  }
+
+  private String getString(IBase element, String childName) {
+    IPrimitiveType<?> child = terser.getSingleValueOrNull(element, childName, IPrimitiveType.class);
+    return child != null ? child.getValueAsString() : null;
+  }
+
+  private static void addToken(SearchValues values, String system, String code) {
+    if (code == null) {
+      return;
+    }
+    values.keys.add(code);
+    values.keys.add((system != null ? system : "") + "|" + code);
+  }
+
+  private static void addReference(SearchValues values, String reference, String targetType) {
+    if (reference == null) {
+      return;
+    }
+    IdDt id = new IdDt(reference);
+    if (targetType != null && !targetType.equals(id.getResourceType())) {
+      return;
+    }
+    values.keys.add(reference);
+    if (id.hasIdPart()) {
+      values.keys.add(id.getIdPart());
+      if (id.hasResourceType()) {
+        values.keys.add(id.getResourceType() + "/" + id.getIdPart());
+      }
+    }
+  }
+
+  private static void addDateRange(SearchValues values, String start, String end) {
+    if (start == null && end == null) {
+      return;
+    }
+    try {
+      long low = start != null ? getDateRange(start)[0] : Long.MIN_VALUE;
+      long high = end != null ? getDateRange(end)[1] : Long.MAX_VALUE;
+      values.dateRanges.add(new long[] { low, high });
+    } catch (Exception e) {
+      logger.debug("Unable to index date {} - {}: {}", start, end, e.getMessage());
+    }
+  }
+
+  private static long[] getDateRange(String value) {
+    DateParam date = new DateParam(value);
+    TemporalPrecisionEnum precision = date.getPrecision() != null ? date.getPrecision() : TemporalPrecisionEnum.MILLI;
+    return new long[] { date.getValue().getTime(), precision.add(date.getValue(), 1).getTime() - 1 };
+  }
+
+  private void startWatching() {
+    try {
+      watchService = FileSystems.getDefault().newWatchService();
+    } catch (IOException | UnsupportedOperationException e) {
+      logger.warn("Unable to watch {} for changes: {}", resourceDir, e.getMessage());
+      return;
+    }
+
+    WatchService service = watchService;
+    Thread watchThread = new Thread(() -> watchForChanges(service), "FileFhirIndex-watcher");
+    watchThread.setDaemon(true);
+    watchThread.start();
+  }
+
+  private void watch(Path dir) {
+    if (watchService == null) {
+      return;
+    }
+    try {
+      dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+              StandardWatchEventKinds.ENTRY_DELETE);
+    } catch (IOException | ClosedWatchServiceException e) {
+      logger.warn("Unable to watch {} for changes: {}", dir, e.getMessage());
+    }
+  }
+
+  private void watchForChanges(WatchService service) {
+    try {
+      while (true) {
+        WatchKey key = service.take();
+        Path dir = (Path) key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+          if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+            // Events were lost; re-index everything already known plus anything new in the directory
+            changedPaths.addAll(resourcesByPathSnapshot());
+            try (Stream<Path> files = Files.list(dir)) {
+              files.forEach(changedPaths::add);
+            } catch (IOException e) {
+              logger.warn("Unable to list {}: {}", dir, e.getMessage());
+            }
+            continue;
+          }
+
+          Path path = dir.resolve((Path) event.context()).toAbsolutePath().normalize();
+          if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+            synchronized (this) {
+              watch(path);
+            }
+            try (Stream<Path> files = Files.walk(path)) {
+              files.filter(Files::isRegularFile).forEach(changedPaths::add);
+            } catch (IOException e) {
+              logger.warn("Unable to list {}: {}", path, e.getMessage());
+            }
+          } else {
+            changedPaths.add(path);
+          }
+        }
+        key.reset();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ClosedWatchServiceException e) {
+      // closed
+    }
+  }
+
+  private synchronized Set<Path> resourcesByPathSnapshot() {
+    return new HashSet<>(resourcesByPath.keySet());
+  }
+
+  private static class SearchValues {
+    private final Set<String> keys = new LinkedHashSet<>();
+    private final List<long[]> dateRanges = new ArrayList<>();
+  }
+
+  private class IndexedResource {
+    private final IBaseResource resource;
+    private final String resourceType;
+    private final String id;
+    private String url;
+    private String version;
+    private final Map<String, SearchValues> values = new HashMap<>();
+
+    IndexedResource(IBaseResource resource, String resourceType) {
+      this.resource = resource;
+      this.resourceType = resourceType;
+      this.id = resource.getIdElement().getIdPart();
+    }
+
+    SearchValues getValues(RuntimeSearchParam searchParam) {
+      return values.computeIfAbsent(searchParam.getName(), x -> extractValues(resource, searchParam));
+    }
+  }
+}
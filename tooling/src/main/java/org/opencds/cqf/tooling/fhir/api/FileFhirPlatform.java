@@ -8,14 +8,19 @@ import org.opencds.cqf.tooling.parameter.FileFhirPlatformParameters;
 
 public class FileFhirPlatform implements FhirPlatform{
   private FileFhirPlatformParameters platformParams;
+  private FileFhirDal dal;
 
   public FileFhirPlatform(FileFhirPlatformParameters platformParams){
     this.platformParams = platformParams;
   }
 
+  // The dal indexes the resource directory on first use, so it is shared rather than rebuilt for every caller
   @Override
-  public FileFhirDal dal(){
-    return new FileFhirDal(this.platformParams);
+  public synchronized FileFhirDal dal(){
+    if (this.dal == null) {
+      this.dal = new FileFhirDal(this.platformParams);
+    }
+    return this.dal;
   }
 
   @Override
@@ -28,16 +28,14 @@ import org.hl7.fhir.r5.model.Reference;
 import org.hl7.fhir.r5.model.RelatedArtifact;
 import org.hl7.fhir.utilities.TextFile;
 import org.hl7.fhir.utilities.Utilities;
-import org.opencds.cqf.tooling.common.ThreadUtils;
 import org.opencds.cqf.tooling.library.r4.R4LibraryProcessor;
 import org.opencds.cqf.tooling.library.stu3.STU3LibraryProcessor;
 import org.opencds.cqf.tooling.parameter.RefreshLibraryParameters;
 import org.opencds.cqf.tooling.processor.BaseProcessor;
 import org.opencds.cqf.tooling.processor.CqlProcessor;
 import org.opencds.cqf.tooling.processor.IGProcessor;
-import org.opencds.cqf.tooling.utilities.IOUtils;
 import org.opencds.cqf.tooling.utilities.IOUtils.Encoding;
-import org.opencds.cqf.tooling.utilities.ResourceUtils;
+import org.opencds.cqf.tooling.utilities.LibraryDependencyGraph;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -115,7 +113,8 @@ public class LibraryProcessor extends BaseProcessor {
 
     /**
      * Bundles library dependencies for a given FHIR library file and populates the provided resource map.
-     * This method executes asynchronously by invoking the associated task queue.
+     * Dependencies are resolved transitively through the {@link LibraryDependencyGraph}, so libraries shared by
+     * several dependencies are read once.
      *
      * @param path        The path to the FHIR library file.
      * @param fhirContext The FHIR context to use for processing resources.
@@ -125,13 +124,14 @@ public class LibraryProcessor extends BaseProcessor {
      */
     public void bundleLibraryDependencies(String path, FhirContext fhirContext, Map<String, IBaseResource> resources,
                                           Encoding encoding, boolean versioned) throws Exception {
-        Queue<Callable<Void>> bundleLibraryDependenciesTasks = bundleLibraryDependenciesTasks(path, fhirContext, resources, encoding, versioned);
-        ThreadUtils.executeTasks(bundleLibraryDependenciesTasks);
+        for (Map.Entry<String, IBaseResource> dependency : LibraryDependencyGraph.getLibraryResources(path, fhirContext, encoding, versioned).entrySet()) {
+            resources.putIfAbsent(dependency.getKey(), dependency.getValue());
+        }
     }
 
     /**
-     * Recursively bundles library dependencies for a given FHIR library file and populates the provided resource map.
-     * Each dependency is added as a Callable task to be executed asynchronously.
+     * Returns a task per transitive library dependency of a given FHIR library file, each of which adds the dependency
+     * to the provided resource map.
      *
      * @param path        The path to the FHIR library file.
      * @param fhirContext The FHIR context to use for processing resources.
@@ -145,19 +145,9 @@ public class LibraryProcessor extends BaseProcessor {
                                                                 Encoding encoding, boolean versioned) throws Exception {
 
         Queue<Callable<Void>> returnTasks = new ConcurrentLinkedQueue<>();
-
-        String fileName = FilenameUtils.getName(path);
-        boolean prefixed = fileName.toLowerCase().startsWith("library-");
-        Map<String, IBaseResource> dependencies = ResourceUtils.getDepLibraryResources(path, fhirContext, encoding, versioned, logger);
-        // String currentResourceID = IOUtils.getTypeQualifiedResourceId(path, fhirContext);
-        for (IBaseResource resource : dependencies.values()) {
+        for (Map.Entry<String, IBaseResource> dependency : LibraryDependencyGraph.getLibraryResources(path, fhirContext, encoding, versioned).entrySet()) {
             returnTasks.add(() -> {
-                resources.putIfAbsent(resource.getIdElement().getIdPart(), resource);
-
-                // NOTE: Assuming dependency library will be in directory of dependent.
-                String dependencyPath = IOUtils.getResourceFileName(IOUtils.getResourceDirectory(path), resource, encoding, fhirContext, versioned, prefixed);
-
-                returnTasks.addAll(bundleLibraryDependenciesTasks(dependencyPath, fhirContext, resources, encoding, versioned));
+                resources.putIfAbsent(dependency.getKey(), dependency.getValue());
 
                 //return statement needed for Callable<Void>
                 return null;
@@ -1,7 +1,11 @@
 package org.opencds.cqf.tooling.measure.adapters;
 
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.WeakHashMap;
 
 import org.hl7.fhir.instance.model.api.IBaseBundle;
 import org.hl7.fhir.instance.model.api.IBaseResource;
@@ -11,8 +15,17 @@ import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.rest.client.api.IGenericClient;
 import ca.uhn.fhir.util.BundleUtil;
 
+/**
+ * Loads the content bundle and the test bundle onto the FHIR server before evaluating the measure there.
+ * <p>
+ * A content bundle is posted to each server once, by the first test case that uses that bundle instance; later test
+ * cases, including concurrent ones, only post their test bundle.
+ */
 public class ContentLoadingFhirServerMeasureTestAdapter extends FhirServerMeasureTestAdapter {
 
+    // Content bundle instance -> base urls of the servers it has been posted to
+    private static final Map<IBaseResource, Set<String>> loadedContent = new WeakHashMap<>();
+
     private IBaseResource contentBundle;
 
     public ContentLoadingFhirServerMeasureTestAdapter(FhirContext fhirContext, IGenericClient fhirServer, IBaseResource testBundle, String contentPath) {
@@ -78,7 +91,21 @@ public class ContentLoadingFhirServerMeasureTestAdapter extends FhirServerMeasur
     }
 
     private void ensureContentAndData() {
-        this.postBundle((IBaseBundle)this.contentBundle);
+        this.ensureContent();
         this.postBundle((IBaseBundle)this.testBundle);
     }
+
+    private void ensureContent() {
+        Set<String> servers;
+        synchronized (loadedContent) {
+            servers = loadedContent.computeIfAbsent(this.contentBundle, x -> new HashSet<>());
+        }
+        // Held while posting, so test cases sharing the content wait for it to be loaded rather than post it again
+        synchronized (servers) {
+            if (!servers.contains(this.fhirServer.getServerBase())) {
+                this.postBundle((IBaseBundle)this.contentBundle);
+                servers.add(this.fhirServer.getServerBase());
+            }
+        }
+    }
 }
\ No newline at end of file
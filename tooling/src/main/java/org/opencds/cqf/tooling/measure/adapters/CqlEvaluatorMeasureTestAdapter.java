@@ -1,38 +1,65 @@
 package org.opencds.cqf.tooling.measure.adapters;
 
-import org.apache.commons.lang3.NotImplementedException;
+import java.util.Objects;
+
+import org.hl7.fhir.instance.model.api.IBaseBundle;
 import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.opencds.cqf.tooling.measure.r4.R4LocalMeasureEvaluator;
+import org.opencds.cqf.tooling.utilities.IOUtils;
 
 import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.FhirVersionEnum;
 
+/**
+ * Evaluates the measure under test in process with the CQL engine, using the content bundle's libraries and the test
+ * bundle's resources, so no FHIR server is needed.
+ */
 public class CqlEvaluatorMeasureTestAdapter extends MeasureTestAdapter {
 
-    // private String contentPath;
-    // private IBaseResource contentBundle;
+    private IBaseResource contentBundle;
 
-    /// This guy will eventually run the the cql-evaluator to get the results...
     public CqlEvaluatorMeasureTestAdapter(FhirContext fhirContext, IBaseResource testBundle, IBaseResource contentBundle) {
         super(fhirContext, testBundle);
+        this.contentBundle = Objects.requireNonNull(contentBundle, "contentBundle can not be null");
 
-        // this.contentBundle = contentBundle;
+        validateContentBundle();
     }
 
     public CqlEvaluatorMeasureTestAdapter(FhirContext fhirContext, String testPath, String contentPath) {
         super(fhirContext, testPath);
+        Objects.requireNonNull(contentPath, "contentPath can not be null");
+
+        this.contentBundle = IOUtils.readResource(contentPath, fhirContext);
+
+        if (contentBundle == null) {
+            throw new IllegalArgumentException(String.format("FHIR Resource does not exist at %s", contentPath));
+        }
+
+        validateContentBundle();
+    }
+
+    private void validateContentBundle() {
+        if (!this.contentBundle.fhirType().equals("Bundle") || !(this.contentBundle instanceof IBaseBundle)) {
+            throw new IllegalArgumentException("contentBundle is not a Bundle Resource");
+        }
 
-        // this.contentPath = contentPath;
+        if (this.fhirContext.getVersion().getVersion() != FhirVersionEnum.R4) {
+            throw new IllegalArgumentException("Local measure evaluation is not supported for fhir version: "
+                    + this.fhirContext.getVersion().getVersion().getFhirVersionString());
+        }
     }
 
     @Override
     public IMeasureReportAdapter getActualMeasureReportAdapter() {
-        // 1. Get Measure and Patient Ids from Expected
-        // 2. Run evaluator with Measure, Patient, Content context
-        // 3. Parse the result
-        throw new NotImplementedException();
+        return this.evaluate();
     }
 
     @Override
     protected IMeasureReportAdapter evaluate() {
-        throw new NotImplementedException();
+        R4LocalMeasureEvaluator evaluator = new R4LocalMeasureEvaluator(
+                (org.hl7.fhir.r4.model.Bundle) this.contentBundle, (org.hl7.fhir.r4.model.Bundle) this.testBundle);
+        IBaseResource measureReport = evaluator.evaluate(this.getMeasureId(), this.getPatientId(),
+                this.getPeriodStart(), this.getPeriodEnd());
+        return getMeasureReportAdapter(this.fhirContext, measureReport);
     }
-}
\ No newline at end of file
+}
@@ -1,5 +1,6 @@
 package org.opencds.cqf.tooling.measure.comparer;
 
+import java.math.BigDecimal;
 import java.util.List;
 
 import org.hl7.fhir.Parameters;
@@ -41,7 +42,7 @@ public class MeasureReportComparer {
             boolean foundMatch = false;
             for (IMeasureReportAdapter.Group actualGroup : actualGroups) {
                 if (actualGroup.getName().equals(expectedGroup.getName())) {
-                    if (actualGroup.getScore().compareTo(expectedGroup.getScore()) == 0) {
+                    if (scoresMatch(actualGroup.getScore(), expectedGroup.getScore())) {
                         foundMatch = true;
                         break;
                     }
@@ -60,6 +61,14 @@ public class MeasureReportComparer {
         return results;
     }
 
+    // A group has no score when the subject isn't in its denominator
+    private boolean scoresMatch(BigDecimal actual, BigDecimal expected) {
+        if (actual == null || expected == null) {
+            return actual == expected;
+        }
+        return actual.compareTo(expected) == 0;
+    }
+
     private boolean compareField(java.lang.String fieldName, java.lang.String actual, java.lang.String expected, Parameters results) {
         boolean matches = actual.equals(expected);
         addResultParameter(fieldName, results, matches);
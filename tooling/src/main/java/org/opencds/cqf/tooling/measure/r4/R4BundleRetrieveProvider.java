@@ -0,0 +1,111 @@
+package org.opencds.cqf.tooling.measure.r4;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hl7.fhir.instance.model.api.IIdType;
+import org.hl7.fhir.instance.model.api.IPrimitiveType;
+import org.hl7.fhir.r4.model.CodeableConcept;
+import org.hl7.fhir.r4.model.Coding;
+import org.hl7.fhir.r4.model.Reference;
+import org.hl7.fhir.r4.model.Resource;
+import org.opencds.cqf.cql.engine.model.ModelResolver;
+import org.opencds.cqf.cql.engine.retrieve.RetrieveProvider;
+import org.opencds.cqf.cql.engine.runtime.Code;
+import org.opencds.cqf.cql.engine.runtime.Interval;
+import org.opencds.cqf.cql.engine.terminology.TerminologyProvider;
+import org.opencds.cqf.cql.engine.terminology.ValueSetInfo;
+
+/**
+ * A RetrieveProvider that serves resources held in memory, such as the contents of a measure test bundle.
+ * <p>
+ * Retrieves are filtered by context and by code or value set. Date ranges are not applied here; the translator
+ * leaves date filtering to the where clauses of the query unless retrieve optimization is enabled.
+ */
+public class R4BundleRetrieveProvider implements RetrieveProvider {
+
+    private final Map<String, List<Resource>> resourcesByType = new HashMap<>();
+    private final ModelResolver modelResolver;
+    private final TerminologyProvider terminologyProvider;
+
+    public R4BundleRetrieveProvider(List<Resource> resources, ModelResolver modelResolver, TerminologyProvider terminologyProvider) {
+        for (Resource resource : resources) {
+            resourcesByType.computeIfAbsent(resource.fhirType(), type -> new ArrayList<>()).add(resource);
+        }
+        this.modelResolver = modelResolver;
+        this.terminologyProvider = terminologyProvider;
+    }
+
+    @Override
+    public Iterable<Object> retrieve(String context, String contextPath, Object contextValue, String dataType,
+                                     String templateId, String codePath, Iterable<Code> codes, String valueSet,
+                                     String datePath, String dateLowPath, String dateHighPath, Interval dateRange) {
+        List<Object> results = new ArrayList<>();
+        for (Resource resource : resourcesByType.getOrDefault(dataType, Collections.emptyList())) {
+            if (contextPath != null && contextValue != null
+                    && !idPart(contextValue).equals(idPart(modelResolver.resolvePath(resource, contextPath)))) {
+                continue;
+            }
+            if (codePath != null && (codes != null || valueSet != null)
+                    && !matchesCodes(modelResolver.resolvePath(resource, codePath), codes, valueSet)) {
+                continue;
+            }
+            results.add(resource);
+        }
+        return results;
+    }
+
+    private boolean matchesCodes(Object value, Iterable<Code> codes, String valueSet) {
+        for (Coding coding : getCodings(value)) {
+            if (codes != null) {
+                for (Code code : codes) {
+                    if (code.getCode().equals(coding.getCode())
+                            && (code.getSystem() == null || code.getSystem().equals(coding.getSystem()))) {
+                        return true;
+                    }
+                }
+            } else if (coding.hasCode() && terminologyProvider.in(
+                    new Code().withSystem(coding.getSystem()).withCode(coding.getCode()), new ValueSetInfo().withId(valueSet))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private List<Coding> getCodings(Object value) {
+        List<Coding> codings = new ArrayList<>();
+        if (value instanceof Iterable) {
+            for (Object element : (Iterable<?>) value) {
+                codings.addAll(getCodings(element));
+            }
+        } else if (value instanceof CodeableConcept) {
+            codings.addAll(((CodeableConcept) value).getCoding());
+        } else if (value instanceof Coding) {
+            codings.add((Coding) value);
+        } else if (value instanceof IPrimitiveType) {
+            codings.add(new Coding().setCode(((IPrimitiveType<?>) value).getValueAsString()));
+        }
+        return codings;
+    }
+
+    // Contexts are given as an id or as a reference; compare on the id part of either
+    private static String idPart(Object value) {
+        String id;
+        if (value instanceof Reference) {
+            id = ((Reference) value).getReferenceElement().getIdPart();
+        } else if (value instanceof IIdType) {
+            id = ((IIdType) value).getIdPart();
+        } else if (value instanceof IPrimitiveType) {
+            id = ((IPrimitiveType<?>) value).getValueAsString();
+        } else {
+            id = value == null ? null : value.toString();
+        }
+        if (id == null) {
+            return "";
+        }
+        return id.substring(id.lastIndexOf('/') + 1);
+    }
+}
@@ -0,0 +1,89 @@
+package org.opencds.cqf.tooling.measure.r4;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hl7.fhir.r4.model.ValueSet;
+import org.opencds.cqf.cql.engine.runtime.Code;
+import org.opencds.cqf.cql.engine.terminology.CodeSystemInfo;
+import org.opencds.cqf.cql.engine.terminology.TerminologyProvider;
+import org.opencds.cqf.cql.engine.terminology.ValueSetInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A TerminologyProvider backed by ValueSet resources held in memory.
+ * <p>
+ * A ValueSet's expansion is used when it has one; otherwise the concepts listed explicitly in its compose includes.
+ * Filters and value set imports can't be resolved locally, so value sets that rely on them should be expanded
+ * before they are bundled.
+ */
+public class R4BundleTerminologyProvider implements TerminologyProvider {
+
+    private static final Logger logger = LoggerFactory.getLogger(R4BundleTerminologyProvider.class);
+
+    private final Map<String, List<Code>> codesByUrl = new HashMap<>();
+
+    public R4BundleTerminologyProvider(List<ValueSet> valueSets) {
+        for (ValueSet valueSet : valueSets) {
+            if (!valueSet.hasUrl()) {
+                continue;
+            }
+            List<Code> codes = new ArrayList<>();
+            if (valueSet.hasExpansion()) {
+                addExpansionCodes(valueSet.getExpansion().getContains(), codes);
+            } else {
+                for (ValueSet.ConceptSetComponent include : valueSet.getCompose().getInclude()) {
+                    if (include.hasFilter() || include.hasValueSet()) {
+                        logger.warn("ValueSet {} uses filters or imports, which are not expanded locally", valueSet.getUrl());
+                    }
+                    for (ValueSet.ConceptReferenceComponent concept : include.getConcept()) {
+                        codes.add(new Code().withSystem(include.getSystem()).withVersion(include.getVersion())
+                                .withCode(concept.getCode()).withDisplay(concept.getDisplay()));
+                    }
+                }
+            }
+            codesByUrl.put(valueSet.getUrl(), codes);
+            if (valueSet.hasVersion()) {
+                codesByUrl.put(valueSet.getUrl() + "|" + valueSet.getVersion(), codes);
+            }
+        }
+    }
+
+    private void addExpansionCodes(List<ValueSet.ValueSetExpansionContainsComponent> contains, List<Code> codes) {
+        for (ValueSet.ValueSetExpansionContainsComponent component : contains) {
+            if (component.hasCode()) {
+                codes.add(new Code().withSystem(component.getSystem()).withVersion(component.getVersion())
+                        .withCode(component.getCode()).withDisplay(component.getDisplay()));
+            }
+            addExpansionCodes(component.getContains(), codes);
+        }
+    }
+
+    @Override
+    public boolean in(Code code, ValueSetInfo valueSet) {
+        for (Code candidate : expand(valueSet)) {
+            if (candidate.getCode().equals(code.getCode())
+                    && (code.getSystem() == null || code.getSystem().equals(candidate.getSystem()))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Iterable<Code> expand(ValueSetInfo valueSet) {
+        List<Code> codes = codesByUrl.get(valueSet.getId());
+        if (codes == null) {
+            throw new IllegalArgumentException(String.format("ValueSet %s is not available locally", valueSet.getId()));
+        }
+        return codes;
+    }
+
+    @Override
+    public Code lookup(Code code, CodeSystemInfo codeSystem) {
+        return code;
+    }
+}
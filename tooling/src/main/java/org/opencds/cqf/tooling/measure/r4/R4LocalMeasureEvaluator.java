@@ -0,0 +1,277 @@
+package org.opencds.cqf.tooling.measure.r4;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.cqframework.cql.cql2elm.CqlCompilerException;
+import org.cqframework.cql.cql2elm.CqlCompilerOptions;
+import org.cqframework.cql.cql2elm.LibraryManager;
+import org.cqframework.cql.cql2elm.model.CompiledLibrary;
+import org.cqframework.cql.cql2elm.quick.FhirLibrarySourceProvider;
+import org.cqframework.cql.elm.serializing.ElmLibraryReaderFactory;
+import org.hl7.elm.r1.VersionedIdentifier;
+import org.hl7.fhir.r4.model.Attachment;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.CanonicalType;
+import org.hl7.fhir.r4.model.Library;
+import org.hl7.fhir.r4.model.Measure;
+import org.hl7.fhir.r4.model.MeasureReport;
+import org.hl7.fhir.r4.model.Period;
+import org.hl7.fhir.r4.model.Reference;
+import org.hl7.fhir.r4.model.Resource;
+import org.hl7.fhir.r4.model.ValueSet;
+import org.opencds.cqf.cql.engine.data.CompositeDataProvider;
+import org.opencds.cqf.cql.engine.data.DataProvider;
+import org.opencds.cqf.cql.engine.execution.CqlEngine;
+import org.opencds.cqf.cql.engine.execution.Environment;
+import org.opencds.cqf.cql.engine.execution.EvaluationResult;
+import org.opencds.cqf.cql.engine.fhir.model.R4FhirModelResolver;
+import org.opencds.cqf.cql.engine.model.CachingModelResolverDecorator;
+import org.opencds.cqf.cql.engine.model.ModelResolver;
+import org.opencds.cqf.cql.engine.runtime.DateTime;
+import org.opencds.cqf.cql.engine.runtime.Interval;
+import org.opencds.cqf.tooling.cql.SynchronizedModelManager;
+import org.opencds.cqf.tooling.utilities.ElmUtils;
+
+/**
+ * Evaluates a Measure for a single patient in process, using the CQL engine, the ELM (or CQL) of the libraries in a
+ * content bundle and the resources of a test bundle, and produces an individual MeasureReport.
+ * <p>
+ * Population membership follows the usual proportion measure rules: denominator exclusions are removed from the
+ * denominator, numerator exclusions from the numerator, and denominator exceptions only apply to patients not in the
+ * numerator. The group score is left empty when the patient isn't in the (remaining) denominator.
+ * <p>
+ * The libraries of a content bundle are loaded (and CQL-only libraries translated) once, the first time the bundle is
+ * evaluated, and shared by every evaluation against the same bundle instance, including concurrent ones. Only the data
+ * provider for the test bundle is created per evaluation.
+ */
+public class R4LocalMeasureEvaluator {
+
+    private static final String FHIR_MODEL_URI = "http://hl7.org/fhir";
+    private static final String MEASUREMENT_PERIOD = "Measurement Period";
+    private static final String ELM_JSON = "application/elm+json";
+    private static final String CQL = "text/cql";
+
+    // Keyed by bundle instance; entries are dropped once the bundle is no longer referenced
+    private static final Map<Bundle, Content> contentCache = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final Content content;
+    private final Bundle testBundle;
+
+    public R4LocalMeasureEvaluator(Bundle contentBundle, Bundle testBundle) {
+        this.content = getContent(contentBundle);
+        this.testBundle = testBundle;
+    }
+
+    public MeasureReport evaluate(String measureId, String patientId, Date periodStart, Date periodEnd) {
+        Measure measure = content.measures.stream()
+                .filter(m -> m.getIdElement().getIdPart().equals(measureId))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException(
+                        String.format("Content bundle does not contain Measure %s", measureId)));
+        if (!measure.hasLibrary()) {
+            throw new IllegalArgumentException(String.format("Measure %s does not reference a Library", measureId));
+        }
+        Library primaryLibrary = getLibrary(measure.getLibrary().get(0));
+
+        Set<String> expressions = new LinkedHashSet<>();
+        for (Measure.MeasureGroupComponent group : measure.getGroup()) {
+            for (Measure.MeasureGroupPopulationComponent population : group.getPopulation()) {
+                if (population.getCriteria().hasExpression()) {
+                    expressions.add(population.getCriteria().getExpression());
+                }
+            }
+        }
+
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put(MEASUREMENT_PERIOD, new Interval(toDateTime(periodStart), true, toDateTime(periodEnd), true));
+
+        EvaluationResult result = getEngine().evaluate(
+                new VersionedIdentifier().withId(primaryLibrary.getName()).withVersion(primaryLibrary.getVersion()),
+                expressions, Pair.<String, Object>of("Patient", patientId), parameters);
+
+        MeasureReport report = new MeasureReport();
+        report.setStatus(MeasureReport.MeasureReportStatus.COMPLETE);
+        report.setType(MeasureReport.MeasureReportType.INDIVIDUAL);
+        report.setMeasure("Measure/" + measureId);
+        report.setSubject(new Reference("Patient/" + patientId));
+        report.setPeriod(new Period().setStart(periodStart).setEnd(periodEnd));
+
+        String scoring = measure.getScoring().getCodingFirstRep().getCode();
+        for (Measure.MeasureGroupComponent group : measure.getGroup()) {
+            MeasureReport.MeasureReportGroupComponent reportGroup = report.addGroup();
+            reportGroup.setId(group.getId());
+
+            Map<String, Boolean> membership = new HashMap<>();
+            for (Measure.MeasureGroupPopulationComponent population : group.getPopulation()) {
+                String code = population.getCode().getCodingFirstRep().getCode();
+                boolean member = isMember(result.forExpression(population.getCriteria().getExpression()).value());
+                membership.put(code, member);
+                reportGroup.addPopulation().setCode(population.getCode()).setCount(member ? 1 : 0);
+            }
+
+            if ("proportion".equals(scoring) || "ratio".equals(scoring)) {
+                BigDecimal score = getProportionScore(membership);
+                if (score != null) {
+                    reportGroup.getMeasureScore().setValue(score);
+                }
+            }
+        }
+
+        return report;
+    }
+
+    private static BigDecimal getProportionScore(Map<String, Boolean> membership) {
+        boolean initialPopulation = membership.getOrDefault("initial-population", true);
+        boolean denominator = initialPopulation && membership.getOrDefault("denominator", initialPopulation)
+                && !membership.getOrDefault("denominator-exclusion", false);
+        boolean numerator = denominator && membership.getOrDefault("numerator", false)
+                && !membership.getOrDefault("numerator-exclusion", false);
+        boolean exception = denominator && !numerator && membership.getOrDefault("denominator-exception", false);
+
+        if (!denominator || exception) {
+            return null;
+        }
+        return numerator ? BigDecimal.ONE : BigDecimal.ZERO;
+    }
+
+    private static boolean isMember(Object value) {
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        }
+        if (value instanceof Iterable) {
+            return ((Iterable<?>) value).iterator().hasNext();
+        }
+        return value != null;
+    }
+
+    private CqlEngine getEngine() {
+        R4BundleRetrieveProvider retrieveProvider = new R4BundleRetrieveProvider(
+                getResources(testBundle, Resource.class), content.modelResolver, content.terminologyProvider);
+        Map<String, DataProvider> dataProviders = Collections.singletonMap(
+                FHIR_MODEL_URI, new CompositeDataProvider(content.modelResolver, retrieveProvider));
+
+        return new CqlEngine(new Environment(content.libraryManager, dataProviders, content.terminologyProvider));
+    }
+
+    LibraryManager getLibraryManager() {
+        return content.libraryManager;
+    }
+
+    private static Content getContent(Bundle contentBundle) {
+        synchronized (contentCache) {
+            return contentCache.computeIfAbsent(contentBundle, Content::new);
+        }
+    }
+
+    /**
+     * The parts of an evaluation that depend only on the content bundle.
+     */
+    private static class Content {
+        private final List<Measure> measures;
+        private final List<Library> libraries;
+        private final ModelResolver modelResolver = new CachingModelResolverDecorator(new R4FhirModelResolver());
+        private final R4BundleTerminologyProvider terminologyProvider;
+        private final LibraryManager libraryManager;
+
+        Content(Bundle contentBundle) {
+            measures = getResources(contentBundle, Measure.class);
+            libraries = getResources(contentBundle, Library.class);
+            terminologyProvider = new R4BundleTerminologyProvider(getResources(contentBundle, ValueSet.class));
+            libraryManager = createLibraryManager(libraries);
+        }
+    }
+
+    // Libraries with ELM are loaded as-is; the rest are translated from their CQL up front, so evaluations sharing the
+    // library manager only read its compiled libraries
+    private static LibraryManager createLibraryManager(List<Library> libraries) {
+        Map<VersionedIdentifier, CompiledLibrary> compiledLibraries = new ConcurrentHashMap<>();
+        Map<String, byte[]> cqlByName = new HashMap<>();
+        List<Library> cqlLibraries = new ArrayList<>();
+        for (Library library : libraries) {
+            for (Attachment attachment : library.getContent()) {
+                if (ELM_JSON.equals(attachment.getContentType()) && attachment.hasData()) {
+                    try (InputStream elm = new ByteArrayInputStream(attachment.getData())) {
+                        CompiledLibrary compiledLibrary = ElmUtils.generateCompiledLibrary(
+                                ElmLibraryReaderFactory.getReader(ELM_JSON).read(elm));
+                        if (compiledLibrary != null) {
+                            VersionedIdentifier identifier = compiledLibrary.getIdentifier();
+                            compiledLibraries.put(new VersionedIdentifier().withId(identifier.getId())
+                                    .withVersion(identifier.getVersion()), compiledLibrary);
+                        }
+                    } catch (IOException e) {
+                        throw new IllegalArgumentException(String.format("Unable to read the ELM of Library %s", library.getName()), e);
+                    }
+                } else if (CQL.equals(attachment.getContentType()) && attachment.hasData()) {
+                    cqlByName.put(library.getName(), attachment.getData());
+                    cqlLibraries.add(library);
+                }
+            }
+        }
+
+        LibraryManager libraryManager = new LibraryManager(new SynchronizedModelManager(), CqlCompilerOptions.defaultOptions(), compiledLibraries);
+        libraryManager.getLibrarySourceLoader().registerProvider(new FhirLibrarySourceProvider());
+        libraryManager.getLibrarySourceLoader().registerProvider(identifier ->
+                cqlByName.containsKey(identifier.getId()) ? new ByteArrayInputStream(cqlByName.get(identifier.getId())) : null);
+
+        for (Library library : cqlLibraries) {
+            VersionedIdentifier identifier = new VersionedIdentifier().withId(library.getName()).withVersion(library.getVersion());
+            if (!compiledLibraries.containsKey(identifier)) {
+                List<CqlCompilerException> errors = new ArrayList<>();
+                libraryManager.resolveLibrary(identifier, errors);
+                for (CqlCompilerException error : errors) {
+                    if (error.getSeverity() == CqlCompilerException.ErrorSeverity.Error) {
+                        throw new IllegalArgumentException(String.format("Unable to translate the CQL of Library %s: %s",
+                                library.getName(), error.getMessage()), error);
+                    }
+                }
+            }
+        }
+        return libraryManager;
+    }
+
+    private Library getLibrary(CanonicalType canonical) {
+        String url = canonical.getValue();
+        String version = null;
+        if (url.contains("|")) {
+            version = url.substring(url.indexOf('|') + 1);
+            url = url.substring(0, url.indexOf('|'));
+        }
+        for (Library library : content.libraries) {
+            if ((url.equals(library.getUrl()) || url.endsWith("/" + library.getIdElement().getIdPart()))
+                    && (version == null || version.equals(library.getVersion()))) {
+                return library;
+            }
+        }
+        throw new IllegalArgumentException(String.format("Content bundle does not contain Library %s", canonical.getValue()));
+    }
+
+    private static <T extends Resource> List<T> getResources(Bundle bundle, Class<T> type) {
+        List<T> resources = new ArrayList<>();
+        for (Bundle.BundleEntryComponent entry : bundle.getEntry()) {
+            if (type.isInstance(entry.getResource())) {
+                resources.add(type.cast(entry.getResource()));
+            }
+        }
+        return resources;
+    }
+
+    private static DateTime toDateTime(Date date) {
+        return new DateTime(OffsetDateTime.ofInstant(date.toInstant(), ZoneId.systemDefault()));
+    }
+}
@@ -9,7 +9,6 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 
 import com.google.common.io.Files;
 
@@ -19,6 +18,7 @@ import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.r4.model.Bundle;
 import org.hl7.fhir.r4.model.CapabilityStatement;
 import org.hl7.fhir.r4.model.CodeSystem;
+import org.hl7.fhir.r4.model.CodeType;
 import org.hl7.fhir.r4.model.CompartmentDefinition;
 import org.hl7.fhir.r4.model.ConceptMap;
 import org.hl7.fhir.r4.model.ImplementationGuide;
@@ -47,6 +47,7 @@ public class Atlas {
         structureDefinitions = new HashMap<>();
         operationDefinitions = new HashMap<>();
         searchParameters = new HashMap<>();
+        searchParametersByBase = new HashMap<>();
         implementationGuides = new HashMap<>();
         codeSystems = new HashMap<>();
         valueSets = new HashMap<>();
@@ -84,12 +85,12 @@ public class Atlas {
         return searchParameters;
     }
 
-    public SearchParameter resolveSearchParameter(String resourceTypeName, String searchParameterName) {
-        Optional<SearchParameter> result =
-            searchParameters.values().stream().filter(x -> x.getBase().stream().anyMatch(t -> t.toString().equals(resourceTypeName))
-                && x.getName().equals(searchParameterName)).findFirst();
+    // SearchParameters by base resource type and name
+    private Map<String, Map<String, SearchParameter>> searchParametersByBase;
 
-        return result.isPresent() ? result.get() : null;
+    public SearchParameter resolveSearchParameter(String resourceTypeName, String searchParameterName) {
+        Map<String, SearchParameter> result = searchParametersByBase.get(resourceTypeName);
+        return result != null ? result.get(searchParameterName) : null;
     }
 
     private Map<String, ImplementationGuide> implementationGuides;
@@ -220,6 +221,12 @@ public class Atlas {
             String id = CanonicalUtils.getTail(searchParameter.getUrl());
             if (!searchParameters.containsKey(id)) {
                 searchParameters.put(id, searchParameter);
+                if (searchParameter.hasName()) {
+                    for (CodeType base : searchParameter.getBase()) {
+                        searchParametersByBase.computeIfAbsent(base.getValue(), k -> new HashMap<>())
+                                .putIfAbsent(searchParameter.getName(), searchParameter);
+                    }
+                }
             }
             else {
                 logger.info("Duplicate SearchParameter with id {}", id);
@@ -27,6 +27,8 @@ public abstract class ClassInfoBuilder {
     protected Map<String, TypeInfo> typeInfos = new HashMap<String, TypeInfo>();
     protected Map<String, String> typeTargets = new HashMap<String, String>();
     protected Set<String> requiredBindingTypeNames = new HashSet<String>();
+    // Position of each element by name in the element list of a ClassInfo, keyed by list identity
+    private Map<List<ClassInfoElement>, Map<String, Integer>> elementIndexes = new IdentityHashMap<>();
     protected ClassInfoSettings settings;
 
     public ClassInfoBuilder(ClassInfoSettings settings, Map<String, StructureDefinition> structureDefinitions) {
@@ -416,20 +418,6 @@ public abstract class ClassInfoBuilder {
         return null;
     }
 
-    // Returns the element definition for the given path
-    @SuppressWarnings("unused")
-    private ElementDefinition elementForPath(List<ElementDefinition> elements, String path) {
-        if (elements != null) {
-            for (ElementDefinition ed : elements) {
-                if (ed.getPath().equals(path)) {
-                    return ed;
-                }
-            }
-        }
-
-        return null;
-    }
-
     // Returns the given extension if it exists
     private Extension extension(Element element, String url) {
         if (element != null) {
@@ -494,10 +482,19 @@ public abstract class ClassInfoBuilder {
     }
 
     // Returns the element with the given name, if it exists
+    // The index is kept current where this builder adds elements; an entry that no longer matches the list (the list
+    // was changed elsewhere), or a name that is not indexed, falls back to a scan of the list, which reindexes it
     private ClassInfoElement element(List<ClassInfoElement> elements, String name) {
         if (elements != null) {
+            Map<String, Integer> index = elementIndexes.get(elements);
+            Integer position = index != null ? index.get(name) : null;
+            if (position != null && position < elements.size() && elements.get(position).getName().equals(name)) {
+                return elements.get(position);
+            }
+
             for (ClassInfoElement cie : elements) {
                 if (cie.getName().equals(name)) {
+                    indexElements(elements);
                     return cie;
                 }
             }
@@ -506,6 +503,29 @@ public abstract class ClassInfoBuilder {
         return null;
     }
 
+    // Rebuilds the name index of the given element list
+    private void indexElements(List<ClassInfoElement> elements) {
+        Map<String, Integer> index = new HashMap<>();
+        for (int i = 0; i < elements.size(); i++) {
+            // The first element with a given name wins, as with a scan of the list
+            index.putIfAbsent(elements.get(i).getName(), i);
+        }
+        elementIndexes.put(elements, index);
+    }
+
+    // Adds the element to the given type, keeping the name index of its elements current
+    private void addElement(ClassInfo classInfo, ClassInfoElement element) {
+        List<ClassInfoElement> elements = classInfo.getElement();
+        elements.add(element);
+        Map<String, Integer> index = elementIndexes.get(elements);
+        if (index != null) {
+            index.putIfAbsent(element.getName(), elements.size() - 1);
+        }
+        else {
+            indexElements(elements);
+        }
+    }
+
     //This is the start of the impactful logic... the above are mostly helper functions
 
     // Returns the element with the given path
@@ -872,6 +892,7 @@ public abstract class ClassInfoBuilder {
 
                         ClassInfo info = new ClassInfo().withName(typeName).withNamespace(modelName).withLabel(null).withBaseType(modelName + ".Element")
                                 .withRetrievable(false).withElement(elements).withPrimaryCodePath(null);
+                        indexElements(info.getElement());
 
                         this.typeInfos.put(this.getTypeName(modelName, typeName), info);
                     }
@@ -1230,6 +1251,7 @@ public abstract class ClassInfoBuilder {
                 ClassInfo componentClassInfo = new ClassInfo().withNamespace(modelName).withName(typeName).withLabel(null)
                         .withBaseType(modelName + (isBackboneElement(typeDefinition) ? ".BackboneElement" : ".Element"))
                         .withRetrievable(false).withElement(elements).withPrimaryCodePath(null);
+                indexElements(componentClassInfo.getElement());
 
                 this.typeInfos.put(this.getTypeName(modelName, typeName), componentClassInfo);
 
@@ -1249,7 +1271,7 @@ public abstract class ClassInfoBuilder {
                     ClassInfo elementClassInfo = (ClassInfo)elementTypeInfo;
                     for (ClassInfoElement slice : slices.getSlices()) {
                         logger.info(String.format("Adding slice %s to constructed type %s.", slice.getName(), elementClassInfo.getName()));
-                        elementClassInfo.getElement().add(slice);
+                        addElement(elementClassInfo, slice);
                     }
                     slices.getSlices().clear();
                 }
@@ -1349,10 +1371,11 @@ public abstract class ClassInfoBuilder {
                         this.typeInfos.put(qualifiedTypeName, elementType);
                     }
 
+                    Set<String> elementNames = elementType.getElement().stream().map(ClassInfoElement::getName).collect(Collectors.toSet());
                     for (ClassInfoElement slice : slices.getSlices()) {
                         logger.info(String.format("Adding slice %s to derived type %s", slice.getName(), qualifiedTypeName));
-                        if (elementType.getElement().stream().noneMatch(x -> x.getName().equals(slice.getName()))) {
-                            elementType.getElement().add(slice);
+                        if (elementNames.add(slice.getName())) {
+                            addElement(elementType, slice);
                         } else {
                             logger.warn(String.format("WARNING: Duplicate element %s not added to derived type %s", slice.getName(), qualifiedTypeName));
                         }
@@ -1467,6 +1490,7 @@ public abstract class ClassInfoBuilder {
             info.withBaseType(baseTypeName == null ? "System.Any" : baseTypeName) // The base of all types in CQL is System.Any
                     .withElement(elements)
                     .withPrimaryCodePath(this.primaryCodePath(elements, typeName));
+            indexElements(info.getElement());
         }
 
         logger.info(String.format("Done building ClassInfo for %s", typeName));
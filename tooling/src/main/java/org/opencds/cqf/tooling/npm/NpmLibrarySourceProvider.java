@@ -8,7 +8,6 @@ import java.util.List;
 import org.cqframework.cql.cql2elm.LibrarySourceProvider;
 import org.hl7.elm.r1.VersionedIdentifier;
 import org.hl7.fhir.r5.context.IWorkerContext;
-import org.hl7.fhir.r5.model.Library;
 import org.hl7.fhir.utilities.npm.NpmPackage;
 
 /**
@@ -43,17 +42,13 @@ public class NpmLibrarySourceProvider implements LibrarySourceProvider {
                     libraryIdentifier.setSystem(p.canonical());
                 }
 
-                InputStream s = p.loadByCanonicalVersion(libraryIdentifier.getSystem()+"/Library/"+libraryIdentifier.getId(), libraryIdentifier.getVersion());
-                if (s != null) {
-                    Library l = reader.readLibrary(s);
-                    for (org.hl7.fhir.r5.model.Attachment a : l.getContent()) {
-                        if (a.getContentType() != null && a.getContentType().equals("text/cql")) {
-                            if (identifier.getSystem() == null) {
-                                identifier.setSystem(libraryIdentifier.getSystem());
-                            }
-                            return new ByteArrayInputStream(a.getData());
-                        }
+                byte[] cql = NpmPackageIndex.forPackage(p).getLibraryContent(
+                        p, libraryIdentifier.getSystem()+"/Library/"+libraryIdentifier.getId(), libraryIdentifier.getVersion(), "text/cql", reader);
+                if (cql != null) {
+                    if (identifier.getSystem() == null) {
+                        identifier.setSystem(libraryIdentifier.getSystem());
                     }
+                    return new ByteArrayInputStream(cql);
                 }
             } catch (IOException e) {
                 logger.logDebugMessage(IWorkerContext.ILoggingService.LogCategory.PROGRESS, String.format("Exceptions occurred attempting to load npm library source for %s", identifier.toString()));
@@ -2,7 +2,6 @@ package org.opencds.cqf.tooling.npm;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.List;
 
 import org.hl7.cql.model.ModelIdentifier;
@@ -10,7 +9,6 @@ import org.hl7.cql.model.ModelInfoProvider;
 import org.hl7.elm.r1.VersionedIdentifier;
 import org.hl7.elm_modelinfo.r1.ModelInfo;
 import org.hl7.fhir.r5.context.IWorkerContext;
-import org.hl7.fhir.r5.model.Library;
 import org.hl7.fhir.utilities.npm.NpmPackage;
 
 import jakarta.xml.bind.JAXB;
@@ -45,18 +43,13 @@ public class NpmModelInfoProvider implements ModelInfoProvider {
                     identifier.setSystem(p.canonical());
                 }
 
-                InputStream s = p.loadByCanonicalVersion(identifier.getSystem()+"/Library/"+identifier.getId()+"-ModelInfo", identifier.getVersion());
-                if (s != null) {
-                    Library l = reader.readLibrary(s);
-                    for (org.hl7.fhir.r5.model.Attachment a : l.getContent()) {
-                        if (a.getContentType() != null && a.getContentType().equals("application/xml")) {
-                            if (modelIdentifier.getSystem() == null) {
-                                modelIdentifier.setSystem(identifier.getSystem());
-                            }
-                            InputStream is = new ByteArrayInputStream(a.getData());
-                            return JAXB.unmarshal(is, ModelInfo.class);
-                        }
+                byte[] modelInfo = NpmPackageIndex.forPackage(p).getLibraryContent(
+                        p, identifier.getSystem()+"/Library/"+identifier.getId()+"-ModelInfo", identifier.getVersion(), "application/xml", reader);
+                if (modelInfo != null) {
+                    if (modelIdentifier.getSystem() == null) {
+                        modelIdentifier.setSystem(identifier.getSystem());
                     }
+                    return JAXB.unmarshal(new ByteArrayInputStream(modelInfo), ModelInfo.class);
                 }
             } catch (IOException e) {
                 logger.logDebugMessage(IWorkerContext.ILoggingService.LogCategory.PROGRESS, String.format("Exceptions occurred attempting to load npm library for model %s", modelIdentifier.toString()));
@@ -0,0 +1,87 @@
+package org.opencds.cqf.tooling.npm;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.hl7.fhir.utilities.npm.NpmPackage;
+
+/**
+ * The packages loaded from package cache folders, kept for the life of the process.
+ * <p>
+ * Every NpmPackageManager loads the core package and each dependency again, through a new FilesystemPackageCacheManager
+ * or from the folders recorded in a dependency snapshot, which reads the package and resource indexes of each folder.
+ * In a long running process (see the CLI's daemon mode) the same packages are loaded by every run. Loaded packages are
+ * kept here by folder, with the fingerprint of the folder's files (see {@link NpmPackageSnapshot#getFingerprint}), and
+ * reused for as long as the folder is unchanged; a folder that has changed is loaded again. Packages are also found by
+ * the id and version they were requested with, so a run can skip the package cache manager altogether.
+ */
+class NpmPackageCache {
+
+    private static final Map<String, CachedPackage> packagesByFolder = new ConcurrentHashMap<>();
+    private static final Map<String, String> foldersByIdAndVersion = new ConcurrentHashMap<>();
+
+    private static class CachedPackage {
+        private final String fingerprint;
+        private final NpmPackage npmPackage;
+
+        CachedPackage(String fingerprint, NpmPackage npmPackage) {
+            this.fingerprint = fingerprint;
+            this.npmPackage = npmPackage;
+        }
+    }
+
+    private NpmPackageCache() {
+
+    }
+
+    /**
+     * @return The package last loaded for the given id and version, if its folder is unchanged since, otherwise null.
+     */
+    static NpmPackage get(String id, String version) {
+        String folder = foldersByIdAndVersion.get(id + "#" + version);
+        if (folder == null) {
+            return null;
+        }
+        CachedPackage cached = packagesByFolder.get(folder);
+        if (cached == null || !cached.fingerprint.equals(NpmPackageSnapshot.getFingerprint(folder))) {
+            packagesByFolder.remove(folder);
+            foldersByIdAndVersion.remove(id + "#" + version);
+            return null;
+        }
+        return cached.npmPackage;
+    }
+
+    /**
+     * Records a package loaded for the given id and version. Packages that weren't loaded from a folder aren't kept.
+     */
+    static void put(String id, String version, NpmPackage npmPackage) {
+        String folder = npmPackage.getPath();
+        String fingerprint = folder == null ? null : NpmPackageSnapshot.getFingerprint(folder);
+        if (fingerprint == null) {
+            return;
+        }
+        packagesByFolder.put(folder, new CachedPackage(fingerprint, npmPackage));
+        foldersByIdAndVersion.put(id + "#" + version, folder);
+    }
+
+    /**
+     * @param fingerprint The fingerprint of the folder's files, already computed by the caller
+     * @return The package kept for the folder if it has the same fingerprint, otherwise the package loaded from the
+     * folder, which is then kept.
+     */
+    static NpmPackage fromFolder(String folder, String fingerprint) throws IOException {
+        CachedPackage cached = packagesByFolder.get(folder);
+        if (cached != null && cached.fingerprint.equals(fingerprint)) {
+            return cached.npmPackage;
+        }
+        NpmPackage npmPackage = NpmPackage.fromFolder(folder);
+        packagesByFolder.put(folder, new CachedPackage(fingerprint, npmPackage));
+        return npmPackage;
+    }
+
+    static void clear() {
+        packagesByFolder.clear();
+        foldersByIdAndVersion.clear();
+    }
+}
@@ -0,0 +1,134 @@
+package org.opencds.cqf.tooling.npm;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.hl7.fhir.r5.model.Attachment;
+import org.hl7.fhir.r5.model.Library;
+import org.hl7.fhir.utilities.npm.NpmPackage;
+
+/**
+ * An index of the Library resources in an Npm package by canonical url, and a cache of their decoded content.
+ * <p>
+ * {@link NpmPackage#loadByCanonicalVersion} scans the package index on every call, and the library source and model
+ * info providers then parse the whole Library to find one attachment. The index is built once per package from the
+ * package's own resource index, and each Library is read at most once: the data of its CQL and model info
+ * attachments is kept by content type, so later lookups for the same library (from any provider over the same
+ * package) are map lookups. Other attachments, such as ELM, are not kept.
+ * <p>
+ * Indexes are held weakly by package and keep no reference back to it, so an index is released together with its
+ * package; the package is passed in to each content lookup instead.
+ */
+class NpmPackageIndex {
+
+    private static final Set<String> CACHED_CONTENT_TYPES = new HashSet<>(Arrays.asList("text/cql", "application/xml"));
+
+    private static final Map<NpmPackage, NpmPackageIndex> indexes = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final Map<String, List<LibraryEntry>> librariesByUrl = new HashMap<>();
+    // Attachment data by content type, keyed by the file the Library was read from
+    private final Map<String, Optional<Map<String, byte[]>>> contentByFile = new ConcurrentHashMap<>();
+
+    private NpmPackageIndex(NpmPackage npmPackage) throws IOException {
+        for (NpmPackage.PackageResourceInformation resource : npmPackage.listIndexedResources("Library")) {
+            if (resource.getUrl() != null) {
+                librariesByUrl.computeIfAbsent(resource.getUrl(), url -> new ArrayList<>())
+                        .add(new LibraryEntry(resource.getVersion(), resource.getFilename()));
+            }
+        }
+    }
+
+    static NpmPackageIndex forPackage(NpmPackage npmPackage) throws IOException {
+        synchronized (indexes) {
+            NpmPackageIndex index = indexes.get(npmPackage);
+            if (index == null) {
+                index = new NpmPackageIndex(npmPackage);
+                indexes.put(npmPackage, index);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Returns the data of the first attachment with the given content type in the Library with the given canonical url
+     * and version. When no version is given, the first Library with the url in the package index is used, as
+     * {@link NpmPackage#loadByCanonicalVersion} does. Returns null if the package has no such Library, or the Library
+     * has no such attachment. The package must be the one this index was built for.
+     */
+    byte[] getLibraryContent(NpmPackage npmPackage, String url, String version, String contentType,
+                             ILibraryReader reader) throws IOException {
+        LibraryEntry entry = getLibrary(url, version);
+        if (entry == null) {
+            return null;
+        }
+
+        if (!CACHED_CONTENT_TYPES.contains(contentType)) {
+            return readContent(npmPackage, url, entry, reader, Collections.singleton(contentType))
+                    .map(c -> c.get(contentType)).orElse(null);
+        }
+        Optional<Map<String, byte[]>> content = contentByFile.get(entry.filename);
+        if (content == null) {
+            content = readContent(npmPackage, url, entry, reader, CACHED_CONTENT_TYPES);
+            contentByFile.putIfAbsent(entry.filename, content);
+        }
+        return content.map(c -> c.get(contentType)).orElse(null);
+    }
+
+    // The entry is the first Library in the package index with its url and version, which is the one
+    // loadByCanonicalVersion returns for them; this only runs once per Library for the cached content types.
+    private Optional<Map<String, byte[]>> readContent(NpmPackage npmPackage, String url, LibraryEntry entry,
+                                                      ILibraryReader reader, Set<String> contentTypes) throws IOException {
+        try (InputStream s = npmPackage.loadByCanonicalVersion(url, entry.version)) {
+            if (s == null) {
+                return Optional.empty();
+            }
+            Library library = reader.readLibrary(s);
+            if (library == null) {
+                return Optional.empty();
+            }
+            Map<String, byte[]> content = new HashMap<>();
+            for (Attachment a : library.getContent()) {
+                if (contentTypes.contains(a.getContentType()) && a.getData() != null) {
+                    content.putIfAbsent(a.getContentType(), a.getData());
+                }
+            }
+            return Optional.of(content);
+        }
+    }
+
+    private LibraryEntry getLibrary(String url, String version) {
+        List<LibraryEntry> candidates = librariesByUrl.get(url);
+        if (candidates == null) {
+            return null;
+        }
+        for (LibraryEntry candidate : candidates) {
+            if (version == null || version.equals(candidate.version)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    // Only the values needed to find the Library again: PackageResourceInformation is an inner class of
+    // NpmPackage, and holding it here would keep the package strongly reachable from the index.
+    private static class LibraryEntry {
+        private final String version;
+        private final String filename;
+
+        private LibraryEntry(String version, String filename) {
+            this.version = version;
+            this.filename = filename;
+        }
+    }
+}
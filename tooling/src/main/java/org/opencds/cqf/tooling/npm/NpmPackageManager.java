@@ -6,7 +6,9 @@ import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.hl7.fhir.convertors.advisors.impl.BaseAdvisor_40_50;
 import org.hl7.fhir.convertors.conv40_50.VersionConvertor_40_50;
@@ -32,6 +34,8 @@ public class NpmPackageManager {
 
     private FilesystemPackageCacheManager pcm;
     private List<NpmPackage> npmList = new ArrayList<>();
+    // ImplementationGuide url read from the IG resources of a dependency package, by package id
+    private Map<String, String> igUrls = new HashMap<>();
 
     public List<NpmPackage> getNpmList() {
         return npmList;
@@ -69,6 +73,14 @@ public class NpmPackageManager {
     }
 
     public NpmPackageManager(ImplementationGuide sourceIg, String version) {
+        this(sourceIg, version, null);
+    }
+
+    /*
+     * @param snapshotDirectory Directory in which the resolved dependencies are recorded, so later runs with the same
+     * dependencies and an unchanged package cache can skip resolution; null to always resolve
+     */
+    public NpmPackageManager(ImplementationGuide sourceIg, String version, String snapshotDirectory) {
         if (version == null || version.equals("")) {
             throw new IllegalArgumentException("version is required");
         }
@@ -81,12 +93,16 @@ public class NpmPackageManager {
 
         this.sourceIg = sourceIg;
 
-        try {
-            // userMode indicates whether the packageCache is within the working directory
-            // or in the user home
-            pcm = new FilesystemPackageCacheManager(true);
-        } catch (IOException e) {
-            throw new NpmPackageManagerException("error creating the FilesystemPackageCacheManager", e);
+        NpmPackageSnapshot snapshot = snapshotDirectory == null
+                ? null : new NpmPackageSnapshot(snapshotDirectory, sourceIg, version);
+        if (snapshot != null) {
+            List<NpmPackage> packages = snapshot.load();
+            if (packages != null) {
+                npmList.addAll(packages);
+                igUrls.putAll(snapshot.getIgUrls());
+                warnNonCanonicalDependencyUris();
+                return;
+            }
         }
 
         loadCorePackage();
@@ -101,6 +117,24 @@ public class NpmPackageManager {
                 throw new NpmPackageManagerException(String.format("Error loading IG dependency %s", dep.getId()), e);
             }
         }
+
+        if (snapshot != null) {
+            snapshot.save(npmList, igUrls);
+        }
+    }
+
+    // Created when a package isn't already loaded (see NpmPackageCache)
+    private FilesystemPackageCacheManager getPackageCacheManager() {
+        if (pcm == null) {
+            try {
+                // userMode indicates whether the packageCache is within the working directory
+                // or in the user home
+                pcm = new FilesystemPackageCacheManager(true);
+            } catch (IOException e) {
+                throw new NpmPackageManagerException("error creating the FilesystemPackageCacheManager", e);
+            }
+        }
+        return pcm;
     }
 
     private void loadCorePackage() {
@@ -109,14 +143,19 @@ public class NpmPackageManager {
         String v = version.equals(Constants.VERSION) ? "current" : version;
 
         logger.info("Core Package {}#{}", VersionUtilities.packageForVersion(v), v);
+        pi = NpmPackageCache.get(VersionUtilities.packageForVersion(v), v);
+        if (pi != null) {
+            npmList.add(pi);
+            return;
+        }
         try {
-            pi = pcm.loadPackage(VersionUtilities.packageForVersion(v), v);
+            pi = getPackageCacheManager().loadPackage(VersionUtilities.packageForVersion(v), v);
         } catch (Exception e) {
             try {
                 logger.warn(String.format("First attempt at loading Core Package %s#%s failed", VersionUtilities.packageForVersion(v), v), e);
                 // Appears to be race condition in FHIR core where they are
                 // loading a custom cert provider.
-                pi = pcm.loadPackage(VersionUtilities.packageForVersion(v), v);
+                pi = getPackageCacheManager().loadPackage(VersionUtilities.packageForVersion(v), v);
             } catch (Exception ex) {
                 logger.error(String.format("Second attempt at loading Core Package %s#%s failed", VersionUtilities.packageForVersion(v), v), ex);
                 throw new NpmPackageManagerException("Error loading core package", ex);
@@ -129,6 +168,7 @@ public class NpmPackageManager {
         if (v.equals("current")) {
             throw new IllegalArgumentException("Current core package not supported");
         }
+        NpmPackageCache.put(VersionUtilities.packageForVersion(v), v, pi);
         npmList.add(pi);
     }
 
@@ -146,9 +186,9 @@ public class NpmPackageManager {
         String canonical = determineCanonical(dep.getUri(), "ImplementationGuide.dependency[" + index + "].url");
         String packageId = dep.getPackageId();
         if (Utilities.noString(packageId))
-            packageId = pcm.getPackageId(canonical);
+            packageId = getPackageCacheManager().getPackageId(canonical);
         if (Utilities.noString(canonical) && !Utilities.noString(packageId))
-            canonical = pcm.getPackageUrl(packageId);
+            canonical = getPackageCacheManager().getPackageUrl(packageId);
         if (Utilities.noString(canonical))
             throw new IllegalArgumentException("You must specify a canonical URL for the IG " + name);
         String igver = dep.getVersion();
@@ -156,7 +196,13 @@ public class NpmPackageManager {
             throw new IllegalArgumentException(
                     "You must specify a version for the IG " + packageId + " (" + canonical + ")");
 
-        NpmPackage pi = pcm.loadPackage(packageId, igver);
+        NpmPackage pi = Utilities.noString(packageId) ? null : NpmPackageCache.get(packageId, igver);
+        if (pi == null) {
+            pi = getPackageCacheManager().loadPackage(packageId, igver);
+            if (pi != null) {
+                NpmPackageCache.put(packageId, igver, pi);
+            }
+        }
         if (pi == null) {
             logger.warn("Dependency " + name + " (" + canonical + ") not found by FilesystemPackageCacheManager");
             pi = resolveDependency(canonical, packageId, igver);
@@ -177,6 +223,23 @@ public class NpmPackageManager {
         if (dep.hasUri() && !dep.getUri().contains("/ImplementationGuide/")) {
             String cu = getIgUri(pi);
             if (cu != null) {
+                igUrls.put(pi.name(), cu);
+                logger.warn("The correct canonical URL for this dependency is " + cu);
+            }
+        }
+    }
+
+    /*
+     * Repeats the warnings loadIg gives for dependencies that don't name their ImplementationGuide resource, using the IG
+     * urls recorded in the snapshot instead of reading them from the packages again
+     */
+    private void warnNonCanonicalDependencyUris() {
+        List<ImplementationGuide.ImplementationGuideDependsOnComponent> deps = sourceIg.getDependsOn();
+        // npmList holds the core package followed by one package per dependency, in order
+        for (int i = 0; i < deps.size() && i + 1 < npmList.size(); i++) {
+            ImplementationGuide.ImplementationGuideDependsOnComponent dep = deps.get(i);
+            String cu = igUrls.get(npmList.get(i + 1).name());
+            if (dep.hasUri() && !dep.getUri().contains("/ImplementationGuide/") && cu != null) {
                 logger.warn("The correct canonical URL for this dependency is " + cu);
             }
         }
@@ -228,7 +291,7 @@ public class NpmPackageManager {
 
     private NpmPackage resolveDependency(String canonical, String packageId, String igver) throws IOException {
         if (packageId != null)
-            return pcm.loadPackage(packageId, igver);
+            return getPackageCacheManager().loadPackage(packageId, igver);
 
         JsonObject pl;
         logger.debug("Fetch Package history from " + Utilities.pathURL(canonical, "package-list.json"));
@@ -246,7 +309,7 @@ public class NpmPackageManager {
             if (igver.equals(o.get("version").getAsString())) {
                 InputStream src = fetchFromSource(pl.get("package-id").getAsString() + "-" + igver,
                         Utilities.pathURL(o.get("path").getAsString(), "package.tgz"));
-                return pcm.addPackageToCache(pl.get("package-id").getAsString(), igver, src,
+                return getPackageCacheManager().addPackageToCache(pl.get("package-id").getAsString(), igver, src,
                         Utilities.pathURL(o.get("path").getAsString(), "package.tgz"));
             }
         }
@@ -0,0 +1,170 @@
+package org.opencds.cqf.tooling.npm;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.hl7.fhir.r5.model.ImplementationGuide;
+import org.hl7.fhir.utilities.npm.NpmPackage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * A record of the packages an IG's dependencies resolved to, kept on disk so later runs can skip resolution.
+ * <p>
+ * Resolving the core package and each dependsOn IG through the FilesystemPackageCacheManager looks up package ids,
+ * may consult package servers, and reads the IG resources of each package; none of this changes between runs unless
+ * the dependencies or the package cache do. A snapshot is keyed by the FHIR version and the IG's dependsOn entries, so
+ * editing the dependencies selects a different snapshot. It records the folder each package was loaded from, a
+ * fingerprint of the files in it (their paths, sizes and modification times) and the ImplementationGuide url read from
+ * the package's IG resources, and is only used when every folder is still there with the same files; otherwise the
+ * dependencies are resolved as usual and the snapshot rewritten.
+ */
+class NpmPackageSnapshot {
+
+    private static final Logger logger = LoggerFactory.getLogger(NpmPackageSnapshot.class);
+
+    private static final int FORMAT_VERSION = 2;
+
+    // Written by NpmPackage itself when it indexes a folder, so not part of the package content
+    private static final String INDEX_FILE_PREFIX = ".index.";
+
+    private final Path file;
+    private final Map<String, String> igUrls = new HashMap<>();
+
+    NpmPackageSnapshot(String directory, ImplementationGuide sourceIg, String fhirVersion) {
+        StringBuilder key = new StringBuilder().append(FORMAT_VERSION).append('|').append(fhirVersion);
+        for (ImplementationGuide.ImplementationGuideDependsOnComponent dep : sourceIg.getDependsOn()) {
+            key.append('|').append(dep.getId()).append('|').append(dep.getUri())
+                    .append('|').append(dep.getPackageId()).append('|').append(dep.getVersion());
+        }
+        this.file = Paths.get(directory, DigestUtils.sha256Hex(key.toString()) + ".json");
+    }
+
+    /**
+     * @return The packages recorded in the snapshot, in resolution order, or null if there is no snapshot or any of its
+     * packages has changed or moved since it was taken. The IG urls recorded with the packages are then available from
+     * {@link #getIgUrls()}.
+     */
+    List<NpmPackage> load() {
+        igUrls.clear();
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try {
+            JsonObject snapshot = JsonParser.parseString(
+                    new String(Files.readAllBytes(file), StandardCharsets.UTF_8)).getAsJsonObject();
+            if (snapshot.get("formatVersion").getAsInt() != FORMAT_VERSION) {
+                return null;
+            }
+            List<NpmPackage> packages = new ArrayList<>();
+            for (JsonElement element : snapshot.getAsJsonArray("packages")) {
+                JsonObject entry = element.getAsJsonObject();
+                String path = entry.get("path").getAsString();
+                String fingerprint = getFingerprint(path);
+                if (fingerprint == null || !fingerprint.equals(entry.get("fingerprint").getAsString())) {
+                    logger.info("Package {}#{} has changed since the dependency snapshot was taken",
+                            entry.get("id").getAsString(), entry.get("version").getAsString());
+                    igUrls.clear();
+                    return null;
+                }
+                packages.add(NpmPackageCache.fromFolder(path, fingerprint));
+                if (entry.has("igUrl")) {
+                    igUrls.put(entry.get("id").getAsString(), entry.get("igUrl").getAsString());
+                }
+            }
+            logger.info("Loaded {} packages from dependency snapshot {}", packages.size(), file);
+            return packages;
+        } catch (Exception e) {
+            logger.warn("Ignoring unreadable dependency snapshot {}: {}", file, e.getMessage());
+            igUrls.clear();
+            return null;
+        }
+    }
+
+    /**
+     * @return The ImplementationGuide url of each loaded package that has one, by package id.
+     */
+    Map<String, String> getIgUrls() {
+        return Collections.unmodifiableMap(igUrls);
+    }
+
+    /**
+     * @param igUrls The ImplementationGuide url of the packages that have one, by package id
+     */
+    void save(List<NpmPackage> packages, Map<String, String> igUrls) {
+        JsonArray entries = new JsonArray();
+        for (NpmPackage npmPackage : packages) {
+            String fingerprint = npmPackage.getPath() == null ? null : getFingerprint(npmPackage.getPath());
+            if (fingerprint == null) {
+                // Not loaded from a package cache folder, so it can't be reloaded from one
+                return;
+            }
+            JsonObject entry = new JsonObject();
+            entry.addProperty("id", npmPackage.name());
+            entry.addProperty("version", npmPackage.version());
+            entry.addProperty("path", npmPackage.getPath());
+            entry.addProperty("fingerprint", fingerprint);
+            if (igUrls.containsKey(npmPackage.name())) {
+                entry.addProperty("igUrl", igUrls.get(npmPackage.name()));
+            }
+            entries.add(entry);
+        }
+        JsonObject snapshot = new JsonObject();
+        snapshot.addProperty("formatVersion", FORMAT_VERSION);
+        snapshot.add("packages", entries);
+
+        try {
+            Files.createDirectories(file.getParent());
+            Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+            try {
+                Files.write(temp, snapshot.toString().getBytes(StandardCharsets.UTF_8));
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException e) {
+            logger.warn("Unable to write dependency snapshot {}: {}", file, e.getMessage());
+        }
+    }
+
+    /**
+     * @return A hash of the path, size and modification time of every file in the package, or null if the package
+     * folder can't be read.
+     */
+    static String getFingerprint(String packagePath) {
+        Path root = Paths.get(packagePath, "package");
+        if (!Files.isDirectory(root)) {
+            return null;
+        }
+        try (Stream<Path> files = Files.walk(root)) {
+            List<String> lines = new ArrayList<>();
+            for (Path path : files.filter(Files::isRegularFile)
+                    .filter(path -> !path.getFileName().toString().startsWith(INDEX_FILE_PREFIX))
+                    .collect(Collectors.toList())) {
+                lines.add(root.relativize(path).toString().replace('\\', '/') + "|" + Files.size(path)
+                        + "|" + Files.getLastModifiedTime(path).toMillis());
+            }
+            Collections.sort(lines);
+            return DigestUtils.sha256Hex(String.join("\n", lines));
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+}
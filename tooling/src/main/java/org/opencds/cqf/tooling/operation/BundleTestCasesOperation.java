@@ -1,6 +1,7 @@
 package org.opencds.cqf.tooling.operation;
 
 import org.opencds.cqf.tooling.Operation;
+import org.opencds.cqf.tooling.exception.OperationExit;
 import org.opencds.cqf.tooling.parameter.BundleTestCasesParameters;
 import org.opencds.cqf.tooling.processor.TestCaseProcessor;
 import org.opencds.cqf.tooling.processor.argument.BundleTestCasesArgumentProcessor;
@@ -21,9 +22,12 @@ public class BundleTestCasesOperation extends Operation {
         try {
             params = new BundleTestCasesArgumentProcessor().parseAndConvert(args);
         }
+        catch (OperationExit e) {
+            throw e;
+        }
         catch (Exception e) {
             System.err.println(e.getMessage());
-            System.exit(1);
+            throw new OperationExit(1);
         }
 
         FhirContext fhirContext = ResourceUtils.getFhirContext(ResourceUtils.FhirVersion.parse(params.igVersion.toString()));
@@ -1,6 +1,7 @@
 package org.opencds.cqf.tooling.operation;
 
 import org.opencds.cqf.tooling.Operation;
+import org.opencds.cqf.tooling.exception.OperationExit;
 import org.opencds.cqf.tooling.parameter.GenerateCQLFromDroolParameters;
 import org.opencds.cqf.tooling.processor.GenerateCQLFromDroolProcessor;
 import org.opencds.cqf.tooling.processor.argument.GenerateCQLFromDroolArgumentProcessor;
@@ -22,9 +23,12 @@ public class GenerateCQLFromDroolOperation extends Operation {
         try {
             params = new GenerateCQLFromDroolArgumentProcessor().parseAndConvert(args);
         }
+        catch (OperationExit e) {
+            throw e;
+        }
         catch (Exception e) {
             System.err.println(e.getMessage());
-            System.exit(1);
+            throw new OperationExit(1);
         }
         GenerateCQLFromDroolProcessor.generate(params);
     }
@@ -1,6 +1,7 @@
 package org.opencds.cqf.tooling.operation;
 
 import org.opencds.cqf.tooling.Operation;
+import org.opencds.cqf.tooling.exception.OperationExit;
 import org.opencds.cqf.tooling.parameter.PostBundlesInDirParameters;
 import org.opencds.cqf.tooling.processor.PostBundlesInDirProcessor;
 import org.opencds.cqf.tooling.processor.argument.PostBundlesInDirArgumentProcessor;
@@ -16,9 +17,12 @@ public class PostBundlesInDirOperation extends Operation {
         try {
             params = new PostBundlesInDirArgumentProcessor().parseAndConvert(args);
         }
+        catch (OperationExit e) {
+            throw e;
+        }
         catch (Exception e) {
             System.err.println(e.getMessage());
-            System.exit(1);
+            throw new OperationExit(1);
         }
         PostBundlesInDirProcessor.PostBundlesInDir(params);
     }   
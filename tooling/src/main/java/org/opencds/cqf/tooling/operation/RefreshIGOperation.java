@@ -1,6 +1,7 @@
 package org.opencds.cqf.tooling.operation;
 
 import org.opencds.cqf.tooling.Operation;
+import org.opencds.cqf.tooling.exception.OperationExit;
 import org.opencds.cqf.tooling.parameter.RefreshIGParameters;
 import org.opencds.cqf.tooling.processor.IGProcessor;
 import org.opencds.cqf.tooling.processor.argument.RefreshIGArgumentProcessor;
@@ -23,9 +24,12 @@ public class RefreshIGOperation extends Operation {
         try {
             params = new RefreshIGArgumentProcessor().parseAndConvert(args);
         }
+        catch (OperationExit e) {
+            throw e;
+        }
         catch (Exception e) {
             System.err.println(e.getMessage());
-            System.exit(1);
+            throw new OperationExit(1);
         }
 
         if (params.verboseMessaging == null || !params.verboseMessaging) {
@@ -1,6 +1,7 @@
 package org.opencds.cqf.tooling.operation;
 
 import org.opencds.cqf.tooling.Operation;
+import org.opencds.cqf.tooling.exception.OperationExit;
 import org.opencds.cqf.tooling.parameter.RefreshLibraryParameters;
 import org.opencds.cqf.tooling.library.LibraryProcessor;
 import org.opencds.cqf.tooling.library.r4.R4LibraryProcessor;
@@ -23,9 +24,12 @@ public class RefreshLibraryOperation extends Operation {
         try {
             params = new RefreshLibraryArgumentProcessor().parseAndConvert(args);
         }
+        catch (OperationExit e) {
+            throw e;
+        }
         catch (Exception e) {
             System.err.println(e.getMessage());
-            System.exit(1);
+            throw new OperationExit(1);
         }
 
         List<String> refreshedLibraryNames = new ArrayList<String>();
@@ -1,6 +1,7 @@
 package org.opencds.cqf.tooling.operation;
 
 import org.opencds.cqf.tooling.Operation;
+import org.opencds.cqf.tooling.exception.OperationExit;
 import org.opencds.cqf.tooling.parameter.ScaffoldParameters;
 import org.opencds.cqf.tooling.processor.ScaffoldProcessor;
 import org.opencds.cqf.tooling.processor.argument.ScaffoldArgumentProcessor;
@@ -18,9 +19,12 @@ public class ScaffoldOperation extends Operation {
         try {
             params = new ScaffoldArgumentProcessor().parseAndConvert(args);
         }
+        catch (OperationExit e) {
+            throw e;
+        }
         catch (Exception e) {
             System.err.println(e.getMessage());
-            System.exit(1);
+            throw new OperationExit(1);
         }
 
         ScaffoldProcessor scaffoldProcessor = new ScaffoldProcessor();
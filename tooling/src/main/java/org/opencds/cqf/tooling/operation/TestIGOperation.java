@@ -1,6 +1,7 @@
 package org.opencds.cqf.tooling.operation;
 
 import org.opencds.cqf.tooling.Operation;
+import org.opencds.cqf.tooling.exception.OperationExit;
 import org.opencds.cqf.tooling.parameter.TestIGParameters;
 import org.opencds.cqf.tooling.processor.IGTestProcessor;
 import org.opencds.cqf.tooling.processor.argument.TestIGArgumentsProcessor;
@@ -15,9 +16,12 @@ public class TestIGOperation extends Operation {
         try {
             params = new TestIGArgumentsProcessor().parseAndConvert(args);
         }
+        catch (OperationExit e) {
+            throw e;
+        }
         catch (Exception e) {
             System.err.println(e.getMessage());
-            System.exit(1);
+            throw new OperationExit(1);
         }
 
         new IGTestProcessor().testIg(params);
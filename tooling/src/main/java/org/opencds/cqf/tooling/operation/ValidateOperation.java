@@ -1,6 +1,7 @@
 package org.opencds.cqf.tooling.operation;
 
 import org.opencds.cqf.tooling.Operation;
+import org.opencds.cqf.tooling.exception.OperationExit;
 import org.opencds.cqf.tooling.parameter.ValidateParameters;
 import org.opencds.cqf.tooling.processor.ValidateProcessor;
 import org.opencds.cqf.tooling.processor.argument.ValidateArgumentProcessor;
@@ -17,9 +18,12 @@ public class ValidateOperation extends Operation {
         try {
             params = new ValidateArgumentProcessor().parseAndConvert(args);
         }
+        catch (OperationExit e) {
+            throw e;
+        }
         catch (Exception e) {
             System.err.println(e.getMessage());
-            System.exit(1);
+            throw new OperationExit(1);
         }
         ValidateProcessor.validate(params);
     }
@@ -1,6 +1,7 @@
 package org.opencds.cqf.tooling.operation;
 
 import org.opencds.cqf.tooling.Operation;
+import org.opencds.cqf.tooling.exception.OperationExit;
 import org.opencds.cqf.tooling.parameter.VmrToFhirParameters;
 import org.opencds.cqf.tooling.processor.VmrToFhirProcessor;
 import org.opencds.cqf.tooling.processor.argument.VmrToFhirArgumentProcessor;
@@ -19,9 +20,12 @@ public class VmrToFhirOperation extends Operation {
         try {
             params = new VmrToFhirArgumentProcessor().parseAndConvert(args);
         }
+        catch (OperationExit e) {
+            throw e;
+        }
         catch (Exception e) {
             System.err.println(e.getMessage());
-            System.exit(1);
+            throw new OperationExit(1);
         }
         VmrToFhirProcessor.transform(params);
     }
@@ -5,6 +5,7 @@ import ca.uhn.fhir.util.BundleBuilder;
 import org.apache.commons.io.FilenameUtils;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.opencds.cqf.tooling.Operation;
+import org.opencds.cqf.tooling.exception.OperationExit;
 import org.opencds.cqf.tooling.parameter.RefreshIGParameters;
 import org.opencds.cqf.tooling.processor.argument.RefreshIGArgumentProcessor;
 import org.opencds.cqf.tooling.utilities.IOUtils;
@@ -37,9 +38,11 @@ public class NewRefreshIGOperation extends Operation {
              publishMeasureBundles(measureRefresh);
          }
          // TODO: bundle IG/testcases
+      } catch (OperationExit e) {
+         throw e;
       } catch (Exception e) {
          logger.error(e.getMessage());
-         System.exit(1);
+         throw new OperationExit(1);
       }
    }
 
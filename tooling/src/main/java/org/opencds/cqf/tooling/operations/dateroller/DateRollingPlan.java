@@ -0,0 +1,158 @@
+package org.opencds.cqf.tooling.operations.dateroller;
+
+import ca.uhn.fhir.context.BaseRuntimeChildDefinition;
+import ca.uhn.fhir.context.BaseRuntimeElementCompositeDefinition;
+import ca.uhn.fhir.context.BaseRuntimeElementDefinition;
+import ca.uhn.fhir.context.FhirContext;
+import org.apache.commons.lang3.time.DateUtils;
+import org.hl7.fhir.instance.model.api.IBase;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The date elements of a resource type, resolved once from the FHIR runtime definitions.
+ * <p>
+ * A plan lists, for each composite type, the children that can hold a date (date, dateTime or instant) either
+ * directly or somewhere below them. Rolling a resource then only reads those children, instead of visiting every
+ * element and testing it against each date class. Extensions, contained resources and Timing elements are not rolled.
+ */
+class DateRollingPlan {
+
+   private static final Set<String> SKIPPED_CHILDREN = Set.of("extension", "modifierExtension", "contained");
+
+   private static final Map<FhirContext, Map<String, DateRollingPlan>> plans = new ConcurrentHashMap<>();
+
+   // A plan for the children of one composite type, with each child's targets keyed by the implementing class of the
+   // value; choice children have one target per choice type
+   private final List<BaseRuntimeChildDefinition> children = new ArrayList<>();
+   private final List<Map<Class<?>, DateRollingPlan>> childTargets = new ArrayList<>();
+   private final boolean isDate;
+
+   private DateRollingPlan(boolean isDate) {
+      this.isDate = isDate;
+   }
+
+   private static final DateRollingPlan DATE = new DateRollingPlan(true);
+
+   static DateRollingPlan forResource(FhirContext fhirContext, IBaseResource resource) {
+      return plans.computeIfAbsent(fhirContext, context -> new ConcurrentHashMap<>())
+              .computeIfAbsent(resource.fhirType(), type -> {
+                 Map<BaseRuntimeElementDefinition<?>, DateRollingPlan> compiled = new IdentityHashMap<>();
+                 DateRollingPlan plan = compile(fhirContext.getResourceDefinition(type), compiled);
+                 return plan == null ? new DateRollingPlan(false) : plan;
+              });
+   }
+
+   // Returns null when the type can't hold a date. Each type is compiled once; a type that refers back to itself
+   // (Questionnaire.item.item, for example) gets the plan that is still being filled in, so nested dates are reached.
+   private static DateRollingPlan compile(BaseRuntimeElementDefinition<?> definition,
+                                          Map<BaseRuntimeElementDefinition<?>, DateRollingPlan> compiled) {
+      if (compiled.containsKey(definition)) {
+         return compiled.get(definition);
+      }
+      if (isDateType(definition)) {
+         return DATE;
+      }
+      if (!(definition instanceof BaseRuntimeElementCompositeDefinition) || "Timing".equals(definition.getName())) {
+         return null;
+      }
+
+      DateRollingPlan plan = new DateRollingPlan(false);
+      compiled.put(definition, plan);
+      for (BaseRuntimeChildDefinition child : ((BaseRuntimeElementCompositeDefinition<?>) definition).getChildren()) {
+         if (SKIPPED_CHILDREN.contains(child.getElementName())) {
+            continue;
+         }
+         Map<Class<?>, DateRollingPlan> targets = new HashMap<>();
+         for (String childName : child.getValidChildNames()) {
+            BaseRuntimeElementDefinition<?> childDefinition = child.getChildByName(childName);
+            if (childDefinition == null || IBaseResource.class.isAssignableFrom(childDefinition.getImplementingClass())) {
+               continue;
+            }
+            DateRollingPlan target = compile(childDefinition, compiled);
+            if (target != null) {
+               targets.put(childDefinition.getImplementingClass(), target);
+            }
+         }
+         if (!targets.isEmpty()) {
+            plan.children.add(child);
+            plan.childTargets.add(targets);
+         }
+      }
+
+      if (plan.children.isEmpty()) {
+         compiled.put(definition, null);
+         return null;
+      }
+      return plan;
+   }
+
+   static boolean isDateType(BaseRuntimeElementDefinition<?> definition) {
+      Class<?> type = definition.getImplementingClass();
+      return org.hl7.fhir.dstu3.model.BaseDateTimeType.class.isAssignableFrom(type)
+              || org.hl7.fhir.r4.model.BaseDateTimeType.class.isAssignableFrom(type)
+              || org.hl7.fhir.r5.model.BaseDateTimeType.class.isAssignableFrom(type);
+   }
+
+   /**
+    * Shifts every date in the element by the given number of days, preserving each date's time zone.
+    *
+    * @return The number of dates shifted.
+    */
+   int roll(IBase element, int days) {
+      if (isDate) {
+         return rollDate(element, days) ? 1 : 0;
+      }
+      int rolled = 0;
+      for (int i = 0; i < children.size(); i++) {
+         Map<Class<?>, DateRollingPlan> targets = childTargets.get(i);
+         for (IBase value : children.get(i).getAccessor().getValues(element)) {
+            DateRollingPlan target = targets.get(value.getClass());
+            if (target != null) {
+               rolled += target.roll(value, days);
+            }
+         }
+      }
+      return rolled;
+   }
+
+   static boolean rollDate(IBase element, int days) {
+      if (element instanceof org.hl7.fhir.dstu3.model.BaseDateTimeType) {
+         org.hl7.fhir.dstu3.model.BaseDateTimeType date = (org.hl7.fhir.dstu3.model.BaseDateTimeType) element;
+         if (date.getValue() == null) {
+            return false;
+         }
+         TimeZone timeZone = date.getTimeZone();
+         date.setValue(DateUtils.addDays(date.getValue(), days)).setTimeZone(timeZone);
+      } else if (element instanceof org.hl7.fhir.r4.model.BaseDateTimeType) {
+         org.hl7.fhir.r4.model.BaseDateTimeType date = (org.hl7.fhir.r4.model.BaseDateTimeType) element;
+         if (date.getValue() == null) {
+            return false;
+         }
+         TimeZone timeZone = date.getTimeZone();
+         date.setValue(DateUtils.addDays(date.getValue(), days)).setTimeZone(timeZone);
+      } else if (element instanceof org.hl7.fhir.r5.model.BaseDateTimeType) {
+         org.hl7.fhir.r5.model.BaseDateTimeType date = (org.hl7.fhir.r5.model.BaseDateTimeType) element;
+         if (date.getValue() == null) {
+            return false;
+         }
+         TimeZone timeZone = date.getTimeZone();
+         date.setValue(DateUtils.addDays(date.getValue(), days)).setTimeZone(timeZone);
+      } else {
+         throw new IllegalArgumentException("Expected type: date | dateTime | instant, found: " + element.fhirType());
+      }
+      return true;
+   }
+
+   static void clear() {
+      plans.clear();
+   }
+}
@@ -2,23 +2,21 @@ package org.opencds.cqf.tooling.operations.dateroller;
 
 import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.context.FhirVersionEnum;
-import ca.uhn.fhir.context.RuntimeChildChoiceDefinition;
-import ca.uhn.fhir.context.RuntimeChildPrimitiveDatatypeDefinition;
+import ca.uhn.fhir.parser.DataFormatException;
+import ca.uhn.fhir.parser.IParser;
 import ca.uhn.fhir.util.BundleBuilder;
 import ca.uhn.fhir.util.BundleUtil;
 import ca.uhn.fhir.util.ExtensionUtil;
-import ca.uhn.fhir.util.FhirTerser;
-import ca.uhn.fhir.util.TerserUtil;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.commons.lang3.time.DateUtils;
 import org.hl7.fhir.instance.model.api.IBase;
 import org.hl7.fhir.instance.model.api.IBaseBundle;
 import org.hl7.fhir.instance.model.api.IBaseDatatype;
 import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.opencds.cqf.tooling.common.ThreadUtils;
 import org.opencds.cqf.tooling.exception.InvalidOperationArgs;
 import org.opencds.cqf.tooling.operations.ExecutableOperation;
 import org.opencds.cqf.tooling.operations.Operation;
@@ -29,17 +27,18 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.TimeZone;
-import java.util.stream.Collectors;
+import java.util.concurrent.Callable;
 
 @Operation(name = "RollTestDates")
 public class RollTestDates implements ExecutableOperation {
@@ -60,6 +59,9 @@ public class RollTestDates implements ExecutableOperation {
    @OperationParam(alias = { "op", "outputPath" }, setter = "setOutputPath",
            description = "The file system location where the resulting resources/requests are written (default same as -ptreq or -ptres)")
    private String outputPath;
+   @OperationParam(alias = { "s", "streaming" }, setter = "setStreaming", defaultValue = "false",
+           description = "Roll CDS Hooks request dates while streaming each request file, without parsing its resources (default false)")
+   private Boolean streaming;
 
    private FhirContext fhirContext;
 
@@ -73,41 +75,91 @@ public class RollTestDates implements ExecutableOperation {
          if (outputPath == null) {
             outputPath = pathToResources;
          }
-         List<IBaseResource> resources = IOUtils.readResources(Collections.singletonList(pathToResources), fhirContext)
-                 .stream().filter(resource -> ExtensionUtil.hasExtension(resource, DATEROLLER_EXT_URL))
-                 .filter(resource -> getAllDateElements(fhirContext, resource, getDateClasses(fhirContext)))
-                 .collect(Collectors.toList());
-         IOUtils.writeResources(resources, outputPath, IOUtils.Encoding.valueOf(encoding), fhirContext);
+         List<Callable<Void>> tasks = new ArrayList<>();
+         for (String path : getResourcePaths(pathToResources)) {
+            tasks.add(() -> {
+               processResource(path);
+               return null;
+            });
+         }
+         ThreadUtils.executeTasks(tasks);
       }
       else {
          if (outputPath == null) {
             outputPath = pathToRequests;
          }
          Gson gson = new GsonBuilder().serializeNulls().setPrettyPrinting().create();
-         processCDSHooksRequests(new File(pathToRequests), gson);
+         List<Callable<Void>> tasks = new ArrayList<>();
+         collectCDSHooksRequests(new File(pathToRequests), gson, tasks);
+         ThreadUtils.executeTasks(tasks);
+      }
+   }
+
+   private List<String> getResourcePaths(String path) {
+      if (new File(path).isDirectory()) {
+         return IOUtils.getFilePaths(path, true);
+      }
+      return Collections.singletonList(path);
+   }
+
+   // Files are parsed directly rather than through IOUtils.readResource, whose cached instances would be modified here
+   private void processResource(String path) {
+      IOUtils.Encoding fileEncoding = IOUtils.getEncoding(path);
+      IParser parser;
+      if (fileEncoding == IOUtils.Encoding.JSON) {
+         parser = fhirContext.newJsonParser();
+      } else if (fileEncoding == IOUtils.Encoding.XML) {
+         parser = fhirContext.newXmlParser();
+      } else {
+         return;
+      }
+      IBaseResource resource;
+      try (FileReader reader = new FileReader(path)) {
+         resource = parser.parseResource(reader);
+      } catch (IOException | DataFormatException e) {
+         logger.error("Error reading resource {}", path, e);
+         return;
+      }
+      if (getAllDateElements(fhirContext, resource, null)) {
+         IOUtils.writeResource(resource, outputPath, IOUtils.Encoding.parse(encoding), fhirContext);
       }
    }
 
    // NOTE: the legacy CDSHooks prefetch format is NOT supported
-   private void processCDSHooksRequests(File requestDirectory, Gson gson) {
+   private void collectCDSHooksRequests(File requestDirectory, Gson gson, List<Callable<Void>> tasks) {
       if (requestDirectory.isDirectory()) {
          File[] requests = requestDirectory.listFiles();
          if (requests != null) {
             for (File nextFile : requests) {
                if (nextFile.isDirectory()) {
-                  processCDSHooksRequests(nextFile, gson);
+                  collectCDSHooksRequests(nextFile, gson, tasks);
+               }
+               else {
+                  tasks.add(() -> {
+                     processFile(nextFile, gson);
+                     return null;
+                  });
                }
-               processFile(nextFile, gson);
             }
          }
       }
       else if (requestDirectory.isFile()) {
-         processFile(requestDirectory, gson);
+         tasks.add(() -> {
+            processFile(requestDirectory, gson);
+            return null;
+         });
       }
    }
 
    private void processFile(File file, Gson gson) {
-      if (file.getName().toLowerCase(Locale.ROOT).endsWith("json")) {
+      if (file.getName().toLowerCase(Locale.ROOT).endsWith("json") && Boolean.TRUE.equals(streaming)) {
+         try {
+            new StreamingRequestDateRoller(fhirContext).rollDates(file);
+         } catch (IOException e) {
+            logger.error("Error rolling dates in file {}", file.getName(), e);
+         }
+      }
+      else if (file.getName().toLowerCase(Locale.ROOT).endsWith("json")) {
          JsonObject request = gson.fromJson(IOUtils.getFileContent(file), JsonObject.class);
          getUpdatedRequest(request, gson);
          try (FileWriter writer = new FileWriter(file.getAbsolutePath())) {
@@ -122,7 +174,7 @@ public class RollTestDates implements ExecutableOperation {
       BundleBuilder builder = new BundleBuilder(fhirContext);
       BundleUtil.toListOfResources(fhirContext, bundle).forEach(
               resource -> {
-                 getAllDateElements(fhirContext, resource, getDateClasses(fhirContext));
+                 getAllDateElements(fhirContext, resource, null);
                  builder.addCollectionEntry(resource);
               }
       );
@@ -156,7 +208,7 @@ public class RollTestDates implements ExecutableOperation {
                        JsonObject.class));
             }
             else {
-               getAllDateElements(fhirContext, resource, getDateClasses(fhirContext));
+               getAllDateElements(fhirContext, resource, null);
                updatedPrefetch.add(prefetchElement.getKey(), gson.fromJson(
                        fhirContext.newJsonParser().encodeResourceToString(resource), JsonObject.class));
             }
@@ -167,90 +219,19 @@ public class RollTestDates implements ExecutableOperation {
 
    // Library method
    public boolean getAllDateElements(FhirContext fhirContext, IBaseResource resource, List<Class<? extends IBase>> classes) {
-      FhirTerser terser = new FhirTerser(fhirContext);
+      // The date paths of each resource type are resolved once (see DateRollingPlan), so the date classes are no
+      // longer consulted; the parameter is kept for existing callers
       if (ExtensionUtil.hasExtension(resource, DATEROLLER_EXT_URL) && doUpdate(resource)) {
-         terser.visit(resource, (theResource, theElement, thePathToElement, theChildDefinition, theDefinition) -> {
-            // TODO - handle timing elements
-            if (theElement.fhirType().equalsIgnoreCase("timing")) {
-               return;
-            }
-            for (Class<? extends IBase> clazz : classes) {
-               if (clazz.isAssignableFrom(theElement.getClass())) {
-                  // skip extensions and children of composite Date elements (Period)
-                  if (thePathToElement.contains("extension") ||
-                          (theChildDefinition instanceof RuntimeChildPrimitiveDatatypeDefinition &&
-                                  ((RuntimeChildPrimitiveDatatypeDefinition) theChildDefinition).getField()
-                                          .getDeclaringClass().getSimpleName().equalsIgnoreCase("period")))
-                  {
-                     continue;
-                  }
-                  // Resolve choice type path names by type
-                  if (theChildDefinition instanceof RuntimeChildChoiceDefinition) {
-                     String s = theChildDefinition.getChildNameByDatatype(clazz);
-                     thePathToElement.remove(thePathToElement.size() - 1);
-                     thePathToElement.add(s);
-                  }
-                  int daysToAdd = getDaysBetweenDates(getLastUpdatedDate(resource), LocalDate.now());
-                  if (theElement instanceof org.hl7.fhir.dstu3.model.BaseDateTimeType) {
-                     TimeZone timeZone = ((org.hl7.fhir.dstu3.model.BaseDateTimeType) theElement).getTimeZone();
-                     ((org.hl7.fhir.dstu3.model.BaseDateTimeType) theElement).setValue(DateUtils.addDays(
-                                     ((org.hl7.fhir.dstu3.model.BaseDateTimeType) theElement).getValue(), daysToAdd))
-                             .setTimeZone(timeZone);
-                  } else if (theElement instanceof org.hl7.fhir.r4.model.BaseDateTimeType) {
-                     TimeZone timeZone = ((org.hl7.fhir.r4.model.BaseDateTimeType) theElement).getTimeZone();
-                     ((org.hl7.fhir.r4.model.BaseDateTimeType) theElement).setValue(DateUtils.addDays(
-                                     ((org.hl7.fhir.r4.model.BaseDateTimeType) theElement).getValue(), daysToAdd))
-                             .setTimeZone(timeZone);
-                  } else if (theElement instanceof org.hl7.fhir.r5.model.BaseDateTimeType) {
-                     TimeZone timeZone = ((org.hl7.fhir.r5.model.BaseDateTimeType) theElement).getTimeZone();
-                     ((org.hl7.fhir.r5.model.BaseDateTimeType) theElement).setValue(DateUtils.addDays(
-                                     ((org.hl7.fhir.r5.model.BaseDateTimeType) theElement).getValue(), daysToAdd))
-                             .setTimeZone(timeZone);
-                  } else if (theElement instanceof org.hl7.fhir.dstu3.model.Period) {
-                     org.hl7.fhir.dstu3.model.BaseDateTimeType start = terser.getSingleValueOrNull(theElement,
-                             "start", org.hl7.fhir.dstu3.model.BaseDateTimeType.class);
-                     org.hl7.fhir.dstu3.model.BaseDateTimeType end = terser.getSingleValueOrNull(theElement,
-                             "end", org.hl7.fhir.dstu3.model.BaseDateTimeType.class);
-                     ((org.hl7.fhir.dstu3.model.Period) theElement).setEnd(end.setValue(
-                             DateUtils.addDays(end.getValue(), daysToAdd)).setTimeZone(end.getTimeZone()).getValue());
-                     ((org.hl7.fhir.dstu3.model.Period) theElement).setStart(start.setValue(
-                             DateUtils.addDays(start.getValue(), daysToAdd)).setTimeZone(start.getTimeZone()).getValue());
-                  } else if (theElement instanceof org.hl7.fhir.r4.model.Period) {
-                     org.hl7.fhir.r4.model.BaseDateTimeType start = terser.getSingleValueOrNull(theElement,
-                             "start", org.hl7.fhir.r4.model.BaseDateTimeType.class);
-                     org.hl7.fhir.r4.model.BaseDateTimeType end = terser.getSingleValueOrNull(theElement,
-                             "end", org.hl7.fhir.r4.model.BaseDateTimeType.class);
-                     ((org.hl7.fhir.r4.model.Period) theElement).setEnd(end.setValue(
-                             DateUtils.addDays(end.getValue(), daysToAdd)).setTimeZone(end.getTimeZone()).getValue());
-                     ((org.hl7.fhir.r4.model.Period) theElement).setStart(start.setValue(
-                             DateUtils.addDays(start.getValue(), daysToAdd)).setTimeZone(start.getTimeZone()).getValue());
-                  } else if (theElement instanceof org.hl7.fhir.r5.model.Period) {
-                     org.hl7.fhir.r5.model.BaseDateTimeType start = terser.getSingleValueOrNull(theElement,
-                             "start", org.hl7.fhir.r5.model.BaseDateTimeType.class);
-                     org.hl7.fhir.r5.model.BaseDateTimeType end = terser.getSingleValueOrNull(theElement,
-                             "end", org.hl7.fhir.r5.model.BaseDateTimeType.class);
-                     ((org.hl7.fhir.r5.model.Period) theElement).setEnd(end.setValue(
-                             DateUtils.addDays(end.getValue(), daysToAdd)).setTimeZone(end.getTimeZone()).getValue());
-                     ((org.hl7.fhir.r5.model.Period) theElement).setStart(start.setValue(
-                             DateUtils.addDays(start.getValue(), daysToAdd)).setTimeZone(start.getTimeZone()).getValue());
-                  } else {
-                     throw new IllegalArgumentException(
-                             "Expected type: date | datetime | timing | instant | period, found: " +
-                                     theElement.fhirType());
-                  }
-                  TerserUtil.setFieldByFhirPath(terser, resolveFhirPath(theResource.fhirType(), thePathToElement),
-                          resource, theElement);
-                  updateDateRollerExtension(fhirContext, resource);
-               }
-            }
-         });
+         int daysToAdd = getDaysBetweenDates(getLastUpdatedDate(resource), LocalDate.now());
+         DateRollingPlan.forResource(fhirContext, resource).roll(resource, daysToAdd);
+         updateDateRollerExtension(fhirContext, resource);
          return true;
       }
       return false;
    }
 
    private int getDaysBetweenDates(LocalDate start, LocalDate end) {
-      return end.getDayOfYear() - start.getDayOfYear();
+      return (int) ChronoUnit.DAYS.between(start, end);
    }
 
    private LocalDate getLastUpdatedDate(IBaseResource resource) {
@@ -337,14 +318,6 @@ public class RollTestDates implements ExecutableOperation {
       return classes;
    }
 
-   private String resolveFhirPath(String resourceType, List<String> paths) {
-      StringBuilder builder = new StringBuilder();
-      builder.append(resourceType).append(".");
-      paths.forEach(path -> builder.append(path).append("."));
-      builder.deleteCharAt(builder.length() - 1);
-      return builder.toString();
-   }
-
    public String getPathToResources() {
       return pathToResources;
    }
@@ -385,6 +358,14 @@ public class RollTestDates implements ExecutableOperation {
       this.outputPath = outputPath;
    }
 
+   public Boolean getStreaming() {
+      return streaming;
+   }
+
+   public void setStreaming(Boolean streaming) {
+      this.streaming = streaming;
+   }
+
    public FhirContext getFhirContext() {
       return fhirContext;
    }
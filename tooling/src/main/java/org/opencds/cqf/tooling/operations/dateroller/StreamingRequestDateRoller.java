@@ -0,0 +1,315 @@
+package org.opencds.cqf.tooling.operations.dateroller;
+
+import ca.uhn.fhir.context.BaseRuntimeChildDefinition;
+import ca.uhn.fhir.context.BaseRuntimeElementCompositeDefinition;
+import ca.uhn.fhir.context.BaseRuntimeElementDefinition;
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.DataFormatException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import org.hl7.fhir.instance.model.api.IPrimitiveType;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Rolls the dates in a CDS Hooks request by copying its JSON token by token, without building a Gson tree or any FHIR
+ * resources.
+ * <p>
+ * The request is read twice. The first pass finds each resource's dataDateRoller extension, which may follow the
+ * dates it governs, and works out the resource's offset. The second pass copies the request to the output, following
+ * each rolled resource's runtime definition alongside the JSON so that date, dateTime and instant values are shifted
+ * as they're written and dateLastUpdated is reset. Everything else is copied as read, in the same pretty-printed
+ * layout as the Gson path. Resource objects are numbered in the order they're opened, which is the same in both passes.
+ * <p>
+ * The resources rolled are the ones {@link RollTestDates#getUpdatedRequest} rolls: each prefetch resource that is not
+ * a Bundle, and the entry resources of prefetch Bundles and of context.draftOrders. As with {@link DateRollingPlan},
+ * extensions, contained resources and Timing elements are not rolled.
+ */
+class StreamingRequestDateRoller {
+
+   private static final Set<String> SKIPPED_CHILDREN = Set.of("extension", "modifierExtension", "contained");
+
+   private final FhirContext fhirContext;
+
+   // Keyed by the number of the object in document order
+   private final Map<Integer, String> resourceTypes = new HashMap<>();
+   private final Map<Integer, Integer> offsets = new HashMap<>();
+   private final Set<Integer> dateLastUpdatedObjects = new HashSet<>();
+   private int objectCount;
+
+   // Where an object sits in the request, as far as it decides whether the resource there is rolled
+   private enum Scope {
+      REQUEST, PREFETCH, CONTEXT, PREFETCH_RESOURCE, DRAFT_ORDERS, ENTRY, ENTRY_RESOURCE, OTHER;
+
+      Scope child(String name) {
+         switch (this) {
+            case REQUEST:
+               return name.equals("prefetch") ? PREFETCH : name.equals("context") ? CONTEXT : OTHER;
+            case PREFETCH:
+               return PREFETCH_RESOURCE;
+            case CONTEXT:
+               return name.equals("draftOrders") ? DRAFT_ORDERS : OTHER;
+            case PREFETCH_RESOURCE:
+            case DRAFT_ORDERS:
+               return name.equals("entry") ? ENTRY : OTHER;
+            case ENTRY:
+               return name.equals("resource") ? ENTRY_RESOURCE : OTHER;
+            default:
+               return OTHER;
+         }
+      }
+
+      boolean isRolled(String resourceType) {
+         return this == ENTRY_RESOURCE || (this == PREFETCH_RESOURCE && !resourceType.equals("Bundle"));
+      }
+   }
+
+   StreamingRequestDateRoller(FhirContext fhirContext) {
+      this.fhirContext = fhirContext;
+   }
+
+   // What the first pass keeps of an object: enough to recognize a resource and its dataDateRoller extension
+   private static class ObjectSummary {
+      private int index;
+      private String resourceType;
+      private String url;
+      private String value;
+      private final List<ObjectSummary> extensions = new ArrayList<>();
+   }
+
+   /**
+    * Rolls the dates in a request file, replacing the file once the rewritten request is complete.
+    */
+   void rollDates(File file) throws IOException {
+      Path target = file.toPath();
+      Path temp = Files.createTempFile(target.toAbsolutePath().getParent(), target.getFileName().toString(), ".tmp");
+      try {
+         try (Reader scanInput = new FileReader(file); Reader copyInput = new FileReader(file);
+              Writer output = new FileWriter(temp.toFile())) {
+            rollDates(scanInput, copyInput, output);
+         }
+         Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+         Files.deleteIfExists(temp);
+      }
+   }
+
+   /**
+    * Rolls the dates in a request, given two readers over the same request content.
+    */
+   void rollDates(Reader scanInput, Reader copyInput, Writer output) throws IOException {
+      resourceTypes.clear();
+      offsets.clear();
+      dateLastUpdatedObjects.clear();
+
+      objectCount = 0;
+      try (JsonReader reader = new JsonReader(scanInput)) {
+         reader.setLenient(true);
+         scanValue(reader, Scope.REQUEST);
+      }
+
+      objectCount = 0;
+      try (JsonReader reader = new JsonReader(copyInput)) {
+         reader.setLenient(true);
+         JsonWriter writer = new JsonWriter(output);
+         writer.setIndent("  ");
+         writer.setSerializeNulls(true);
+         writer.setHtmlSafe(true);
+         copyValue(reader, writer, null, null);
+         writer.flush();
+      }
+   }
+
+   private ObjectSummary scanValue(JsonReader reader, Scope scope) throws IOException {
+      switch (reader.peek()) {
+         case BEGIN_OBJECT:
+            return scanObject(reader, scope);
+         case BEGIN_ARRAY:
+            reader.beginArray();
+            while (reader.hasNext()) {
+               scanValue(reader, scope);
+            }
+            reader.endArray();
+            return null;
+         default:
+            reader.skipValue();
+            return null;
+      }
+   }
+
+   private ObjectSummary scanObject(JsonReader reader, Scope scope) throws IOException {
+      ObjectSummary summary = new ObjectSummary();
+      summary.index = objectCount++;
+      reader.beginObject();
+      while (reader.hasNext()) {
+         String name = reader.nextName();
+         JsonToken token = reader.peek();
+         if (token == JsonToken.STRING && name.equals("resourceType")) {
+            summary.resourceType = reader.nextString();
+         } else if (token == JsonToken.STRING && name.equals("url")) {
+            summary.url = reader.nextString();
+         } else if (token == JsonToken.STRING && name.startsWith("value")) {
+            summary.value = reader.nextString();
+         } else if (token == JsonToken.BEGIN_ARRAY && name.equals("extension")) {
+            reader.beginArray();
+            while (reader.hasNext()) {
+               ObjectSummary extension = scanValue(reader, Scope.OTHER);
+               if (extension != null) {
+                  summary.extensions.add(extension);
+               }
+            }
+            reader.endArray();
+         } else {
+            scanValue(reader, scope.child(name));
+         }
+      }
+      reader.endObject();
+
+      // Every resource is recorded, so that a resource nested in a rolled one (a contained resource, say) is not
+      // rolled with it
+      if (summary.resourceType != null) {
+         resourceTypes.put(summary.index, summary.resourceType);
+         if (scope.isRolled(summary.resourceType)) {
+            planResource(summary);
+         }
+      }
+      return summary;
+   }
+
+   private void planResource(ObjectSummary resource) {
+      for (ObjectSummary extension : resource.extensions) {
+         if (!RollTestDates.DATEROLLER_EXT_URL.equals(extension.url)) {
+            continue;
+         }
+         for (ObjectSummary subExtension : extension.extensions) {
+            if ("dateLastUpdated".equals(subExtension.url) && subExtension.value != null) {
+               LocalDate lastUpdated = LocalDate.parse(subExtension.value.split("T")[0]);
+               if (lastUpdated.isBefore(LocalDate.now())) {
+                  offsets.put(resource.index, (int) ChronoUnit.DAYS.between(lastUpdated, LocalDate.now()));
+                  dateLastUpdatedObjects.add(subExtension.index);
+               }
+               return;
+            }
+         }
+      }
+   }
+
+   private void copyValue(JsonReader reader, JsonWriter writer, BaseRuntimeElementDefinition<?> definition,
+                          Integer days) throws IOException {
+      switch (reader.peek()) {
+         case BEGIN_OBJECT:
+            copyObject(reader, writer, definition instanceof BaseRuntimeElementCompositeDefinition
+                    && !"Timing".equals(definition.getName())
+                    ? (BaseRuntimeElementCompositeDefinition<?>) definition : null, days);
+            break;
+         case BEGIN_ARRAY:
+            reader.beginArray();
+            writer.beginArray();
+            while (reader.hasNext()) {
+               copyValue(reader, writer, definition, days);
+            }
+            reader.endArray();
+            writer.endArray();
+            break;
+         case STRING:
+            String value = reader.nextString();
+            writer.value(days != null && definition != null && DateRollingPlan.isDateType(definition)
+                    ? rollDate(definition, value, days) : value);
+            break;
+         case NUMBER:
+            // Written as read, as Gson writes the numbers it parses lazily
+            writer.jsonValue(reader.nextString());
+            break;
+         case BOOLEAN:
+            writer.value(reader.nextBoolean());
+            break;
+         case NULL:
+            reader.nextNull();
+            writer.nullValue();
+            break;
+         default:
+            throw new IllegalStateException("Unexpected JSON token: " + reader.peek());
+      }
+   }
+
+   private void copyObject(JsonReader reader, JsonWriter writer, BaseRuntimeElementCompositeDefinition<?> definition,
+                           Integer days) throws IOException {
+      int index = objectCount++;
+      if (resourceTypes.containsKey(index)) {
+         days = offsets.get(index);
+         definition = days == null ? null : getResourceDefinition(resourceTypes.get(index));
+      }
+      boolean isDateLastUpdated = dateLastUpdatedObjects.contains(index);
+
+      reader.beginObject();
+      writer.beginObject();
+      while (reader.hasNext()) {
+         String name = reader.nextName();
+         if (isDateLastUpdated && name.startsWith("value") && reader.peek() == JsonToken.STRING) {
+            // The value is replaced by a dateTime whatever its type was, as the FHIR parser would write it
+            reader.skipValue();
+            writer.name("valueDateTime");
+            writer.value(now());
+            continue;
+         }
+         writer.name(name);
+         copyValue(reader, writer, getChildDefinition(definition, name), days);
+      }
+      reader.endObject();
+      writer.endObject();
+   }
+
+   private BaseRuntimeElementCompositeDefinition<?> getResourceDefinition(String resourceType) {
+      try {
+         return fhirContext.getResourceDefinition(resourceType);
+      } catch (DataFormatException e) {
+         return null;
+      }
+   }
+
+   // Names starting with an underscore carry a primitive's id and extensions, and have no definition of their own
+   private static BaseRuntimeElementDefinition<?> getChildDefinition(BaseRuntimeElementCompositeDefinition<?> definition,
+                                                                     String name) {
+      if (definition == null || SKIPPED_CHILDREN.contains(name) || name.startsWith("_")) {
+         return null;
+      }
+      BaseRuntimeChildDefinition child = definition.getChildByName(name);
+      return child == null ? null : child.getChildByName(name);
+   }
+
+   // Values that aren't valid dates are left as they are
+   private static String rollDate(BaseRuntimeElementDefinition<?> definition, String value, int days) {
+      try {
+         IPrimitiveType<?> date = (IPrimitiveType<?>) definition.newInstance();
+         date.setValueAsString(value);
+         return DateRollingPlan.rollDate(date, days) ? date.getValueAsString() : value;
+      } catch (DataFormatException | IllegalArgumentException e) {
+         return value;
+      }
+   }
+
+   private String now() {
+      @SuppressWarnings("unchecked")
+      IPrimitiveType<Date> dateTime = (IPrimitiveType<Date>) fhirContext.getElementDefinition("dateTime").newInstance();
+      dateTime.setValue(new Date());
+      return dateTime.getValueAsString();
+   }
+}
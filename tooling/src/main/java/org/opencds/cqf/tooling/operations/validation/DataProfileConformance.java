@@ -2,6 +2,9 @@ package org.opencds.cqf.tooling.operations.validation;
 
 import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.context.support.DefaultProfileValidationSupport;
+import ca.uhn.fhir.context.support.IValidationSupport;
+import ca.uhn.fhir.parser.DataFormatException;
+import ca.uhn.fhir.parser.IParser;
 import ca.uhn.fhir.util.BundleUtil;
 import ca.uhn.fhir.util.ExtensionUtil;
 import ca.uhn.fhir.util.FhirTerser;
@@ -9,6 +12,10 @@ import ca.uhn.fhir.util.TerserUtil;
 import ca.uhn.fhir.validation.FhirValidator;
 import ca.uhn.fhir.validation.ValidationOptions;
 import ca.uhn.fhir.validation.ValidationResult;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import org.hl7.fhir.common.hapi.validation.support.CachingValidationSupport;
 import org.hl7.fhir.common.hapi.validation.support.CommonCodeSystemsTerminologyService;
 import org.hl7.fhir.common.hapi.validation.support.InMemoryTerminologyServerValidationSupport;
@@ -18,7 +25,7 @@ import org.hl7.fhir.common.hapi.validation.validator.FhirInstanceValidator;
 import org.hl7.fhir.instance.model.api.IBaseBundle;
 import org.hl7.fhir.instance.model.api.IBaseOperationOutcome;
 import org.hl7.fhir.instance.model.api.IBaseResource;
-import org.hl7.fhir.utilities.npm.NpmPackage;
+import org.opencds.cqf.tooling.common.ThreadUtils;
 import org.opencds.cqf.tooling.constants.Validation;
 import org.opencds.cqf.tooling.operations.ExecutableOperation;
 import org.opencds.cqf.tooling.operations.Operation;
@@ -29,13 +36,23 @@ import org.opencds.cqf.tooling.utilities.NpmUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.FileReader;
 import java.io.IOException;
+import java.io.Reader;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 @Operation(name = "ProfileConformance")
@@ -58,53 +75,265 @@ public class DataProfileConformance implements ExecutableOperation {
    @OperationParam(alias = { "op", "outputpath" }, setter = "setOutputPath",
            description = "The directory path to which the FHIR OperationOutcome should be written (default is to replace existing resources within the IG)")
    private String outputPath;
+   @OperationParam(alias = { "t", "threads" }, setter = "setThreads",
+           description = "The number of resources validated at a time (default number of available processors)")
+   private Integer threads;
+
+   // Resources are handed to the validation threads in partitions of this size, and at most two partitions per thread
+   // are read ahead of validation
+   private static final int PARTITION_SIZE = 100;
+
+   // Validation support (loaded packages, generated snapshots, terminology caches) by FHIR version and package urls,
+   // shared by every validator built for the same packages in this process
+   private static final Map<String, ValidationSetup> validationSetups = new ConcurrentHashMap<>();
+
+   private static class ValidationSetup {
+      private final IValidationSupport validationSupport;
+      private final Map<String, List<String>> profileMap;
+
+      ValidationSetup(IValidationSupport validationSupport, Map<String, List<String>> profileMap) {
+         this.validationSupport = validationSupport;
+         this.profileMap = profileMap;
+      }
+   }
 
    private FhirContext fhirContext;
    private FhirValidator validator;
+   private IValidationSupport validationSupport;
+   private Map<String, List<String>> profileMap = new HashMap<>();
 
    @Override
    public void execute() {
       fhirContext = FhirContextCache.getContext(version);
       setGeneralValidator();
-      IBaseBundle patientDataBundle;
-      if (IOUtils.isDirectory(pathToPatientData)) {
-         patientDataBundle = IOUtils.bundleResourcesInDirectory(pathToPatientData, fhirContext, true);
+      IOUtils.Encoding outputEncoding = IOUtils.Encoding.parse(encoding);
+      validatePath(pathToPatientData,
+              resource -> IOUtils.writeResource(resource, outputPath, outputEncoding, fhirContext));
+   }
+
+   // Validates the resources in a directory or bundle file, passing each to onValidated once it has been validated
+   void validatePath(String path, Consumer<IBaseResource> onValidated) {
+      ValidationRun run = new ValidationRun(onValidated);
+      if (IOUtils.isDirectory(path)) {
+         run.run(resources -> readDirectory(path, resources));
+      } else if (IOUtils.getEncoding(path) == IOUtils.Encoding.JSON) {
+         run.run(resources -> readJsonBundle(path, resources));
       } else {
-         IBaseResource bundle = IOUtils.readResource(pathToPatientData, fhirContext);
-         if (bundle instanceof IBaseBundle) {
-            patientDataBundle = (IBaseBundle) bundle;
-         } else {
-            String invalidType = bundle.fhirType();
-            logger.error("Expected a bundle resource at path {}, found {}", pathToPatientData, invalidType);
-            return;
+         run.run(resources -> {
+            IBaseResource bundle = IOUtils.readResource(path, fhirContext);
+            if (bundle instanceof IBaseBundle) {
+               BundleUtil.toListOfResources(fhirContext, (IBaseBundle) bundle).forEach(resources);
+            } else {
+               String invalidType = bundle == null ? null : bundle.fhirType();
+               logger.error("Expected a bundle resource at path {}, found {}", path, invalidType);
+            }
+         });
+      }
+   }
+
+   public List<IBaseResource> validatePatientData(IBaseBundle patientData) {
+      List<IBaseResource> validatedResources = BundleUtil.toListOfResources(fhirContext, patientData);
+      // Resources are tagged in place, so the list is returned in bundle order once the run completes
+      new ValidationRun(resource -> {}).run(validatedResources::forEach);
+      return validatedResources;
+   }
+
+   // Reads each file as it's validated, rather than bundling the whole directory first
+   private void readDirectory(String directoryPath, Consumer<IBaseResource> resources) {
+      for (String path : IOUtils.getFilePaths(directoryPath, true)) {
+         IOUtils.Encoding fileEncoding = IOUtils.getEncoding(path);
+         if (fileEncoding != IOUtils.Encoding.JSON && fileEncoding != IOUtils.Encoding.XML) {
+            continue;
+         }
+         IParser parser = fileEncoding == IOUtils.Encoding.JSON ? fhirContext.newJsonParser() : fhirContext.newXmlParser();
+         try (Reader reader = new FileReader(path)) {
+            resources.accept(parser.parseResource(reader));
+         } catch (IOException | DataFormatException e) {
+            logger.error("Unable to read resource {}: {}", path, e.getMessage());
          }
       }
+   }
 
-      IOUtils.writeResources(validatePatientData(patientDataBundle), outputPath, IOUtils.Encoding.valueOf(encoding), fhirContext);
+   // Parses one bundle entry at a time, so only the entries waiting to be validated are held in memory
+   private void readJsonBundle(String bundlePath, Consumer<IBaseResource> resources) {
+      IParser parser = fhirContext.newJsonParser();
+      try (JsonReader reader = new JsonReader(new FileReader(bundlePath))) {
+         reader.beginObject();
+         while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("resourceType")) {
+               String resourceType = reader.nextString();
+               if (!resourceType.equals("Bundle")) {
+                  logger.error("Expected a bundle resource at path {}, found {}", bundlePath, resourceType);
+                  return;
+               }
+            } else if (name.equals("entry") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+               reader.beginArray();
+               while (reader.hasNext()) {
+                  reader.beginObject();
+                  while (reader.hasNext()) {
+                     if (reader.nextName().equals("resource")) {
+                        resources.accept(parser.parseResource(JsonParser.parseReader(reader).toString()));
+                     } else {
+                        reader.skipValue();
+                     }
+                  }
+                  reader.endObject();
+               }
+               reader.endArray();
+            } else {
+               reader.skipValue();
+            }
+         }
+      } catch (IOException | DataFormatException | JsonParseException | IllegalStateException e) {
+         logger.error("Unable to read bundle {}: {}", bundlePath, e.getMessage());
+      }
    }
 
-   public List<IBaseResource> validatePatientData(IBaseBundle patientData) {
-      List<IBaseResource> validatedResources = new ArrayList<>();
+   /**
+    * Validates resources as they are read. The reader hands them out in partitions through a bounded queue to the
+    * validation tasks, which run on the shared pool and each use their own validator, built over the shared
+    * validation support. Throughput and the time spent per resource type (and so per set of profiles) are logged
+    * when the run finishes.
+    */
+   private class ValidationRun {
+      // Taken by a validation task once the reader is done; compared by identity
+      private final List<IBaseResource> noMorePartitions = new ArrayList<>();
+
+      private final Consumer<IBaseResource> onValidated;
+      private final int threadCount = threads != null && threads > 0
+              ? threads : Math.max(1, Runtime.getRuntime().availableProcessors());
+      private final BlockingQueue<List<IBaseResource>> partitions = new ArrayBlockingQueue<>(threadCount * 2);
+      private final Map<String, LongAdder[]> timings = new ConcurrentHashMap<>();
+      private final LongAdder invalidCount = new LongAdder();
+      private final long startedAt = System.nanoTime();
+      private List<IBaseResource> partition = new ArrayList<>();
+
+      ValidationRun(Consumer<IBaseResource> onValidated) {
+         this.onValidated = onValidated;
+      }
+
+      /**
+       * @param reader Reads the resources to validate, passing each to the consumer it's given
+       */
+      void run(Consumer<Consumer<IBaseResource>> reader) {
+         List<Callable<Void>> tasks = new ArrayList<>();
+         tasks.add(() -> {
+            read(reader);
+            return null;
+         });
+         for (int i = 0; i < threadCount; i++) {
+            tasks.add(() -> {
+               validatePartitions();
+               return null;
+            });
+         }
+         // The reader waits for room in the queue and the validation tasks wait for partitions, so they run as
+         // blocking tasks and the pool adds threads rather than leaving them all waiting on each other
+         ThreadUtils.executeBlockingTasks(tasks);
+         logSummary();
+      }
 
-      for (var patientDataResource : BundleUtil.toListOfResources(fhirContext, patientData)) {
+      private void read(Consumer<Consumer<IBaseResource>> reader) {
+         try {
+            reader.accept(this::add);
+            if (!partition.isEmpty()) {
+               submit();
+            }
+         } finally {
+            try {
+               for (int i = 0; i < threadCount; i++) {
+                  partitions.put(noMorePartitions);
+               }
+            } catch (InterruptedException e) {
+               Thread.currentThread().interrupt();
+            }
+         }
+      }
+
+      private void add(IBaseResource resource) {
+         partition.add(resource);
+         if (partition.size() >= PARTITION_SIZE) {
+            submit();
+         }
+      }
+
+      private void submit() {
+         List<IBaseResource> resources = partition;
+         partition = new ArrayList<>();
+         try {
+            partitions.put(resources);
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting to validate resources", e);
+         }
+      }
+
+      private void validatePartitions() throws InterruptedException {
+         // Validators are cheap to create once the validation support is loaded
+         FhirValidator workerValidator = newValidator();
+         for (List<IBaseResource> resources = partitions.take(); resources != noMorePartitions; resources = partitions.take()) {
+            for (IBaseResource resource : resources) {
+               validate(workerValidator, resource);
+            }
+         }
+      }
+
+      private void validate(FhirValidator workerValidator, IBaseResource resource) {
+         String resourceType = resource.fhirType();
+         long start = System.nanoTime();
+         try {
+            validatePatientDataResource(workerValidator, resource);
+         } catch (Exception e) {
+            logger.error("Unable to validate {}/{}: {}", resourceType, resource.getIdElement().getIdPart(), e.getMessage());
+            invalidCount.increment();
+            return;
+         } finally {
+            LongAdder[] timing = timings.computeIfAbsent(resourceType, type -> new LongAdder[] { new LongAdder(), new LongAdder() });
+            timing[0].increment();
+            timing[1].add(System.nanoTime() - start);
+         }
+         try {
+            onValidated.accept(resource);
+         } catch (Exception e) {
+            logger.error("Unable to write {}/{}: {}", resourceType, resource.getIdElement().getIdPart(), e.getMessage());
+         }
+      }
+
+      private void validatePatientDataResource(FhirValidator workerValidator, IBaseResource resource) {
          ValidationOptions options = new ValidationOptions();
-         String resourceType = patientDataResource.fhirType();
+         String resourceType = resource.fhirType();
          if (profileMap.containsKey(resourceType)) {
-            profileMap.get(patientDataResource.fhirType()).forEach(options::addProfile);
+            profileMap.get(resourceType).forEach(options::addProfile);
          }
-         ValidationResult result = validator.validateWithResult(patientDataResource, options);
+         ValidationResult result = workerValidator.validateWithResult(resource, options);
          if (!result.isSuccessful()) {
             logger.warn("Validation errors found for {}/{} : {}", resourceType,
-                    patientDataResource.getIdElement().getIdPart(), result.getMessages());
-            tagResourceWithValidationResult(patientDataResource, result);
+                    resource.getIdElement().getIdPart(), result.getMessages());
+            invalidCount.increment();
+            tagResourceWithValidationResult(resource, result);
          } else {
-            logger.info("Validation successful for {}/{}", resourceType, patientDataResource.getIdElement().getIdPart());
+            logger.info("Validation successful for {}/{}", resourceType, resource.getIdElement().getIdPart());
          }
-         validatedResources.add(patientDataResource);
       }
 
-      return validatedResources;
+      private void logSummary() {
+         double seconds = (System.nanoTime() - startedAt) / 1e9;
+         long total = timings.values().stream().mapToLong(timing -> timing[0].sum()).sum();
+         StringBuilder summary = new StringBuilder(String.format(
+                 "Validated %d resources (%d with errors) in %.1fs on %d threads, %.1f resources/s",
+                 total, invalidCount.sum(), seconds, threadCount, seconds > 0 ? total / seconds : 0));
+         timings.entrySet().stream().sorted(Map.Entry.comparingByKey()).forEach(entry -> {
+            long count = entry.getValue()[0].sum();
+            long millis = TimeUnit.NANOSECONDS.toMillis(entry.getValue()[1].sum());
+            summary.append(String.format("%n  %s (%s): %d resources, %d ms, %.1f ms/resource", entry.getKey(),
+                    String.join(", ", profileMap.getOrDefault(entry.getKey(), Collections.emptyList())),
+                    count, millis, count > 0 ? (double) millis / count : 0));
+         });
+         logger.info(summary.toString());
+      }
    }
+
    private void tagResourceWithValidationResult(IBaseResource resource, ValidationResult result) {
       String id = UUID.randomUUID().toString();
 
@@ -118,40 +347,55 @@ public class DataProfileConformance implements ExecutableOperation {
    }
 
    public void setGeneralValidator() {
-      NpmUtils.PackageLoaderValidationSupport validationSupport =
-              NpmUtils.getNpmPackageLoaderValidationSupport(fhirContext, getPackageUrlsList());
+      String key = fhirContext.getVersion().getVersion() + "|" + String.join(",", getPackageUrlsList());
+      ValidationSetup setup = validationSetups.computeIfAbsent(key, k -> {
+         NpmUtils.PackageLoaderValidationSupport validationSupport =
+                 NpmUtils.getNpmPackageLoaderValidationSupport(fhirContext, getPackageUrlsList());
 
-      populateProfileMap(validationSupport.fetchAllNonBaseStructureDefinitions());
+         ValidationSupportChain supportChain = new ValidationSupportChain(validationSupport,
+                 new CommonCodeSystemsTerminologyService(fhirContext),
+                 new DefaultProfileValidationSupport(fhirContext),
+                 new InMemoryTerminologyServerValidationSupport(fhirContext),
+                 new SnapshotGeneratingValidationSupport(fhirContext));
 
-      ValidationSupportChain supportChain = new ValidationSupportChain(validationSupport,
-              new CommonCodeSystemsTerminologyService(fhirContext),
-              new DefaultProfileValidationSupport(fhirContext),
-              new InMemoryTerminologyServerValidationSupport(fhirContext),
-              new SnapshotGeneratingValidationSupport(fhirContext));
+         return new ValidationSetup(new CachingValidationSupport(supportChain),
+                 buildProfileMap(validationSupport.fetchAllNonBaseStructureDefinitions()));
+      });
 
-      CachingValidationSupport cachingValidationSupport = new CachingValidationSupport(supportChain);
-      validator = fhirContext.newValidator();
-      validator.setValidateAgainstStandardSchema(false);
-      validator.setValidateAgainstStandardSchematron(false);
-      FhirInstanceValidator instanceValidator = new FhirInstanceValidator(cachingValidationSupport);
-      validator.registerValidatorModule(instanceValidator);
+      validationSupport = setup.validationSupport;
+      profileMap = setup.profileMap;
+      validator = newValidator();
    }
 
-   private final Map<String, List<String>> profileMap = new HashMap<>();
-   private void populateProfileMap(List<IBaseResource> structureDefinitions) {
+   // Each validation task gets its own validator, unless one was set directly
+   private FhirValidator newValidator() {
+      if (validationSupport == null) {
+         return validator;
+      }
+      FhirValidator newValidator = fhirContext.newValidator();
+      newValidator.setValidateAgainstStandardSchema(false);
+      newValidator.setValidateAgainstStandardSchematron(false);
+      FhirInstanceValidator instanceValidator = new FhirInstanceValidator(validationSupport);
+      newValidator.registerValidatorModule(instanceValidator);
+      return newValidator;
+   }
+
+   private Map<String, List<String>> buildProfileMap(List<IBaseResource> structureDefinitions) {
+      Map<String, List<String>> profiles = new HashMap<>();
       if (structureDefinitions != null) {
          FhirTerser terser = new FhirTerser(fhirContext);
          for (var structureDefinition : structureDefinitions) {
             String type = terser.getSinglePrimitiveValueOrNull(structureDefinition, "type");
             String url = terser.getSinglePrimitiveValueOrNull(structureDefinition, "url");
             if (type != null && url != null) {
-               profileMap.putIfAbsent(type, new ArrayList<>());
-               if (!profileMap.get(type).contains(url)) {
-                  profileMap.get(type).add(url);
+               profiles.putIfAbsent(type, new ArrayList<>());
+               if (!profiles.get(type).contains(url)) {
+                  profiles.get(type).add(url);
                }
             }
          }
       }
+      return Collections.unmodifiableMap(profiles);
    }
 
    public String getPathToPatientData() {
@@ -207,5 +451,14 @@ public class DataProfileConformance implements ExecutableOperation {
 
    public void setValidator(FhirValidator validator) {
       this.validator = validator;
+      this.validationSupport = null;
+   }
+
+   public Integer getThreads() {
+      return threads;
+   }
+
+   public void setThreads(Integer threads) {
+      this.threads = threads;
    }
 }
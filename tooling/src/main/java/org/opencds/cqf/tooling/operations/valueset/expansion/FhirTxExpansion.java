@@ -1,10 +1,14 @@
 package org.opencds.cqf.tooling.operations.valueset.expansion;
 
 import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
 import ca.uhn.fhir.rest.client.api.IGenericClient;
+import ca.uhn.fhir.util.FhirTerser;
 import ca.uhn.fhir.util.ParametersUtil;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.hl7.fhir.instance.model.api.IBaseParameters;
 import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.opencds.cqf.tooling.common.ThreadUtils;
 import org.opencds.cqf.tooling.operations.ExecutableOperation;
 import org.opencds.cqf.tooling.operations.Operation;
 import org.opencds.cqf.tooling.operations.OperationParam;
@@ -13,8 +17,20 @@ import org.opencds.cqf.tooling.utilities.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Operation(name = "FhirTxExpansion")
 public class FhirTxExpansion implements ExecutableOperation {
@@ -37,36 +53,149 @@ public class FhirTxExpansion implements ExecutableOperation {
            defaultValue = "src/main/resources/org/opencds/cqf/tooling/terminology/output",
            description = "The directory path to which the generated FHIR ValueSet resource should be written (default src/main/resources/org/opencds/cqf/tooling/terminology/output)")
    private String outputPath;
+   @OperationParam(alias = { "mce", "maxconcurrentexpansions" }, setter = "setMaxConcurrentExpansions", defaultValue = "4",
+           description = "The maximum number of $expand requests sent to the FHIR server at the same time (default 4)")
+   private Integer maxConcurrentExpansions;
+   @OperationParam(alias = { "ecp", "expansioncachepath" }, setter = "setExpansionCachePath",
+           description = "The directory in which expansions are cached between runs; value sets whose url, version and compose are unchanged are not expanded again (omitted by default)")
+   private String expansionCachePath;
+   @OperationParam(alias = { "ecttl", "expansioncachettl" }, setter = "setExpansionCacheTtl", defaultValue = "24",
+           description = "The number of hours after which a cached expansion is discarded and the value set is expanded again, so codes added to the code systems are picked up; 0 keeps cached expansions indefinitely (default 24)")
+   private Integer expansionCacheTtl;
 
    private FhirContext fhirContext;
    private IGenericClient fhirServerClient;
 
+   private final AtomicInteger cacheHitCount = new AtomicInteger();
+   private final AtomicInteger expansionCount = new AtomicInteger();
+   private final AtomicInteger failureCount = new AtomicInteger();
+   private final List<Long> expansionLatencies = Collections.synchronizedList(new ArrayList<>());
+
    @Override
    public void execute() {
       fhirContext = FhirContextCache.getContext(version);
       fhirServerClient = fhirContext.newRestfulGenericClient(fhirServer);
 
       if (Files.isDirectory(Paths.get(pathToValueSet))) {
+         List<Callable<Void>> tasks = new ArrayList<>();
          for (IBaseResource resource : IOUtils.readResources(IOUtils.getFilePaths(pathToValueSet, true), fhirContext)) {
-            expandAndWriteValueSet(resource);
+            tasks.add(() -> {
+               expandAndWriteValueSet(resource);
+               return null;
+            });
          }
+         int threads = maxConcurrentExpansions == null || maxConcurrentExpansions < 1 ? 1 : maxConcurrentExpansions;
+         ThreadUtils.executeTasks(tasks, Executors.newFixedThreadPool(threads));
       } else {
          expandAndWriteValueSet(IOUtils.readResource(pathToValueSet, fhirContext));
       }
+
+      logger.info(getSummary());
    }
 
    public IBaseResource expandValueSet(IBaseResource valueSet) {
+      Path cacheFile = getCacheFile(valueSet);
+      if (cacheFile != null && Files.isRegularFile(cacheFile) && !isExpired(cacheFile)) {
+         try {
+            IBaseResource cached = fhirContext.newJsonParser().parseResource(
+                    new String(Files.readAllBytes(cacheFile), StandardCharsets.UTF_8));
+            cacheHitCount.incrementAndGet();
+            return cached;
+         } catch (Exception e) {
+            logger.warn("Ignoring unreadable cached expansion {}: {}", cacheFile, e.getMessage());
+         }
+      }
+
+      long start = System.currentTimeMillis();
       try {
          IBaseParameters parameters = ParametersUtil.newInstance(fhirContext);
          ParametersUtil.addParameterToParameters(fhirContext, parameters, "valueSet", valueSet);
-         return fhirServerClient.operation().onType("ValueSet")
+         IBaseResource expanded = getFhirServerClient().operation().onType("ValueSet")
                  .named("$expand").withParameters(parameters).execute();
+         expansionLatencies.add(System.currentTimeMillis() - start);
+         expansionCount.incrementAndGet();
+         if (cacheFile != null && expanded != null) {
+            writeCacheFile(cacheFile, expanded);
+         }
+         return expanded;
       } catch (Exception e) {
+         failureCount.incrementAndGet();
          logger.warn("Unable to expand: {}", valueSet.getIdElement().getValue(), e);
       }
       return null;
    }
 
+   private synchronized IGenericClient getFhirServerClient() {
+      if (fhirServerClient == null) {
+         fhirServerClient = fhirContext.newRestfulGenericClient(fhirServer);
+      }
+      return fhirServerClient;
+   }
+
+   // Entries are keyed by the server, the canonical url and version, and a hash of the compose element, so a value set
+   // is expanded again whenever its definition changes. The expansion also depends on the content of the code systems,
+   // which the key can't capture, so entries expire after expansionCacheTtl hours. Returns null when caching is
+   // disabled or the value set has no url.
+   Path getCacheFile(IBaseResource valueSet) {
+      if (expansionCachePath == null || expansionCachePath.isEmpty()) {
+         return null;
+      }
+      FhirTerser terser = fhirContext.newTerser();
+      String url = terser.getSinglePrimitiveValueOrNull(valueSet, "url");
+      if (url == null) {
+         return null;
+      }
+      String valueSetVersion = terser.getSinglePrimitiveValueOrNull(valueSet, "version");
+
+      IParser composeParser = fhirContext.newJsonParser();
+      composeParser.setEncodeElements(Collections.singleton("ValueSet.compose"));
+      String composeHash = DigestUtils.sha256Hex(composeParser.encodeResourceToString(valueSet));
+
+      String key = DigestUtils.sha256Hex(fhirServer + "|" + url + "|" + valueSetVersion);
+      return Paths.get(expansionCachePath, key + "-" + composeHash + ".json");
+   }
+
+   private boolean isExpired(Path cacheFile) {
+      if (expansionCacheTtl == null || expansionCacheTtl <= 0) {
+         return false;
+      }
+      try {
+         long age = System.currentTimeMillis() - Files.getLastModifiedTime(cacheFile).toMillis();
+         return age > TimeUnit.HOURS.toMillis(expansionCacheTtl);
+      } catch (IOException e) {
+         return true;
+      }
+   }
+
+   // Written to a temporary file and moved into place, so a concurrent or interrupted run never leaves a partial entry
+   private void writeCacheFile(Path cacheFile, IBaseResource expanded) {
+      try {
+         Files.createDirectories(cacheFile.getParent());
+         Path temp = Files.createTempFile(cacheFile.getParent(), "expansion", ".tmp");
+         Files.write(temp, fhirContext.newJsonParser().encodeResourceToString(expanded).getBytes(StandardCharsets.UTF_8));
+         try {
+            Files.move(temp, cacheFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+         } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, cacheFile, StandardCopyOption.REPLACE_EXISTING);
+         }
+      } catch (IOException e) {
+         logger.warn("Unable to cache expansion {}: {}", cacheFile, e.getMessage());
+      }
+   }
+
+   private String getSummary() {
+      List<Long> latencies;
+      synchronized (expansionLatencies) {
+         latencies = new ArrayList<>(expansionLatencies);
+      }
+      Collections.sort(latencies);
+      long total = latencies.stream().mapToLong(Long::longValue).sum();
+      return String.format("ValueSet expansion: %d expanded, %d from cache, %d failed; server time total=%dms, avg=%dms, max=%dms",
+              expansionCount.get(), cacheHitCount.get(), failureCount.get(), total,
+              latencies.isEmpty() ? 0 : total / latencies.size(),
+              latencies.isEmpty() ? 0 : latencies.get(latencies.size() - 1));
+   }
+
    private void expandAndWriteValueSet(IBaseResource resource) {
       if (resource.fhirType().equalsIgnoreCase("valueset")) {
          IBaseResource expandedVs = expandValueSet(resource);
@@ -116,6 +245,30 @@ public class FhirTxExpansion implements ExecutableOperation {
       this.outputPath = outputPath;
    }
 
+   public Integer getMaxConcurrentExpansions() {
+      return maxConcurrentExpansions;
+   }
+
+   public void setMaxConcurrentExpansions(Integer maxConcurrentExpansions) {
+      this.maxConcurrentExpansions = maxConcurrentExpansions;
+   }
+
+   public String getExpansionCachePath() {
+      return expansionCachePath;
+   }
+
+   public void setExpansionCachePath(String expansionCachePath) {
+      this.expansionCachePath = expansionCachePath;
+   }
+
+   public Integer getExpansionCacheTtl() {
+      return expansionCacheTtl;
+   }
+
+   public void setExpansionCacheTtl(Integer expansionCacheTtl) {
+      this.expansionCacheTtl = expansionCacheTtl;
+   }
+
    public void setFhirContext(FhirContext fhirContext) {
       this.fhirContext = fhirContext;
    }
@@ -8,4 +8,11 @@ public class PostBundlesInDirParameters {
     public String fhirUri;
     public FHIRVersion fhirVersion;
     public IOUtils.Encoding encoding;
+    public Integer postConcurrency;
+    public boolean gzipPostBodies;
+    public Integer maxPostAttempts;
+    public String resumeFailedPostsPath;
+    public Integer queueSize;
+    public String deltaManifestPath;
+    public boolean verifyDeltaManifest;
 }
\ No newline at end of file
@@ -27,4 +27,14 @@ public class RefreshIGParameters {
     public Boolean verboseMessaging;
     public String updatedVersion;
     public Boolean includePopulationLevelDataRequirements;
+    public Integer cqlTranslationThreadCount;
+    public String elmCachePath;
+    public String packageSnapshotPath;
+    public Integer postConcurrency;
+    public Boolean gzipPostBodies;
+    public Integer maxPostAttempts;
+    public String deltaManifestPath;
+    public Boolean verifyDeltaManifest;
+    public Integer postBatchSize;
+    public Long postBatchBytes;
 }
@@ -43,4 +43,9 @@ public class TestIGParameters {
     Execution engine (i.e., CQF Ruler) to load the test content to and run the evaluation on.
     */
     public String fhirServerUri;
+
+    /*
+    The maximum number of test cases run at the same time
+    */
+    public Integer testConcurrency;
 }
@@ -9,4 +9,5 @@ public class VmrToFhirParameters {
     public String fhirOutputPath;
     public Encoding encoding;
     public String fhirVersion;
+    public boolean streaming;
 }
@@ -73,6 +73,16 @@ public class BaseProcessor implements IProcessorContext, IWorkerContext.ILogging
         return packageManager;
     }
 
+    private String packageSnapshotPath;
+
+    /*
+     * @param packageSnapshotPath Directory in which the resolved IG dependencies are recorded across runs (see
+     * NpmPackageManager); must be set before the processor is initialized
+     */
+    public void setPackageSnapshotPath(String packageSnapshotPath) {
+        this.packageSnapshotPath = packageSnapshotPath;
+    }
+
     protected IProcessorContext parentContext;
 
     public Boolean verboseMessaging = false;
@@ -122,7 +132,7 @@ public class BaseProcessor implements IProcessorContext, IWorkerContext.ILogging
         this.fhirVersion = sourceIg.getFhirVersion().get(0).getCode();
         packageId = sourceIg.getPackageId();
         canonicalBase = determineCanonical(sourceIg.getUrl());
-        packageManager = new NpmPackageManager(sourceIg, this.fhirVersion);
+        packageManager = new NpmPackageManager(sourceIg, this.fhirVersion, packageSnapshotPath);
 
         // Setup binary paths (cql source directories)
         binaryPaths = IGUtils.extractBinaryPaths(rootDir, sourceIg);
@@ -2,11 +2,21 @@ package org.opencds.cqf.tooling.processor;
 
 import java.io.File;
 import java.io.FilenameFilter;
+import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.CodeSource;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.cqframework.cql.cql2elm.CqlCompilerException;
 import org.cqframework.cql.cql2elm.CqlCompilerOptions;
 import org.cqframework.cql.cql2elm.CqlTranslator;
@@ -31,6 +41,8 @@ import org.hl7.fhir.utilities.npm.NpmPackage;
 import org.hl7.fhir.utilities.validation.ValidationMessage;
 import org.hl7.fhir.utilities.validation.ValidationMessage.IssueSeverity;
 import org.hl7.fhir.utilities.validation.ValidationMessage.IssueType;
+import org.opencds.cqf.tooling.cql.CqlIncludeGraph;
+import org.opencds.cqf.tooling.cql.SynchronizedModelManager;
 import org.opencds.cqf.tooling.npm.ILibraryReader;
 import org.opencds.cqf.tooling.npm.NpmLibrarySourceProvider;
 import org.opencds.cqf.tooling.npm.NpmModelInfoProvider;
@@ -195,6 +207,11 @@ public class CqlProcessor {
             for (String folder : folders) {
                 translateFolder(folder);
             }
+
+            if (elmCache != null) {
+                logger.logMessage(String.format("ELM cache: %d translations reused, %d translated",
+                        elmCache.getHitCount(), elmCache.getMissCount()));
+            }
         }
         catch (Exception E) {
             logger.logDebugMessage(ILoggingService.LogCategory.PROGRESS, String.format("Errors occurred attempting to translate CQL content: %s", E.getMessage()));
@@ -280,6 +297,33 @@ public class CqlProcessor {
         return cachedLibraryManager;
     }
 
+    private int translationThreadCount = 1;
+
+    /**
+     * Sets the number of threads used to translate the CQL files within a folder. When greater than one, files are
+     * translated in include order, and files that do not depend on each other are translated concurrently.
+     *
+     * @param translationThreadCount The number of translation threads, 1 (the default) translates sequentially
+     */
+    public void setTranslationThreadCount(int translationThreadCount) {
+        if (translationThreadCount < 1) {
+            throw new IllegalArgumentException("translationThreadCount must be at least 1");
+        }
+        this.translationThreadCount = translationThreadCount;
+    }
+
+    private ElmCache elmCache;
+
+    /**
+     * Sets a persistent cache of translation results. Files whose source, included library sources, translator
+     * options and translator version are unchanged since they were cached are not re-translated.
+     *
+     * @param elmCache The cache to use, or null to always translate
+     */
+    public void setElmCache(ElmCache elmCache) {
+        this.elmCache = elmCache;
+    }
+
     private void translateFolder(String folder) {
         System.out.printf("Translating CQL source in folder %s%n", folder);
 
@@ -288,26 +332,40 @@ public class CqlProcessor {
         // Setup
         // Construct DefaultLibrarySourceProvider
         // Construct FhirLibrarySourceProvider
-        ModelManager modelManager = new ModelManager();
-        LibraryManager libraryManager = new LibraryManager(modelManager, options.getCqlCompilerOptions());
-        if (options.getCqlCompilerOptions().getValidateUnits()) {
-            libraryManager.setUcumService(ucumService);
-        }
+        // Shared by the translation threads when translating concurrently, which resolve models as they need them
+        ModelManager modelManager = translationThreadCount > 1 ? new SynchronizedModelManager() : new ModelManager();
         if (packages != null) {
             modelManager.getModelInfoLoader().registerModelInfoProvider(new NpmModelInfoProvider(packages, reader, logger), true);
-            libraryManager.getLibrarySourceLoader().registerProvider(new NpmLibrarySourceProvider(packages, reader, logger));
         }
-        libraryManager.getLibrarySourceLoader().registerProvider(new DefaultLibrarySourceProvider(Paths.get(folder)));
-        libraryManager.getLibrarySourceLoader().registerProvider(new FhirLibrarySourceProvider());
         modelManager.getModelInfoLoader().registerModelInfoProvider(new DefaultModelInfoProvider(Paths.get(folder)));
 
-        loadNamespaces(libraryManager);
+        // Shared by all library managers created for this folder, so each library is compiled once
+        Map<VersionedIdentifier, CompiledLibrary> compiledLibraries = new ConcurrentHashMap<>();
+        LibraryManager libraryManager = createLibraryManager(folder, options, modelManager, compiledLibraries);
 
         // foreach *.cql file
-        boolean hadCqlFiles = false;
-        for (File file : new File(folder).listFiles(getCqlFilenameFilter())) {
-            hadCqlFiles = true;
-            translateFile(libraryManager, file, options.getCqlCompilerOptions());
+        File[] cqlFiles = new File(folder).listFiles(getCqlFilenameFilter());
+        boolean hadCqlFiles = cqlFiles.length > 0;
+        boolean translateConcurrently = translationThreadCount > 1 && cqlFiles.length > 1;
+
+        CqlIncludeGraph includeGraph = null;
+        if (hadCqlFiles && (translateConcurrently || elmCache != null)) {
+            try {
+                includeGraph = CqlIncludeGraph.fromFiles(Arrays.asList(cqlFiles));
+            } catch (IOException e) {
+                log.warn("Unable to read CQL library headers in folder {}: {}", folder, e.getMessage());
+            }
+        }
+
+        Map<File, String> elmCacheKeys = elmCache != null && includeGraph != null
+                ? getElmCacheKeys(folder, includeGraph, cqlFiles) : Collections.emptyMap();
+        if (translateConcurrently && includeGraph != null) {
+            translateFilesConcurrently(folder, cqlFiles, includeGraph, options, modelManager, compiledLibraries, elmCacheKeys);
+        }
+        else {
+            for (File file : cqlFiles) {
+                translateFile(libraryManager, file, options.getCqlCompilerOptions(), elmCacheKeys.get(file));
+            }
         }
 
         if (hadCqlFiles) {
@@ -327,6 +385,22 @@ public class CqlProcessor {
         }
     }
 
+    private LibraryManager createLibraryManager(String folder, CqlTranslatorOptions options, ModelManager modelManager,
+                                                Map<VersionedIdentifier, CompiledLibrary> compiledLibraries) {
+        LibraryManager libraryManager = new LibraryManager(modelManager, options.getCqlCompilerOptions(), compiledLibraries);
+        if (options.getCqlCompilerOptions().getValidateUnits()) {
+            libraryManager.setUcumService(ucumService);
+        }
+        if (packages != null) {
+            libraryManager.getLibrarySourceLoader().registerProvider(new NpmLibrarySourceProvider(packages, reader, logger));
+        }
+        libraryManager.getLibrarySourceLoader().registerProvider(new DefaultLibrarySourceProvider(Paths.get(folder)));
+        libraryManager.getLibrarySourceLoader().registerProvider(new FhirLibrarySourceProvider());
+
+        loadNamespaces(libraryManager);
+        return libraryManager;
+    }
+
     private void loadNamespaces(LibraryManager libraryManager) {
         if (namespaceInfo != null) {
             libraryManager.getNamespaceManager().addNamespace(namespaceInfo);
@@ -373,10 +447,207 @@ public class CqlProcessor {
         }
     }
 
-    private void translateFile(LibraryManager libraryManager, File file, CqlCompilerOptions options) {
+    private static volatile String translatorVersion;
+
+    /**
+     * @return The implementation version of the translator, or a hash of the jar it was loaded from when the version
+     * isn't recorded in the manifest (shaded jars), or null when neither is available (classes directories).
+     */
+    static String getTranslatorVersion() {
+        if (translatorVersion == null) {
+            String version = CqlTranslator.class.getPackage().getImplementationVersion();
+            if (version == null) {
+                try {
+                    CodeSource codeSource = CqlTranslator.class.getProtectionDomain().getCodeSource();
+                    Path location = codeSource == null ? null : Paths.get(codeSource.getLocation().toURI());
+                    if (location != null && Files.isRegularFile(location)) {
+                        version = "sha256:" + DigestUtils.sha256Hex(Files.readAllBytes(location));
+                    }
+                } catch (Exception e) {
+                    log.debug("Unable to hash the translator jar: {}", e.getMessage());
+                }
+            }
+            translatorVersion = version == null ? "" : version;
+        }
+        return translatorVersion.isEmpty() ? null : translatorVersion;
+    }
+
+    private Map<File, String> getElmCacheKeys(String folder, CqlIncludeGraph includeGraph, File[] cqlFiles) {
+        String version = getTranslatorVersion();
+        if (version == null) {
+            log.warn("Unable to identify the CQL translator version, translating without the ELM cache");
+            return Collections.emptyMap();
+        }
+        try {
+            // Everything besides the library sources that can change the translation result
+            StringBuilder context = new StringBuilder()
+                    .append(version).append('\n')
+                    .append(namespaceInfo == null ? "" : namespaceInfo.getName() + "|" + namespaceInfo.getUri()).append('\n')
+                    .append(verboseMessaging).append('\n');
+            File optionsFile = new File(folder, "cql-options.json");
+            if (optionsFile.exists()) {
+                context.append(DigestUtils.sha256Hex(Files.readAllBytes(optionsFile.toPath())));
+            }
+            context.append('\n');
+            // Model info files in the folder, which the DefaultModelInfoProvider prefers over the built-in models
+            File[] modelInfoFiles = new File(folder).listFiles(
+                    (dir, name) -> name.toLowerCase().contains("-modelinfo") && name.toLowerCase().endsWith(".xml"));
+            if (modelInfoFiles != null) {
+                Arrays.sort(modelInfoFiles);
+                for (File modelInfoFile : modelInfoFiles) {
+                    context.append(modelInfoFile.getName()).append('#')
+                            .append(DigestUtils.sha256Hex(Files.readAllBytes(modelInfoFile.toPath()))).append('\n');
+                }
+            }
+            if (packages != null) {
+                for (NpmPackage p : packages) {
+                    context.append(p.name()).append('#').append(p.version()).append('\n');
+                }
+            }
+
+            Map<File, String> sourceHashes = new HashMap<>();
+            for (File file : cqlFiles) {
+                sourceHashes.put(file, DigestUtils.sha256Hex(Files.readAllBytes(file.toPath())));
+            }
+
+            Map<File, String> keys = new HashMap<>();
+            for (File file : cqlFiles) {
+                getElmCacheKey(file, context.toString(), includeGraph, sourceHashes, keys, new HashSet<>());
+            }
+            return keys;
+        } catch (IOException e) {
+            log.warn("Unable to compute ELM cache keys for folder {}, translating without the cache: {}", folder, e.getMessage());
+            return Collections.emptyMap();
+        }
+    }
+
+    private String getElmCacheKey(File file, String context, CqlIncludeGraph includeGraph, Map<File, String> sourceHashes,
+                                  Map<File, String> keys, Set<File> visiting) {
+        String key = keys.get(file);
+        if (key != null) {
+            return key;
+        }
+
+        StringBuilder input = new StringBuilder(context).append(sourceHashes.get(file));
+        visiting.add(file);
+        for (File include : includeGraph.getIncludes(file)) {
+            // Include cycles fail translation, so any key will do for them
+            input.append('\n').append(visiting.contains(include)
+                    ? sourceHashes.get(include)
+                    : getElmCacheKey(include, context, includeGraph, sourceHashes, keys, visiting));
+        }
+        visiting.remove(file);
+
+        key = DigestUtils.sha256Hex(input.toString());
+        keys.put(file, key);
+        return key;
+    }
+
+    private CqlSourceFileInformation loadCachedTranslation(File file, String key, CqlCompilerOptions options) {
+        ElmCache.Entry entry = elmCache.get(key);
+        if (entry == null) {
+            return null;
+        }
+
+        try {
+            org.hl7.fhir.r5.model.Library requirementsLibrary =
+                    (org.hl7.fhir.r5.model.Library) new org.hl7.fhir.r5.formats.JsonParser().parse(entry.getRequirements());
+
+            CqlSourceFileInformation result = new CqlSourceFileInformation(file.getAbsolutePath());
+            result.setOptions(new CqlTranslatorOptions().withCqlCompilerOptions(options));
+            result.setCql(entry.getCql());
+            result.setElm(entry.getElm());
+            result.setJsonElm(entry.getJsonElm());
+            result.setIdentifier(new VersionedIdentifier().withId(entry.getLibraryName())
+                    .withSystem(entry.getLibrarySystem()).withVersion(entry.getLibraryVersion()));
+            result.getErrors().addAll(entry.getMessages());
+            result.relatedArtifacts.addAll(requirementsLibrary.getRelatedArtifact());
+            result.parameters.addAll(requirementsLibrary.getParameter());
+            result.dataRequirements.addAll(requirementsLibrary.getDataRequirement());
+
+            logger.logMessage(entry.getStatusMessage());
+            return result;
+        } catch (Exception e) {
+            log.warn("Ignoring ELM cache entry for {}: {}", file.getName(), e.getMessage());
+            return null;
+        }
+    }
+
+    private void cacheTranslation(String key, CqlSourceFileInformation result,
+                                  org.hl7.fhir.r5.model.Library requirementsLibrary, String statusMessage) {
+        try {
+            ElmCache.Entry entry = new ElmCache.Entry();
+            entry.setCql(result.getCql());
+            entry.setElm(result.getElm());
+            entry.setJsonElm(result.getJsonElm());
+            entry.setLibraryName(result.getIdentifier().getId());
+            entry.setLibrarySystem(result.getIdentifier().getSystem());
+            entry.setLibraryVersion(result.getIdentifier().getVersion());
+            entry.setRequirements(new org.hl7.fhir.r5.formats.JsonParser().composeBytes(requirementsLibrary));
+            entry.setMessages(new ArrayList<>(result.getErrors()));
+            entry.setStatusMessage(statusMessage);
+            elmCache.put(key, entry);
+        } catch (Exception e) {
+            log.warn("Unable to cache translation of {}: {}", result.getPath(), e.getMessage());
+        }
+    }
+
+    private void translateFilesConcurrently(String folder, File[] cqlFiles, CqlIncludeGraph includeGraph, CqlTranslatorOptions options,
+                                            ModelManager modelManager, Map<VersionedIdentifier, CompiledLibrary> compiledLibraries,
+                                            Map<File, String> elmCacheKeys) {
+        // A library manager tracks the libraries it is compiling, so each thread gets its own
+        ThreadLocal<LibraryManager> libraryManagers = ThreadLocal.withInitial(
+                () -> createLibraryManager(folder, options, modelManager, compiledLibraries));
+        Map<File, CqlSourceFileInformation> results = new ConcurrentHashMap<>();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(translationThreadCount, cqlFiles.length));
+        try {
+            // Each wave only includes libraries translated in earlier waves, which are then resolved from the shared cache
+            for (List<File> wave : includeGraph.getTranslationWaves()) {
+                List<Callable<Void>> tasks = new ArrayList<>();
+                for (File file : wave) {
+                    tasks.add(() -> {
+                        results.put(file, translate(libraryManagers.get(), file, options.getCqlCompilerOptions(),
+                                elmCacheKeys.get(file)));
+                        return null;
+                    });
+                }
+                for (Future<Void> future : executor.invokeAll(tasks)) {
+                    future.get();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(String.format("Translation of CQL source in folder %s was interrupted", folder), e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(String.format("Errors occurred translating CQL source in folder %s", folder), e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+
+        // Populate the file map in listing order, as the sequential translation does
+        for (File file : cqlFiles) {
+            CqlSourceFileInformation result = results.get(file);
+            if (result != null) {
+                fileMap.put(file.getAbsoluteFile().toString(), result);
+            }
+        }
+    }
+
+    private void translateFile(LibraryManager libraryManager, File file, CqlCompilerOptions options, String elmCacheKey) {
+        fileMap.put(file.getAbsoluteFile().toString(), translate(libraryManager, file, options, elmCacheKey));
+    }
+
+    private CqlSourceFileInformation translate(LibraryManager libraryManager, File file, CqlCompilerOptions options,
+                                               String elmCacheKey) {
 //        logger.logMessage(String.format("Translating CQL source in file %s", file.toString()));
+        if (elmCacheKey != null) {
+            CqlSourceFileInformation cached = loadCachedTranslation(file, elmCacheKey, options);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
         CqlSourceFileInformation result = new CqlSourceFileInformation(file.getAbsolutePath());
-        fileMap.put(file.getAbsoluteFile().toString(), result);
 
         if (options.getValidateUnits()) {
             libraryManager.setUcumService(ucumService);
@@ -439,6 +710,11 @@ public class CqlProcessor {
                     // Extract dataRequirement data
                     result.dataRequirements.addAll(requirementsLibrary.getDataRequirement());
 
+                    if (elmCacheKey != null) {
+                        cacheTranslation(elmCacheKey, result, requirementsLibrary,
+                                buildStatusMessage(translator.getErrors(), file.getName(), verboseMessaging));
+                    }
+
                 } catch (Exception ex) {
                     logger.logMessage(String.format("CQL Translation succeeded for file: '%s', but ELM generation failed with the following error: %s", file.getAbsolutePath(), ex.getMessage()));
                 }
@@ -451,7 +727,7 @@ public class CqlProcessor {
             result.getErrors().add(new ValidationMessage(ValidationMessage.Source.Publisher, IssueType.EXCEPTION, file.getName(), "CQL Processing failed with exception: "+e.getMessage(), IssueSeverity.ERROR));
         }
 
-
+        return result;
     }
 
     private FilenameFilter getCqlFilenameFilter() {
@@ -0,0 +1,239 @@
+package org.opencds.cqf.tooling.processor;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.apache.commons.io.FileUtils;
+import org.hl7.fhir.utilities.validation.ValidationMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A content-addressed, on-disk cache of CQL translation results.
+ * <p>
+ * Each entry is stored in its own directory named by the cache key, which callers derive from everything that can
+ * affect the translation (CQL source, included library sources, translator options and translator version). Entries
+ * are never updated in place; a changed input produces a new key. Entries are written to a temporary directory and
+ * moved into place, so concurrent writers and interrupted runs never leave a partial entry behind.
+ */
+public class ElmCache {
+    private static final Logger logger = LoggerFactory.getLogger(ElmCache.class);
+
+    private static final String CQL_FILE = "library.cql";
+    private static final String ELM_XML_FILE = "elm.xml";
+    private static final String ELM_JSON_FILE = "elm.json";
+    private static final String REQUIREMENTS_FILE = "requirements.json";
+    private static final String INFO_FILE = "info.json";
+
+    private final Path cacheDirectory;
+    private final AtomicInteger hitCount = new AtomicInteger();
+    private final AtomicInteger missCount = new AtomicInteger();
+
+    public ElmCache(String cacheDirectory) {
+        this.cacheDirectory = Paths.get(cacheDirectory);
+    }
+
+    /**
+     * A cached translation result.
+     */
+    public static class Entry {
+        private byte[] cql;
+        private byte[] elm;
+        private byte[] jsonElm;
+        private String libraryName;
+        private String librarySystem;
+        private String libraryVersion;
+        private byte[] requirements;
+        private List<ValidationMessage> messages = new ArrayList<>();
+        private String statusMessage;
+
+        public byte[] getCql() {
+            return cql;
+        }
+        public void setCql(byte[] cql) {
+            this.cql = cql;
+        }
+        public byte[] getElm() {
+            return elm;
+        }
+        public void setElm(byte[] elm) {
+            this.elm = elm;
+        }
+        public byte[] getJsonElm() {
+            return jsonElm;
+        }
+        public void setJsonElm(byte[] jsonElm) {
+            this.jsonElm = jsonElm;
+        }
+        public String getLibraryName() {
+            return libraryName;
+        }
+        public void setLibraryName(String libraryName) {
+            this.libraryName = libraryName;
+        }
+        public String getLibrarySystem() {
+            return librarySystem;
+        }
+        public void setLibrarySystem(String librarySystem) {
+            this.librarySystem = librarySystem;
+        }
+        public String getLibraryVersion() {
+            return libraryVersion;
+        }
+        public void setLibraryVersion(String libraryVersion) {
+            this.libraryVersion = libraryVersion;
+        }
+        /**
+         * @return The data requirements library (R5 JSON) gathered for the translated library
+         */
+        public byte[] getRequirements() {
+            return requirements;
+        }
+        public void setRequirements(byte[] requirements) {
+            this.requirements = requirements;
+        }
+        public List<ValidationMessage> getMessages() {
+            return messages;
+        }
+        public void setMessages(List<ValidationMessage> messages) {
+            this.messages = messages;
+        }
+        public String getStatusMessage() {
+            return statusMessage;
+        }
+        public void setStatusMessage(String statusMessage) {
+            this.statusMessage = statusMessage;
+        }
+    }
+
+    /**
+     * @param key The cache key
+     * @return The cached entry, or null if there is no (readable) entry for the key
+     */
+    public Entry get(String key) {
+        Path entryDirectory = cacheDirectory.resolve(key);
+        if (!Files.isDirectory(entryDirectory)) {
+            missCount.incrementAndGet();
+            return null;
+        }
+
+        try {
+            Entry entry = new Entry();
+            entry.setCql(Files.readAllBytes(entryDirectory.resolve(CQL_FILE)));
+            entry.setElm(Files.readAllBytes(entryDirectory.resolve(ELM_XML_FILE)));
+            entry.setJsonElm(Files.readAllBytes(entryDirectory.resolve(ELM_JSON_FILE)));
+            entry.setRequirements(Files.readAllBytes(entryDirectory.resolve(REQUIREMENTS_FILE)));
+            readInfo(entry, new String(Files.readAllBytes(entryDirectory.resolve(INFO_FILE)), StandardCharsets.UTF_8));
+            hitCount.incrementAndGet();
+            return entry;
+        } catch (Exception e) {
+            logger.warn("Ignoring unreadable ELM cache entry {}: {}", entryDirectory, e.getMessage());
+            missCount.incrementAndGet();
+            return null;
+        }
+    }
+
+    public void put(String key, Entry entry) {
+        Path entryDirectory = cacheDirectory.resolve(key);
+        if (Files.isDirectory(entryDirectory)) {
+            return;
+        }
+
+        Path tempDirectory = null;
+        try {
+            Files.createDirectories(cacheDirectory);
+            tempDirectory = Files.createTempDirectory(cacheDirectory, key + ".tmp");
+            Files.write(tempDirectory.resolve(CQL_FILE), entry.getCql());
+            Files.write(tempDirectory.resolve(ELM_XML_FILE), entry.getElm());
+            Files.write(tempDirectory.resolve(ELM_JSON_FILE), entry.getJsonElm());
+            Files.write(tempDirectory.resolve(REQUIREMENTS_FILE), entry.getRequirements());
+            Files.write(tempDirectory.resolve(INFO_FILE), writeInfo(entry).getBytes(StandardCharsets.UTF_8));
+            Files.move(tempDirectory, entryDirectory, StandardCopyOption.ATOMIC_MOVE);
+            tempDirectory = null;
+        } catch (FileAlreadyExistsException | DirectoryNotEmptyException | AtomicMoveNotSupportedException e) {
+            // Another writer stored the same entry first, or the file system can't guarantee a complete entry
+        } catch (IOException e) {
+            logger.warn("Unable to write ELM cache entry {}: {}", entryDirectory, e.getMessage());
+        } finally {
+            if (tempDirectory != null) {
+                FileUtils.deleteQuietly(tempDirectory.toFile());
+            }
+        }
+    }
+
+    public int getHitCount() {
+        return hitCount.get();
+    }
+
+    public int getMissCount() {
+        return missCount.get();
+    }
+
+    private static String writeInfo(Entry entry) {
+        JsonObject info = new JsonObject();
+        info.addProperty("libraryName", entry.getLibraryName());
+        info.addProperty("librarySystem", entry.getLibrarySystem());
+        info.addProperty("libraryVersion", entry.getLibraryVersion());
+        info.addProperty("statusMessage", entry.getStatusMessage());
+
+        JsonArray messages = new JsonArray();
+        for (ValidationMessage message : entry.getMessages()) {
+            JsonObject json = new JsonObject();
+            json.addProperty("source", message.getSource() == null ? null : message.getSource().name());
+            json.addProperty("type", message.getType() == null ? null : message.getType().name());
+            json.addProperty("line", message.getLine());
+            json.addProperty("col", message.getCol());
+            json.addProperty("location", message.getLocation());
+            json.addProperty("message", message.getMessage());
+            json.addProperty("level", message.getLevel() == null ? null : message.getLevel().name());
+            messages.add(json);
+        }
+        info.add("messages", messages);
+
+        return info.toString();
+    }
+
+    private static void readInfo(Entry entry, String json) {
+        JsonObject info = JsonParser.parseString(json).getAsJsonObject();
+        entry.setLibraryName(getString(info, "libraryName"));
+        entry.setLibrarySystem(getString(info, "librarySystem"));
+        entry.setLibraryVersion(getString(info, "libraryVersion"));
+        entry.setStatusMessage(getString(info, "statusMessage"));
+
+        List<ValidationMessage> messages = new ArrayList<>();
+        for (JsonElement element : info.getAsJsonArray("messages")) {
+            JsonObject json = element.getAsJsonObject();
+            String source = getString(json, "source");
+            String type = getString(json, "type");
+            String level = getString(json, "level");
+            messages.add(new ValidationMessage(
+                    source == null ? null : ValidationMessage.Source.valueOf(source),
+                    type == null ? null : ValidationMessage.IssueType.valueOf(type),
+                    json.get("line").getAsInt(),
+                    json.get("col").getAsInt(),
+                    getString(json, "location"),
+                    getString(json, "message"),
+                    level == null ? null : ValidationMessage.IssueSeverity.valueOf(level)));
+        }
+        entry.setMessages(messages);
+    }
+
+    private static String getString(JsonObject json, String name) {
+        JsonElement element = json.get(name);
+        return element == null || element.isJsonNull() ? null : element.getAsString();
+    }
+}
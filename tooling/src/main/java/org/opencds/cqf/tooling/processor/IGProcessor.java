@@ -14,6 +14,7 @@ import org.hl7.fhir.utilities.Utilities;
 import org.opencds.cqf.tooling.library.LibraryProcessor;
 import org.opencds.cqf.tooling.measure.MeasureProcessor;
 import org.opencds.cqf.tooling.parameter.RefreshIGParameters;
+import org.opencds.cqf.tooling.utilities.HttpClientUtils;
 import org.opencds.cqf.tooling.utilities.IGUtils;
 import org.opencds.cqf.tooling.utilities.IOUtils;
 import org.opencds.cqf.tooling.utilities.IOUtils.Encoding;
@@ -58,6 +59,9 @@ public class IGProcessor extends BaseProcessor {
             throw new IllegalArgumentException("Either the ini argument or both igPath and rootDir must be provided");
         }
 
+        if (!Strings.isNullOrEmpty(params.packageSnapshotPath)) {
+            setPackageSnapshotPath(params.packageSnapshotPath);
+        }
         if (params.ini != null) {
             initializeFromIni(params.ini);
         } else {
@@ -98,6 +102,18 @@ public class IGProcessor extends BaseProcessor {
         Boolean skipPackages = params.skipPackages;
 
         if (!skipPackages) {
+            if (params.postConcurrency != null) {
+                HttpClientUtils.setMaxSimultaneousPostCount(params.postConcurrency);
+            }
+            HttpClientUtils.setGzipPostBodies(Boolean.TRUE.equals(params.gzipPostBodies));
+            if (params.maxPostAttempts != null) {
+                HttpClientUtils.setMaxPostAttempts(params.maxPostAttempts);
+            }
+            HttpClientUtils.setPostManifest(params.deltaManifestPath, Boolean.TRUE.equals(params.verifyDeltaManifest));
+            if (params.postBatchSize != null) {
+                HttpClientUtils.setPostBatching(params.postBatchSize,
+                        params.postBatchBytes != null ? params.postBatchBytes : HttpClientUtils.DEFAULT_MAX_POST_BATCH_BYTES);
+            }
             new IGBundleProcessor(params.verboseMessaging, new LibraryProcessor(), new CDSHooksProcessor()).bundleIg(
                     refreshedResourcesNames,
                     rootDir,
@@ -150,6 +166,13 @@ public class IGProcessor extends BaseProcessor {
         FhirContext fhirContext = IGProcessor.getIgFhirContext(fhirVersion);
         IGProcessor.ensure(rootDir, includePatientScenarios, params.includeTerminology, IOUtils.resourceDirectories);
 
+        if (params.cqlTranslationThreadCount != null) {
+            getCqlProcessor().setTranslationThreadCount(params.cqlTranslationThreadCount);
+        }
+        if (!Strings.isNullOrEmpty(params.elmCachePath)) {
+            getCqlProcessor().setElmCache(new ElmCache(params.elmCachePath));
+        }
+
         refreshedResourcesNames.addAll(new LibraryProcessor()
                 .refreshIgLibraryContent(this, encoding, params.libraryPath, params.libraryOutputPath,
                         versioned, fhirContext, params.shouldApplySoftwareSystemStamp));
@@ -10,6 +10,7 @@ import org.hl7.fhir.ParametersParameter;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.opencds.cqf.tooling.common.BaseCqfmSoftwareSystemHelper;
 import org.opencds.cqf.tooling.common.CqfmSoftwareSystem;
+import org.opencds.cqf.tooling.common.ThreadUtils;
 import org.opencds.cqf.tooling.measure.MeasureTestProcessor;
 import org.opencds.cqf.tooling.parameter.TestIGParameters;
 import org.opencds.cqf.tooling.utilities.*;
@@ -18,6 +19,9 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 
 
@@ -25,6 +29,11 @@ public class IGTestProcessor extends BaseProcessor {
 
     private static final Logger logger = LoggerFactory.getLogger(IGTestProcessor.class);
 
+    // Test cases evaluated locally are CPU-bound; against a FHIR server they run one at a time unless asked otherwise,
+    // so a shared server isn't loaded with concurrent requests by default
+    public static final int DEFAULT_TEST_CONCURRENCY = Math.max(1, Runtime.getRuntime().availableProcessors());
+    public static final int DEFAULT_SERVER_TEST_CONCURRENCY = 1;
+
     public class TestCaseResultSummaryComparator implements Comparator<TestCaseResultSummary> {
         public int compare(TestCaseResultSummary o1, TestCaseResultSummary o2) {
             int value1 = o1.resourceTypeGroup.compareTo(o2.resourceTypeGroup);
@@ -170,7 +179,8 @@ public class IGTestProcessor extends BaseProcessor {
             initializeFromIg(params.rootDir, params.igPath, fhirContext.getVersion().toString());
         }
 
-        CqfmSoftwareSystem testTargetSoftwareSystem =  getCqfRulerSoftwareSystem(params.fhirServerUri);
+        // Without a FHIR server, test cases are evaluated locally and there is no test target system to stamp
+        CqfmSoftwareSystem testTargetSoftwareSystem = params.fhirServerUri == null ? null : getCqfRulerSoftwareSystem(params.fhirServerUri);
 
         logger.info("[Running IG Test Cases]");
 
@@ -186,84 +196,98 @@ public class IGTestProcessor extends BaseProcessor {
         testCaseProcessor.refreshTestCases(params.testCasesPath, IOUtils.Encoding.JSON, fhirContext, verboseMessaging);
 
         List<TestCaseResultSummary> TestResults = new ArrayList<TestCaseResultSummary>();
+        List<Map.Entry<String, IBaseResource>> testedContentBundles = new ArrayList<>();
+        List<Callable<Void>> testCaseTasks = new ArrayList<>();
+        Set<TestCaseResultSummary> nonTestCaseFiles = ConcurrentHashMap.newKeySet();
 
         File[] resourceTypeTestGroups = testCasesDirectory.listFiles(File::isDirectory);
         //TODO: How can we validate the set of directories here - that they're actually FHIR resources - and message when they're not. Really it doesn't matter, it can be any grouping so long as it has a corresponding path in /bundles.
 
+        // Content bundles are loaded once per test artifact while the test cases are collected; the test cases
+        // themselves are then run concurrently, each reading its own test bundle
         if (resourceTypeTestGroups != null) {
+            Arrays.sort(resourceTypeTestGroups);
             for (File group : resourceTypeTestGroups) {
-                logger.info("Processing {} test cases...", group.getName());
+                logger.info("Collecting {} test cases...", group.getName());
 
                 // Get set of test artifacts
                 File[] testArtifactNames = group.listFiles(File::isDirectory);
 
                 if (testArtifactNames != null) {
+                    Arrays.sort(testArtifactNames);
                     for (File testArtifact : testArtifactNames) {
-                        logger.info("Processing test cases for {}: {}", group.getName(), testArtifact.getName());
-
                         // Get content bundle
                         Map.Entry<String, IBaseResource> testArtifactContentBundleMap = getContentBundleForTestArtifact(group.getName(), testArtifact.getName());
 
                         if ((testArtifactContentBundleMap == null) || testArtifactContentBundleMap.getValue() == null) {
                             logger.info("No content bundle found for {}: {}", group.getName(), testArtifact.getName());
-                            logger.info("Done processing all test cases for {}: {}", group.getName(), testArtifact.getName());
                             continue;
                         }
 
                         ITestProcessor testProcessor = getResourceTypeTestProcessor(group.getName());
-                        List<Map.Entry<String, IBaseResource>> testCasesBundles =
-                                BundleUtils.getBundlesInDir(testArtifact.getPath(), fhirContext, false);
+                        List<String> testCasePaths = IOUtils.getFilePaths(testArtifact.getPath(), false).stream()
+                                .filter(x -> !x.endsWith(".cql")).sorted().collect(Collectors.toList());
 
-                        for (Map.Entry<String, IBaseResource> testCaseBundleMapEntry : testCasesBundles) {
-                            IBaseResource testCaseBundle = testCaseBundleMapEntry.getValue();
+                        for (String testCasePath : testCasePaths) {
+                            // Identified by file name until the bundle is read
                             TestCaseResultSummary testCaseResult  = new TestCaseResultSummary(group.getName(), testArtifact.getName(),
-                                    testCaseBundle.getIdElement().toString());
-                            try {
-                                logger.info("Starting processing of test case '{}' for {}: {}", testCaseBundle.getIdElement(), group.getName(), testArtifact.getName());
-                                Parameters testResults = testProcessor.executeTest(testCaseBundle, testArtifactContentBundleMap.getValue(), params.fhirServerUri);
-
-                                Boolean testPassed = false;
-                                for (ParametersParameter param : testResults.getParameter()) {
-                                    if (param.getName().getValue().contains(MeasureTestProcessor.TestPassedKey)) {
-                                        testPassed = param.getValueBoolean().isValue();
-                                        break;
-                                    }
-                                }
-                                testCaseResult.setTestPassed(testPassed);
-                                logger.info("Done processing test case '{}' for {}: {}", testCaseBundle.getIdElement(), group.getName(), testArtifact.getName());
-                            } catch (Exception ex) {
-                                testCaseResult.setTestPassed(false);
-                                testCaseResult.setMessage(ex.getMessage());
-                                logger.error("Error: Test case '{}' for {}: {} failed with message: {}", testCaseBundle.getIdElement(), group.getName(), testArtifact.getName(), ex.getMessage());
-                            }
+                                    FilenameUtils.getBaseName(testCasePath));
                             TestResults.add(testCaseResult);
+                            testCaseTasks.add(() -> {
+                                IBaseResource testCaseBundle = readTestCaseBundle(testCasePath);
+                                if (testCaseBundle == null) {
+                                    nonTestCaseFiles.add(testCaseResult);
+                                    return null;
+                                }
+                                testCaseResult.setTestCaseID(testCaseBundle.getIdElement().toString());
+                                executeTestCase(testProcessor, testCaseBundle, testArtifactContentBundleMap.getValue(),
+                                        params.fhirServerUri, testCaseResult);
+                                return null;
+                            });
                         }
 
-                        logger.info(String.format("  Done processing all test cases for %s: %s", group.getName(), testArtifact.getName()));
-
-                        //all Test Artifact Tests Passed
-                        List<CqfmSoftwareSystem> softwareSystems = new ArrayList<CqfmSoftwareSystem>() {
-                            {
-                                add(testTargetSoftwareSystem);
-                            }
-                        };
-
-                        if ((fhirContext.getVersion().getVersion() == FhirVersionEnum.DSTU3) || (fhirContext.getVersion().getVersion() == FhirVersionEnum.R4)) {
-                            if (fhirContext.getVersion().getVersion() == FhirVersionEnum.DSTU3) {
-                                // Stamp the testContentBundle artifacts
-                                BundleUtils.stampDstu3BundleEntriesWithSoftwareSystems((org.hl7.fhir.dstu3.model.Bundle)testArtifactContentBundleMap.getValue(), softwareSystems, fhirContext, getRootDir());
-                            } else if (fhirContext.getVersion().getVersion() == FhirVersionEnum.R4) {
-                                BundleUtils.stampR4BundleEntriesWithSoftwareSystems((org.hl7.fhir.r4.model.Bundle)testArtifactContentBundleMap.getValue(), softwareSystems, fhirContext, getRootDir());
-                            }
-
-                            String bundleFilePath = testArtifactContentBundleMap.getKey();
-                            IBaseResource bundle = testArtifactContentBundleMap.getValue();
-                            IOUtils.writeResource(bundle, bundleFilePath, IOUtils.getEncoding(bundleFilePath), fhirContext);
-                        }
+                        testedContentBundles.add(testArtifactContentBundleMap);
                     }
                 }
+            }
+        }
+
+        int testConcurrency = params.testConcurrency != null ? params.testConcurrency
+                : params.fhirServerUri == null ? DEFAULT_TEST_CONCURRENCY : DEFAULT_SERVER_TEST_CONCURRENCY;
+        if (testConcurrency < 1) {
+            throw new IllegalArgumentException("test-concurrency must be at least 1: " + testConcurrency);
+        }
+        logger.info("Running {} test cases, up to {} at a time", testCaseTasks.size(), testConcurrency);
+        ThreadUtils.executeTasks(testCaseTasks, Executors.newFixedThreadPool(testConcurrency));
+        TestResults.removeAll(nonTestCaseFiles);
+        for (TestCaseResultSummary testCaseResult : TestResults) {
+            if (testCaseResult.getTestPassed() == null) {
+                testCaseResult.setTestPassed(false);
+                testCaseResult.setMessage("Test case did not complete");
+            }
+        }
+
+        //all Test Artifact Tests Passed
+        List<CqfmSoftwareSystem> softwareSystems = new ArrayList<CqfmSoftwareSystem>() {
+            {
+                add(testTargetSoftwareSystem);
+            }
+        };
+
+        // Stamp each tested content bundle once, after all of its test cases have run
+        for (Map.Entry<String, IBaseResource> testArtifactContentBundleMap : testedContentBundles) {
+            if (testTargetSoftwareSystem != null
+                    && ((fhirContext.getVersion().getVersion() == FhirVersionEnum.DSTU3) || (fhirContext.getVersion().getVersion() == FhirVersionEnum.R4))) {
+                if (fhirContext.getVersion().getVersion() == FhirVersionEnum.DSTU3) {
+                    // Stamp the testContentBundle artifacts
+                    BundleUtils.stampDstu3BundleEntriesWithSoftwareSystems((org.hl7.fhir.dstu3.model.Bundle)testArtifactContentBundleMap.getValue(), softwareSystems, fhirContext, getRootDir());
+                } else if (fhirContext.getVersion().getVersion() == FhirVersionEnum.R4) {
+                    BundleUtils.stampR4BundleEntriesWithSoftwareSystems((org.hl7.fhir.r4.model.Bundle)testArtifactContentBundleMap.getValue(), softwareSystems, fhirContext, getRootDir());
+                }
 
-                logger.info("Done processing {} test cases", group.getName());
+                String bundleFilePath = testArtifactContentBundleMap.getKey();
+                IBaseResource bundle = testArtifactContentBundleMap.getValue();
+                IOUtils.writeResource(bundle, bundleFilePath, IOUtils.getEncoding(bundleFilePath), fhirContext);
             }
         }
 
@@ -286,6 +310,41 @@ public class IGTestProcessor extends BaseProcessor {
         logger.info("{} tests passed", passedTests.size());
     }
 
+    // Parsed without caching, as each test bundle is used once; returns null for files that aren't bundles
+    private IBaseResource readTestCaseBundle(String path) {
+        try {
+            IBaseResource resource = IOUtils.parseResource(path, fhirContext);
+            return resource != null && resource.fhirType().equals("Bundle") ? resource : null;
+        } catch (Exception e) {
+            logger.warn("Unable to read test case {}: {}", path, e.getMessage());
+            return null;
+        }
+    }
+
+    private void executeTestCase(ITestProcessor testProcessor, IBaseResource testCaseBundle, IBaseResource contentBundle,
+                                 String fhirServerUri, TestCaseResultSummary testCaseResult) {
+        String groupName = testCaseResult.getResourceTypeGroup();
+        String testArtifactName = testCaseResult.getTestArtifactName();
+        try {
+            logger.info("Starting processing of test case '{}' for {}: {}", testCaseBundle.getIdElement(), groupName, testArtifactName);
+            Parameters testResults = testProcessor.executeTest(testCaseBundle, contentBundle, fhirServerUri);
+
+            Boolean testPassed = false;
+            for (ParametersParameter param : testResults.getParameter()) {
+                if (param.getName().getValue().contains(MeasureTestProcessor.TestPassedKey)) {
+                    testPassed = param.getValueBoolean().isValue();
+                    break;
+                }
+            }
+            testCaseResult.setTestPassed(testPassed);
+            logger.info("Done processing test case '{}' for {}: {}", testCaseBundle.getIdElement(), groupName, testArtifactName);
+        } catch (Exception ex) {
+            testCaseResult.setTestPassed(false);
+            testCaseResult.setMessage(ex.getMessage());
+            logger.error("Error: Test case '{}' for {}: {} failed with message: {}", testCaseBundle.getIdElement(), groupName, testArtifactName, ex.getMessage());
+        }
+    }
+
     private Map.Entry<String, IBaseResource> getContentBundleForTestArtifact(String groupName, String testArtifactName) {
         Map.Entry<String, IBaseResource> testArtifactContentBundle = null;
 
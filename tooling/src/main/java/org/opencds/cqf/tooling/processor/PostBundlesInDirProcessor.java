@@ -1,12 +1,16 @@
 package org.opencds.cqf.tooling.processor;
 
-import java.util.List;
-import java.util.Map;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
+import org.apache.commons.lang3.tuple.Pair;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.opencds.cqf.tooling.parameter.PostBundlesInDirParameters;
-import org.opencds.cqf.tooling.utilities.BundleUtils;
 import org.opencds.cqf.tooling.utilities.HttpClientUtils;
+import org.opencds.cqf.tooling.utilities.IOUtils;
+import org.opencds.cqf.tooling.utilities.ResourceUtils;
 import org.opencds.cqf.tooling.utilities.IOUtils.Encoding;
 
 import ca.uhn.fhir.context.FhirContext;
@@ -60,21 +64,141 @@ public class PostBundlesInDirProcessor {
         Encoding encoding = params.encoding;
         FhirContext fhirContext = getFhirContext(fhirVersion);
 
-        List<Map.Entry<String, IBaseResource>> resources = BundleUtils.getBundlesInDir(params.directoryPath, fhirContext);
-        resources.forEach(entry -> postBundleToFhirUri(fhirUri, encoding, fhirContext, entry.getValue()));
+        if (params.postConcurrency != null) {
+            HttpClientUtils.setMaxSimultaneousPostCount(params.postConcurrency);
+        }
+        HttpClientUtils.setGzipPostBodies(params.gzipPostBodies);
+        if (params.maxPostAttempts != null) {
+            HttpClientUtils.setMaxPostAttempts(params.maxPostAttempts);
+        }
+        HttpClientUtils.setPostManifest(params.deltaManifestPath, params.verifyDeltaManifest);
 
-        if (HttpClientUtils.hasPostTasksInQueue()){
+        if (params.resumeFailedPostsPath != null) {
+            try {
+                int count = HttpClientUtils.queueFailedPosts(params.resumeFailedPostsPath);
+                logger.info("Resuming {} failed POST calls from {}", count, params.resumeFailedPostsPath);
+            } catch (IOException e) {
+                logger.error("Unable to resume failed POST calls from {}: {}", params.resumeFailedPostsPath, e.getMessage());
+            }
+        }
+
+        if (params.directoryPath != null && fhirUri != null && !fhirUri.equals("")) {
+            int queueSize = params.queueSize != null ? params.queueSize : HttpClientUtils.getMaxSimultaneousPostCount() * 2;
+            streamBundlesInDir(params.directoryPath, fhirUri, encoding, fhirContext, queueSize);
+        }
+        else if (HttpClientUtils.hasPostTasksInQueue()){
             HttpClientUtils.postTaskCollection();
         }
     }
 
-    private static void postBundleToFhirUri(String fhirUri, Encoding encoding, FhirContext fhirContext, IBaseResource bundle) {
-        if (fhirUri != null && !fhirUri.equals("")) {
+    /*
+     * Posts the bundles in the directory as they are parsed: a parser thread reads the files into a bounded queue that
+     * the POST calls are made from, so parsing and posting overlap and no more than queueSize parsed bundles (plus those
+     * being posted) are held in memory at once, however large the directory.
+     */
+    private static void streamBundlesInDir(String directoryPath, String fhirUri, Encoding encoding, FhirContext fhirContext, int queueSize) {
+        if (queueSize < 1) {
+            throw new IllegalArgumentException("The queue size must be at least 1: " + queueSize);
+        }
+        if (!new File(directoryPath).isDirectory()) {
+            throw new IllegalArgumentException("path to directory must be an existing directory.");
+        }
+
+        BlockingQueue<Pair<String, IBaseResource>> bundles = new ArrayBlockingQueue<>(queueSize);
+        BundleParser parser = new BundleParser(directoryPath, fhirContext, bundles);
+        Thread parserThread = new Thread(parser, "PostBundlesInDir-parser");
+        parserThread.setDaemon(true);
+        parserThread.start();
+
+        try {
+            HttpClientUtils.postTaskStream(fhirUri, encoding, fhirContext, bundles);
+        } finally {
+            // Only still running if posting stopped early; don't leave it blocked on the full queue
+            parserThread.interrupt();
+            try {
+                parserThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        logger.info(String.format("Parsed %d bundles (%.1f MB) in %.1fs, waiting %.1fs for room in the queue of %d; skipped %d files that are not bundles, %d that could not be parsed",
+                parser.bundleCount, parser.bundleBytes / (1024.0 * 1024.0), parser.elapsedNanos / 1e9, parser.waitNanos / 1e9,
+                queueSize, parser.skippedCount, parser.failedCount));
+    }
+
+    private static class BundleParser implements Runnable {
+        private final String directoryPath;
+        private final FhirContext fhirContext;
+        private final BlockingQueue<Pair<String, IBaseResource>> bundles;
+
+        private int bundleCount;
+        private long bundleBytes;
+        private int skippedCount;
+        private int failedCount;
+        private long waitNanos;
+        private long elapsedNanos;
+
+        BundleParser(String directoryPath, FhirContext fhirContext, BlockingQueue<Pair<String, IBaseResource>> bundles) {
+            this.directoryPath = directoryPath;
+            this.fhirContext = fhirContext;
+            this.bundles = bundles;
+        }
+
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+            String bundleClassName = ResourceUtils.getResourceDefinition(fhirContext, "Bundle").getImplementingClass().getName();
             try {
-                HttpClientUtils.post(fhirUri, bundle, encoding, fhirContext, null);
-                logger.info("Resource successfully posted to FHIR server ({}): {}", fhirUri, bundle.getIdElement().getIdPart());
+                for (String path : IOUtils.getFilePaths(directoryPath, true)) {
+                    if (path.endsWith(".cql")) {
+                        continue;
+                    }
+
+                    IBaseResource resource;
+                    try {
+                        // Not cached: each file is read once, and caching would hold on to the bundles already posted
+                        resource = IOUtils.parseResource(path, fhirContext);
+                    } catch (Exception e) {
+                        logger.error("Unable to parse {}: {}", path, e.getMessage());
+                        failedCount++;
+                        continue;
+                    }
+                    if (resource == null || !bundleClassName.equals(resource.getClass().getName())) {
+                        skippedCount++;
+                        continue;
+                    }
+
+                    bundleCount++;
+                    bundleBytes += new File(path).length();
+                    long waitStart = System.nanoTime();
+                    bundles.put(Pair.of(path, resource));
+                    waitNanos += System.nanoTime() - waitStart;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             } catch (Exception e) {
-                logger.error("Error occurred for element {}: {}",bundle.getIdElement().getIdPart(), e.getMessage());
+                logger.error("Error while reading bundles from {}: {}", directoryPath, e.getMessage());
+            } finally {
+                elapsedNanos = System.nanoTime() - start;
+                endStream();
+            }
+        }
+
+        // The stream is ended however parsing stops. Once interrupted, posting has stopped and nothing will take the
+        // bundles still queued, so they are dropped to make room rather than blocking on a full queue
+        private void endStream() {
+            while (!bundles.offer(HttpClientUtils.END_OF_STREAM)) {
+                if (Thread.currentThread().isInterrupted()) {
+                    bundles.poll();
+                } else {
+                    try {
+                        bundles.put(HttpClientUtils.END_OF_STREAM);
+                        return;
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
             }
         }
     }
@@ -2,10 +2,21 @@ package org.opencds.cqf.tooling.processor;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import jakarta.xml.bind.JAXBContext;
 import jakarta.xml.bind.JAXBElement;
@@ -15,18 +26,30 @@ import jakarta.xml.bind.Unmarshaller;
 import org.hl7.fhir.instance.model.api.IAnyResource;
 import org.hl7.fhir.r4.model.IdType;
 import org.hl7.fhir.r4.model.Patient;
+import org.opencds.cqf.tooling.common.ThreadUtils;
 import org.opencds.cqf.tooling.parameter.VmrToFhirParameters;
+import org.opencds.cqf.tooling.utilities.FhirContextCache;
 import org.opencds.cqf.tooling.utilities.IOUtils;
 import org.opencds.cqf.tooling.utilities.IOUtils.Encoding;
 import org.opencds.cqf.tooling.vmrToFhir.VmrToFhirTransformer;
+import org.opencds.vmr.v1_0.schema.AdverseEvent;
 import org.opencds.vmr.v1_0.schema.CDSOutput;
+import org.opencds.vmr.v1_0.schema.EncounterEvent;
 import org.opencds.vmr.v1_0.schema.EvaluatedPerson;
+import org.opencds.vmr.v1_0.schema.ObservationOrder;
+import org.opencds.vmr.v1_0.schema.ObservationResult;
+import org.opencds.vmr.v1_0.schema.Problem;
+import org.opencds.vmr.v1_0.schema.ProcedureEvent;
+import org.opencds.vmr.v1_0.schema.ProcedureOrder;
+import org.opencds.vmr.v1_0.schema.SubstanceAdministrationEvent;
+import org.opencds.vmr.v1_0.schema.SubstanceAdministrationOrder;
 import org.opencds.vmr.v1_0.schema.VMR;
 import org.opencds.vmr.v1_0.schema.EvaluatedPerson.ClinicalStatements;
 import org.opencds.vmr.v1_0.schema.EvaluatedPerson.Demographics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import ca.uhn.fhir.context.FhirContext;
-import ca.uhn.fhir.context.FhirVersionEnum;
 import ca.uhn.fhir.util.BundleBuilder;
 
 /**
@@ -36,24 +59,95 @@ import ca.uhn.fhir.util.BundleBuilder;
  * @since 2021-04-05
  */
 public class VmrToFhirProcessor {
+    private static final Logger logger = LoggerFactory.getLogger(VmrToFhirProcessor.class);
+
+    // Building a JAXBContext means introspecting the whole vMR schema, so it is done once; it is thread safe,
+    // unmarshallers are not, so each thread keeps its own
+    private static JAXBContext jaxbContext;
+    private static final ThreadLocal<Unmarshaller> unmarshallers = ThreadLocal.withInitial(() -> {
+        try {
+            return getJaxbContext().createUnmarshaller();
+        } catch (JAXBException e) {
+            throw new RuntimeException(e);
+        }
+    });
+    private static final XMLInputFactory xmlInputFactory = XMLInputFactory.newFactory();
+
+    // The element names of the clinical statements under clinicalStatements/{statement}s
+    private static final Map<String, Class<?>> statementTypes = new HashMap<>();
+    static {
+        statementTypes.put("adverseEvent", AdverseEvent.class);
+        statementTypes.put("encounterEvent", EncounterEvent.class);
+        statementTypes.put("observationOrder", ObservationOrder.class);
+        statementTypes.put("observationResult", ObservationResult.class);
+        statementTypes.put("problem", Problem.class);
+        statementTypes.put("procedureEvent", ProcedureEvent.class);
+        statementTypes.put("procedureOrder", ProcedureOrder.class);
+        statementTypes.put("substanceAdministrationEvent", SubstanceAdministrationEvent.class);
+        statementTypes.put("substanceAdministrationOrder", SubstanceAdministrationOrder.class);
+    }
+
     /**
-     * Transforms Vmr CDSOutput data to FHIR equivalent
+     * Transforms Vmr CDSOutput data to FHIR equivalent. If the vmrDataPath is a directory, every xml file in it
+     * (including subdirectories) is transformed, in parallel.
      * @param params the {@link VmrToFhirParameters VmrToFhirParameters}
      */
     public static void transform(VmrToFhirParameters params) {
-        FhirContext context = FhirVersionEnum.forVersionString(params.fhirVersion).newContext();
+        FhirContext context = FhirContextCache.getContext(params.fhirVersion);
         File file = new File(params.vmrDataPath);
+        if (!file.isDirectory()) {
+            transform(file, params, context);
+            return;
+        }
+
+        List<Callable<Void>> tasks = new ArrayList<>();
+        AtomicInteger failures = new AtomicInteger();
+        for (String path : IOUtils.getFilePaths(file.getAbsolutePath(), true)) {
+            if (!path.toLowerCase().endsWith(".xml")) {
+                continue;
+            }
+            tasks.add(() -> {
+                try {
+                    transform(new File(path), params, context);
+                } catch (Exception e) {
+                    failures.incrementAndGet();
+                    logger.error("Unable to transform {}: {}", path, e.getMessage());
+                }
+                return null;
+            });
+        }
+        long start = System.currentTimeMillis();
+        // Unmarshalling and transforming a file is CPU and memory heavy, so files are transformed on the shared pool at
+        // its parallelism, which also bounds how many documents are held in memory at once
+        ThreadUtils.executeTasks(tasks);
+        logger.info("Transformed {} of {} vMR files in {} ms", tasks.size() - failures.get(), tasks.size(),
+                System.currentTimeMillis() - start);
+    }
+
+    private static void transform(File file, VmrToFhirParameters params, FhirContext context) {
+        List<IAnyResource> resources = new ArrayList<>();
+        Patient patient = transform(file, params.streaming, resources);
+        BundleBuilder bundleBuilder = new BundleBuilder(context);
+        bundleBuilder.setBundleField("id", new IdType(UUID.randomUUID().toString()).getIdPart());
+        writeOutput(params.fhirOutputPath, context, patient, resources, bundleBuilder);
+    }
+
+    /**
+     * @return the transformed Patient; the resources of the clinical statements are added to resources
+     */
+    static Patient transform(File file, boolean streaming, List<IAnyResource> resources) {
+        VmrToFhirTransformer transformer = new VmrToFhirTransformer();
+        if (streaming) {
+            return streamCdsOutput(file, transformer, resources);
+        }
         CDSOutput cdsOutput = unmarshallCdsOutput(file);
         VMR vmrOutput = cdsOutput.getVmrOutput();
         EvaluatedPerson evaluatedPerson = vmrOutput.getPatient();
         Demographics deomographics = evaluatedPerson.getDemographics();
         ClinicalStatements clinicalStatements = evaluatedPerson.getClinicalStatements();
-        VmrToFhirTransformer transformer = new VmrToFhirTransformer();
         Patient patient = transformer.transform(deomographics);
-        List<IAnyResource> resources = transformer.transform(clinicalStatements);
-        BundleBuilder bundleBuilder = new BundleBuilder(context);
-        bundleBuilder.setBundleField("id", new IdType(UUID.randomUUID().toString()).getIdPart());
-        writeOutput(params.fhirOutputPath, context, patient, resources, bundleBuilder);
+        resources.addAll(transformer.transform(clinicalStatements));
+        return patient;
     }
 
     private static void writeOutput(String fhirOutputPath, FhirContext context, Patient patient, List<IAnyResource> resources,
@@ -75,12 +169,17 @@ public class VmrToFhirProcessor {
         IOUtils.writeBundle(bundleBuilder.getBundle(), dataDirectory.getAbsolutePath(), Encoding.JSON, context);
     }
 
+    private static synchronized JAXBContext getJaxbContext() throws JAXBException {
+        if (jaxbContext == null) {
+            jaxbContext = JAXBContext.newInstance(CDSOutput.class, VMR.class);
+        }
+        return jaxbContext;
+    }
+
     @SuppressWarnings("rawtypes")
     private static CDSOutput unmarshallCdsOutput(File file) {
-        try {
-            Unmarshaller unmarshaller = JAXBContext.newInstance(CDSOutput.class, VMR.class).createUnmarshaller();
-            InputStream inputStream = new FileInputStream(file);
-            Object unmarshalledObject = unmarshaller.unmarshal(inputStream);
+        try (InputStream inputStream = new FileInputStream(file)) {
+            Object unmarshalledObject = unmarshallers.get().unmarshal(inputStream);
             if (unmarshalledObject instanceof JAXBElement) {
                 return (CDSOutput) ((JAXBElement) unmarshalledObject).getValue();
             } else {
@@ -90,4 +189,90 @@ public class VmrToFhirProcessor {
             throw new RuntimeException(e);
         }
     }
+
+    /**
+     * Reads the patient's demographics and clinical statements one element at a time, so that only the statement
+     * being transformed is held in memory rather than the whole CDSOutput tree.
+     * @return the transformed Patient; the resources of the clinical statements are added to resources
+     */
+    private static Patient streamCdsOutput(File file, VmrToFhirTransformer transformer, List<IAnyResource> resources) {
+        Unmarshaller unmarshaller = unmarshallers.get();
+        Patient patient = null;
+        try (InputStream inputStream = new FileInputStream(file)) {
+            XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(inputStream);
+            try {
+                boolean inClinicalStatements = false;
+                while (reader.hasNext()) {
+                    int event = reader.getEventType();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        String name = reader.getLocalName();
+                        if (name.equals("demographics") && patient == null) {
+                            patient = transformer.transform(unmarshaller.unmarshal(reader, Demographics.class).getValue());
+                            continue;
+                        }
+                        if (name.equals("clinicalStatements")) {
+                            inClinicalStatements = true;
+                        }
+                        else if (inClinicalStatements && statementTypes.containsKey(name)) {
+                            // unmarshal leaves the reader on the event following the statement's end element
+                            transformStatement(unmarshaller.unmarshal(reader, statementTypes.get(name)).getValue(),
+                                    transformer, resources);
+                            continue;
+                        }
+                    }
+                    else if (event == XMLStreamConstants.END_ELEMENT && reader.getLocalName().equals("clinicalStatements")) {
+                        inClinicalStatements = false;
+                    }
+                    reader.next();
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException | XMLStreamException | JAXBException e) {
+            throw new RuntimeException(e);
+        }
+        if (patient == null) {
+            throw new IllegalArgumentException("No patient demographics found in " + file.getAbsolutePath());
+        }
+        return patient;
+    }
+
+    // Handles errors as VmrToFhirTransformer.transform(ClinicalStatements) does for the whole tree: adverse events,
+    // procedure events and procedure orders that can't be transformed are logged and skipped, while any other
+    // statement that fails fails the file
+    private static void transformStatement(Object statement, VmrToFhirTransformer transformer, List<IAnyResource> resources) {
+        if (statement instanceof AdverseEvent) {
+            addAllOrLog(resources, () -> transformer.transform((AdverseEvent) statement));
+        } else if (statement instanceof EncounterEvent) {
+            resources.addAll(transformer.transform((EncounterEvent) statement));
+        } else if (statement instanceof ObservationOrder) {
+            addIfPresent(resources, transformer.transform((ObservationOrder) statement));
+        } else if (statement instanceof ObservationResult) {
+            addIfPresent(resources, transformer.transform((ObservationResult) statement));
+        } else if (statement instanceof Problem) {
+            addIfPresent(resources, transformer.transform((Problem) statement));
+        } else if (statement instanceof ProcedureEvent) {
+            addAllOrLog(resources, () -> transformer.transform((ProcedureEvent) statement));
+        } else if (statement instanceof ProcedureOrder) {
+            addAllOrLog(resources, () -> transformer.transform((ProcedureOrder) statement));
+        } else if (statement instanceof SubstanceAdministrationEvent) {
+            resources.addAll(transformer.transform((SubstanceAdministrationEvent) statement));
+        } else if (statement instanceof SubstanceAdministrationOrder) {
+            resources.addAll(transformer.transform((SubstanceAdministrationOrder) statement));
+        }
+    }
+
+    private static void addAllOrLog(List<IAnyResource> resources, Supplier<List<IAnyResource>> transform) {
+        try {
+            resources.addAll(transform.get());
+        } catch (Exception e) {
+            logger.error(e.getMessage());
+        }
+    }
+
+    private static void addIfPresent(List<IAnyResource> resources, IAnyResource resource) {
+        if (resource != null) {
+            resources.add(resource);
+        }
+    }
 }
@@ -5,6 +5,7 @@ import static java.util.Arrays.asList;
 import org.opencds.cqf.tooling.parameter.PostBundlesInDirParameters;
 import org.opencds.cqf.tooling.processor.PostBundlesInDirProcessor.FHIRVersion;
 import org.opencds.cqf.tooling.utilities.ArgUtils;
+import org.opencds.cqf.tooling.utilities.HttpClientUtils;
 import org.opencds.cqf.tooling.utilities.IOUtils.Encoding;
 
 import joptsimple.OptionParser;
@@ -21,6 +22,13 @@ public class PostBundlesInDirArgumentProcessor {
     public static final String[] FHIR_VERSION_OPTIONS = {"fv", "fhir-version"};
     public static final String[] ENCODING_OPTIONS = {"e", "encoding"};
     public static final String[] FHIR_URI_OPTIONS = {"fs", "fhir-uri"};
+    public static final String[] POST_CONCURRENCY_OPTIONS = {"pc", "post-concurrency"};
+    public static final String[] GZIP_POST_OPTIONS = {"gz", "gzip-post"};
+    public static final String[] MAX_POST_ATTEMPTS_OPTIONS = {"pma", "post-max-attempts"};
+    public static final String[] RESUME_FAILED_POSTS_OPTIONS = {"rfp", "resume-failed-posts"};
+    public static final String[] QUEUE_SIZE_OPTIONS = {"qs", "queue-size"};
+    public static final String[] DELTA_MANIFEST_OPTIONS = {"dm", "delta-manifest"};
+    public static final String[] DELTA_VERIFY_OPTIONS = {"dv", "delta-verify"};
 
     @SuppressWarnings("unused")
     public OptionParser build() {
@@ -30,14 +38,26 @@ public class PostBundlesInDirArgumentProcessor {
         OptionSpecBuilder fhirVersionBuilder = parser.acceptsAll(asList(FHIR_VERSION_OPTIONS),"As of now FHIR DSTU3 and R4 are supported");
         OptionSpecBuilder encodingBuilder = parser.acceptsAll(asList(ENCODING_OPTIONS), "If omitted, output will be generated using JSON encoding.");
         OptionSpecBuilder fhirUriBuilder = parser.acceptsAll(asList(FHIR_URI_OPTIONS),"FHIR server.");
+        OptionSpecBuilder maxPostAttemptsBuilder = parser.acceptsAll(asList(MAX_POST_ATTEMPTS_OPTIONS),"If omitted, each bundle is attempted up to " + HttpClientUtils.DEFAULT_MAX_POST_ATTEMPTS + " times when the server is unavailable.");
+        OptionSpecBuilder resumeFailedPostsBuilder = parser.acceptsAll(asList(RESUME_FAILED_POSTS_OPTIONS),"Posts the bundles that failed in a previous run, as recorded in its http_post_fail_* directory.");
+        OptionSpecBuilder postConcurrencyBuilder = parser.acceptsAll(asList(POST_CONCURRENCY_OPTIONS),"If omitted, up to " + HttpClientUtils.DEFAULT_MAX_SIMULTANEOUS_POST_COUNT + " bundles are posted at a time.");
+        OptionSpecBuilder queueSizeBuilder = parser.acceptsAll(asList(QUEUE_SIZE_OPTIONS),"If omitted, up to twice the post concurrency parsed bundles wait to be posted.");
+        OptionSpecBuilder deltaManifestBuilder = parser.acceptsAll(asList(DELTA_MANIFEST_OPTIONS),"If omitted, every bundle is posted, even if it is unchanged since it was last posted.");
 
         OptionSpec<String> dirPath = dirPathBuilder.withRequiredArg().describedAs("path to directory containing bundle resources");
         OptionSpec<String> fhirVersion = fhirVersionBuilder.withRequiredArg().describedAs("fhir version");
         OptionSpec<String> encoding = encodingBuilder.withOptionalArg().describedAs("encoding for bundle resources"); 
         
         OptionSpec<String> fhirUri = fhirUriBuilder.withRequiredArg().describedAs("uri of fhir server"); 
+        OptionSpec<String> maxPostAttempts = maxPostAttemptsBuilder.withOptionalArg().describedAs("maximum number of attempts per bundle, including the first");
+        OptionSpec<String> resumeFailedPosts = resumeFailedPostsBuilder.withRequiredArg().describedAs("path to the http_post_fail_* directory of a previous run");
+        OptionSpec<String> postConcurrency = postConcurrencyBuilder.withOptionalArg().describedAs("maximum number of simultaneous POST calls to the fhir server");
+        OptionSpec<String> queueSize = queueSizeBuilder.withOptionalArg().describedAs("maximum number of parsed bundles held waiting to be posted");
+        OptionSpec<String> deltaManifest = deltaManifestBuilder.withRequiredArg().describedAs("file in which the content posted to each fhir server is recorded across runs");
 
         parser.acceptsAll(asList(OPERATION_OPTIONS),"The operation to run.");
+        parser.acceptsAll(asList(GZIP_POST_OPTIONS),"If omitted, bundles are posted uncompressed. The FHIR server must accept gzip encoded requests.");
+        parser.acceptsAll(asList(DELTA_VERIFY_OPTIONS),"If omitted, resources unchanged since they were last posted are skipped without checking that the FHIR server still holds them. Transaction bundles are never checked.");
 
         OptionSpec<Void> help = parser.acceptsAll(asList(ArgUtils.HELP_OPTIONS), "Show this help page").forHelp();
 
@@ -54,6 +74,9 @@ public class PostBundlesInDirArgumentProcessor {
         String fhirVersion = (String)options.valueOf(FHIR_VERSION_OPTIONS[0]);
         String outputEncoding = (String)options.valueOf(ENCODING_OPTIONS[0]);
         String fhirUri = (String)options.valueOf(FHIR_URI_OPTIONS[0]);
+        Integer postConcurrency = ArgUtils.getIntegerValue(options, POST_CONCURRENCY_OPTIONS);
+        Integer maxPostAttempts = ArgUtils.getIntegerValue(options, MAX_POST_ATTEMPTS_OPTIONS);
+        Integer queueSize = ArgUtils.getIntegerValue(options, QUEUE_SIZE_OPTIONS);
         Encoding outputEncodingEnum = Encoding.JSON;
         if (outputEncoding != null) {
             outputEncodingEnum = Encoding.parse(outputEncoding.toLowerCase());
@@ -64,6 +87,13 @@ public class PostBundlesInDirArgumentProcessor {
         pbp.fhirVersion = FHIRVersion.parse(fhirVersion);
         pbp.encoding = outputEncodingEnum;
         pbp.fhirUri = fhirUri;
+        pbp.postConcurrency = postConcurrency;
+        pbp.gzipPostBodies = options.has(GZIP_POST_OPTIONS[0]);
+        pbp.maxPostAttempts = maxPostAttempts;
+        pbp.resumeFailedPostsPath = (String)options.valueOf(RESUME_FAILED_POSTS_OPTIONS[0]);
+        pbp.queueSize = queueSize;
+        pbp.deltaManifestPath = (String)options.valueOf(DELTA_MANIFEST_OPTIONS[0]);
+        pbp.verifyDeltaManifest = options.has(DELTA_VERIFY_OPTIONS[0]);
        
         return pbp;
     }
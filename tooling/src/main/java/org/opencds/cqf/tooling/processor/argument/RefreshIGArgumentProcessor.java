@@ -7,6 +7,7 @@ import java.util.List;
 
 import org.opencds.cqf.tooling.parameter.RefreshIGParameters;
 import org.opencds.cqf.tooling.utilities.ArgUtils;
+import org.opencds.cqf.tooling.utilities.HttpClientUtils;
 import org.opencds.cqf.tooling.utilities.IOUtils.Encoding;
 
 import joptsimple.OptionParser;
@@ -39,6 +40,16 @@ public class RefreshIGArgumentProcessor {
     public static final String[] SHOULD_ADD_TIMESTAMP_OPTIONS = { "ts", "timestamp" };
     public static final String[] SHOULD_INCLUDE_ERRORS = { "x", "include-errors" };
     public static final String[] INCLUDE_POP_LEVEL_DATA_REQUIREMENTS_OPTIONS = { "pldr", "popDataRequirements" };
+    public static final String[] CQL_TRANSLATION_THREADS_OPTIONS = { "ctt", "cql-translation-threads" };
+    public static final String[] ELM_CACHE_PATH_OPTIONS = { "ecp", "elm-cache-path" };
+    public static final String[] PACKAGE_SNAPSHOT_PATH_OPTIONS = { "psp", "package-snapshot-path" };
+    public static final String[] POST_CONCURRENCY_OPTIONS = { "pc", "post-concurrency" };
+    public static final String[] GZIP_POST_OPTIONS = { "gz", "gzip-post" };
+    public static final String[] MAX_POST_ATTEMPTS_OPTIONS = { "pma", "post-max-attempts" };
+    public static final String[] DELTA_MANIFEST_OPTIONS = { "dm", "delta-manifest" };
+    public static final String[] DELTA_VERIFY_OPTIONS = { "dv", "delta-verify" };
+    public static final String[] POST_BATCH_SIZE_OPTIONS = { "pbs", "post-batch-size" };
+    public static final String[] POST_BATCH_BYTES_OPTIONS = { "pbb", "post-batch-bytes" };
 
 
     @SuppressWarnings("unused")
@@ -59,6 +70,14 @@ public class RefreshIGArgumentProcessor {
         OptionSpecBuilder shouldApplySoftwareSystemStampBuilder = parser.acceptsAll(asList(SHOULD_APPLY_SOFTWARE_SYSTEM_STAMP_OPTIONS),"Indicates whether refreshed Measure and Library resources should be stamped with the 'cqf-tooling' stamp via the cqfm-softwaresystem Extension.");
         OptionSpecBuilder shouldAddTimestampBuilder = parser.acceptsAll(asList(SHOULD_ADD_TIMESTAMP_OPTIONS),"Indicates whether refreshed Bundle should attach timestamp of creation.");
         OptionSpecBuilder shouldVerboseMessaging = parser.acceptsAll(asList(SHOULD_APPLY_SOFTWARE_SYSTEM_STAMP_OPTIONS),"Indicates that a complete list of errors during library, measure, and test case refresh are included upon failure.");
+        OptionSpecBuilder cqlTranslationThreadsBuilder = parser.acceptsAll(asList(CQL_TRANSLATION_THREADS_OPTIONS),"The number of threads used to translate CQL files that do not include one another concurrently. If omitted (or 1), CQL files are translated sequentially.");
+        OptionSpecBuilder elmCachePathBuilder = parser.acceptsAll(asList(ELM_CACHE_PATH_OPTIONS),"If omitted, all CQL files are translated on every refresh.");
+        OptionSpecBuilder packageSnapshotPathBuilder = parser.acceptsAll(asList(PACKAGE_SNAPSHOT_PATH_OPTIONS),"If omitted, IG dependencies are resolved through the package cache on every refresh.");
+        OptionSpecBuilder maxPostAttemptsBuilder = parser.acceptsAll(asList(MAX_POST_ATTEMPTS_OPTIONS),"If omitted, each resource is attempted up to " + HttpClientUtils.DEFAULT_MAX_POST_ATTEMPTS + " times when the FHIR server is unavailable.");
+        OptionSpecBuilder postConcurrencyBuilder = parser.acceptsAll(asList(POST_CONCURRENCY_OPTIONS),"If omitted, up to " + HttpClientUtils.DEFAULT_MAX_SIMULTANEOUS_POST_COUNT + " resources are posted to the FHIR server at a time.");
+        OptionSpecBuilder deltaManifestBuilder = parser.acceptsAll(asList(DELTA_MANIFEST_OPTIONS),"If omitted, every resource is posted to the FHIR server, even if it is unchanged since it was last posted.");
+        OptionSpecBuilder postBatchSizeBuilder = parser.acceptsAll(asList(POST_BATCH_SIZE_OPTIONS),"If omitted, each resource other than a transaction bundle is posted to the FHIR server in a POST call of its own.");
+        OptionSpecBuilder postBatchBytesBuilder = parser.acceptsAll(asList(POST_BATCH_BYTES_OPTIONS),"If omitted, batches of resources (see post-batch-size) are limited to " + HttpClientUtils.DEFAULT_MAX_POST_BATCH_BYTES + " bytes.");
 
         OptionSpec<String> ini = iniBuilder.withRequiredArg().describedAs("Path to the IG ini file");
         OptionSpec<String> updatedVersion = updatedVersionBuilder.withOptionalArg().describedAs("Updated version of the IG");
@@ -73,6 +92,14 @@ public class RefreshIGArgumentProcessor {
         OptionSpec<String> shouldApplySoftwareSystemStamp = shouldApplySoftwareSystemStampBuilder.withOptionalArg().describedAs("Indicates whether refreshed Measure and Library resources should be stamped with the 'cqf-tooling' stamp via the cqfm-softwaresystem Extension");
         OptionSpec<String> shouldAddTimestampOptions = shouldAddTimestampBuilder.withOptionalArg().describedAs("Indicates whether refreshed Bundle should attach timestamp of creation");
         OptionSpec<String> shouldVerboseMessagingOptions = shouldVerboseMessaging.withOptionalArg().describedAs("Indicates that a complete list of errors during library, measure, and test case refresh are included upon failure.");
+        OptionSpec<String> cqlTranslationThreads = cqlTranslationThreadsBuilder.withOptionalArg().describedAs("number of threads used to translate independent CQL libraries concurrently");
+        OptionSpec<String> elmCachePath = elmCachePathBuilder.withOptionalArg().describedAs("directory in which translation results are cached across refreshes");
+        OptionSpec<String> packageSnapshotPath = packageSnapshotPathBuilder.withOptionalArg().describedAs("directory in which resolved IG dependencies are recorded across refreshes");
+        OptionSpec<String> maxPostAttempts = maxPostAttemptsBuilder.withOptionalArg().describedAs("maximum number of attempts per POST call to the fhir server, including the first");
+        OptionSpec<String> postConcurrency = postConcurrencyBuilder.withOptionalArg().describedAs("maximum number of simultaneous POST calls to the fhir server");
+        OptionSpec<String> deltaManifest = deltaManifestBuilder.withRequiredArg().describedAs("file in which the content posted to each fhir server is recorded across runs");
+        OptionSpec<String> postBatchSize = postBatchSizeBuilder.withRequiredArg().describedAs("maximum number of resources posted to the fhir server together in a batch bundle");
+        OptionSpec<String> postBatchBytes = postBatchBytesBuilder.withRequiredArg().describedAs("maximum size, in bytes, of a batch bundle posted to the fhir server");
 
 
         //TODO: FHIR user / password (and other auth options)
@@ -87,6 +114,8 @@ public class RefreshIGArgumentProcessor {
         parser.acceptsAll(asList(VERSIONED_OPTIONS),"If omitted resources must be uniquely named.");
         parser.acceptsAll(asList(SHOULD_INCLUDE_ERRORS),"Specifies whether to show errors during library, measure, and test case refresh.");
         parser.acceptsAll(asList(INCLUDE_POP_LEVEL_DATA_REQUIREMENTS_OPTIONS), "If omitted, the measures will not include population-level data requirements");
+        parser.acceptsAll(asList(GZIP_POST_OPTIONS), "If omitted, resources are posted to the FHIR server uncompressed. The FHIR server must accept gzip encoded requests.");
+        parser.acceptsAll(asList(DELTA_VERIFY_OPTIONS), "If omitted, resources unchanged since they were last posted are skipped without checking that the FHIR server still holds them.");
 
         OptionSpec<Void> help = parser.acceptsAll(asList(ArgUtils.HELP_OPTIONS), "Show this help page").forHelp();
 
@@ -161,6 +190,17 @@ public class RefreshIGArgumentProcessor {
 
         boolean verboseMessaging = options.has(SHOULD_INCLUDE_ERRORS[0]);
 
+        Integer cqlTranslationThreadCount = ArgUtils.getIntegerValue(options, CQL_TRANSLATION_THREADS_OPTIONS);
+
+        String elmCachePath = (String)options.valueOf(ELM_CACHE_PATH_OPTIONS[0]);
+        String packageSnapshotPath = (String)options.valueOf(PACKAGE_SNAPSHOT_PATH_OPTIONS[0]);
+
+        Integer postConcurrency = ArgUtils.getIntegerValue(options, POST_CONCURRENCY_OPTIONS);
+
+        Integer postBatchSize = ArgUtils.getIntegerValue(options, POST_BATCH_SIZE_OPTIONS);
+        Long postBatchBytes = ArgUtils.getLongValue(options, POST_BATCH_BYTES_OPTIONS);
+        Integer maxPostAttempts = ArgUtils.getIntegerValue(options, MAX_POST_ATTEMPTS_OPTIONS);
+
         ArrayList<String> paths = new ArrayList<String>();
         if (resourcePaths != null && !resourcePaths.isEmpty()) {
             paths.addAll(resourcePaths);
@@ -192,6 +232,16 @@ public class RefreshIGArgumentProcessor {
         ip.updatedVersion = updatedVersion;
         ip.verboseMessaging = verboseMessaging;
         ip.includePopulationLevelDataRequirements = includePopLevelDataRequirements;
+        ip.cqlTranslationThreadCount = cqlTranslationThreadCount;
+        ip.elmCachePath = elmCachePath;
+        ip.packageSnapshotPath = packageSnapshotPath;
+        ip.postConcurrency = postConcurrency;
+        ip.gzipPostBodies = options.has(GZIP_POST_OPTIONS[0]);
+        ip.maxPostAttempts = maxPostAttempts;
+        ip.deltaManifestPath = (String)options.valueOf(DELTA_MANIFEST_OPTIONS[0]);
+        ip.verifyDeltaManifest = options.has(DELTA_VERIFY_OPTIONS[0]);
+        ip.postBatchSize = postBatchSize;
+        ip.postBatchBytes = postBatchBytes;
         return ip;
     }
 }
@@ -22,6 +22,7 @@ public class TestIGArgumentsProcessor {
     public static final String[] FHIR_VERSION_OPTIONS = {"fv", "fhir-version"};
     public static final String[] TEST_CASES_PATH_OPTIONS = {"tests", "testsPath", "testCasesPath", "tp", "tcp"};
     public static final String[] FHIR_URI_OPTIONS = {"fs", "fhir-uri"};
+    public static final String[] TEST_CONCURRENCY_OPTIONS = {"tc", "test-concurrency"};
 
     @SuppressWarnings("unused")
     public OptionParser build() {
@@ -33,7 +34,8 @@ public class TestIGArgumentsProcessor {
 //        OptionSpecBuilder igCanonicalBaseBuilder = parser.acceptsAll(asList(IG_CANONICAL_BASE),"resource canonical base");
         OptionSpecBuilder fhirVersionBuilder = parser.acceptsAll(asList(FHIR_VERSION_OPTIONS),"Limited to a single version of FHIR.");
         OptionSpecBuilder testCasesPathBuilder = parser.acceptsAll(asList(TEST_CASES_PATH_OPTIONS),"Path to test cases");
-        OptionSpecBuilder fhirUriBuilder = parser.acceptsAll(asList(FHIR_URI_OPTIONS),"If omitted the final bundle will not be loaded to a FHIR server.");
+        OptionSpecBuilder fhirUriBuilder = parser.acceptsAll(asList(FHIR_URI_OPTIONS),"If omitted, test cases are evaluated locally with the CQL engine (R4 only).");
+        OptionSpecBuilder testConcurrencyBuilder = parser.acceptsAll(asList(TEST_CONCURRENCY_OPTIONS),"If omitted, test cases run against a FHIR server one at a time, and test cases evaluated locally up to one per available processor at a time.");
 
         OptionSpec<String> ini = iniBuilder.withOptionalArg().describedAs("IG ini file");
         OptionSpec<String> rootDir = rootDirBuilder.withOptionalArg().describedAs("Root directory of the IG");
@@ -42,6 +44,7 @@ public class TestIGArgumentsProcessor {
         OptionSpec<String> fhirVersion = fhirVersionBuilder.withOptionalArg().describedAs("fhir version");
         OptionSpec<String> testCasesPath = testCasesPathBuilder.withRequiredArg().describedAs("path to the test cases");
         OptionSpec<String> fhirServerUri = fhirUriBuilder.withRequiredArg().describedAs("uri for fhir server to test on");
+        OptionSpec<String> testConcurrency = testConcurrencyBuilder.withOptionalArg().describedAs("maximum number of test cases run at the same time");
 
         parser.acceptsAll(asList(OPERATION_OPTIONS),"The operation to run.");
 
@@ -63,6 +66,7 @@ public class TestIGArgumentsProcessor {
         String fhirVersion = (String)options.valueOf(FHIR_VERSION_OPTIONS[0]);
         String testCasesPath = (String)options.valueOf(TEST_CASES_PATH_OPTIONS[0]);
         String fhirServerUri = (String)options.valueOf(FHIR_URI_OPTIONS[0]);
+        Integer testConcurrency = ArgUtils.getIntegerValue(options, TEST_CONCURRENCY_OPTIONS);
 
         TestIGParameters ip = new TestIGParameters();
         ip.ini = ini;
@@ -71,6 +75,7 @@ public class TestIGArgumentsProcessor {
 //        ip.igCanonicalBase = igCanonicalBase;
         ip.testCasesPath = testCasesPath;
         ip.fhirServerUri = fhirServerUri;
+        ip.testConcurrency = testConcurrency;
         ip.fhirContext = IGProcessor.getIgFhirContext(fhirVersion);
 
         return ip;
@@ -20,6 +20,7 @@ public class VmrToFhirArgumentProcessor {
     public static final String[] ENCODING_OPTIONS = {"e", "encoding"};
     public static final String[] FHIR_VERSION_OPTIONS = {"fv", "fhirVersion"};
     public static final String[] INPUT_FILE_PATH_OPTIONS = {"ip", "inputPath", "input-path", "ifp", "inputFilePath", "input-file-path", "input-filePath"};
+    public static final String[] STREAMING_OPTIONS = {"s", "streaming"};
 
     @SuppressWarnings("unused")
     public OptionParser build() {
@@ -27,15 +28,16 @@ public class VmrToFhirArgumentProcessor {
 
         OptionSpecBuilder outputBuilder = parser.acceptsAll(asList(OUTPUT_PATH_OPTIONS),"Will be created if file path does not currently exist.");
         OptionSpecBuilder encodingBuilder = parser.acceptsAll(asList(ENCODING_OPTIONS), "If omitted, encoding input will be expected to be xml.");
-        OptionSpecBuilder inputFilePathBuilder = parser.acceptsAll(asList(INPUT_FILE_PATH_OPTIONS),"Must be a path to Vmr Data File.");
+        OptionSpecBuilder inputFilePathBuilder = parser.acceptsAll(asList(INPUT_FILE_PATH_OPTIONS),"Must be a path to Vmr Data File, or a directory of them.");
         OptionSpecBuilder fhirVersionBuilder = parser.acceptsAll(asList(FHIR_VERSION_OPTIONS),"If omitted, defualt version will be 4.0.0");
 
         OptionSpec<String> outputPath = outputBuilder.withRequiredArg().describedAs("path to fhir data output");
         OptionSpec<String> encoding = encodingBuilder.withOptionalArg().describedAs("input encoding (as of now can only be xml)").defaultsTo("xml"); 
-        OptionSpec<String> inputFilePath = inputFilePathBuilder.withRequiredArg().describedAs("input vmr file path");
+        OptionSpec<String> inputFilePath = inputFilePathBuilder.withRequiredArg().describedAs("input vmr file or directory path");
         OptionSpec<String> fhirVersion = fhirVersionBuilder.withOptionalArg().describedAs("FHIR Model Version to map elm to.");
 
         parser.acceptsAll(asList(OPERATION_OPTIONS),"The operation to run.");
+        parser.acceptsAll(asList(STREAMING_OPTIONS),"If present, clinical statements are read one at a time rather than reading the whole document into memory.");
 
         OptionSpec<Void> help = parser.acceptsAll(asList(ArgUtils.HELP_OPTIONS), "Show this help page").forHelp();
 
@@ -62,6 +64,7 @@ public class VmrToFhirArgumentProcessor {
         vtfp.encoding = encodingEnum;
         vtfp.fhirOutputPath = outputPath;
         vtfp.fhirVersion = fhirVersion;
+        vtfp.streaming = options.has(STREAMING_OPTIONS[0]);
        
         return vtfp;
 	}
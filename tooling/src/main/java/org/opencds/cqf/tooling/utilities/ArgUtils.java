@@ -4,6 +4,8 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
+import org.opencds.cqf.tooling.exception.OperationExit;
+
 import joptsimple.OptionParser;
 import joptsimple.OptionSet;
 
@@ -19,7 +21,7 @@ public class ArgUtils {
             catch (Exception e) {
             }
 
-            System.exit(0);
+            throw new OperationExit(0);
         }
 
         return options;
@@ -35,6 +37,40 @@ public class ArgUtils {
         return optionSet.valueOf(option) == null ? value : (String)optionSet.valueOf(option); 
     }
 
+    /**
+     * @param option The names of the option, the last of which is used in the error message
+     * @return The value of the option as an integer, or null if the option wasn't given a value
+     * @throws IllegalArgumentException If the value isn't an integer
+     */
+    public static Integer getIntegerValue(OptionSet options, String[] option) {
+        String value = (String)options.valueOf(option[0]);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("%s must be a number: %s", option[option.length - 1], value));
+        }
+    }
+
+    /**
+     * @param option The names of the option, the last of which is used in the error message
+     * @return The value of the option as a long, or null if the option wasn't given a value
+     * @throws IllegalArgumentException If the value isn't an integer
+     */
+    public static Long getLongValue(OptionSet options, String[] option) {
+        String value = (String)options.valueOf(option[0]);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("%s must be a number: %s", option[option.length - 1], value));
+        }
+    }
+
     public static List<String> getOptionValues(OptionSet options, String name) {
         List<?> argValues = options.valuesOf(name);
         List<String> stringArgValues = new ArrayList<>();
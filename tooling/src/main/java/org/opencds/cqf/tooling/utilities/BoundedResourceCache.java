@@ -0,0 +1,191 @@
+package org.opencds.cqf.tooling.utilities;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link ResourceCache} bounded by the approximate retained size of the cached resources.
+ * <p>
+ * The retained size of a parsed resource is estimated from the size of the file it was parsed from. When the total
+ * estimated size exceeds the configured maximum, the least recently used entries are evicted. Each entry records the
+ * modification time and size of its file when it was cached, and is discarded on lookup if either has changed.
+ */
+public class BoundedResourceCache implements ResourceCache {
+
+    // A parsed resource typically retains several times the size of its serialized form
+    static final int ESTIMATED_RETAINED_SIZE_FACTOR = 6;
+
+    private final long maxWeight;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalWeight = 0;
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+
+    /**
+     * Creates a cache that may use up to a quarter of the maximum heap size.
+     */
+    public BoundedResourceCache() {
+        this(Runtime.getRuntime().maxMemory() / 4);
+    }
+
+    /**
+     * @param maxWeight The maximum estimated retained size, in bytes, of all cached resources
+     */
+    public BoundedResourceCache(long maxWeight) {
+        if (maxWeight <= 0) {
+            throw new IllegalArgumentException("maxWeight must be greater than 0");
+        }
+        this.maxWeight = maxWeight;
+    }
+
+    @Override
+    public IBaseResource get(String path) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(path);
+        }
+
+        if (entry == null) {
+            missCount.increment();
+            return null;
+        }
+
+        if (!entry.stamp.equals(FileStamp.of(path))) {
+            synchronized (this) {
+                if (entries.get(path) == entry) {
+                    removeEntry(path);
+                }
+            }
+            missCount.increment();
+            return null;
+        }
+
+        hitCount.increment();
+        return entry.resource;
+    }
+
+    @Override
+    public void put(String path, IBaseResource resource) {
+        if (path == null || resource == null) {
+            return;
+        }
+
+        FileStamp stamp = FileStamp.of(path);
+        if (stamp == null) {
+            return;
+        }
+
+        long weight = Math.max(1, stamp.size * ESTIMATED_RETAINED_SIZE_FACTOR);
+        synchronized (this) {
+            removeEntry(path);
+            if (weight > maxWeight) {
+                evictionCount.increment();
+                return;
+            }
+
+            entries.put(path, new Entry(resource, stamp, weight));
+            totalWeight += weight;
+            evictToMaxWeight();
+        }
+    }
+
+    @Override
+    public void update(String path, IBaseResource resource) {
+        synchronized (this) {
+            if (!entries.containsKey(path)) {
+                return;
+            }
+            put(path, resource);
+        }
+    }
+
+    @Override
+    public synchronized void invalidate(String path) {
+        removeEntry(path);
+    }
+
+    @Override
+    public synchronized void clear() {
+        entries.clear();
+        totalWeight = 0;
+        hitCount.reset();
+        missCount.reset();
+        evictionCount.reset();
+    }
+
+    @Override
+    public synchronized Stats getStats() {
+        return new Stats(hitCount.sum(), missCount.sum(), evictionCount.sum(), entries.size(), totalWeight);
+    }
+
+    private void removeEntry(String path) {
+        Entry removed = entries.remove(path);
+        if (removed != null) {
+            totalWeight -= removed.weight;
+        }
+    }
+
+    private void evictToMaxWeight() {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (totalWeight > maxWeight && iterator.hasNext()) {
+            totalWeight -= iterator.next().getValue().weight;
+            iterator.remove();
+            evictionCount.increment();
+        }
+    }
+
+    private static class Entry {
+        private final IBaseResource resource;
+        private final FileStamp stamp;
+        private final long weight;
+
+        Entry(IBaseResource resource, FileStamp stamp, long weight) {
+            this.resource = resource;
+            this.stamp = stamp;
+            this.weight = weight;
+        }
+    }
+
+    private static class FileStamp {
+        private final long lastModified;
+        private final long size;
+
+        private FileStamp(long lastModified, long size) {
+            this.lastModified = lastModified;
+            this.size = size;
+        }
+
+        static FileStamp of(String path) {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(Paths.get(path), BasicFileAttributes.class);
+                return new FileStamp(attributes.lastModifiedTime().toMillis(), attributes.size());
+            } catch (IOException | InvalidPathException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof FileStamp)) return false;
+            FileStamp other = (FileStamp) o;
+            return lastModified == other.lastModified && size == other.size;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(lastModified) * 31 + Long.hashCode(size);
+        }
+    }
+}
@@ -287,4 +287,16 @@ public class BundleUtils {
         return false;
 
     }
+
+    public static boolean resourceIsBatchBundle(IBaseResource inputResource) {
+        if (inputResource == null) return false;
+
+        if (inputResource instanceof org.hl7.fhir.dstu3.model.Bundle) {
+            return ((org.hl7.fhir.dstu3.model.Bundle) inputResource).getType() == org.hl7.fhir.dstu3.model.Bundle.BundleType.BATCH;
+
+        } else if (inputResource instanceof org.hl7.fhir.r4.model.Bundle) {
+            return ((org.hl7.fhir.r4.model.Bundle) inputResource).getType() == org.hl7.fhir.r4.model.Bundle.BundleType.BATCH;
+        }
+        return false;
+    }
 }
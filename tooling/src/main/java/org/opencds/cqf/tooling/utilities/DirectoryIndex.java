@@ -0,0 +1,203 @@
+package org.opencds.cqf.tooling.utilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An index of directory listings, shared by {@link IOUtils#getFilePaths} and {@link IOUtils#getDirectoryPaths}.
+ * <p>
+ * Directories are listed with a single {@link Files#walkFileTree} pass, which reads each entry's attributes while
+ * listing rather than stat-ing every file separately. Each listing records the modification time of its directory,
+ * which changes whenever an entry is added, removed or renamed; before a listing is used the directory's modification
+ * time is checked and, if it has changed, that directory alone is listed again. This costs one stat per directory
+ * rather than per file, and keeps files written during a run (new bundles, refreshed resources) visible.
+ */
+class DirectoryIndex {
+
+    // Modification times may be as coarse as a couple of seconds on some file systems. A listing taken this soon after
+    // its directory last changed may have missed a change made in the same tick, so it's not trusted.
+    private static final long MODIFICATION_TIME_GRANULARITY_MILLIS = 2000;
+
+    private final Map<Path, Listing> listings = new ConcurrentHashMap<>();
+    private final LongAdder walkCount = new LongAdder();
+
+    private static class Listing {
+        private final long lastModified;
+        private final long listedAt;
+        // Files and subdirectories together, in listing order
+        private final List<Entry> entries;
+
+        Listing(long lastModified, long listedAt, List<Entry> entries) {
+            this.lastModified = lastModified;
+            this.listedAt = listedAt;
+            this.entries = entries;
+        }
+
+        boolean isCurrent(long currentLastModified) {
+            return currentLastModified == lastModified
+                    && listedAt - lastModified > MODIFICATION_TIME_GRANULARITY_MILLIS;
+        }
+    }
+
+    private static class Entry {
+        private final String name;
+        private final boolean isDirectory;
+
+        Entry(String name, boolean isDirectory) {
+            this.name = name;
+            this.isDirectory = isDirectory;
+        }
+    }
+
+    /**
+     * Returns the paths of the files in a directory, and optionally in its subdirectories, in listing order. The files
+     * of a subdirectory are listed where the subdirectory itself is listed. Each path is the directory path as given
+     * followed by the file's path relative to it, as {@link File#listFiles} would produce. Returns an empty list if the
+     * path is not a directory.
+     */
+    List<String> getFilePaths(String directoryPath, boolean recursive) {
+        List<String> filePaths = new ArrayList<>();
+        collectFilePaths(directoryPath, recursive, filePaths);
+        return filePaths;
+    }
+
+    /**
+     * Returns the paths of the subdirectories of a directory. When recursive, each subdirectory's own subdirectories
+     * precede it. Returns an empty list if the path is not a directory.
+     */
+    List<String> getDirectoryPaths(String directoryPath, boolean recursive) {
+        List<String> directoryPaths = new ArrayList<>();
+        collectDirectoryPaths(directoryPath, recursive, directoryPaths);
+        return directoryPaths;
+    }
+
+    private void collectFilePaths(String directoryPath, boolean recursive, List<String> filePaths) {
+        Listing listing = getListing(directoryPath);
+        if (listing == null) {
+            return;
+        }
+        for (Entry entry : listing.entries) {
+            String path = new File(directoryPath, entry.name).getPath();
+            if (!entry.isDirectory) {
+                filePaths.add(path);
+            } else if (recursive) {
+                collectFilePaths(path, true, filePaths);
+            }
+        }
+    }
+
+    private void collectDirectoryPaths(String directoryPath, boolean recursive, List<String> directoryPaths) {
+        Listing listing = getListing(directoryPath);
+        if (listing == null) {
+            return;
+        }
+        for (Entry entry : listing.entries) {
+            if (!entry.isDirectory) {
+                continue;
+            }
+            String subdirectoryPath = new File(directoryPath, entry.name).getPath();
+            if (recursive) {
+                collectDirectoryPaths(subdirectoryPath, true, directoryPaths);
+            }
+            directoryPaths.add(subdirectoryPath);
+        }
+    }
+
+    private Listing getListing(String directoryPath) {
+        Path directory;
+        try {
+            directory = Paths.get(directoryPath).toAbsolutePath().normalize();
+        } catch (InvalidPathException e) {
+            return null;
+        }
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(directory, BasicFileAttributes.class);
+        } catch (IOException e) {
+            listings.remove(directory);
+            return null;
+        }
+        if (!attributes.isDirectory()) {
+            listings.remove(directory);
+            return null;
+        }
+
+        Listing listing = listings.get(directory);
+        if (listing == null || !listing.isCurrent(attributes.lastModifiedTime().toMillis())) {
+            listing = walk(directory, listing == null);
+        }
+        return listing;
+    }
+
+    // Lists a directory, and when it hasn't been seen before, every directory below it in the same pass. Listings of
+    // subdirectories that are already indexed are validated separately when they are used.
+    private Listing walk(Path root, boolean includeSubdirectories) {
+        walkCount.increment();
+        long listedAt = System.currentTimeMillis();
+        Map<Path, List<Entry>> entries = new HashMap<>();
+        Map<Path, Long> lastModified = new HashMap<>();
+
+        try {
+            Files.walkFileTree(root, EnumSet.of(FileVisitOption.FOLLOW_LINKS), includeSubdirectories ? Integer.MAX_VALUE : 1,
+                    new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    if (!dir.equals(root)) {
+                        entries.get(dir.getParent()).add(new Entry(dir.getFileName().toString(), true));
+                    }
+                    entries.put(dir, new ArrayList<>());
+                    lastModified.put(dir, attrs.lastModifiedTime().toMillis());
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    // At the depth limit, directories are visited as files
+                    entries.get(file.getParent()).add(new Entry(file.getFileName().toString(), attrs.isDirectory()));
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    // Unreadable entries and symbolic link cycles are skipped, as File.listFiles would
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            return null;
+        }
+
+        for (Map.Entry<Path, Long> entry : lastModified.entrySet()) {
+            Path dir = entry.getKey();
+            listings.put(dir, new Listing(entry.getValue(), listedAt, entries.get(dir)));
+        }
+        return listings.get(root);
+    }
+
+    /**
+     * @return The number of directory walks performed since the index was created or last cleared.
+     */
+    long getWalkCount() {
+        return walkCount.sum();
+    }
+
+    void clear() {
+        listings.clear();
+        walkCount.reset();
+    }
+}
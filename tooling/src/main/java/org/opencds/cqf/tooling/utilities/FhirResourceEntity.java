@@ -0,0 +1,70 @@
+package org.opencds.cqf.tooling.utilities;
+
+import ca.uhn.fhir.context.FhirContext;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * An HTTP entity that encodes a FHIR resource when the request is sent rather than when the request is created.
+ * <p>
+ * The resource is encoded straight to the connection's output stream (using chunked transfer encoding), so a request
+ * waiting to be sent only holds a reference to the resource. The entity is repeatable: each write encodes the
+ * resource again, so the request can be retried.
+ */
+public class FhirResourceEntity extends AbstractHttpEntity {
+    private final IBaseResource resource;
+    private final IOUtils.Encoding encoding;
+    private final FhirContext fhirContext;
+
+    public FhirResourceEntity(IBaseResource resource, IOUtils.Encoding encoding, FhirContext fhirContext) {
+        this.resource = resource;
+        this.encoding = encoding;
+        this.fhirContext = fhirContext;
+        setContentType("application/" + encoding.toString() + "; charset=UTF-8");
+        setChunked(true);
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        return -1;
+    }
+
+    /**
+     * Only used by callers that need the content as a stream rather than writing it to a connection, in which case
+     * the resource is encoded in memory.
+     */
+    @Override
+    public InputStream getContent() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        writeTo(outputStream);
+        return new ByteArrayInputStream(outputStream.toByteArray());
+    }
+
+    @Override
+    public void writeTo(OutputStream outputStream) throws IOException {
+        // The writer is flushed but not closed; the connection owns the output stream
+        Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+        IOUtils.encodeResourceToWriter(resource, encoding, fhirContext, writer);
+        writer.flush();
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+}
@@ -1,31 +1,52 @@
 package org.opencds.cqf.tooling.utilities;
 
 import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.FhirVersionEnum;
+import ca.uhn.fhir.parser.IParser;
+import ca.uhn.fhir.util.BundleBuilder;
+import ca.uhn.fhir.util.FhirTerser;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
 import com.google.gson.JsonParser;
+import com.google.gson.reflect.TypeToken;
+import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
-import org.apache.http.StatusLine;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.ResponseHandler;
 import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.entity.GzipCompressingEntity;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.StringEntity;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.HttpEntityWrapper;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.util.EntityUtils;
+import org.hl7.fhir.instance.model.api.IBase;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
 import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * A utility class for collecting HTTP requests to a FHIR server and executing them collectively.
@@ -43,24 +64,151 @@ public class HttpClientUtils {
     private static final String ENCODING_TYPE = "Encoding Type";
     private static final String FHIR_CONTEXT = "FHIR Context";
 
-    //This is not to maintain a thread count, but rather to maintain the maximum number of POST calls that can simultaneously be waiting for a response from the server.
+    //The maximum number of POST calls that can simultaneously be waiting for a response from the server.
     //This gives us some control over how many POSTs we're making so we don't crash the server.
-    //possible TODO:Allow users to specify this value on their own with arg passed into operation so that more robust servers can process post list faster
-    private static final int MAX_SIMULTANEOUS_POST_COUNT = 10;
+    //More robust servers can process the post list faster with a higher value (see setMaxSimultaneousPostCount).
+    public static final int DEFAULT_MAX_SIMULTANEOUS_POST_COUNT = 10;
+    private static volatile int maxSimultaneousPostCount = DEFAULT_MAX_SIMULTANEOUS_POST_COUNT;
 
     //failedPostCalls needs to maintain the details built in the FAILED message, as well as a copy of the inputs for a retry by the user on failed posts.
     private static Queue<Pair<String, PostComponent>> failedPostCalls = new ConcurrentLinkedQueue<>();
     private static List<String> successfulPostCalls = new CopyOnWriteArrayList<>();
     private static Map<IBaseResource, Callable<Void>> tasks = new ConcurrentHashMap<>();
     private static Map<IBaseResource, Callable<Void>> initialTasks = new ConcurrentHashMap<>();
+    //Standalone resources to be posted in batch bundles (see setPostBatching), by priority as for tasks and initialTasks.
+    private static Map<IBaseResource, PostComponent> batchedTasks = new ConcurrentHashMap<>();
+    private static Map<IBaseResource, PostComponent> initialBatchedTasks = new ConcurrentHashMap<>();
     private static List<IBaseResource> runningPostTaskList = new CopyOnWriteArrayList<>();
-    private static int processedPostCounter = 0;
+    private static Queue<Long> postLatencies = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger processedPostCounter = new AtomicInteger();
+    private static final AtomicLong postedBytes = new AtomicLong();
+    private static final double BYTES_PER_MB = 1024 * 1024;
+    //Set while postTaskStream() is running, when the total number of POST calls isn't known in advance.
+    private static volatile long streamStartNanos = 0;
+
+    //Ends the stream of resources passed to postTaskStream().
+    public static final Pair<String, IBaseResource> END_OF_STREAM = new ImmutablePair<>(null, null);
+
+    //Failed POST calls are retried when the server is overloaded or unavailable (429/5xx) or the connection fails.
+    //Retries back off exponentially (with jitter) unless the server asks for a specific delay with Retry-After.
+    public static final int DEFAULT_MAX_POST_ATTEMPTS = 3;
+    private static final long DEFAULT_INITIAL_RETRY_BACKOFF_MILLIS = 1000;
+    private static final long DEFAULT_MAX_RETRY_BACKOFF_MILLIS = 30000;
+    private static final long MAX_RETRY_AFTER_MILLIS = 600000;
+    private static volatile int maxPostAttempts = DEFAULT_MAX_POST_ATTEMPTS;
+    private static volatile long initialRetryBackoffMillis = DEFAULT_INITIAL_RETRY_BACKOFF_MILLIS;
+    private static volatile long maxRetryBackoffMillis = DEFAULT_MAX_RETRY_BACKOFF_MILLIS;
+
+    private static final String FAILED_POSTS_FILE = "failed-posts.json";
+
+    //Whether POST bodies are sent with gzip Content-Encoding. Not all servers accept compressed request bodies.
+    private static volatile boolean gzipPostBodies = false;
+
+    //When greater than 1, resources other than transaction bundles are posted in batch bundles of up to this many entries
+    //and (approximately) maxPostBatchBytes, rather than one POST call per resource.
+    public static final long DEFAULT_MAX_POST_BATCH_BYTES = 5L * 1024 * 1024;
+    private static volatile int maxPostBatchSize = 1;
+    private static volatile long maxPostBatchBytes = DEFAULT_MAX_POST_BATCH_BYTES;
+
+    //When set, resources whose content matches what an earlier run posted to the same server are skipped (see setPostManifest).
+    private static volatile PostManifest postManifest;
+    private static volatile boolean verifyPostManifest = false;
+    private static final AtomicInteger skippedPostCounter = new AtomicInteger();
+    private static final Pattern VERSIONED_LOCATION = Pattern.compile("^(.+)/_history/([^/]+)/?$");
+
+    //Shared by all POST tasks for the duration of postTaskCollection() so connections are kept alive and reused.
+    private static volatile CloseableHttpClient postHttpClient;
 
     private HttpClientUtils() {
     }
 
+    /**
+     * Sets the maximum number of POST calls that postTaskCollection() keeps in flight at once. This is both the number
+     * of worker threads and the size of the connection pool used for the POST calls.
+     *
+     * @param count The maximum number of simultaneous POST calls (must be at least 1).
+     */
+    public static void setMaxSimultaneousPostCount(int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("The maximum number of simultaneous POST calls must be at least 1: " + count);
+        }
+        maxSimultaneousPostCount = count;
+    }
+
+    public static int getMaxSimultaneousPostCount() {
+        return maxSimultaneousPostCount;
+    }
+
+    /**
+     * Configures how failed POST calls are retried. Only responses with status 429 or 5xx and connection errors are retried.
+     *
+     * @param maxAttempts          The maximum number of attempts per POST call, including the first (1 disables retries).
+     * @param initialBackoffMillis The delay before the first retry. The delay doubles with each retry, with random jitter.
+     * @param maxBackoffMillis     The maximum delay between retries, unless the server specifies one with Retry-After.
+     */
+    public static void setPostRetryPolicy(int maxAttempts, long initialBackoffMillis, long maxBackoffMillis) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("The maximum number of POST attempts must be at least 1: " + maxAttempts);
+        }
+        if (initialBackoffMillis < 0 || maxBackoffMillis < initialBackoffMillis) {
+            throw new IllegalArgumentException("Invalid POST retry backoff: " + initialBackoffMillis + "ms to " + maxBackoffMillis + "ms");
+        }
+        maxPostAttempts = maxAttempts;
+        initialRetryBackoffMillis = initialBackoffMillis;
+        maxRetryBackoffMillis = maxBackoffMillis;
+    }
+
+    public static void setMaxPostAttempts(int maxAttempts) {
+        setPostRetryPolicy(maxAttempts, initialRetryBackoffMillis, maxRetryBackoffMillis);
+    }
+
+    /**
+     * @param gzip Whether POST bodies should be gzip compressed (sent with Content-Encoding: gzip).
+     */
+    public static void setGzipPostBodies(boolean gzip) {
+        gzipPostBodies = gzip;
+    }
+
+    /**
+     * Enables delta publishing. A manifest of the content posted to each server (a hash per server, resource type, id and
+     * version) is kept at manifestPath, and resources whose content hasn't changed since they were last posted are
+     * skipped. The manifest is updated with each successful POST call and saved when the POST calls are done.
+     *
+     * @param manifestPath     The manifest file, created if it doesn't exist yet; null to post every resource.
+     * @param verifyWithServer Whether to check with a conditional GET (If-None-Match on the version the server reported
+     *                         when the resource was posted) that the server still holds that version before skipping
+     *                         it. Transaction bundles have no location of their own, so they are only compared with
+     *                         the manifest.
+     */
+    public static void setPostManifest(String manifestPath, boolean verifyWithServer) {
+        postManifest = manifestPath == null ? null : PostManifest.load(manifestPath);
+        verifyPostManifest = verifyWithServer;
+    }
+
+    /**
+     * Enables batching of standalone resources. Rather than a POST call per resource, resources other than transaction
+     * bundles are collected into batch bundles (one per FHIR server and encoding) that are each posted in a single call
+     * to the server base. Each entry creates its resource just as a POST call to [base]/[type] would, and succeeds or
+     * fails on its own; the server's response for each entry is reported as if the resource had been posted alone, and
+     * failed entries are recorded for resuming individually. Resources posted with priority are still posted before the
+     * others.
+     *
+     * @param maxEntries The maximum number of resources per batch; 1 posts each resource on its own.
+     * @param maxBytes   The maximum (approximate) encoded size of a batch. A resource larger than this is posted on its own.
+     */
+    public static void setPostBatching(int maxEntries, long maxBytes) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("The maximum number of resources per batch must be at least 1: " + maxEntries);
+        }
+        if (maxBytes < 1) {
+            throw new IllegalArgumentException("The maximum size of a batch must be at least 1 byte: " + maxBytes);
+        }
+        maxPostBatchSize = maxEntries;
+        maxPostBatchBytes = maxBytes;
+    }
+
     public static boolean hasPostTasksInQueue() {
-        return !tasks.isEmpty();
+        return !tasks.isEmpty() || !initialTasks.isEmpty() || !batchedTasks.isEmpty() || !initialBatchedTasks.isEmpty();
     }
 
     /**
@@ -136,6 +284,10 @@ public class HttpClientUtils {
     private static void createPostTask(String fhirServerUrl, IBaseResource resource, IOUtils.Encoding encoding, FhirContext fhirContext, String fileLocation, boolean withPriority) {
         try {
             PostComponent postPojo = new PostComponent(fhirServerUrl, resource, encoding, fhirContext, fileLocation, withPriority);
+            if (maxPostBatchSize > 1 && !BundleUtils.resourceIsTransactionBundle(resource) && !BundleUtils.resourceIsBatchBundle(resource)) {
+                (withPriority ? initialBatchedTasks : batchedTasks).put(resource, postPojo);
+                return;
+            }
             HttpPost post = configureHttpPost(fhirServerUrl, resource, encoding, fhirContext);
             if (withPriority) {
                 initialTasks.put(resource, createPostCallable(post, postPojo));
@@ -151,8 +303,8 @@ public class HttpClientUtils {
      * Configures and prepares an HTTP POST request with the specified parameters.
      * <p>
      * This method creates and configures an HTTP POST request to be used for posting a FHIR resource to the given FHIR server.
-     * It sets the request's headers, encodes the FHIR resource, and sets request timeouts. If an unsupported encoding type is
-     * encountered, it throws a runtime exception.
+     * It sets the request's headers and timeouts. The FHIR resource is not encoded here; it is encoded straight to the
+     * connection when the request is sent (see FhirResourceEntity), optionally gzip compressed.
      *
      * @param fhirServerUrl The URL of the FHIR server to which the POST request will be sent.
      * @param resource      The FHIR resource to be posted.
@@ -162,9 +314,9 @@ public class HttpClientUtils {
      */
     private static HttpPost configureHttpPost(String fhirServerUrl, IBaseResource resource, IOUtils.Encoding encoding, FhirContext fhirContext) {
 
-        //Transaction bundles get posted to /fhir but other resources get posted to /fhir/resourceType ie fhir/Group
+        //Transaction (and batch) bundles get posted to /fhir but other resources get posted to /fhir/resourceType ie fhir/Group
         String fhirServer = fhirServerUrl;
-        if (!BundleUtils.resourceIsTransactionBundle(resource)) {
+        if (!BundleUtils.resourceIsTransactionBundle(resource) && !BundleUtils.resourceIsBatchBundle(resource)) {
             fhirServer = fhirServer +
                     (fhirServerUrl.endsWith("/") ? resource.fhirType()
                             : "/" + resource.fhirType());
@@ -172,24 +324,62 @@ public class HttpClientUtils {
 
         HttpPost post = new HttpPost(fhirServer);
         post.addHeader("content-type", "application/" + encoding.toString());
-        String resourceString = IOUtils.encodeResourceAsString(resource, encoding, fhirContext);
-        StringEntity input;
-        try {
-            input = new StringEntity(resourceString);
-        } catch (UnsupportedEncodingException e) {
-            throw new RuntimeException(e);
-        }
-        post.setEntity(input);
+        post.setEntity(createPostEntity(new FhirResourceEntity(resource, encoding, fhirContext)));
         post.setConfig(requestConfig);
 
         return post;
     }
 
+    /**
+     * Sends the payload the resource was already encoded to for the POST manifest (see skipIfUnchanged), if it was,
+     * rather than encoding the resource again.
+     */
+    private static void usePayload(HttpPost post, PostComponent postComponent) {
+        if (postComponent.payload != null) {
+            post.setEntity(createPostEntity(new ByteArrayEntity(postComponent.payload,
+                    ContentType.create("application/" + postComponent.encoding.toString(), StandardCharsets.UTF_8))));
+        }
+    }
+
+    private static HttpEntity createPostEntity(HttpEntity input) {
+        if (gzipPostBodies) {
+            input = new GzipCompressingEntity(input);
+        }
+        return new PostedBytesEntity(input);
+    }
+
+    /**
+     * Counts the bytes of a POST body as they are written to the connection: after compression, and again for each
+     * retry, so the throughput reported is what was actually sent.
+     */
+    private static class PostedBytesEntity extends HttpEntityWrapper {
+        PostedBytesEntity(HttpEntity entity) {
+            super(entity);
+        }
+
+        @Override
+        public void writeTo(OutputStream outputStream) throws IOException {
+            super.writeTo(new FilterOutputStream(outputStream) {
+                @Override
+                public void write(int b) throws IOException {
+                    out.write(b);
+                    postedBytes.incrementAndGet();
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                    postedBytes.addAndGet(len);
+                }
+            });
+        }
+    }
+
     /**
      * Creates a callable task for executing an HTTP POST request and handling the response.
      * <p>
      * This method constructs a callable task that performs the following steps:
-     * 1. Executes an HTTP POST request using the provided parameters.
+     * 1. Executes an HTTP POST request using the provided parameters, retrying it per the retry policy.
      * 2. Processes the HTTP response, checking the status code and reason phrase.
      * 3. Logs success or failure messages based on the response status.
      * 4. Handles exceptions related to the request and response.
@@ -201,40 +391,39 @@ public class HttpClientUtils {
      */
     private static Callable<Void> createPostCallable(HttpPost post, PostComponent postComponent) {
         return () -> {
-            String resourceIdentifier = (postComponent.fileLocation != null ?
-                    Paths.get(postComponent.fileLocation).getFileName().toString()
-                    :
-                    postComponent.resource.getIdElement().getIdPart());
-            try (CloseableHttpClient httpClient = HttpClientBuilder.create().build()) {
-
-                HttpResponse response = httpClient.execute(post);
+            String resourceIdentifier = postComponent.getResourceIdentifier();
+            if (skipIfUnchanged(postComponent)) {
+                completePostTask(postComponent);
+                return null;
+            }
+            usePayload(post, postComponent);
 
-                StatusLine statusLine = response.getStatusLine();
-                int statusCode = statusLine.getStatusCode();
-                String diagnosticString = getDiagnosticString(EntityUtils.toString(response.getEntity()));
+            try {
+                PostResponse response = executePostWithRetry(post, resourceIdentifier);
+                int statusCode = response.statusCode;
 
                 if (statusCode >= 200 && statusCode < 300) {
                     successfulPostCalls.add(buildSuccessMessage(postComponent.fhirServerUrl, resourceIdentifier));
+                    recordPosted(postComponent, postComponent.fhirServerUrl, response.location);
                 }else if (statusCode == 301){
                     //redirected, find new location:
-                    Header locationHeader = response.getFirstHeader("Location");
-                    if (locationHeader != null) {
-                        postComponent.redirectFhirServerUrl = locationHeader.getValue();
+                    if (response.location != null) {
+                        postComponent.redirectFhirServerUrl = response.location;
                         HttpPost redirectedPost = configureHttpPost(postComponent.redirectFhirServerUrl, postComponent.resource, postComponent.encoding, postComponent.fhirContext);
+                        usePayload(redirectedPost, postComponent);
                         String redirectLocationIdentifier = postComponent.redirectFhirServerUrl
                                 + "(redirected from " + postComponent.fhirServerUrl + ")";
                         //attempt to post at location specified in redirect response:
-                        try (CloseableHttpClient redirectHttpClient = HttpClientBuilder.create().build()) {
-                            HttpResponse redirectResponse = redirectHttpClient.execute(redirectedPost);
-                            StatusLine redirectStatusLine = redirectResponse.getStatusLine();
-                            int redirectStatusCode = redirectStatusLine.getStatusCode();
-                            String redirectDiagnosticString = getDiagnosticString(EntityUtils.toString(redirectResponse.getEntity()));
+                        try {
+                            PostResponse redirectResponse = executePostWithRetry(redirectedPost, resourceIdentifier);
+                            int redirectStatusCode = redirectResponse.statusCode;
 
                             //treat new response same as we would before:
                             if (redirectStatusCode >= 200 && redirectStatusCode < 300) {
                                 successfulPostCalls.add(buildSuccessMessage(redirectLocationIdentifier, resourceIdentifier));
+                                recordPosted(postComponent, postComponent.redirectFhirServerUrl, redirectResponse.location);
                             } else {
-                                failedPostCalls.add(buildFailedPostMessage(postComponent, redirectStatusCode, redirectLocationIdentifier, resourceIdentifier, redirectDiagnosticString));
+                                failedPostCalls.add(buildFailedPostMessage(postComponent, redirectResponse, redirectLocationIdentifier, resourceIdentifier));
                             }
                         } catch (Exception e) {
                             failedPostCalls.add(buildExceptionMessage(postComponent, e, resourceIdentifier, redirectLocationIdentifier));
@@ -246,25 +435,457 @@ public class HttpClientUtils {
                                 + postComponent.fhirServerUrl + ": Redirect, but no new location specified", postComponent));
                     }
                 } else {
-                    failedPostCalls.add(buildFailedPostMessage(postComponent, statusCode, postComponent.fhirServerUrl, resourceIdentifier, diagnosticString));
+                    failedPostCalls.add(buildFailedPostMessage(postComponent, response, postComponent.fhirServerUrl, resourceIdentifier));
                 }
 
             } catch (Exception e) {
                 failedPostCalls.add(buildExceptionMessage(postComponent, e, resourceIdentifier, postComponent.fhirServerUrl));
             }
 
-            runningPostTaskList.remove(postComponent.resource);
-            reportProgress();
+            completePostTask(postComponent);
+            return null;
+        };
+    }
+
+    /**
+     * Creates a callable task that posts resources together in a batch bundle and reports the server's response for
+     * each entry as the result of posting that resource. If the batch as a whole fails, every resource in it fails.
+     */
+    private static Callable<Void> createBatchPostCallable(List<PostComponent> postComponents) {
+        return () -> {
+            List<PostComponent> batch = new ArrayList<>();
+            for (PostComponent postComponent : postComponents) {
+                if (skipIfUnchanged(postComponent)) {
+                    completePostTask(postComponent);
+                } else {
+                    //the entries are sent encoded together in the batch bundle
+                    postComponent.payload = null;
+                    batch.add(postComponent);
+                }
+            }
+            if (batch.isEmpty()) {
+                return null;
+            }
+
+            PostComponent first = batch.get(0);
+            String batchIdentifier = "batch of " + batch.size() + " resources";
+            List<BatchEntryOutcome> outcomes = new ArrayList<>();
+            try {
+                BundleBuilder builder = new BundleBuilder(first.fhirContext);
+                for (PostComponent postComponent : batch) {
+                    builder.addTransactionCreateEntry(postComponent.resource);
+                }
+                //entries are processed independently in a batch, rather than all-or-nothing as in a transaction:
+                builder.setType("batch");
+                IBaseResource bundle = builder.getBundle();
+                HttpPost post = configureHttpPost(first.fhirServerUrl, bundle, first.encoding, first.fhirContext);
+                post.addHeader("Accept", "application/fhir+" + first.encoding.toString());
+
+                PostResponse response = executePostWithRetry(post, batchIdentifier);
+                if (response.statusCode < 200 || response.statusCode >= 300) {
+                    for (PostComponent postComponent : batch) {
+                        outcomes.add(BatchEntryOutcome.failure(buildFailedPostMessage(postComponent, response, first.fhirServerUrl,
+                                postComponent.getResourceIdentifier() + " (in " + batchIdentifier + ")").getLeft()));
+                    }
+                } else {
+                    outcomes = getBatchEntryOutcomes(batch, response.body, first.fhirContext);
+                }
+            } catch (Exception e) {
+                outcomes.clear();
+                for (PostComponent postComponent : batch) {
+                    outcomes.add(BatchEntryOutcome.failure(buildExceptionMessage(postComponent, e,
+                            postComponent.getResourceIdentifier() + " (in " + batchIdentifier + ")", first.fhirServerUrl).getLeft()));
+                }
+            }
+
+            //each resource's outcome is recorded here, once, however the batch fared
+            for (int i = 0; i < batch.size(); i++) {
+                PostComponent postComponent = batch.get(i);
+                BatchEntryOutcome outcome = outcomes.get(i);
+                if (outcome.isSuccess()) {
+                    successfulPostCalls.add(outcome.getMessage());
+                    recordPosted(postComponent, postComponent.fhirServerUrl, outcome.getLocation());
+                } else {
+                    failedPostCalls.add(Pair.of(outcome.getMessage(), postComponent));
+                }
+                completePostTask(postComponent);
+            }
             return null;
         };
     }
 
+    /**
+     * The outcome of posting one resource in a batch: the message reporting it and, if it succeeded, the location the
+     * server gave it.
+     */
+    static class BatchEntryOutcome {
+        private final boolean success;
+        private final String message;
+        private final String location;
+
+        private BatchEntryOutcome(boolean success, String message, String location) {
+            this.success = success;
+            this.message = message;
+            this.location = location;
+        }
+
+        static BatchEntryOutcome success(String message, String location) {
+            return new BatchEntryOutcome(true, message, location);
+        }
+
+        static BatchEntryOutcome failure(String message) {
+            return new BatchEntryOutcome(false, message, null);
+        }
+
+        boolean isSuccess() {
+            return success;
+        }
+
+        String getMessage() {
+            return message;
+        }
+
+        String getLocation() {
+            return location;
+        }
+    }
+
+    /**
+     * Reads the outcome of each entry from a batch-response, which lists the responses in the order of the batch
+     * entries. The response may be JSON or XML, whichever the server chose to send. An entry whose response is missing
+     * or unreadable fails on its own, without affecting the others.
+     *
+     * @return The outcome of each resource in the batch, in batch order.
+     */
+    static List<BatchEntryOutcome> getBatchEntryOutcomes(List<PostComponent> batch, String responseBody, FhirContext fhirContext) {
+        FhirTerser terser = fhirContext.newTerser();
+        List<IBase> entries = Collections.emptyList();
+        try {
+            IParser parser = responseBody.trim().startsWith("<") ? fhirContext.newXmlParser() : fhirContext.newJsonParser();
+            entries = terser.getValues(parser.parseResource(responseBody), "Bundle.entry");
+        } catch (Exception e) {
+            logger.debug("Unable to read batch response: {}", e.getMessage());
+        }
+
+        List<BatchEntryOutcome> outcomes = new ArrayList<>();
+        for (int i = 0; i < batch.size(); i++) {
+            PostComponent postComponent = batch.get(i);
+            String resourceIdentifier = postComponent.getResourceIdentifier();
+            String status = null;
+            String location = null;
+            IBase outcome = null;
+            if (i < entries.size()) {
+                try {
+                    status = terser.getSinglePrimitiveValueOrNull(entries.get(i), "response.status");
+                    location = terser.getSinglePrimitiveValueOrNull(entries.get(i), "response.location");
+                    outcome = terser.getSingleValueOrNull(entries.get(i), "response.outcome", IBase.class);
+                } catch (Exception e) {
+                    logger.debug("Unable to read batch response entry {}: {}", i, e.getMessage());
+                }
+            }
+
+            if (status == null) {
+                outcomes.add(BatchEntryOutcome.failure("[FAIL] Exception during " + resourceIdentifier + " POST request execution to "
+                        + postComponent.fhirServerUrl + ": No response for the resource in the batch response"));
+            } else if (status.startsWith("2")) {
+                outcomes.add(BatchEntryOutcome.success(buildSuccessMessage(postComponent.fhirServerUrl, resourceIdentifier), location));
+            } else {
+                String diagnostics = outcome instanceof IBaseResource
+                        ? getDiagnosticString(fhirContext.newJsonParser().encodeResourceToString((IBaseResource) outcome)) : "";
+                outcomes.add(BatchEntryOutcome.failure("[FAIL] Error " + status.split(" ")[0] + " from " + postComponent.fhirServerUrl + ": "
+                        + resourceIdentifier + ": " + diagnostics));
+            }
+        }
+        return outcomes;
+    }
+
+    /**
+     * Groups resources into batches of up to maxPostBatchSize resources and (approximately) maxPostBatchBytes, one set
+     * of batches per FHIR server, encoding and FHIR version. Resources larger than maxPostBatchBytes are posted alone.
+     *
+     * @return The resources of each task, and the task that posts them.
+     */
+    static List<Pair<List<IBaseResource>, Callable<Void>>> createBatchTasks(Collection<PostComponent> postComponents) {
+        Map<String, List<PostComponent>> groups = new LinkedHashMap<>();
+        for (PostComponent postComponent : postComponents) {
+            groups.computeIfAbsent(postComponent.fhirServerUrl + "|" + postComponent.encoding + "|"
+                    + postComponent.fhirContext.getVersion().getVersion(), key -> new ArrayList<>()).add(postComponent);
+        }
+
+        List<Pair<List<IBaseResource>, Callable<Void>>> batchTasks = new ArrayList<>();
+        for (List<PostComponent> group : groups.values()) {
+            List<PostComponent> batch = new ArrayList<>();
+            long batchBytes = 0;
+            for (PostComponent postComponent : group) {
+                long bytes = getEncodedSize(postComponent);
+                if (bytes > maxPostBatchBytes) {
+                    batchTasks.add(Pair.of(Collections.singletonList(postComponent.resource), createPostCallable(
+                            configureHttpPost(postComponent.fhirServerUrl, postComponent.resource, postComponent.encoding, postComponent.fhirContext),
+                            postComponent)));
+                    continue;
+                }
+                if (!batch.isEmpty() && (batch.size() >= maxPostBatchSize || batchBytes + bytes > maxPostBatchBytes)) {
+                    batchTasks.add(createBatchTask(batch));
+                    batch = new ArrayList<>();
+                    batchBytes = 0;
+                }
+                batch.add(postComponent);
+                batchBytes += bytes;
+            }
+            if (!batch.isEmpty()) {
+                batchTasks.add(createBatchTask(batch));
+            }
+        }
+        return batchTasks;
+    }
+
+    private static Pair<List<IBaseResource>, Callable<Void>> createBatchTask(List<PostComponent> batch) {
+        List<IBaseResource> resources = new ArrayList<>();
+        for (PostComponent postComponent : batch) {
+            resources.add(postComponent.resource);
+        }
+        return Pair.of(resources, createBatchPostCallable(batch));
+    }
+
+    //The size of the payload the resource was already encoded to, if it was, or of the file it was read from, if that is
+    // in the same encoding. Otherwise the resource is encoded to a stream that only counts the bytes, so no copy of the
+    // encoding is kept until the batch is sent.
+    private static long getEncodedSize(PostComponent postComponent) {
+        if (postComponent.payload != null) {
+            return postComponent.payload.length;
+        }
+        if (postComponent.fileLocation != null && IOUtils.getEncoding(postComponent.fileLocation) == postComponent.encoding) {
+            File file = new File(postComponent.fileLocation);
+            if (file.isFile()) {
+                return file.length();
+            }
+        }
+        AtomicLong size = new AtomicLong();
+        try {
+            new FhirResourceEntity(postComponent.resource, postComponent.encoding, postComponent.fhirContext).writeTo(new OutputStream() {
+                @Override
+                public void write(int b) {
+                    size.incrementAndGet();
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    size.addAndGet(len);
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return size.get();
+    }
+
+    /**
+     * @return Whether the resource is unchanged since it was last posted (see setPostManifest), in which case the skip is
+     * counted; otherwise its manifest key and content hash are noted so the POST call can be recorded if it succeeds.
+     * The hash is of the resource encoded as it is posted, and that payload is kept to be sent.
+     */
+    private static boolean skipIfUnchanged(PostComponent postComponent) {
+        PostManifest manifest = postManifest;
+        if (manifest == null) {
+            return false;
+        }
+        postComponent.manifestKey = PostManifest.getKey(postComponent.fhirServerUrl, postComponent.resource, postComponent.fhirContext, postComponent.fileLocation);
+        if (postComponent.manifestKey == null) {
+            return false;
+        }
+        postComponent.payload = IOUtils.encodeResourceAsString(postComponent.resource, postComponent.encoding, postComponent.fhirContext)
+                .getBytes(StandardCharsets.UTF_8);
+        postComponent.contentHash = PostManifest.getHash(postComponent.payload);
+        if (isUnchanged(manifest.get(postComponent.manifestKey), postComponent.contentHash)) {
+            logger.debug("Skipping POST of {}: unchanged since it was last posted to {}", postComponent.getResourceIdentifier(), postComponent.fhirServerUrl);
+            skippedPostCounter.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    private static void recordPosted(PostComponent postComponent, String fhirServerUrl, String location) {
+        PostManifest manifest = postManifest;
+        if (manifest != null && postComponent.contentHash != null) {
+            manifest.record(postComponent.manifestKey, postComponent.contentHash, resolveLocation(fhirServerUrl, location));
+        }
+    }
+
+    private static void completePostTask(PostComponent postComponent) {
+        //failed calls are kept until they are reported, their payload isn't needed
+        postComponent.payload = null;
+        runningPostTaskList.remove(postComponent.resource);
+        reportProgress();
+    }
+
+    /**
+     * @return Whether the content was posted unchanged by an earlier run, and (if verifying) the server still holds
+     * the version it was given then.
+     */
+    private static boolean isUnchanged(PostManifest.Entry entry, String contentHash) {
+        if (entry == null || !contentHash.equals(entry.getHash())) {
+            return false;
+        }
+        return !verifyPostManifest || entry.getLocation() == null || isCurrentOnServer(entry.getLocation());
+    }
+
+    /**
+     * Checks with a conditional GET that the server still holds the resource at a location it reported for a POST call.
+     * For a versioned location (.../_history/[version]) the resource must not have been updated since: the server
+     * answers 304 Not Modified, or its current ETag is that version. Any other response, or an error, means it should be
+     * posted again.
+     */
+    private static boolean isCurrentOnServer(String location) {
+        Matcher versionedLocation = VERSIONED_LOCATION.matcher(location);
+        String eTag = null;
+        HttpGet get = new HttpGet(versionedLocation.matches() ? versionedLocation.group(1) : location);
+        if (versionedLocation.matches()) {
+            eTag = "W/\"" + versionedLocation.group(2) + "\"";
+            get.addHeader("If-None-Match", eTag);
+        }
+        get.setConfig(requestConfig);
+
+        try {
+            HttpResponse response = postHttpClient.execute(get);
+            try {
+                int statusCode = response.getStatusLine().getStatusCode();
+                if (statusCode == 304) {
+                    return true;
+                }
+                if (statusCode != 200) {
+                    return false;
+                }
+                Header currentETag = response.getFirstHeader("ETag");
+                return eTag == null || (currentETag != null && eTag.equals(currentETag.getValue()));
+            } finally {
+                EntityUtils.consumeQuietly(response.getEntity());
+            }
+        } catch (IOException e) {
+            logger.debug("Unable to check {}: {}", location, e.getMessage());
+            return false;
+        }
+    }
+
+    static String resolveLocation(String fhirServerUrl, String location) {
+        if (location == null || location.matches("^[a-zA-Z][a-zA-Z0-9+.-]*://.*")) {
+            return location;
+        }
+        //relative to the server base, e.g. Library/example/_history/1:
+        return (fhirServerUrl.endsWith("/") ? fhirServerUrl : fhirServerUrl + "/") + (location.startsWith("/") ? location.substring(1) : location);
+    }
+
+    /**
+     * Executes the POST request, retrying it according to the retry policy while the server responds with 429 or 5xx or
+     * the connection fails.
+     *
+     * @return The last response received.
+     * @throws IOException If the last attempt failed with a connection error, or the thread was interrupted while waiting to retry.
+     */
+    private static PostResponse executePostWithRetry(HttpPost post, String resourceIdentifier) throws IOException {
+        int attempts = maxPostAttempts;
+        for (int attempt = 1; ; attempt++) {
+            PostResponse response = null;
+            IOException exception = null;
+            try {
+                long startTime = System.nanoTime();
+                HttpResponse httpResponse = postHttpClient.execute(post);
+                response = new PostResponse(httpResponse, attempt);
+                recordLatency(startTime);
+            } catch (IOException e) {
+                exception = e;
+            }
+
+            if (attempt >= attempts || (response != null && !isRetryableStatus(response.statusCode))) {
+                if (response != null) {
+                    return response;
+                }
+                throw attempt > 1 ? new IOException(exception.getMessage() + " (after " + attempt + " attempts)", exception) : exception;
+            }
+
+            long delay = getRetryDelay(attempt, response != null ? response.retryAfter : null, initialRetryBackoffMillis, maxRetryBackoffMillis);
+            logger.debug("Retrying POST of {} in {}ms ({})", resourceIdentifier, delay,
+                    response != null ? "status " + response.statusCode : exception.getMessage());
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting to retry", e);
+            }
+        }
+    }
+
+    static boolean isRetryableStatus(int statusCode) {
+        return statusCode == 429 || statusCode >= 500;
+    }
+
+    /**
+     * Determines how long to wait before the next attempt of a failed POST call. A Retry-After value from the server
+     * (in seconds or as an HTTP date) is honoured; otherwise the delay grows exponentially with the number of attempts,
+     * with random jitter of up to half the delay so that simultaneous failures don't retry in lockstep.
+     *
+     * @param attempt              The number of attempts made so far.
+     * @param retryAfter           The value of the Retry-After header of the last response, if any.
+     * @param initialBackoffMillis The delay after the first attempt.
+     * @param maxBackoffMillis     The maximum exponential delay.
+     * @return The delay, in milliseconds.
+     */
+    static long getRetryDelay(int attempt, String retryAfter, long initialBackoffMillis, long maxBackoffMillis) {
+        if (retryAfter != null) {
+            long retryAfterMillis = -1;
+            try {
+                retryAfterMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim()));
+            } catch (NumberFormatException e) {
+                Date retryAfterDate = DateUtils.parseDate(retryAfter);
+                if (retryAfterDate != null) {
+                    retryAfterMillis = Math.max(0, retryAfterDate.getTime() - System.currentTimeMillis());
+                }
+            }
+            if (retryAfterMillis >= 0) {
+                return Math.min(retryAfterMillis, MAX_RETRY_AFTER_MILLIS);
+            }
+        }
+
+        long backoff = Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(attempt - 1, 30));
+        return backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+    }
+
+    private static void recordLatency(long startTime) {
+        postLatencies.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+    }
+
+    /**
+     * Summarizes POST response times as nearest-rank percentiles.
+     *
+     * @param latencies The response times, in milliseconds.
+     * @return A summary of the 50th, 90th and 99th percentile and maximum response times, or an empty string if there are none.
+     */
+    static String getLatencySummary(Collection<Long> latencies) {
+        if (latencies.isEmpty()) {
+            return "";
+        }
+
+        List<Long> sortedLatencies = new ArrayList<>(latencies);
+        Collections.sort(sortedLatencies);
+        return String.format("POST response times over %d requests: p50=%dms, p90=%dms, p99=%dms, max=%dms",
+                sortedLatencies.size(),
+                getPercentile(sortedLatencies, 50),
+                getPercentile(sortedLatencies, 90),
+                getPercentile(sortedLatencies, 99),
+                sortedLatencies.get(sortedLatencies.size() - 1));
+    }
+
+    private static long getPercentile(List<Long> sortedValues, int percentile) {
+        int rank = (int) Math.ceil(percentile / 100.0 * sortedValues.size());
+        return sortedValues.get(Math.max(rank, 1) - 1);
+    }
+
     private static Pair<String, PostComponent> buildExceptionMessage(PostComponent postComponent, Exception e, String resourceIdentifier, String locationIdentifier) {
         return Pair.of("[FAIL] Exception during " + resourceIdentifier + " POST request execution to " + locationIdentifier + ": " + e.getMessage(), postComponent);
     }
 
-    private static Pair<String, PostComponent> buildFailedPostMessage(PostComponent postComponent, int statusCode, String locationIdentifier, String resourceIdentifier, String diagnosticString) {
-        return Pair.of("[FAIL] Error " + statusCode + " from " + locationIdentifier + ": " + resourceIdentifier + ": " + diagnosticString, postComponent);
+    private static Pair<String, PostComponent> buildFailedPostMessage(PostComponent postComponent, PostResponse response, String locationIdentifier, String resourceIdentifier) {
+        return Pair.of("[FAIL] Error " + response.statusCode + " from " + locationIdentifier + ": " + resourceIdentifier + ": " + getDiagnosticString(response.body)
+                + (response.attempts > 1 ? " (after " + response.attempts + " attempts)" : ""), postComponent);
     }
 
     private static String buildSuccessMessage(String locationIdentifier, String resourceIdentifier) {
@@ -306,13 +927,25 @@ public class HttpClientUtils {
      * and pool size information is printed to the standard output.
      */
     private static void reportProgress() {
-        int currentCounter = processedPostCounter++;
+        int currentCounter = processedPostCounter.getAndIncrement();
+        if (streamStartNanos != 0) {
+            //the total isn't known while streaming, so report the rate instead:
+            System.out.print("\rPOST calls: " + (currentCounter + 1) + " processed ("
+                    + getThroughput(currentCounter + 1, postedBytes.get(), System.nanoTime() - streamStartNanos)
+                    + "). POST response pool size: " + runningPostTaskList.size() + ". ");
+            return;
+        }
         double percentage = (double) currentCounter / getTotalTaskCount() * 100;
         System.out.print("\rPOST calls: " + String.format("%.2f%%", percentage) + " processed. POST response pool size: " + runningPostTaskList.size() + ". ");
     }
 
+    static String getThroughput(long count, long bytes, long elapsedNanos) {
+        double seconds = Math.max(elapsedNanos, 1) / 1e9;
+        return String.format(Locale.ROOT, "%.1f/s, %.2f MB/s", count / seconds, bytes / BYTES_PER_MB / seconds);
+    }
+
     private static int getTotalTaskCount() {
-        return tasks.size() + initialTasks.size();
+        return tasks.size() + initialTasks.size() + batchedTasks.size() + initialBatchedTasks.size();
     }
 
     /**
@@ -320,30 +953,101 @@ public class HttpClientUtils {
      * <p>
      * This method orchestrates the execution of a collection of HTTP POST requests, each represented as a task.
      * The method performs the following steps:
-     * 1. Creates a thread pool using a fixed number of threads (usually 1).
-     * 2. Initiates the HTTP POST tasks for FHIR resources and monitors their progress.
+     * 1. Creates a thread pool and a pooled, keep-alive HTTP client sized to the maximum number of simultaneous POST calls.
+     * 2. Initiates the HTTP POST tasks for FHIR resources and monitors their progress, reporting response time percentiles.
      * 3. Collects and logs success or failure messages for each task.
      * 4. Sorts and reports the results of the post tasks, both successful and failed.
-     * 5. Offers the option to retry failed tasks, if desired by the user.
+     * 5. Records failed tasks (after retries) to a log file, and to a directory from which they can be resumed later.
      * 6. Cleans up resources and shuts down the thread pool when finished.
      * <p>
      * This method serves as the entry point for posting tasks and provides progress monitoring and result reporting.
      */
     public static void postTaskCollection() {
-        ExecutorService executorService = Executors.newFixedThreadPool(1);
-
-        try {
-            logger.info(getTotalTaskCount() + " POST calls to be made. Starting now. Please wait...");
+        postTasks((executorService, postPermits) -> {
+            logger.info(getTotalTaskCount() + " POST calls to be made (up to " + postPermits.availablePermits() + " at a time). Starting now. Please wait...");
             double percentage = 0;
             System.out.print("\rPOST: " + String.format("%.2f%%", percentage) + " done. ");
 
-            //execute any tasks marked as having priority:
-            executeTasks(executorService, initialTasks);
+            executeAllTasks(executorService, postPermits);
+        });
+    }
+
+    /**
+     * Makes POST calls for resources as another thread produces them, rather than for a collection built up in advance
+     * with post().
+     * <p>
+     * Producing (e.g. reading and parsing files) and posting overlap, and only the resources waiting in the queue or being
+     * posted are held in memory, so the memory used depends on the capacity of the queue rather than on the number of
+     * resources. Any POST calls already queued with post() (e.g. resumed failures) are made first. Progress is reported
+     * as calls and megabytes per second, counting the request bytes actually sent (after compression, and again for each
+     * retry); results are reported, and failures recorded for resuming, as for postTaskCollection().
+     *
+     * @param fhirServerUrl The URL of the FHIR server to which the resources will be posted.
+     * @param encoding      The encoding type of the resources.
+     * @param fhirContext   The FHIR context for the resources.
+     * @param resources     The resources to post, paired with the file each was read from (or null). take() is expected
+     *                      to block until the next resource is available; the producer ends the stream with END_OF_STREAM.
+     */
+    public static void postTaskStream(String fhirServerUrl, IOUtils.Encoding encoding, FhirContext fhirContext,
+                                      BlockingQueue<Pair<String, IBaseResource>> resources) {
+        postTasks((executorService, postPermits) -> {
+            int postCount = postPermits.availablePermits();
+            logger.info("Streaming POST calls to " + fhirServerUrl + " (up to " + postCount + " at a time). Please wait...");
+            streamStartNanos = System.nanoTime();
 
-            //execute the remaining tasks:
-            executeTasks(executorService, tasks);
+            executeTasks(executorService, postPermits, initialTasks, initialBatchedTasks);
+            executeTasks(executorService, postPermits, tasks, batchedTasks);
 
-            reportProgress();
+            try {
+                Pair<String, IBaseResource> next;
+                while ((next = resources.take()) != END_OF_STREAM) {
+                    postPermits.acquire();
+                    try {
+                        PostComponent postComponent = new PostComponent(fhirServerUrl, next.getRight(), encoding, fhirContext, next.getLeft(), false);
+                        Callable<Void> task = createPostCallable(configureHttpPost(fhirServerUrl, next.getRight(), encoding, fhirContext), postComponent);
+                        runningPostTaskList.add(postComponent.resource);
+                        executorService.submit(() -> {
+                            try {
+                                return task.call();
+                            } finally {
+                                postPermits.release();
+                            }
+                        });
+                    } catch (RuntimeException e) {
+                        postPermits.release();
+                        logger.error("Error while submitting the POST request: " + e.getMessage(), e);
+                    }
+                }
+
+                //every task returns its permit when it completes, so holding all of them means the stream is done:
+                postPermits.acquire(postCount);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.error("postTaskStream interrupted, remaining POST calls were not made", e);
+            }
+
+            long elapsedNanos = System.nanoTime() - streamStartNanos;
+            logger.info(String.format(Locale.ROOT, "%n%d POST calls (%.1f MB) made in %.1fs: %s", processedPostCounter.get(),
+                    postedBytes.get() / BYTES_PER_MB, elapsedNanos / 1e9, getThroughput(processedPostCounter.get(), postedBytes.get(), elapsedNanos)));
+            String latencySummary = getLatencySummary(postLatencies);
+            if (!latencySummary.isEmpty()) {
+                logger.info("\r\n" + latencySummary);
+            }
+        });
+    }
+
+    /**
+     * Sets up the thread pool and pooled, keep-alive HTTP client for a set of POST calls, makes the calls with the given
+     * executor, then reports the results and records the failures, and cleans up.
+     */
+    private static void postTasks(BiConsumer<ExecutorService, Semaphore> executor) {
+        int postCount = maxSimultaneousPostCount;
+        ExecutorService executorService = Executors.newFixedThreadPool(postCount);
+        Semaphore postPermits = new Semaphore(postCount);
+        postHttpClient = createPostHttpClient(postCount);
+
+        try {
+            executor.accept(executorService, postPermits);
 
             logger.info("Processing results...");
             Collections.sort(successfulPostCalls);
@@ -353,54 +1057,12 @@ public class HttpClientUtils {
                 message.append("\n").append(successPost);
             }
             message.append("\r\n").append(successfulPostCalls.size()).append(" resources successfully posted.");
+            if (postManifest != null) {
+                message.append("\r\n").append(skippedPostCounter.get()).append(" resources skipped, unchanged since they were last posted.");
+            }
             logger.info(message.toString());
             successfulPostCalls = new ArrayList<>();
 
-            if (!failedPostCalls.isEmpty()) {
-                logger.info(failedPostCalls.size() + " tasks failed to POST. Retry these failed posts? (Y/N)");
-                Scanner scanner = new Scanner(System.in);
-                String userInput = scanner.nextLine().trim().toLowerCase();
-
-                if (userInput.equalsIgnoreCase("y")) {
-                    List<Pair<String, PostComponent>> failedPostCallList = new ArrayList<>(failedPostCalls);
-                    cleanUp(); //clear the queue, reset the counter, start fresh
-
-                    for (Pair<String, PostComponent> pair : failedPostCallList) {
-                        PostComponent postComponent = pair.getRight();
-                        try {
-                            post(postComponent.fhirServerUrl,
-                                    postComponent.resource,
-                                    postComponent.encoding,
-                                    postComponent.fhirContext,
-                                    postComponent.fileLocation,
-                                    postComponent.hasPriority);
-                        } catch (IOException e) {
-                            throw new RuntimeException(e);
-                        }
-                    }
-                    //execute any tasks marked as having priority:
-                    executeTasks(executorService, initialTasks);
-
-                    //execute the remaining tasks:
-                    executeTasks(executorService, tasks);
-
-                    reportProgress();
-                    if (failedPostCalls.isEmpty()) {
-                        logger.info("\r\nRetry successful, all tasks successfully posted");
-                    }
-                }
-            }
-
-            if (!successfulPostCalls.isEmpty()) {
-                message = new StringBuilder();
-                for (String successPost : successfulPostCalls) {
-                    message.append("\n").append(successPost);
-                }
-                message.append("\r\n").append(successfulPostCalls.size()).append(" resources successfully posted.");
-                logger.info(message.toString());
-                successfulPostCalls = new ArrayList<>();
-            }
-
             if (!failedPostCalls.isEmpty()) {
                 List<String> failedMessages = new ArrayList<>();
                 for (Pair<String, PostComponent> pair : failedPostCalls) {
@@ -418,23 +1080,61 @@ public class HttpClientUtils {
                 message.append("\r\n").append(failedMessages.size()).append(" resources failed to post.");
                 logger.info(message.toString());
 
-                writeFailedPostAttemptsToLog(failedMessages);
+                //generate unique filenames based on simple timestamp:
+                String httpFailFilename = "http_post_fail_" + new SimpleDateFormat("yyyyMMddHHmmss").format(new Date());
+                writeFailedPostAttemptsToLog(httpFailFilename + ".log", failedMessages);
+                writeFailedPostsForResume(httpFailFilename, failedPostCalls);
             }
 
         } finally {
+            PostManifest manifest = postManifest;
+            if (manifest != null) {
+                manifest.save();
+            }
             cleanUp();
             executorService.shutdown();
+            try {
+                postHttpClient.close();
+            } catch (IOException e) {
+                logger.warn("Error closing the POST HTTP client: " + e.getMessage());
+            }
+            postHttpClient = null;
         }
     }
 
+    private static CloseableHttpClient createPostHttpClient(int maxConnections) {
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnections);
+        return HttpClientBuilder.create()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .build();
+    }
+
+    private static void executeAllTasks(ExecutorService executorService, Semaphore postPermits) {
+        //execute any tasks marked as having priority:
+        executeTasks(executorService, postPermits, initialTasks, initialBatchedTasks);
+
+        //execute the remaining tasks:
+        executeTasks(executorService, postPermits, tasks, batchedTasks);
+
+        reportProgress();
+
+        String latencySummary = getLatencySummary(postLatencies);
+        if (!latencySummary.isEmpty()) {
+            logger.info("\r\n" + latencySummary);
+        }
+        postLatencies = new ConcurrentLinkedQueue<>();
+    }
+
     /**
      * Gives the user a log file containing failed POST attempts during postTaskCollection()
+     * @param httpFailLogFilename
      * @param failedMessages
      */
-    private static void writeFailedPostAttemptsToLog(List<String> failedMessages) {
+    private static void writeFailedPostAttemptsToLog(String httpFailLogFilename, List<String> failedMessages) {
         if (!failedMessages.isEmpty()) {
-            //generate a unique filename based on simple timestamp:
-            String httpFailLogFilename = "http_post_fail_" + new SimpleDateFormat("yyyyMMddHHmmss").format(new Date()) + ".log";
             try (BufferedWriter writer = new BufferedWriter(new FileWriter(httpFailLogFilename))) {
                 for (String str : failedMessages) {
                     writer.write(str + "\n");
@@ -446,19 +1146,92 @@ public class HttpClientUtils {
         }
     }
 
+    /**
+     * Records failed POST tasks in a machine-readable form so they can be resumed by a later run (see queueFailedPosts).
+     * The directory contains a copy of each failed resource and a failed-posts.json file describing the POST calls.
+     */
+    private static void writeFailedPostsForResume(String directoryName, Collection<Pair<String, PostComponent>> failedPosts) {
+        Path directory = Paths.get(directoryName);
+        try {
+            Files.createDirectories(directory);
+            List<FailedPost> failedPostRecords = new ArrayList<>();
+            int index = 0;
+            for (Pair<String, PostComponent> pair : failedPosts) {
+                PostComponent postComponent = pair.getRight();
+                FailedPost failedPost = new FailedPost();
+                failedPost.fhirServerUrl = postComponent.fhirServerUrl;
+                failedPost.fhirVersion = postComponent.fhirContext.getVersion().getVersion().name();
+                failedPost.encoding = postComponent.encoding.toString();
+                failedPost.fileLocation = postComponent.fileLocation;
+                failedPost.hasPriority = postComponent.hasPriority;
+                failedPost.message = pair.getLeft();
+                failedPost.resourceFile = String.format("%04d-%s.%s", ++index, postComponent.resource.fhirType(), postComponent.encoding);
+                Files.write(directory.resolve(failedPost.resourceFile),
+                        IOUtils.encodeResource(postComponent.resource, postComponent.encoding, postComponent.fhirContext, true));
+                failedPostRecords.add(failedPost);
+            }
+            Gson gson = new GsonBuilder().setPrettyPrinting().create();
+            Files.write(directory.resolve(FAILED_POSTS_FILE), gson.toJson(failedPostRecords).getBytes(StandardCharsets.UTF_8));
+            logger.info("\r\nRecorded failed POST tasks for resuming to: " + directory.toAbsolutePath() + "\r\n");
+        } catch (Exception e) {
+            logger.info("\r\nRecording of failed POST tasks for resuming failed with exception: " + e.getMessage() + "\r\n");
+        }
+    }
+
+    /**
+     * Queues the POST calls recorded as failed by a previous postTaskCollection() run, to be executed by the next call to
+     * postTaskCollection().
+     *
+     * @param failedPostDirectory The http_post_fail_* directory written by the previous run.
+     * @return The number of POST calls queued.
+     * @throws IOException If the failed POST records can't be read.
+     */
+    public static int queueFailedPosts(String failedPostDirectory) throws IOException {
+        Path directory = Paths.get(failedPostDirectory);
+        String json = new String(Files.readAllBytes(directory.resolve(FAILED_POSTS_FILE)), StandardCharsets.UTF_8);
+        List<FailedPost> failedPosts = new Gson().fromJson(json, new TypeToken<List<FailedPost>>() {}.getType());
+
+        for (FailedPost failedPost : failedPosts) {
+            FhirContext fhirContext = FhirContextCache.getContext(FhirVersionEnum.valueOf(failedPost.fhirVersion));
+            IBaseResource resource = IOUtils.readResource(directory.resolve(failedPost.resourceFile).toString(), fhirContext);
+            post(failedPost.fhirServerUrl, resource, IOUtils.Encoding.parse(failedPost.encoding), fhirContext,
+                    failedPost.fileLocation, failedPost.hasPriority);
+        }
+        return failedPosts.size();
+    }
+
+
+    /**
+     * Submits the tasks to the executor, blocking whenever all POST permits are taken so that no more than the maximum
+     * number of POST calls are queued or in flight at once.
+     */
+    private static void executeTasks(ExecutorService executorService, Semaphore postPermits, Map<IBaseResource, Callable<Void>> executableTasksMap,
+                                     Map<IBaseResource, PostComponent> batchedTasksMap) {
+        List<Pair<List<IBaseResource>, Callable<Void>>> executableTasks = new ArrayList<>();
+        for (Map.Entry<IBaseResource, Callable<Void>> entry : executableTasksMap.entrySet()) {
+            executableTasks.add(Pair.of(Collections.singletonList(entry.getKey()), entry.getValue()));
+        }
+        executableTasks.addAll(createBatchTasks(batchedTasksMap.values()));
 
-    private static void executeTasks(ExecutorService executorService, Map<IBaseResource, Callable<Void>> executableTasksMap) {
         List<Future<Void>> futures = new ArrayList<>();
-        List<IBaseResource> resources = new ArrayList<>(executableTasksMap.keySet());
-        for (int i = 0; i < resources.size(); i++) {
-            IBaseResource thisResource = resources.get(i);
-            if (runningPostTaskList.size() < MAX_SIMULTANEOUS_POST_COUNT) {
-                runningPostTaskList.add(thisResource);
-                futures.add(executorService.submit(executableTasksMap.get(thisResource)));
-            } else {
-                threadSleep(10);
-                i--;
+        for (Pair<List<IBaseResource>, Callable<Void>> entry : executableTasks) {
+            try {
+                postPermits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.error("postTaskCollection interrupted, remaining POST calls were not made", e);
+                break;
             }
+
+            runningPostTaskList.addAll(entry.getLeft());
+            Callable<Void> task = entry.getRight();
+            futures.add(executorService.submit(() -> {
+                try {
+                    return task.call();
+                } finally {
+                    postPermits.release();
+                }
+            }));
         }
 
         for (Future<Void> future : futures) {
@@ -470,21 +1243,6 @@ public class HttpClientUtils {
         }
     }
 
-    /**
-     * Pauses the current thread's execution for a specified duration.
-     * This method causes the current thread to sleep for the given duration, allowing a pause in execution. If an
-     * interruption occurs during the sleep, it is logged as an exception.
-     *
-     * @param i The duration, in milliseconds, for which the thread should sleep.
-     */
-    private static void threadSleep(int i) {
-        try {
-            Thread.sleep(i);
-        } catch (InterruptedException e) {
-            logger.error("postTaskCollection", new RuntimeException(e));
-        }
-    }
-
     /**
      * Cleans up and resets internal data structures after processing HTTP POST tasks.
      * <p>
@@ -494,6 +1252,7 @@ public class HttpClientUtils {
      * 3. Resets the map of tasks to be executed.
      * 4. Resets the counter that tracks the number of processed POST calls.
      * 5. Clears the list of resources currently being posted.
+     * 6. Restores the default batching settings.
      * <p>
      * This method ensures a clean state and prepares the system for potential subsequent POST calls or retries.
      */
@@ -502,8 +1261,36 @@ public class HttpClientUtils {
         successfulPostCalls = new CopyOnWriteArrayList<>();
         tasks = new ConcurrentHashMap<>();
         initialTasks = new ConcurrentHashMap<>();
-        processedPostCounter = 0;
+        batchedTasks = new ConcurrentHashMap<>();
+        initialBatchedTasks = new ConcurrentHashMap<>();
+        processedPostCounter.set(0);
         runningPostTaskList = new CopyOnWriteArrayList<>();
+        postLatencies = new ConcurrentLinkedQueue<>();
+        postedBytes.set(0);
+        streamStartNanos = 0;
+        skippedPostCounter.set(0);
+        resetPostBatching();
+    }
+
+    /**
+     * Restores the POST settings (concurrency, retries, compression, delta manifest and batching) to their defaults, so
+     * that settings made for one operation don't carry over to the next in a long-running process.
+     */
+    public static void resetPostSettings() {
+        maxSimultaneousPostCount = DEFAULT_MAX_SIMULTANEOUS_POST_COUNT;
+        maxPostAttempts = DEFAULT_MAX_POST_ATTEMPTS;
+        initialRetryBackoffMillis = DEFAULT_INITIAL_RETRY_BACKOFF_MILLIS;
+        maxRetryBackoffMillis = DEFAULT_MAX_RETRY_BACKOFF_MILLIS;
+        gzipPostBodies = false;
+        postManifest = null;
+        verifyPostManifest = false;
+        resetPostBatching();
+    }
+
+    //Batching is set up for the POST calls of one operation (see setPostBatching), and is not carried over to the next
+    private static void resetPostBatching() {
+        maxPostBatchSize = 1;
+        maxPostBatchBytes = DEFAULT_MAX_POST_BATCH_BYTES;
     }
 
     public static String get(String path) throws IOException {
@@ -530,7 +1317,7 @@ public class HttpClientUtils {
      * The PostComponent class encapsulates the essential information required for making an HTTP POST request to a FHIR server.
      * It includes the FHIR server URL, the FHIR resource to be posted, the encoding type, and the FHIR context.
      */
-    private static class PostComponent {
+    static class PostComponent {
         private final String fhirServerUrl;
         private String redirectFhirServerUrl;
         private final IBaseResource resource;
@@ -538,6 +1325,10 @@ public class HttpClientUtils {
         private final FhirContext fhirContext;
         private final String fileLocation;
         private final boolean hasPriority;
+        //Set when the resource is compared with the POST manifest, to record it there if the POST call succeeds
+        private String manifestKey;
+        private String contentHash;
+        private byte[] payload;
         public PostComponent(String fhirServerUrl, IBaseResource resource, IOUtils.Encoding encoding, FhirContext fhirContext, String fileLocation, boolean hasPriority) {
             this.fhirServerUrl = fhirServerUrl;
             this.resource = resource;
@@ -546,6 +1337,44 @@ public class HttpClientUtils {
             this.fileLocation = fileLocation;
             this.hasPriority = hasPriority;
         }
+
+        private String getResourceIdentifier() {
+            return fileLocation != null ? Paths.get(fileLocation).getFileName().toString() : resource.getIdElement().getIdPart();
+        }
+    }
+
+    /**
+     * The parts of a POST response needed once the response has been consumed and its connection released.
+     */
+    private static class PostResponse {
+        private final int statusCode;
+        private final String location;
+        private final String retryAfter;
+        private final String body;
+        private final int attempts;
+
+        public PostResponse(HttpResponse response, int attempts) throws IOException {
+            this.statusCode = response.getStatusLine().getStatusCode();
+            Header locationHeader = response.getFirstHeader("Location");
+            this.location = locationHeader != null ? locationHeader.getValue() : null;
+            Header retryAfterHeader = response.getFirstHeader("Retry-After");
+            this.retryAfter = retryAfterHeader != null ? retryAfterHeader.getValue() : null;
+            this.body = response.getEntity() != null ? EntityUtils.toString(response.getEntity()) : "";
+            this.attempts = attempts;
+        }
+    }
+
+    /**
+     * The record of a failed POST call written to failed-posts.json.
+     */
+    private static class FailedPost {
+        private String fhirServerUrl;
+        private String fhirVersion;
+        private String encoding;
+        private String resourceFile;
+        private String fileLocation;
+        private boolean hasPriority;
+        private String message;
     }
 
     public static ResponseHandler<String> getDefaultResponseHandler() {
@@ -100,6 +100,18 @@ public class IOUtils {
         return parser.setPrettyPrint(true).encodeResourceToString(resource);
     }
 
+    /**
+     * Encodes the resource directly to the writer, as encodeResourceAsString would, without building the whole
+     * encoded resource in memory first.
+     */
+    public static void encodeResourceToWriter(IBaseResource resource, Encoding encoding, FhirContext fhirContext, Writer writer) throws IOException {
+        if (encoding == Encoding.UNKNOWN) {
+            return;
+        }
+        IParser parser = getParser(encoding, fhirContext);
+        parser.setPrettyPrint(true).encodeResourceToWriter(resource, writer);
+    }
+
     // Issue 96 - adding second signature to allow for passing versioned
     public static <T extends IBaseResource> void writeResource(T resource, String path, Encoding encoding,
                                                                FhirContext fhirContext) {
@@ -271,7 +283,16 @@ public class IOUtils {
     }
 
     //users should always check for null
-    private static final Map<String, IBaseResource> cachedResources = new LinkedHashMap<>();
+    private static volatile ResourceCache cachedResources = new BoundedResourceCache();
+
+    public static void setResourceCache(ResourceCache resourceCache) {
+        cachedResources = Objects.requireNonNull(resourceCache, "resourceCache can not be null");
+    }
+
+    public static ResourceCache.Stats getResourceCacheStats() {
+        return cachedResources.getStats();
+    }
+
     public static IBaseResource readResource(String path, FhirContext fhirContext, Boolean safeRead) {
         Encoding encoding = getEncoding(path);
         if (encoding == Encoding.UNKNOWN || encoding == Encoding.CQL) {
@@ -304,8 +325,24 @@ public class IOUtils {
         return resource;
     }
 
+    // Parses the resource at path without caching it, for callers that read each file once (e.g. streaming uploads)
+    // and would otherwise evict the resources other callers share
+    public static IBaseResource parseResource(String path, FhirContext fhirContext) {
+        Encoding encoding = getEncoding(path);
+        if (encoding == Encoding.UNKNOWN || encoding == Encoding.CQL) {
+            return null;
+        }
+
+        try (Reader reader = Files.newBufferedReader(Paths.get(path), StandardCharsets.UTF_8)) {
+            return getParser(encoding, fhirContext).parseResource(reader);
+        } catch (IOException e) {
+            throw new RuntimeException(String.format("Error reading resource from path %s: %s", path, e.getMessage()), e);
+        }
+    }
+
+    // Cached entries are invalidated when their file changes, this only avoids re-parsing a file that was just written
     public static void updateCachedResource(IBaseResource updatedResource, String path) {
-        cachedResources.computeIfPresent(path, (key, value) -> updatedResource);
+        cachedResources.update(path, updatedResource);
     }
 
     public static List<IBaseResource> readResources(List<String> paths, FhirContext fhirContext) {
@@ -325,8 +362,9 @@ public class IOUtils {
             return null;
         }
 
-        if (cachedResources.containsKey(path)) {
-            return cachedResources.get(path);
+        IBaseResource cachedResource = cachedResources.get(path);
+        if (cachedResource != null) {
+            return cachedResource;
         }
 
         IParser parser = getParser(encoding, fhirContext);
@@ -354,35 +392,10 @@ public class IOUtils {
     public static boolean isDirectory(String path) {
         return FileUtils.isDirectory(new File(path));
     }
-    private static final Map<String, List<String>> cachedFilePaths = new ConcurrentHashMap<>();
+    private static final DirectoryIndex directoryIndex = new DirectoryIndex();
 
     public static List<String> getFilePaths(String directoryPath, Boolean recursive) {
-        List<String> filePaths = new ArrayList<>();
-        String key = directoryPath + ":" + recursive;
-
-        if (IOUtils.cachedFilePaths.containsKey(key)) {
-            filePaths = IOUtils.cachedFilePaths.get(key);
-            return filePaths;
-        }
-        File inputDir = new File(directoryPath);
-        ArrayList<File> files = inputDir.isDirectory()
-                ? new ArrayList<>(Arrays.asList(Optional.ofNullable(
-                inputDir.listFiles()).orElseThrow(NoSuchElementException::new)))
-                : new ArrayList<>();
-
-        for (File file : files) {
-            if (file.isDirectory()) {
-                //note: this is not the same as ANDing recursive to isDirectory as that would result in directories
-                // being added to the list if the request is not recursive.
-                if (Boolean.TRUE.equals(recursive)) {
-                    filePaths.addAll(getFilePaths(file.getPath(), true));
-                }
-            } else {
-                filePaths.add(file.getPath());
-            }
-        }
-        cachedFilePaths.put(key, filePaths);
-        return filePaths;
+        return directoryIndex.getFilePaths(directoryPath, Boolean.TRUE.equals(recursive));
     }
 
     public static String getResourceFileName(String resourcePath, IBaseResource resource, Encoding encoding,
@@ -423,36 +436,8 @@ public class IOUtils {
         return file.getParent();
     }
 
-    private static final Map<String, List<String>> cachedDirectoryPaths = new ConcurrentHashMap<>();
-
     public static List<String> getDirectoryPaths(String path, Boolean recursive) {
-        List<String> directoryPaths = new ArrayList<>();
-        String key = path + ":" + recursive;
-        if (IOUtils.cachedDirectoryPaths.containsKey(key)) {
-            directoryPaths = IOUtils.cachedDirectoryPaths.get(key);
-            return directoryPaths;
-        }
-        List<File> directories;
-        File parentDirectory = new File(path);
-        try {
-            directories = Arrays.asList(Optional.ofNullable(parentDirectory.listFiles())
-                    .orElseThrow(NoSuchElementException::new));
-        } catch (Exception e) {
-//            logger.error("No paths found for the Directory {}:", path);
-            return directoryPaths;
-        }
-
-
-        for (File directory : directories) {
-            if (directory.isDirectory()) {
-                if (Boolean.TRUE.equals(recursive)) {
-                    directoryPaths.addAll(getDirectoryPaths(directory.getPath(), recursive));
-                }
-                directoryPaths.add(directory.getPath());
-            }
-        }
-        cachedDirectoryPaths.put(key, directoryPaths);
-        return directoryPaths;
+        return directoryIndex.getDirectoryPaths(path, Boolean.TRUE.equals(recursive));
     }
 
     public static void initializeDirectory(String path) {
@@ -557,7 +542,7 @@ public class IOUtils {
         return dependencyCqlFiles;
     }
 
-    private static final Map<String, CqlTranslator> cachedTranslator = new LinkedHashMap<>();
+    private static final Map<String, CqlTranslator> cachedTranslator = new ConcurrentHashMap<>();
 
     public static CqlTranslator translate(File cqlFile, LibraryManager libraryManager) throws CqlTranslatorException {
         String cqlContentPath = cqlFile.getAbsolutePath();
@@ -1083,9 +1068,9 @@ public class IOUtils {
      */
     public static void cleanUp(){
         alreadyCopied.clear();
+        logger.debug("Resource cache: {}", cachedResources.getStats());
         cachedResources.clear();
-        cachedFilePaths.clear();
-        cachedDirectoryPaths.clear();
+        directoryIndex.clear();
         cachedTranslator.clear();
         cqlLibraryPaths.clear();
         terminologyPaths.clear();
@@ -0,0 +1,131 @@
+package org.opencds.cqf.tooling.utilities;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.hl7.elm.r1.ValueSetDef;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.opencds.cqf.tooling.cql.exception.CqlTranslatorException;
+import org.opencds.cqf.tooling.utilities.IOUtils.Encoding;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.FhirVersionEnum;
+
+/**
+ * The include graph of the libraries being bundled, with the transitive dependencies of each library computed once.
+ * <p>
+ * Bundling asks for the value sets and dependency libraries of every artifact's primary library, and the libraries they
+ * share (FHIRHelpers, common libraries) sit under many of them. Walking the includes afresh for each request revisits
+ * every shared subtree once per path to it; here the closure of a library is built from the cached closures of the
+ * libraries it includes, so each library is visited once per run. The graph is cleared by {@link ResourceUtils#cleanUp()}.
+ */
+public class LibraryDependencyGraph {
+    private static final Logger logger = LoggerFactory.getLogger(LibraryDependencyGraph.class);
+
+    // Closures of CQL libraries, by cql path and includeVersion
+    private static Map<String, CqlClosure> cqlClosures = new ConcurrentHashMap<>();
+    // Dependency Library resources by id, by Library resource path, encoding and versioned
+    private static Map<String, Map<String, IBaseResource>> libraryClosures = new ConcurrentHashMap<>();
+
+    private LibraryDependencyGraph() {}
+
+    private static class CqlClosure {
+        private final Set<String> valueSets = new LinkedHashSet<>();
+    }
+
+    /**
+     * @return The urls of the value sets the library at cqlContentPath declares, followed by those declared by the
+     * libraries it (transitively) includes if includeDependencies is set
+     */
+    public static Set<String> getValueSetUrls(String cqlContentPath, boolean includeDependencies, Boolean includeVersion) throws CqlTranslatorException {
+        if (!includeDependencies) {
+            return Collections.unmodifiableSet(new LinkedHashSet<>(ResourceUtils.getDepELMValueSetDefIDs(cqlContentPath)));
+        }
+        return Collections.unmodifiableSet(getCqlClosure(cqlContentPath, includeVersion, new HashSet<>()).valueSets);
+    }
+
+    private static CqlClosure getCqlClosure(String cqlContentPath, Boolean includeVersion, Set<String> visiting) throws CqlTranslatorException {
+        String key = cqlContentPath + "|" + includeVersion;
+        CqlClosure closure = cqlClosures.get(key);
+        if (closure != null) {
+            return closure;
+        }
+        if (!visiting.add(key)) {
+            // An include cycle; translation reports it, so it only needs to not recurse forever here
+            return new CqlClosure();
+        }
+
+        closure = new CqlClosure();
+        org.hl7.elm.r1.Library elm = ResourceUtils.getElmFromCql(cqlContentPath);
+        if (elm.getValueSets() != null) {
+            for (ValueSetDef def : elm.getValueSets().getDef()) {
+                closure.valueSets.add(def.getId());
+            }
+        }
+        for (String path : IOUtils.getDependencyCqlPaths(cqlContentPath, includeVersion)) {
+            closure.valueSets.addAll(getCqlClosure(path, includeVersion, visiting).valueSets);
+        }
+        visiting.remove(key);
+
+        CqlClosure existing = cqlClosures.putIfAbsent(key, closure);
+        return existing != null ? existing : closure;
+    }
+
+    /**
+     * @return The Library resources the Library resource at path (transitively) depends on, by id. Dependencies are
+     * resolved as {@link ResourceUtils#getDepLibraryPaths} resolves them, and a dependency that can not be read fails the
+     * walk rather than being left out of the bundle.
+     */
+    public static Map<String, IBaseResource> getLibraryResources(String path, FhirContext fhirContext, Encoding encoding, boolean versioned) {
+        return Collections.unmodifiableMap(getLibraryClosure(path, fhirContext, encoding, versioned, new HashSet<>()));
+    }
+
+    private static Map<String, IBaseResource> getLibraryClosure(String path, FhirContext fhirContext, Encoding encoding,
+                                                                boolean versioned, Set<String> visiting) {
+        String key = path + "|" + encoding + "|" + versioned;
+        Map<String, IBaseResource> closure = libraryClosures.get(key);
+        if (closure != null) {
+            return closure;
+        }
+        if (!visiting.add(key)) {
+            return Collections.emptyMap();
+        }
+
+        closure = new LinkedHashMap<>();
+        for (String dependencyPath : ResourceUtils.getDepLibraryPaths(path, fhirContext, encoding, versioned)) {
+            if (isModelInfo(dependencyPath, fhirContext)) {
+                logger.debug("skipping ModelInfo");
+                continue;
+            }
+            IBaseResource resource = IOUtils.readResource(dependencyPath, fhirContext);
+            if (resource == null || !"Library".equals(resource.fhirType())) {
+                continue;
+            }
+            closure.putIfAbsent(resource.getIdElement().getIdPart(), resource);
+            for (Map.Entry<String, IBaseResource> entry : getLibraryClosure(dependencyPath, fhirContext, encoding, versioned, visiting).entrySet()) {
+                closure.putIfAbsent(entry.getKey(), entry.getValue());
+            }
+        }
+        visiting.remove(key);
+
+        Map<String, IBaseResource> existing = libraryClosures.putIfAbsent(key, closure);
+        return existing != null ? existing : closure;
+    }
+
+    // Matches ResourceUtils.getDepLibraryResources, which only leaves out R4 ModelInfo libraries
+    private static boolean isModelInfo(String path, FhirContext fhirContext) {
+        return fhirContext.getVersion().getVersion() == FhirVersionEnum.R4 && path.contains("ModelInfo");
+    }
+
+    public static void clear() {
+        cqlClosures = new ConcurrentHashMap<>();
+        libraryClosures = new ConcurrentHashMap<>();
+    }
+}
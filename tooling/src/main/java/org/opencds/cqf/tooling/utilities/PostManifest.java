@@ -0,0 +1,156 @@
+package org.opencds.cqf.tooling.utilities;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.instance.model.api.IPrimitiveType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.reflect.TypeToken;
+
+import ca.uhn.fhir.context.BaseRuntimeChildDefinition;
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.RuntimeResourceDefinition;
+
+/**
+ * A record of the content posted to each FHIR server, kept on disk so later runs can skip resources the server
+ * already holds.
+ * <p>
+ * Entries are keyed by server, resource type, id and (business) version, and hold a hash of the resource content and
+ * the location the server reported for it. A resource whose hash matches its entry was posted unchanged by an earlier
+ * run. Entries are only recorded for successful POST calls, so anything that failed, or changed since, is posted again.
+ */
+class PostManifest {
+
+    private static final Logger logger = LoggerFactory.getLogger(PostManifest.class);
+
+    // 2: hashes are of the POST payload rather than of the resource encoded as JSON
+    private static final int FORMAT_VERSION = 2;
+
+    private final Path file;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private volatile boolean changed = false;
+
+    static class Entry {
+        private final String hash;
+        private final String location;
+
+        Entry(String hash, String location) {
+            this.hash = hash;
+            this.location = location;
+        }
+
+        String getHash() {
+            return hash;
+        }
+
+        String getLocation() {
+            return location;
+        }
+    }
+
+    private PostManifest(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * @return The manifest recorded at path, or an empty one if there is none yet (or it can't be read).
+     */
+    static PostManifest load(String path) {
+        PostManifest manifest = new PostManifest(Paths.get(path));
+        if (!Files.isRegularFile(manifest.file)) {
+            return manifest;
+        }
+        try {
+            JsonObject json = JsonParser.parseString(
+                    new String(Files.readAllBytes(manifest.file), StandardCharsets.UTF_8)).getAsJsonObject();
+            if (json.get("formatVersion").getAsInt() == FORMAT_VERSION) {
+                Map<String, Entry> entries = new Gson().fromJson(json.get("entries"), new TypeToken<Map<String, Entry>>() {}.getType());
+                manifest.entries.putAll(entries);
+                logger.info("Loaded {} entries from POST manifest {}", entries.size(), manifest.file);
+            }
+        } catch (Exception e) {
+            logger.warn("Ignoring unreadable POST manifest {}: {}", manifest.file, e.getMessage());
+        }
+        return manifest;
+    }
+
+    /**
+     * @return The key of the resource's entry, or null if it has no id and wasn't read from a file, so it can't be
+     * recognised on a later run.
+     */
+    static String getKey(String fhirServerUrl, IBaseResource resource, FhirContext fhirContext, String fileLocation) {
+        String id = resource.getIdElement().getIdPart();
+        if (id == null) {
+            if (fileLocation == null) {
+                return null;
+            }
+            id = "file:" + Paths.get(fileLocation).toAbsolutePath().normalize();
+        }
+        String version = null;
+        RuntimeResourceDefinition definition = fhirContext.getResourceDefinition(resource);
+        BaseRuntimeChildDefinition versionChild = definition.getChildByName("version");
+        if (versionChild != null) {
+            version = versionChild.getAccessor().getFirstValueOrNull(resource)
+                    .filter(IPrimitiveType.class::isInstance)
+                    .map(value -> ((IPrimitiveType<?>) value).getValueAsString())
+                    .orElse(null);
+        }
+        String serverUrl = fhirServerUrl.endsWith("/") ? fhirServerUrl.substring(0, fhirServerUrl.length() - 1) : fhirServerUrl;
+        return serverUrl + "|" + resource.fhirType() + "/" + id + "|" + (version == null ? "" : version);
+    }
+
+    /**
+     * @param payload The resource as encoded for the POST call
+     */
+    static String getHash(byte[] payload) {
+        return DigestUtils.sha256Hex(payload);
+    }
+
+    Entry get(String key) {
+        return entries.get(key);
+    }
+
+    void record(String key, String hash, String location) {
+        entries.put(key, new Entry(hash, location));
+        changed = true;
+    }
+
+    void save() {
+        if (!changed) {
+            return;
+        }
+        JsonObject json = new JsonObject();
+        json.addProperty("formatVersion", FORMAT_VERSION);
+        Gson gson = new GsonBuilder().setPrettyPrinting().create();
+        json.add("entries", gson.toJsonTree(entries));
+
+        try {
+            Path parent = file.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+            try {
+                Files.write(temp, gson.toJson(json).getBytes(StandardCharsets.UTF_8));
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+            changed = false;
+        } catch (IOException e) {
+            logger.warn("Unable to write POST manifest {}: {}", file, e.getMessage());
+        }
+    }
+}
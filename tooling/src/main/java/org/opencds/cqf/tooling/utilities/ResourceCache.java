@@ -0,0 +1,85 @@
+package org.opencds.cqf.tooling.utilities;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+/**
+ * A cache of parsed resources keyed by the path of the file they were read from.
+ * <p>
+ * Implementations must be safe for use from multiple threads and must not return a resource for a path whose
+ * underlying file has changed since the resource was cached.
+ */
+public interface ResourceCache {
+
+    /**
+     * @param path The path of the file the resource was read from
+     * @return The cached resource, or null if the path is not cached or the file has changed since it was cached
+     */
+    IBaseResource get(String path);
+
+    /**
+     * Caches a resource that was just parsed from the file at the given path.
+     *
+     * @param path     The path of the file the resource was read from
+     * @param resource The parsed resource
+     */
+    void put(String path, IBaseResource resource);
+
+    /**
+     * Replaces the cached resource for a path, if one is present, with a resource that was just written to that path.
+     *
+     * @param path     The path of the file the resource was written to
+     * @param resource The written resource
+     */
+    void update(String path, IBaseResource resource);
+
+    void invalidate(String path);
+
+    void clear();
+
+    Stats getStats();
+
+    /**
+     * A point-in-time snapshot of cache counters.
+     */
+    class Stats {
+        private final long hitCount;
+        private final long missCount;
+        private final long evictionCount;
+        private final long size;
+        private final long weight;
+
+        public Stats(long hitCount, long missCount, long evictionCount, long size, long weight) {
+            this.hitCount = hitCount;
+            this.missCount = missCount;
+            this.evictionCount = evictionCount;
+            this.size = size;
+            this.weight = weight;
+        }
+
+        public long getHitCount() {
+            return hitCount;
+        }
+
+        public long getMissCount() {
+            return missCount;
+        }
+
+        public long getEvictionCount() {
+            return evictionCount;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getWeight() {
+            return weight;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("hits: %d, misses: %d, evictions: %d, entries: %d, weight: %d",
+                    hitCount, missCount, evictionCount, size, weight);
+        }
+    }
+}
@@ -9,17 +9,16 @@ import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang3.Validate;
 import org.cqframework.cql.cql2elm.*;
+import org.cqframework.cql.cql2elm.model.CompiledLibrary;
 import org.cqframework.cql.cql2elm.quick.FhirLibrarySourceProvider;
 import org.hl7.elm.r1.IncludeDef;
 import org.hl7.elm.r1.ValueSetDef;
@@ -31,6 +30,7 @@ import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.instance.model.api.ICompositeType;
 import org.hl7.fhir.instance.model.api.IPrimitiveType;
 import org.hl7.fhir.r4.model.CanonicalType;
+import org.opencds.cqf.tooling.cql.SynchronizedModelManager;
 import org.opencds.cqf.tooling.cql.exception.CqlTranslatorException;
 import org.opencds.cqf.tooling.processor.ValueSetsProcessor;
 import org.opencds.cqf.tooling.utilities.IOUtils.Encoding;
@@ -288,33 +288,20 @@ public class ResourceUtils {
 
    public static Map<String, IBaseResource> getDepValueSetResources(String cqlContentPath, String igPath, FhirContext fhirContext, boolean includeDependencies, Boolean includeVersion) throws CqlTranslatorException {
       Map<String, IBaseResource> valueSetResources = new HashMap<>();
+      Map<String, IBaseResource> cachedValueSets = ValueSetsProcessor.getCachedValueSets(fhirContext);
 
-      List<String> valueSetDefIDs = getDepELMValueSetDefIDs(cqlContentPath);
-
-      for (String valueSetUrl : valueSetDefIDs) {
-         ValueSetsProcessor.getCachedValueSets(fhirContext).entrySet().stream()
-                 .filter(entry -> entry.getKey().equals(valueSetUrl))
-                 .forEach(entry -> valueSetResources.put(entry.getKey(), entry.getValue()));
-      }
-      Set<String> dependencies = new HashSet<>(valueSetDefIDs);
-
-      if (includeDependencies) {
-         List<String> dependencyCqlPaths = IOUtils.getDependencyCqlPaths(cqlContentPath, includeVersion);
-         for (String path : dependencyCqlPaths) {
-            Map<String, IBaseResource> dependencyValueSets = getDepValueSetResources(path, igPath, fhirContext, includeDependencies, includeVersion);
-            dependencies.addAll(dependencyValueSets.keySet());
-            for (Entry<String, IBaseResource> entry : dependencyValueSets.entrySet()) {
-               valueSetResources.putIfAbsent(entry.getKey(), entry.getValue());
-            }
+      List<String> missingValueSets = new ArrayList<>();
+      for (String valueSetUrl : LibraryDependencyGraph.getValueSetUrls(cqlContentPath, includeDependencies, includeVersion)) {
+         IBaseResource valueSet = cachedValueSets.get(valueSetUrl);
+         if (valueSet != null) {
+            valueSetResources.put(valueSetUrl, valueSet);
          }
-      }
-
-      if (dependencies.size() != valueSetResources.size()) {
-         List<String> missingValueSets = new ArrayList<>();
-         dependencies.removeAll(valueSetResources.keySet());
-         for (String valueSetUrl : dependencies) {
+         else {
             missingValueSets.add(valueSetUrl + " MISSING");
          }
+      }
+
+      if (!missingValueSets.isEmpty()) {
          throw new CqlTranslatorException(missingValueSets, CqlCompilerException.ErrorSeverity.Warning);
       }
       return valueSetResources;
@@ -379,26 +366,82 @@ public class ResourceUtils {
 
    public static CqlTranslator getCQLCqlTranslator(String cqlContentPath) throws CqlTranslatorException {
       String folder = IOUtils.getParentDirectoryPath(cqlContentPath);
-      CqlTranslatorOptions options = ResourceUtils.getTranslatorOptions(folder);
-      ModelManager modelManager = new ModelManager();
-      LibraryManager libraryManager = new LibraryManager(modelManager);
-      libraryManager.getLibrarySourceLoader().registerProvider(new FhirLibrarySourceProvider());
-      libraryManager.getLibrarySourceLoader().registerProvider(new DefaultLibrarySourceProvider(Paths.get(folder)));
-      return  IOUtils.translate(new File(cqlContentPath), libraryManager);
+      TranslationSession session = translationSessions.get(folder);
+      if (session == null) {
+         session = new TranslationSession(folder, ResourceUtils.getTranslatorOptions(folder));
+         TranslationSession existing = translationSessions.putIfAbsent(folder, session);
+         if (existing != null) {
+            session = existing;
+         }
+      }
+      return IOUtils.translate(new File(cqlContentPath), session.createLibraryManager());
+   }
+
+   // Translation sessions by folder. The libraries translated from a folder share its session's ModelManager and
+   // compiled libraries, so model info is loaded, and each included library compiled, once per folder
+   private static Map<String, TranslationSession> translationSessions = new ConcurrentHashMap<>();
+
+   private static class TranslationSession {
+      private final String folder;
+      private final CqlTranslatorOptions options;
+      // Translations run on several threads, each resolving models lazily
+      private final ModelManager modelManager = new SynchronizedModelManager();
+      private final Map<VersionedIdentifier, CompiledLibrary> compiledLibraries = new CompiledLibraryCache();
+
+      TranslationSession(String folder, CqlTranslatorOptions options) {
+         this.folder = folder;
+         this.options = options;
+      }
+
+      // LibraryManagers are not thread safe, so each translation gets its own over the shared state
+      LibraryManager createLibraryManager() {
+         LibraryManager libraryManager = new LibraryManager(modelManager, options.getCqlCompilerOptions(), compiledLibraries);
+         libraryManager.getLibrarySourceLoader().registerProvider(new FhirLibrarySourceProvider());
+         libraryManager.getLibrarySourceLoader().registerProvider(new DefaultLibrarySourceProvider(Paths.get(folder)));
+         return libraryManager;
+      }
    }
 
-   private static Map<String, org.hl7.elm.r1.Library> cachedElm = new HashMap<>();
+   // Counts the includes a LibraryManager takes from the session instead of compiling them
+   private static class CompiledLibraryCache extends ConcurrentHashMap<VersionedIdentifier, CompiledLibrary> {
+      @Override
+      public CompiledLibrary get(Object key) {
+         CompiledLibrary library = super.get(key);
+         if (library != null) {
+            compiledLibraryHits.incrementAndGet();
+         }
+         return library;
+      }
+
+      // ConcurrentHashMap.containsKey calls get, which would count a lookup twice
+      @Override
+      public boolean containsKey(Object key) {
+         return super.get(key) != null;
+      }
+   }
+
+   private static Map<String, org.hl7.elm.r1.Library> cachedElm = new ConcurrentHashMap<>();
+   private static final AtomicInteger elmTranslations = new AtomicInteger();
+   private static final AtomicInteger elmCacheHits = new AtomicInteger();
+   private static final AtomicInteger compiledLibraryHits = new AtomicInteger();
    public static org.hl7.elm.r1.Library getElmFromCql(String cqlContentPath) throws CqlTranslatorException {
       org.hl7.elm.r1.Library elm = cachedElm.get(cqlContentPath);
       if (elm != null) {
+         elmCacheHits.incrementAndGet();
          return elm;
       }
       CqlTranslator translator = getCQLCqlTranslator(cqlContentPath);
       elm = translator.toELM();
+      elmTranslations.incrementAndGet();
       cachedElm.put(cqlContentPath, elm);
       return elm;
    }
 
+   // Translations avoided since the last cleanUp, by reusing either the ELM of a library or a compiled include
+   static int getTranslationsAvoided() {
+      return elmCacheHits.get() + compiledLibraryHits.get();
+   }
+
    public static Boolean safeAddResource(String path, Map<String, IBaseResource> resources, FhirContext fhirContext) {
       boolean added = true;
       try {
@@ -853,6 +896,15 @@ public class ResourceUtils {
 
    public static void cleanUp(){
       outputResourceTracker = new ConcurrentHashMap<>();
-      cachedElm = new HashMap<String, org.hl7.elm.r1.Library>();
+      int translations = elmTranslations.getAndSet(0);
+      int elmHits = elmCacheHits.getAndSet(0);
+      int compiledHits = compiledLibraryHits.getAndSet(0);
+      if (translations > 0 || elmHits > 0 || compiledHits > 0) {
+         logger.info("CQL translation: {} libraries translated, {} translations avoided ({} by reusing ELM, {} by reusing compiled includes)",
+                 translations, elmHits + compiledHits, elmHits, compiledHits);
+      }
+      cachedElm = new ConcurrentHashMap<>();
+      translationSessions = new ConcurrentHashMap<>();
+      LibraryDependencyGraph.clear();
    }
 }
@@ -0,0 +1,57 @@
+package org.opencds.cqf.tooling.common;
+
+import static org.testng.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+public class ThreadUtilsTest {
+
+    @Test(timeOut = 60000)
+    public void testNestedTasksDoNotDeadlock() {
+        int outerCount = Runtime.getRuntime().availableProcessors() * 4;
+        AtomicInteger completed = new AtomicInteger();
+
+        List<Callable<Void>> outerTasks = new ArrayList<>();
+        for (int i = 0; i < outerCount; i++) {
+            outerTasks.add(() -> {
+                List<Callable<Void>> innerTasks = new ArrayList<>();
+                for (int j = 0; j < 10; j++) {
+                    innerTasks.add(() -> {
+                        Thread.sleep(1);
+                        completed.incrementAndGet();
+                        return null;
+                    });
+                }
+                ThreadUtils.executeBlockingTasks(innerTasks);
+                return null;
+            });
+        }
+        ThreadUtils.executeTasks(outerTasks);
+
+        assertEquals(completed.get(), outerCount * 10);
+    }
+
+    @Test(timeOut = 60000)
+    public void testFailedTaskDoesNotStopOthers() {
+        AtomicInteger completed = new AtomicInteger();
+
+        List<Callable<Void>> tasks = new ArrayList<>();
+        tasks.add(() -> {
+            throw new IllegalStateException("Expected failure");
+        });
+        for (int i = 0; i < 10; i++) {
+            tasks.add(() -> {
+                completed.incrementAndGet();
+                return null;
+            });
+        }
+        ThreadUtils.executeTasks(tasks);
+
+        assertEquals(completed.get(), 10);
+    }
+}
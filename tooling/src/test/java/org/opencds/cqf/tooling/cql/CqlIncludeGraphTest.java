@@ -0,0 +1,85 @@
+package org.opencds.cqf.tooling.cql;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class CqlIncludeGraphTest {
+
+    private Path tempDir;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("cql-include-graph");
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(tempDir.toFile());
+    }
+
+    private File writeCql(String fileName, String cql) throws IOException {
+        File file = tempDir.resolve(fileName).toFile();
+        FileUtils.writeStringToFile(file, cql, StandardCharsets.UTF_8);
+        return file;
+    }
+
+    @Test
+    public void testTranslationWavesFollowIncludes() throws IOException {
+        File measure = writeCql("Measure.cql", "library Measure version '1.0.0'\n"
+                + "using FHIR version '4.0.1'\n"
+                + "include FHIRHelpers version '4.0.1' called FHIRHelpers\n"
+                + "include Common version '1.0.0' called Common\n");
+        File common = writeCql("Common.cql", "library Common version '1.0.0'\n"
+                + "using FHIR version '4.0.1'\n"
+                + "include FHIRHelpers version '4.0.1'\n");
+        File helpers = writeCql("FHIRHelpers.cql", "library FHIRHelpers version '4.0.1'\n"
+                + "using FHIR version '4.0.1'\n");
+        File other = writeCql("Other.cql", "library Other\n");
+
+        CqlIncludeGraph graph = CqlIncludeGraph.fromFiles(Arrays.asList(measure, common, helpers, other));
+        List<List<File>> waves = graph.getTranslationWaves();
+
+        assertEquals(waves.size(), 3);
+        assertEquals(waves.get(0), Arrays.asList(helpers, other));
+        assertEquals(waves.get(1), Arrays.asList(common));
+        assertEquals(waves.get(2), Arrays.asList(measure));
+        assertEquals(graph.getModels().get("FHIR"), "4.0.1");
+    }
+
+    @Test
+    public void testIncludesOfLibrariesOutsideTheSetAreIgnored() throws IOException {
+        File measure = writeCql("Measure.cql", "library Measure\n"
+                + "include hl7.fhir.uv.cql.FHIRCommon version '1.0.0' called FC\n");
+
+        CqlIncludeGraph graph = CqlIncludeGraph.fromFiles(Arrays.asList(measure));
+
+        assertTrue(graph.getIncludes(measure).isEmpty());
+        assertEquals(graph.getTranslationWaves().size(), 1);
+    }
+
+    @Test
+    public void testCyclesArePlacedInFinalWave() throws IOException {
+        File first = writeCql("First.cql", "library First\ninclude Second\n");
+        File second = writeCql("Second.cql", "library Second\ninclude First\n");
+        File third = writeCql("Third.cql", "library Third\n");
+
+        List<List<File>> waves = CqlIncludeGraph.fromFiles(Arrays.asList(first, second, third)).getTranslationWaves();
+
+        assertEquals(waves.size(), 2);
+        assertEquals(waves.get(0), Arrays.asList(third));
+        assertEquals(waves.get(1), Arrays.asList(first, second));
+    }
+}
@@ -0,0 +1,157 @@
+package org.opencds.cqf.tooling.fhir.api;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.DateTimeType;
+import org.hl7.fhir.r4.model.Encounter;
+import org.hl7.fhir.r4.model.Library;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Reference;
+import org.opencds.cqf.tooling.parameter.FileFhirPlatformParameters;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.model.api.IQueryParameterType;
+import ca.uhn.fhir.rest.api.EncodingEnum;
+import ca.uhn.fhir.rest.param.DateParam;
+import ca.uhn.fhir.rest.param.ReferenceParam;
+import ca.uhn.fhir.rest.param.TokenParam;
+
+public class FileFhirDalSearchTest {
+  private final String resourceDir = "target/FileFhirDalSearchTest";
+  private final FhirContext fhirContext = FhirContext.forR4Cached();
+  private FileFhirDal dal;
+
+  @BeforeClass
+  public void setup() {
+    new File(resourceDir).mkdirs();
+
+    FileFhirPlatformParameters platformParams = new FileFhirPlatformParameters();
+    platformParams.fhirContext = fhirContext;
+    platformParams.encoding = EncodingEnum.JSON;
+    platformParams.resourceDir = resourceDir;
+    dal = new FileFhirPlatform(platformParams).dal();
+
+    dal.create(observation("obs-1", "Patient/p1", "8302-2", "2020-01-15"));
+    dal.create(observation("obs-2", "Patient/p1", "29463-7", "2021-06-01"));
+    dal.create(observation("obs-3", "Patient/p2", "8302-2", "2021-03-10"));
+
+    Library library = new Library();
+    library.setId("Library/Common-1.0.0");
+    library.setUrl("http://example.org/Library/Common");
+    library.setVersion("1.0.0");
+    dal.create(library);
+  }
+
+  @AfterClass
+  public void tearDown() throws IOException {
+    dal.close();
+    FileUtils.deleteDirectory(new File(resourceDir));
+  }
+
+  private Observation observation(String id, String subject, String code, String date) {
+    Observation observation = new Observation();
+    observation.setId("Observation/" + id);
+    observation.setSubject(new Reference(subject));
+    observation.getCode().addCoding().setSystem("http://loinc.org").setCode(code);
+    observation.setEffective(new DateTimeType(date));
+    return observation;
+  }
+
+  private List<Bundle.BundleEntryComponent> search(String resourceType, String parameter, IQueryParameterType... values) {
+    Map<String, List<List<IQueryParameterType>>> searchParameters = new HashMap<>();
+    searchParameters.put(parameter, Collections.singletonList(List.of(values)));
+    return ((Bundle) dal.search(resourceType, searchParameters)).getEntry();
+  }
+
+  @Test
+  public void searchByType() {
+    assertEquals(((Bundle) dal.search("Observation", null)).getEntry().size(), 3);
+    assertEquals(((Bundle) dal.search("Condition", null)).getEntry().size(), 0);
+  }
+
+  @Test
+  public void searchByToken() {
+    assertEquals(search("Observation", "code", new TokenParam("http://loinc.org", "8302-2")).size(), 2);
+    assertEquals(search("Observation", "code", new TokenParam(null, "29463-7")).size(), 1);
+    assertEquals(search("Observation", "code", new TokenParam("http://snomed.info/sct", "8302-2")).size(), 0);
+    assertEquals(search("Observation", "code", new TokenParam(null, "8302-2"), new TokenParam(null, "29463-7")).size(), 3);
+  }
+
+  @Test
+  public void searchByReference() {
+    assertEquals(search("Observation", "subject", new ReferenceParam("Patient/p1")).size(), 2);
+    assertEquals(search("Observation", "patient", new ReferenceParam("p2")).size(), 1);
+  }
+
+  @Test
+  public void searchByDate() {
+    assertEquals(search("Observation", "date", new DateParam("2021")).size(), 2);
+    assertEquals(search("Observation", "date", new DateParam("lt2021-01-01")).size(), 1);
+  }
+
+  @Test
+  public void searchSeesUpdates() {
+    dal.create(observation("obs-4", "Patient/p3", "8302-2", "2022-01-01"));
+    assertEquals(search("Observation", "subject", new ReferenceParam("Patient/p3")).size(), 1);
+
+    dal.delete(new Observation().setId("Observation/obs-4").getIdElement());
+    assertEquals(search("Observation", "subject", new ReferenceParam("Patient/p3")).size(), 0);
+  }
+
+  @Test
+  public void readByCanonical() {
+    assertNotNull(dal.readByCanonical("Library", "http://example.org/Library/Common", "1.0.0"));
+    assertNotNull(dal.readByCanonical("Library", "http://example.org/Library/Common", null));
+    assertNull(dal.readByCanonical("Library", "http://example.org/Library/Common", "2.0.0"));
+  }
+
+  @Test
+  public void externalChangesAreIndexed() throws Exception {
+    // Build the index, then write a file behind the dal's back
+    dal.search("Encounter", null);
+    Encounter encounter = new Encounter();
+    encounter.setId("Encounter/enc-external");
+    encounter.setSubject(new Reference("Patient/p9"));
+    FileUtils.writeStringToFile(new File(resourceDir + "/Encounter/enc-external.JSON"),
+            fhirContext.newJsonParser().encodeResourceToString(encounter), StandardCharsets.UTF_8);
+
+    long deadline = System.currentTimeMillis() + 30000;
+    while (search("Encounter", "subject", new ReferenceParam("Patient/p9")).isEmpty() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(100);
+    }
+    assertEquals(search("Encounter", "subject", new ReferenceParam("Patient/p9")).size(), 1);
+  }
+
+  @Test
+  public void returnedResourcesDoNotShareIndexedState() {
+    Observation read = (Observation) dal.read(new Observation().setId("Observation/obs-1").getIdElement());
+    read.getCode().getCodingFirstRep().setCode("changed");
+    assertEquals(((Observation) dal.read(new Observation().setId("Observation/obs-1").getIdElement()))
+            .getCode().getCodingFirstRep().getCode(), "8302-2");
+
+    Observation found = (Observation) search("Observation", "subject", new ReferenceParam("Patient/p2")).get(0).getResource();
+    found.setSubject(new Reference("Patient/changed"));
+    assertEquals(search("Observation", "subject", new ReferenceParam("Patient/p2")).size(), 1);
+    assertEquals(((Observation) search("Observation", "subject", new ReferenceParam("Patient/p2")).get(0).getResource())
+            .getSubject().getReference(), "Patient/p2");
+
+    Library library = (Library) dal.readByCanonical("Library", "http://example.org/Library/Common", "1.0.0");
+    library.setVersion("2.0.0");
+    assertEquals(((Library) dal.readByCanonical("Library", "http://example.org/Library/Common", null)).getVersion(), "1.0.0");
+  }
+}
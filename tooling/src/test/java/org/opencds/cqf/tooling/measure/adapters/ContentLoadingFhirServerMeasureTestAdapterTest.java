@@ -0,0 +1,129 @@
+package org.opencds.cqf.tooling.measure.adapters;
+
+import static org.testng.Assert.assertEquals;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.CapabilityStatement;
+import org.hl7.fhir.r4.model.CodeableConcept;
+import org.hl7.fhir.r4.model.Coding;
+import org.hl7.fhir.r4.model.DateTimeType;
+import org.hl7.fhir.r4.model.Enumerations;
+import org.hl7.fhir.r4.model.Library;
+import org.hl7.fhir.r4.model.Measure;
+import org.hl7.fhir.r4.model.MeasureReport;
+import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.Period;
+import org.hl7.fhir.r4.model.Quantity;
+import org.hl7.fhir.r4.model.Reference;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.client.WireMock;
+import com.github.tomakehurst.wiremock.core.WireMockConfiguration;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.client.api.IGenericClient;
+
+public class ContentLoadingFhirServerMeasureTestAdapterTest {
+
+    private final FhirContext fhirContext = FhirContext.forR4Cached();
+
+    private WireMockServer server;
+
+    @BeforeMethod
+    public void setUp() {
+        server = new WireMockServer(WireMockConfiguration.options().dynamicPort());
+        server.start();
+        server.stubFor(WireMock.get(WireMock.urlPathEqualTo("/fhir/metadata"))
+                .willReturn(WireMock.okForContentType("application/fhir+json", fhirContext.newJsonParser()
+                        .encodeResourceToString(new CapabilityStatement().setFhirVersion(Enumerations.FHIRVersion._4_0_1)))));
+        server.stubFor(WireMock.post(WireMock.urlPathEqualTo("/fhir"))
+                .willReturn(WireMock.okForContentType("application/fhir+json", fhirContext.newJsonParser()
+                        .encodeResourceToString(new Bundle().setType(Bundle.BundleType.TRANSACTIONRESPONSE)))));
+
+        MeasureReport report = new MeasureReport();
+        report.setMeasure("Measure/Example");
+        report.setType(MeasureReport.MeasureReportType.INDIVIDUAL);
+        report.addGroup().setId("group-1").setMeasureScore(new Quantity().setValue(BigDecimal.ONE));
+        server.stubFor(WireMock.get(WireMock.urlPathEqualTo("/fhir/Measure/Example/$evaluate-measure"))
+                .willReturn(WireMock.okForContentType("application/fhir+json",
+                        fhirContext.newJsonParser().encodeResourceToString(report))));
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        server.stop();
+    }
+
+    private Bundle getContentBundle() {
+        Library library = new Library();
+        library.setId("Example");
+        library.setUrl("http://example.org/Library/Example");
+        Measure measure = new Measure();
+        measure.setId("Example");
+        measure.addLibrary("http://example.org/Library/Example");
+
+        Bundle bundle = new Bundle();
+        bundle.setType(Bundle.BundleType.TRANSACTION);
+        bundle.addEntry().setResource(library).getRequest().setMethod(Bundle.HTTPVerb.PUT).setUrl("Library/Example");
+        bundle.addEntry().setResource(measure).getRequest().setMethod(Bundle.HTTPVerb.PUT).setUrl("Measure/Example");
+        return bundle;
+    }
+
+    private Bundle getTestBundle(String patientId) {
+        MeasureReport expected = new MeasureReport();
+        expected.setId(patientId + "-expected");
+        expected.setMeasure("Measure/Example");
+        expected.setSubject(new Reference("Patient/" + patientId));
+        expected.setType(MeasureReport.MeasureReportType.INDIVIDUAL);
+        expected.setPeriod(new Period().setStartElement(new DateTimeType("2020-01-01"))
+                .setEndElement(new DateTimeType("2020-12-31")));
+        expected.addGroup().setId("group-1").setMeasureScore(new Quantity().setValue(BigDecimal.ONE));
+
+        Bundle bundle = new Bundle();
+        bundle.setType(Bundle.BundleType.TRANSACTION);
+        bundle.addEntry().setResource(new Patient().setId(patientId)).getRequest()
+                .setMethod(Bundle.HTTPVerb.PUT).setUrl("Patient/" + patientId);
+        bundle.addEntry().setResource(expected).getRequest()
+                .setMethod(Bundle.HTTPVerb.PUT).setUrl("MeasureReport/" + patientId + "-expected");
+        return bundle;
+    }
+
+    private int countTransactionsContaining(String resourceType) {
+        return server.findAll(WireMock.postRequestedFor(WireMock.urlPathEqualTo("/fhir"))
+                .withRequestBody(WireMock.containing("\"resourceType\":\"" + resourceType + "\""))).size();
+    }
+
+    @Test
+    public void testContentIsPostedOncePerServerAcrossThreads() throws Exception {
+        Bundle contentBundle = getContentBundle();
+        IGenericClient client = fhirContext.newRestfulGenericClient(server.baseUrl() + "/fhir");
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<IMeasureReportAdapter>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                Bundle testBundle = getTestBundle("patient-" + i);
+                results.add(executor.submit(() -> new ContentLoadingFhirServerMeasureTestAdapter(
+                        fhirContext, client, testBundle, contentBundle).getActualMeasureReportAdapter()));
+            }
+            for (Future<IMeasureReportAdapter> result : results) {
+                assertEquals(result.get().getGroupScore("group-1").compareTo(BigDecimal.ONE), 0);
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(countTransactionsContaining("Library"), 1);
+        assertEquals(countTransactionsContaining("Patient"), 8);
+    }
+}
@@ -0,0 +1,119 @@
+package org.opencds.cqf.tooling.measure.adapters;
+
+import static org.testng.Assert.assertEquals;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.CodeableConcept;
+import org.hl7.fhir.r4.model.Coding;
+import org.hl7.fhir.r4.model.DateTimeType;
+import org.hl7.fhir.r4.model.Library;
+import org.hl7.fhir.r4.model.Measure;
+import org.hl7.fhir.r4.model.MeasureReport;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.Period;
+import org.hl7.fhir.r4.model.Quantity;
+import org.hl7.fhir.r4.model.Reference;
+import org.testng.annotations.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+
+public class CqlEvaluatorMeasureTestAdapterTest {
+
+    private static final String CQL = String.join("\n",
+            "library WeightRecorded version '1.0.0'",
+            "using FHIR version '4.0.1'",
+            "include FHIRHelpers version '4.0.1'",
+            "codesystem \"LOINC\": 'http://loinc.org'",
+            "code \"Body weight\": '29463-7' from \"LOINC\"",
+            "parameter \"Measurement Period\" Interval<DateTime>",
+            "context Patient",
+            "define \"Initial Population\": true",
+            "define \"Denominator\": \"Initial Population\"",
+            "define \"Numerator\": exists [Observation: \"Body weight\"]");
+
+    private final FhirContext fhirContext = FhirContext.forR4Cached();
+
+    private Bundle getContentBundle() {
+        Library library = new Library();
+        library.setId("WeightRecorded");
+        library.setUrl("http://example.org/Library/WeightRecorded");
+        library.setName("WeightRecorded");
+        library.setVersion("1.0.0");
+        library.addContent().setContentType("text/cql").setData(CQL.getBytes(StandardCharsets.UTF_8));
+
+        Measure measure = new Measure();
+        measure.setId("WeightRecorded");
+        measure.addLibrary("http://example.org/Library/WeightRecorded");
+        measure.setScoring(new CodeableConcept(new Coding("http://terminology.hl7.org/CodeSystem/measure-scoring", "proportion", null)));
+        Measure.MeasureGroupComponent group = measure.addGroup();
+        group.setId("group-1");
+        addPopulation(group, "initial-population", "Initial Population");
+        addPopulation(group, "denominator", "Denominator");
+        addPopulation(group, "numerator", "Numerator");
+
+        Bundle bundle = new Bundle();
+        bundle.addEntry().setResource(library);
+        bundle.addEntry().setResource(measure);
+        return bundle;
+    }
+
+    private void addPopulation(Measure.MeasureGroupComponent group, String code, String expression) {
+        group.addPopulation()
+                .setCode(new CodeableConcept(new Coding("http://terminology.hl7.org/CodeSystem/measure-population", code, null)))
+                .getCriteria().setLanguage("text/cql.identifier").setExpression(expression);
+    }
+
+    private Bundle getTestBundle(String patientId, String observationCode, BigDecimal expectedScore) {
+        Bundle bundle = new Bundle();
+        bundle.addEntry().setResource(new Patient().setId(patientId));
+
+        Observation observation = new Observation();
+        observation.setId(patientId + "-observation");
+        observation.setSubject(new Reference("Patient/" + patientId));
+        observation.getCode().addCoding().setSystem("http://loinc.org").setCode(observationCode);
+        observation.setEffective(new DateTimeType("2020-06-01"));
+        bundle.addEntry().setResource(observation);
+
+        MeasureReport expected = new MeasureReport();
+        expected.setId(patientId + "-expected");
+        expected.setMeasure("Measure/WeightRecorded");
+        expected.setSubject(new Reference("Patient/" + patientId));
+        expected.setType(MeasureReport.MeasureReportType.INDIVIDUAL);
+        expected.setPeriod(new Period().setStartElement(new DateTimeType("2020-01-01"))
+                .setEndElement(new DateTimeType("2020-12-31")));
+        expected.addGroup().setId("group-1").setMeasureScore(new Quantity().setValue(expectedScore));
+        bundle.addEntry().setResource(expected);
+        return bundle;
+    }
+
+    @Test
+    public void TestNumeratorMember() {
+        CqlEvaluatorMeasureTestAdapter adapter = new CqlEvaluatorMeasureTestAdapter(fhirContext,
+                getTestBundle("numer-patient", "29463-7", BigDecimal.ONE), getContentBundle());
+
+        IMeasureReportAdapter actual = adapter.getActualMeasureReportAdapter();
+        assertEquals(actual.getMeasureId(), "WeightRecorded");
+        assertEquals(actual.getPatientId(), "numer-patient");
+        assertEquals(actual.getGroupScore("group-1").compareTo(BigDecimal.ONE), 0);
+    }
+
+    @Test
+    public void TestDenominatorOnly() {
+        CqlEvaluatorMeasureTestAdapter adapter = new CqlEvaluatorMeasureTestAdapter(fhirContext,
+                getTestBundle("denom-patient", "8302-2", BigDecimal.ZERO), getContentBundle());
+
+        assertEquals(adapter.getActualMeasureReportAdapter().getGroupScore("group-1").compareTo(BigDecimal.ZERO), 0);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void TestMissingMeasure() {
+        Bundle contentBundle = getContentBundle();
+        contentBundle.getEntry().removeIf(entry -> entry.getResource() instanceof Measure);
+        new CqlEvaluatorMeasureTestAdapter(fhirContext, getTestBundle("p", "29463-7", BigDecimal.ONE), contentBundle)
+                .getActualMeasureReportAdapter();
+    }
+}
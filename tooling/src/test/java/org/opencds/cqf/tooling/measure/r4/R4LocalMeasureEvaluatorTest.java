@@ -0,0 +1,105 @@
+package org.opencds.cqf.tooling.measure.r4;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.CodeableConcept;
+import org.hl7.fhir.r4.model.Coding;
+import org.hl7.fhir.r4.model.Library;
+import org.hl7.fhir.r4.model.Measure;
+import org.hl7.fhir.r4.model.MeasureReport;
+import org.hl7.fhir.r4.model.Patient;
+import org.testng.annotations.Test;
+
+public class R4LocalMeasureEvaluatorTest {
+
+    private static final String CQL = String.join("\n",
+            "library IsFemale version '1.0.0'",
+            "using FHIR version '4.0.1'",
+            "include FHIRHelpers version '4.0.1'",
+            "parameter \"Measurement Period\" Interval<DateTime>",
+            "context Patient",
+            "define \"Initial Population\": true",
+            "define \"Denominator\": \"Initial Population\"",
+            "define \"Numerator\": Patient.gender = 'female'");
+
+    private Bundle getContentBundle() {
+        Library library = new Library();
+        library.setId("IsFemale");
+        library.setUrl("http://example.org/Library/IsFemale");
+        library.setName("IsFemale");
+        library.setVersion("1.0.0");
+        library.addContent().setContentType("text/cql").setData(CQL.getBytes(StandardCharsets.UTF_8));
+
+        Measure measure = new Measure();
+        measure.setId("IsFemale");
+        measure.addLibrary("http://example.org/Library/IsFemale");
+        measure.setScoring(new CodeableConcept(new Coding("http://terminology.hl7.org/CodeSystem/measure-scoring", "proportion", null)));
+        Measure.MeasureGroupComponent group = measure.addGroup();
+        group.setId("group-1");
+        for (String[] population : new String[][] { { "initial-population", "Initial Population" },
+                { "denominator", "Denominator" }, { "numerator", "Numerator" } }) {
+            group.addPopulation()
+                    .setCode(new CodeableConcept(new Coding("http://terminology.hl7.org/CodeSystem/measure-population", population[0], null)))
+                    .getCriteria().setLanguage("text/cql.identifier").setExpression(population[1]);
+        }
+
+        Bundle bundle = new Bundle();
+        bundle.addEntry().setResource(library);
+        bundle.addEntry().setResource(measure);
+        return bundle;
+    }
+
+    private Bundle getTestBundle(String patientId, boolean female) {
+        Patient patient = new Patient();
+        patient.setId(patientId);
+        patient.setGender(female ? org.hl7.fhir.r4.model.Enumerations.AdministrativeGender.FEMALE
+                : org.hl7.fhir.r4.model.Enumerations.AdministrativeGender.MALE);
+        Bundle bundle = new Bundle();
+        bundle.addEntry().setResource(patient);
+        return bundle;
+    }
+
+    @Test
+    public void testContentIsLoadedOncePerBundle() {
+        Bundle contentBundle = getContentBundle();
+        R4LocalMeasureEvaluator first = new R4LocalMeasureEvaluator(contentBundle, getTestBundle("p1", true));
+        R4LocalMeasureEvaluator second = new R4LocalMeasureEvaluator(contentBundle, getTestBundle("p2", false));
+        assertSame(second.getLibraryManager(), first.getLibraryManager());
+
+        R4LocalMeasureEvaluator other = new R4LocalMeasureEvaluator(getContentBundle(), getTestBundle("p1", true));
+        assertNotSame(other.getLibraryManager(), first.getLibraryManager());
+    }
+
+    @Test
+    public void testConcurrentEvaluationsShareContent() throws Exception {
+        Bundle contentBundle = getContentBundle();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<MeasureReport>> reports = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                String patientId = "p" + i;
+                Bundle testBundle = getTestBundle(patientId, i % 2 == 0);
+                reports.add(executor.submit(() -> new R4LocalMeasureEvaluator(contentBundle, testBundle)
+                        .evaluate("IsFemale", patientId, new Date(0), new Date())));
+            }
+            for (int i = 0; i < reports.size(); i++) {
+                MeasureReport report = reports.get(i).get();
+                assertEquals(report.getSubject().getReference(), "Patient/p" + i);
+                assertEquals(report.getGroupFirstRep().getMeasureScore().getValue().intValue(), i % 2 == 0 ? 1 : 0);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package org.opencds.cqf.tooling.modelinfo;
+
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+
+import java.util.HashMap;
+
+import org.hl7.elm_modelinfo.r1.ClassInfo;
+import org.hl7.elm_modelinfo.r1.ClassInfoElement;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class ClassInfoBuilderTest {
+
+    private ClassInfoBuilder builder;
+    private ClassInfo root;
+    private ClassInfo component;
+
+    @BeforeMethod
+    public void setUp() {
+        builder = new ClassInfoBuilder(new ClassInfoSettings(), new HashMap<>()) {
+            @Override
+            protected void innerBuild() {
+                // types are added by the tests
+            }
+        };
+        root = classInfo("Root");
+        component = classInfo("Component");
+        classInfo("String");
+        root.getElement().add(element("component", "Test.Component"));
+        component.getElement().add(element("value", "Test.String"));
+    }
+
+    @Test
+    public void testForPathResolvesNestedElements() {
+        assertSame(builder.forPath(root.getElement(), "component"), root.getElement().get(0));
+        assertSame(builder.forPath(root.getElement(), "component.value"), component.getElement().get(0));
+        assertNull(builder.forPath(root.getElement(), "missing"));
+    }
+
+    @Test
+    public void testForPathSeesElementsReplacedInPlace() {
+        assertSame(builder.forPath(root.getElement(), "component.value"), component.getElement().get(0));
+
+        ClassInfoElement replacement = element("value", "Test.String");
+        component.getElement().set(0, replacement);
+        assertSame(builder.forPath(root.getElement(), "component.value"), replacement);
+
+        // Same size, different names
+        component.getElement().clear();
+        component.getElement().add(element("other", "Test.String"));
+        assertNull(builder.forPath(root.getElement(), "component.value"));
+    }
+
+    @Test
+    public void testForPathSeesAddedSlices() {
+        assertNull(builder.forPath(root.getElement(), "component.slice"));
+
+        ClassInfoElement slice = element("slice", "Test.String");
+        component.getElement().add(slice);
+        assertSame(builder.forPath(root.getElement(), "component.slice"), slice);
+    }
+
+    @Test
+    public void testForPathReturnsFirstElementWithName() {
+        ClassInfoElement first = component.getElement().get(0);
+        component.getElement().add(element("value", "Test.Component"));
+        assertSame(builder.forPath(root.getElement(), "component.value"), first);
+
+        // Removing the first element moves the second into its position
+        component.getElement().remove(0);
+        assertSame(builder.forPath(root.getElement(), "component.value"), component.getElement().get(0));
+    }
+
+    private ClassInfo classInfo(String name) {
+        ClassInfo classInfo = new ClassInfo().withNamespace("Test").withName(name);
+        builder.typeInfos.put("Test." + name, classInfo);
+        return classInfo;
+    }
+
+    private ClassInfoElement element(String name, String type) {
+        return new ClassInfoElement().withName(name).withElementType(type);
+    }
+}
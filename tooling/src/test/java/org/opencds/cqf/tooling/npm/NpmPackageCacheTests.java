@@ -0,0 +1,68 @@
+package org.opencds.cqf.tooling.npm;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.commons.io.FileUtils;
+import org.hl7.fhir.utilities.npm.NpmPackage;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class NpmPackageCacheTests {
+
+    private Path tempDir;
+    private Path packageDir;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        NpmPackageCache.clear();
+        tempDir = Files.createTempDirectory("npm-package-cache");
+        packageDir = tempDir.resolve("example.pkg#1.0.0");
+        Files.createDirectories(packageDir.resolve("package"));
+        write("package/package.json", "{\"name\":\"example.pkg\",\"version\":\"1.0.0\","
+                + "\"canonical\":\"http://example.org/fhir\",\"fhirVersions\":[\"4.0.1\"]}");
+        write("package/Library-example.json", "{\"resourceType\":\"Library\",\"id\":\"example\"}");
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        NpmPackageCache.clear();
+        FileUtils.deleteDirectory(tempDir.toFile());
+    }
+
+    @Test
+    public void testPackageIsReusedUntilItsFolderChanges() throws IOException {
+        assertNull(NpmPackageCache.get("example.pkg", "1.0.0"));
+        NpmPackage npmPackage = NpmPackage.fromFolder(packageDir.toString());
+        NpmPackageCache.put("example.pkg", "1.0.0", npmPackage);
+        assertSame(NpmPackageCache.get("example.pkg", "1.0.0"), npmPackage);
+        assertNull(NpmPackageCache.get("example.pkg", "2.0.0"));
+
+        write("package/Library-other.json", "{\"resourceType\":\"Library\",\"id\":\"other\"}");
+        assertNull(NpmPackageCache.get("example.pkg", "1.0.0"));
+    }
+
+    @Test
+    public void testFromFolderReusesPackageWithSameFingerprint() throws IOException {
+        String fingerprint = NpmPackageSnapshot.getFingerprint(packageDir.toString());
+        NpmPackage npmPackage = NpmPackageCache.fromFolder(packageDir.toString(), fingerprint);
+        assertEquals(npmPackage.name(), "example.pkg");
+        assertSame(NpmPackageCache.fromFolder(packageDir.toString(), fingerprint), npmPackage);
+
+        write("package/Library-example.json", "{\"resourceType\":\"Library\",\"id\":\"example\",\"version\":\"2\"}");
+        String changed = NpmPackageSnapshot.getFingerprint(packageDir.toString());
+        assertNotSame(NpmPackageCache.fromFolder(packageDir.toString(), changed), npmPackage);
+    }
+
+    private void write(String path, String content) throws IOException {
+        Files.write(packageDir.resolve(path), content.getBytes(StandardCharsets.UTF_8));
+    }
+}
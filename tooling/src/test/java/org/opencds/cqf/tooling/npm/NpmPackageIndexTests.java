@@ -0,0 +1,103 @@
+package org.opencds.cqf.tooling.npm;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.commons.io.FileUtils;
+import org.hl7.fhir.r5.formats.JsonParser;
+import org.hl7.fhir.r5.model.Library;
+import org.hl7.fhir.utilities.npm.NpmPackage;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class NpmPackageIndexTests {
+
+    private static final String URL = "http://example.org/Library/Example";
+
+    private final ILibraryReader reader = stream -> (Library) new JsonParser().parse(stream);
+
+    private Path tempDir;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("npm-package-index");
+        Path packageDir = Files.createDirectories(tempDir.resolve("package"));
+        Files.write(packageDir.resolve("package.json"), ("{\"name\":\"example.pkg\",\"version\":\"1.0.0\","
+                + "\"canonical\":\"http://example.org\",\"fhirVersions\":[\"4.0.1\"]}").getBytes(StandardCharsets.UTF_8));
+        writeLibrary(packageDir, "1.9.0");
+        writeLibrary(packageDir, "1.10.0");
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(tempDir.toFile());
+    }
+
+    private void writeLibrary(Path packageDir, String version) throws IOException {
+        Library library = new Library();
+        library.setId("Example-" + version);
+        library.setUrl(URL);
+        library.setVersion(version);
+        library.addContent().setContentType("text/cql").setData(("cql " + version).getBytes(StandardCharsets.UTF_8));
+        library.addContent().setContentType("application/elm+json").setData(("elm " + version).getBytes(StandardCharsets.UTF_8));
+        Files.write(packageDir.resolve("Library-Example-" + version + ".json"), new JsonParser().composeBytes(library));
+    }
+
+    @Test
+    public void testExactVersion() throws IOException {
+        NpmPackage npmPackage = NpmPackage.fromFolder(tempDir.toString());
+        NpmPackageIndex index = NpmPackageIndex.forPackage(npmPackage);
+        assertEquals(new String(index.getLibraryContent(npmPackage, URL, "1.9.0", "text/cql", reader), StandardCharsets.UTF_8), "cql 1.9.0");
+        assertEquals(new String(index.getLibraryContent(npmPackage, URL, "1.10.0", "text/cql", reader), StandardCharsets.UTF_8), "cql 1.10.0");
+        assertNull(index.getLibraryContent(npmPackage, URL, "2.0.0", "text/cql", reader));
+        assertNull(index.getLibraryContent(npmPackage, "http://example.org/Library/Other", null, "text/cql", reader));
+    }
+
+    @Test
+    public void testNoVersionMatchesLoadByCanonicalVersion() throws IOException {
+        NpmPackage npmPackage = NpmPackage.fromFolder(tempDir.toString());
+        Library expected;
+        try (InputStream stream = npmPackage.loadByCanonicalVersion(URL, null)) {
+            expected = reader.readLibrary(stream);
+        }
+
+        byte[] cql = NpmPackageIndex.forPackage(npmPackage).getLibraryContent(npmPackage, URL, null, "text/cql", reader);
+        assertEquals(new String(cql, StandardCharsets.UTF_8), "cql " + expected.getVersion());
+    }
+
+    @Test
+    public void testUncachedContentTypeIsStillRead() throws IOException {
+        NpmPackage npmPackage = NpmPackage.fromFolder(tempDir.toString());
+        NpmPackageIndex index = NpmPackageIndex.forPackage(npmPackage);
+        assertEquals(new String(index.getLibraryContent(npmPackage, URL, "1.9.0", "text/cql", reader), StandardCharsets.UTF_8), "cql 1.9.0");
+        assertEquals(new String(index.getLibraryContent(npmPackage, URL, "1.9.0", "application/elm+json", reader), StandardCharsets.UTF_8), "elm 1.9.0");
+        assertNull(index.getLibraryContent(npmPackage, URL, "1.9.0", "application/xml", reader));
+    }
+
+    @Test
+    public void testIndexIsReleasedWithItsPackage() throws IOException, InterruptedException {
+        NpmPackage npmPackage = NpmPackage.fromFolder(tempDir.toString());
+        NpmPackageIndex index = NpmPackageIndex.forPackage(npmPackage);
+        assertEquals(new String(index.getLibraryContent(npmPackage, URL, "1.9.0", "text/cql", reader), StandardCharsets.UTF_8), "cql 1.9.0");
+        WeakReference<NpmPackageIndex> indexReference = new WeakReference<>(index);
+        index = null;
+        npmPackage = null;
+
+        // Stale entries are only expunged from the weak map when it is next used
+        NpmPackage other = NpmPackage.fromFolder(tempDir.toString());
+        for (int i = 0; i < 50 && indexReference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(20);
+            NpmPackageIndex.forPackage(other);
+        }
+        assertNull(indexReference.get());
+    }
+}
@@ -0,0 +1,109 @@
+package org.opencds.cqf.tooling.npm;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.hl7.fhir.r5.model.ImplementationGuide;
+import org.hl7.fhir.utilities.npm.NpmPackage;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class NpmPackageSnapshotTests {
+
+    private static final String IG_URL = "http://example.org/fhir/ImplementationGuide/example";
+
+    private Path tempDir;
+    private Path packageDir;
+    private Path snapshotDir;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("npm-package-snapshot");
+        packageDir = tempDir.resolve("example.pkg#1.0.0");
+        snapshotDir = tempDir.resolve("snapshots");
+        Files.createDirectories(packageDir.resolve("package"));
+        write("package/package.json", "{\"name\":\"example.pkg\",\"version\":\"1.0.0\","
+                + "\"canonical\":\"http://example.org/fhir\",\"fhirVersions\":[\"4.0.1\"]}");
+        write("package/Library-example.json", "{\"resourceType\":\"Library\",\"id\":\"example\"}");
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(tempDir.toFile());
+    }
+
+    @Test
+    public void testSavedPackagesAndIgUrlsAreLoaded() throws IOException {
+        NpmPackageSnapshot snapshot = new NpmPackageSnapshot(snapshotDir.toString(), sourceIg("1.0.0"), "4.0.1");
+        assertNull(snapshot.load());
+        snapshot.save(Collections.singletonList(NpmPackage.fromFolder(packageDir.toString())),
+                Collections.singletonMap("example.pkg", IG_URL));
+
+        NpmPackageSnapshot reloaded = new NpmPackageSnapshot(snapshotDir.toString(), sourceIg("1.0.0"), "4.0.1");
+        List<NpmPackage> packages = reloaded.load();
+        assertNotNull(packages);
+        assertEquals(packages.size(), 1);
+        assertEquals(packages.get(0).name(), "example.pkg");
+        assertEquals(packages.get(0).version(), "1.0.0");
+        assertEquals(reloaded.getIgUrls(), Collections.singletonMap("example.pkg", IG_URL));
+    }
+
+    @Test
+    public void testChangedDependenciesSelectAnotherSnapshot() throws IOException {
+        new NpmPackageSnapshot(snapshotDir.toString(), sourceIg("1.0.0"), "4.0.1")
+                .save(Collections.singletonList(NpmPackage.fromFolder(packageDir.toString())), Collections.emptyMap());
+
+        assertNull(new NpmPackageSnapshot(snapshotDir.toString(), sourceIg("2.0.0"), "4.0.1").load());
+        assertNull(new NpmPackageSnapshot(snapshotDir.toString(), sourceIg("1.0.0"), "4.0.0").load());
+    }
+
+    @Test
+    public void testChangedPackageContentInvalidatesSnapshot() throws IOException {
+        NpmPackageSnapshot snapshot = new NpmPackageSnapshot(snapshotDir.toString(), sourceIg("1.0.0"), "4.0.1");
+        snapshot.save(Collections.singletonList(NpmPackage.fromFolder(packageDir.toString())), Collections.emptyMap());
+        assertNotNull(snapshot.load());
+
+        // The manifest is untouched, only a resource in the package changes
+        write("package/Library-example.json", "{\"resourceType\":\"Library\",\"id\":\"example\",\"version\":\"2\"}");
+        assertNull(snapshot.load());
+    }
+
+    @Test
+    public void testAddedPackageFileInvalidatesSnapshot() throws IOException {
+        NpmPackageSnapshot snapshot = new NpmPackageSnapshot(snapshotDir.toString(), sourceIg("1.0.0"), "4.0.1");
+        snapshot.save(Collections.singletonList(NpmPackage.fromFolder(packageDir.toString())), Collections.emptyMap());
+
+        write("package/Library-other.json", "{\"resourceType\":\"Library\",\"id\":\"other\"}");
+        assertNull(snapshot.load());
+    }
+
+    @Test
+    public void testFingerprintIgnoresPackageIndex() throws IOException {
+        String fingerprint = NpmPackageSnapshot.getFingerprint(packageDir.toString());
+        assertNotNull(fingerprint);
+
+        write("package/.index.json", "{\"index-version\":1,\"files\":[]}");
+        assertEquals(NpmPackageSnapshot.getFingerprint(packageDir.toString()), fingerprint);
+        assertNull(NpmPackageSnapshot.getFingerprint(tempDir.resolve("missing").toString()));
+    }
+
+    private ImplementationGuide sourceIg(String dependencyVersion) {
+        ImplementationGuide ig = new ImplementationGuide();
+        ig.addDependsOn().setId("example").setUri(IG_URL).setPackageId("example.pkg").setVersion(dependencyVersion);
+        return ig;
+    }
+
+    private void write(String path, String content) throws IOException {
+        Files.write(packageDir.resolve(path), content.getBytes(StandardCharsets.UTF_8));
+    }
+}
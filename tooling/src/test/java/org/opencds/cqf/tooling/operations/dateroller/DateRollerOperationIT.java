@@ -1,11 +1,18 @@
 package org.opencds.cqf.tooling.operations.dateroller;
 
 import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.util.BundleBuilder;
+import ca.uhn.fhir.util.BundleUtil;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
 import com.google.gson.JsonObject;
 import org.apache.commons.lang3.time.DateUtils;
+import org.hl7.fhir.instance.model.api.IBaseBundle;
+import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.r4.model.DateTimeType;
+import org.hl7.fhir.r4.model.DateType;
 import org.hl7.fhir.r4.model.Duration;
 import org.hl7.fhir.r4.model.Extension;
 import org.hl7.fhir.r4.model.Observation;
@@ -13,7 +20,16 @@ import org.hl7.fhir.r4.model.Period;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.Map;
+import java.util.Objects;
 import java.util.TimeZone;
 
 public class DateRollerOperationIT {
@@ -330,6 +346,24 @@ public class DateRollerOperationIT {
               DateUtils.addDays(today, -10)));
    }
 
+   @Test
+   void testDateRollerMultipleElements() {
+      RollTestDates dateRoller = new RollTestDates();
+
+      // every date in the resource is rolled by the same offset, not just the first one visited
+      Observation observation = new Observation();
+      observation.addExtension(getDateRollerExtension());
+      observation.setEffective(new DateTimeType(todayMinus40Days));
+      observation.setIssued(todayMinus50Days);
+      observation.addComponent().setValue(new DateTimeType(todayMinus41Days));
+      boolean result = dateRoller.getAllDateElements(fhirContext, observation, dateRoller.getDateClasses(fhirContext));
+      Assert.assertTrue(result);
+      Assert.assertTrue(DateUtils.isSameDay(observation.getEffectiveDateTimeType().getValue(), today));
+      Assert.assertTrue(DateUtils.isSameDay(observation.getIssued(), DateUtils.addDays(today, -10)));
+      Assert.assertTrue(DateUtils.isSameDay(observation.getComponentFirstRep().getValueDateTimeType().getValue(),
+              DateUtils.addDays(today, -1)));
+   }
+
    @Test
    void testCdsHooksRequestPrefetch() {
       Gson gson = new GsonBuilder().serializeNulls().setPrettyPrinting().create();
@@ -362,6 +396,125 @@ public class DateRollerOperationIT {
       Assert.assertFalse(request.has("prefetch"));
    }
 
+   @Test
+   void testCdsHooksRequestStreaming() throws IOException {
+      Gson gson = new GsonBuilder().serializeNulls().setPrettyPrinting().create();
+      Observation observation = new Observation();
+      observation.addExtension(getDateRollerExtension());
+      observation.setStatus(Observation.ObservationStatus.FINAL);
+      observation.setEffective(new DateTimeType(todayMinus40Days));
+      observation.setIssued(todayMinus50Days);
+      JsonObject request = new JsonObject();
+      request.addProperty("hook", "order-sign");
+      JsonObject prefetch = new JsonObject();
+      prefetch.add("item1", gson.fromJson(fhirContext.newJsonParser().encodeResourceToString(observation), JsonObject.class));
+      prefetch.add("item2", JsonNull.INSTANCE);
+      request.add("prefetch", prefetch);
+      String input = gson.toJson(request);
+
+      StringWriter output = new StringWriter();
+      new StreamingRequestDateRoller(fhirContext).rollDates(new StringReader(input), new StringReader(input), output);
+
+      JsonObject updatedRequest = gson.fromJson(output.toString(), JsonObject.class);
+      Observation updated = (Observation) fhirContext.newJsonParser().parseResource(
+              updatedRequest.getAsJsonObject("prefetch").get("item1").toString());
+      Assert.assertTrue(DateUtils.isSameDay(updated.getEffectiveDateTimeType().getValue(), today));
+      Assert.assertTrue(DateUtils.isSameDay(updated.getIssued(), DateUtils.addDays(today, -10)));
+      Assert.assertTrue(DateUtils.isSameDay(
+              ((DateTimeType) updated.getExtensionByUrl(RollTestDates.DATEROLLER_EXT_URL)
+                      .getExtensionByUrl("dateLastUpdated").getValue()).getValue(), today));
+      // ensure null values are preserved, and the layout matches the Gson path
+      Assert.assertTrue(updatedRequest.getAsJsonObject("prefetch").get("item2").isJsonNull());
+      Assert.assertEquals(output.toString(), gson.toJson(updatedRequest));
+   }
+
+   @Test
+   void testCdsHooksRequestStreamingWritesDateLastUpdatedAsDateTime() throws IOException {
+      Gson gson = new GsonBuilder().serializeNulls().setPrettyPrinting().create();
+      Observation observation = new Observation();
+      Extension dateRollerExtension = getDateRollerExtension();
+      dateRollerExtension.getExtensionByUrl("dateLastUpdated").setValue(new DateType(todayMinus40Days));
+      observation.addExtension(dateRollerExtension);
+      observation.setEffective(new DateTimeType(todayMinus40Days));
+      JsonObject request = new JsonObject();
+      JsonObject prefetch = new JsonObject();
+      prefetch.add("item1", gson.fromJson(fhirContext.newJsonParser().encodeResourceToString(observation), JsonObject.class));
+      request.add("prefetch", prefetch);
+      String input = gson.toJson(request);
+
+      StringWriter output = new StringWriter();
+      new StreamingRequestDateRoller(fhirContext).rollDates(new StringReader(input), new StringReader(input), output);
+
+      JsonObject dateLastUpdated = gson.fromJson(output.toString(), JsonObject.class).getAsJsonObject("prefetch")
+              .getAsJsonObject("item1").getAsJsonArray("extension").get(0).getAsJsonObject()
+              .getAsJsonArray("extension").get(0).getAsJsonObject();
+      Assert.assertFalse(dateLastUpdated.has("valueDate"));
+      Assert.assertTrue(dateLastUpdated.has("valueDateTime"));
+   }
+
+   @Test
+   void testCdsHooksRequestStreamingMatchesDefaultMode() throws IOException {
+      Gson gson = new GsonBuilder().serializeNulls().setPrettyPrinting().create();
+      RollTestDates dateRoller = new RollTestDates();
+      dateRoller.setFhirContext(fhirContext);
+      for (String input : Arrays.asList(CDSHooksWithPrefetchAndNulls, CDSHooksWithoutPrefetch,
+              readRequest("request-example-rec-01-in-outpatient-opioid.json"),
+              readRequest("request-example-rec-01-in-outpatient-opioid-noprefetch.json"))) {
+         JsonObject request = gson.fromJson(input, JsonObject.class);
+         dateRoller.getUpdatedRequest(request, gson);
+         String defaultOutput = gson.toJson(request);
+
+         StringWriter output = new StringWriter();
+         new StreamingRequestDateRoller(fhirContext).rollDates(new StringReader(input), new StringReader(input), output);
+         String streamedOutput = output.toString();
+
+         Assert.assertNotEquals(streamedOutput, input);
+         Assert.assertEquals(streamedOutput, gson.toJson(gson.fromJson(streamedOutput, JsonObject.class)));
+         // Once the prefetch resources and draft orders are encoded as the default mode encodes them (see the README),
+         // the outputs are the same; only the time dateLastUpdated is set to may differ
+         Assert.assertEquals(maskNow(encodeAsDefaultMode(streamedOutput, gson)), maskNow(defaultOutput));
+      }
+   }
+
+   private String readRequest(String name) throws IOException {
+      try (InputStream stream = Objects.requireNonNull(DateRollerOperationIT.class.getResourceAsStream(
+              "/org/opencds/cqf/tooling/operation/dateRoller/" + name))) {
+         return new String(stream.readAllBytes(), StandardCharsets.UTF_8);
+      }
+   }
+
+   // Encodes the prefetch resources and draft orders with the FHIR parser, rebuilding Bundles as collections of their
+   // entry resources, as RollTestDates.getUpdatedRequest does, but without rolling any dates
+   private String encodeAsDefaultMode(String requestJson, Gson gson) {
+      JsonObject request = gson.fromJson(requestJson, JsonObject.class);
+      if (request.has("context") && request.getAsJsonObject("context").has("draftOrders")) {
+         request.getAsJsonObject("context").add("draftOrders",
+                 encodeAsDefaultMode(request.getAsJsonObject("context").get("draftOrders"), gson));
+      }
+      if (request.has("prefetch")) {
+         JsonObject prefetch = new JsonObject();
+         for (Map.Entry<String, JsonElement> item : request.getAsJsonObject("prefetch").entrySet()) {
+            prefetch.add(item.getKey(), item.getValue().isJsonNull() ? item.getValue() : encodeAsDefaultMode(item.getValue(), gson));
+         }
+         request.add("prefetch", prefetch);
+      }
+      return gson.toJson(request);
+   }
+
+   private JsonObject encodeAsDefaultMode(JsonElement resourceJson, Gson gson) {
+      IBaseResource resource = fhirContext.newJsonParser().parseResource(resourceJson.toString());
+      if (resource instanceof IBaseBundle) {
+         BundleBuilder builder = new BundleBuilder(fhirContext);
+         BundleUtil.toListOfResources(fhirContext, (IBaseBundle) resource).forEach(builder::addCollectionEntry);
+         resource = builder.getBundle();
+      }
+      return gson.fromJson(fhirContext.newJsonParser().encodeResourceToString(resource), JsonObject.class);
+   }
+
+   private String maskNow(String json) {
+      return json.replaceAll(LocalDate.now() + "T\\d{2}:\\d{2}:\\d{2}(\\.\\d+)?(Z|[+-]\\d{2}:\\d{2})", "now");
+   }
+
    private Extension getDateRollerExtension() {
       Duration frequency = new Duration();
       frequency.setValue(30).setUnit("days");
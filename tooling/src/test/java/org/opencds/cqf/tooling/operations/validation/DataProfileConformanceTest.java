@@ -0,0 +1,148 @@
+package org.opencds.cqf.tooling.operations.validation;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.validation.FhirValidator;
+import ca.uhn.fhir.validation.ResultSeverityEnum;
+import ca.uhn.fhir.validation.SingleValidationMessage;
+import ca.uhn.fhir.validation.ValidationOptions;
+import ca.uhn.fhir.validation.ValidationResult;
+import org.apache.commons.io.FileUtils;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Patient;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class DataProfileConformanceTest {
+
+   // More than two partitions, and not a whole number of them
+   private static final int RESOURCE_COUNT = 250;
+
+   private static final String UUID_PATTERN = "[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}";
+
+   private final FhirContext fhirContext = FhirContext.forR4Cached();
+
+   private Path tempDir;
+
+   @BeforeMethod
+   public void setUp() throws IOException {
+      tempDir = Files.createTempDirectory("data-profile-conformance");
+   }
+
+   @AfterMethod
+   public void tearDown() throws IOException {
+      FileUtils.deleteDirectory(tempDir.toFile());
+   }
+
+   @Test
+   public void testStreamedBundleMatchesBundleValidatedInMemory() throws IOException {
+      Bundle bundle = bundle();
+      Path jsonPath = tempDir.resolve("bundle.json");
+      Files.write(jsonPath, fhirContext.newJsonParser().encodeResourceToString(bundle).getBytes(StandardCharsets.UTF_8));
+      Path xmlPath = tempDir.resolve("bundle.xml");
+      Files.write(xmlPath, fhirContext.newXmlParser().encodeResourceToString(bundle).getBytes(StandardCharsets.UTF_8));
+
+      List<IBaseResource> inMemory = conformance().validatePatientData(bundle);
+      Assert.assertEquals(inMemory.size(), RESOURCE_COUNT);
+      for (int i = 0; i < RESOURCE_COUNT; i++) {
+         // Returned in bundle order, whichever thread validated them
+         Assert.assertSame(inMemory.get(i), bundle.getEntry().get(i).getResource());
+      }
+      Map<String, String> expected = normalize(inMemory);
+
+      Assert.assertEquals(validatePath(jsonPath), expected);
+      Assert.assertEquals(validatePath(xmlPath), expected);
+   }
+
+   @Test
+   public void testNonBundleJsonIsNotValidated() throws IOException {
+      Path path = tempDir.resolve("patient.json");
+      Files.write(path, fhirContext.newJsonParser().encodeResourceToString(patient(1)).getBytes(StandardCharsets.UTF_8));
+
+      Assert.assertTrue(validatePath(path).isEmpty());
+   }
+
+   private Map<String, String> validatePath(Path path) {
+      ConcurrentLinkedQueue<IBaseResource> validated = new ConcurrentLinkedQueue<>();
+      conformance().validatePath(path.toString(), validated::add);
+      return normalize(new ArrayList<>(validated));
+   }
+
+   private DataProfileConformance conformance() {
+      DataProfileConformance conformance = new DataProfileConformance();
+      conformance.setFhirContext(fhirContext);
+      conformance.setValidator(validator());
+      conformance.setThreads(3);
+      return conformance;
+   }
+
+   // Reports an error for every seventh resource
+   private FhirValidator validator() {
+      FhirValidator validator = mock(FhirValidator.class);
+      when(validator.validateWithResult(any(IBaseResource.class), any(ValidationOptions.class))).thenAnswer(invocation -> {
+         IBaseResource resource = invocation.getArgument(0);
+         int index = Integer.parseInt(resource.getIdElement().getIdPart().replaceAll("\\D", ""));
+         if (index % 7 != 0) {
+            return new ValidationResult(fhirContext, Collections.emptyList());
+         }
+         SingleValidationMessage message = new SingleValidationMessage();
+         message.setSeverity(ResultSeverityEnum.ERROR);
+         message.setMessage("Invalid " + resource.getIdElement().getIdPart());
+         return new ValidationResult(fhirContext, Collections.singletonList(message));
+      });
+      return validator;
+   }
+
+   // Encoded resources by id, with the generated ids of the contained validation outcomes masked
+   private Map<String, String> normalize(List<IBaseResource> resources) {
+      Map<String, String> normalized = new TreeMap<>();
+      for (IBaseResource resource : resources) {
+         String id = resource.fhirType() + "/" + resource.getIdElement().getIdPart();
+         Assert.assertNull(normalized.put(id,
+                 fhirContext.newJsonParser().encodeResourceToString(resource).replaceAll(UUID_PATTERN, "outcome")), id);
+      }
+      return normalized;
+   }
+
+   private Bundle bundle() {
+      Bundle bundle = new Bundle();
+      bundle.setType(Bundle.BundleType.COLLECTION);
+      for (int i = 1; i <= RESOURCE_COUNT; i++) {
+         if (i % 2 == 0) {
+            Observation observation = new Observation();
+            observation.setId("observation-" + i);
+            observation.setStatus(Observation.ObservationStatus.FINAL);
+            observation.getSubject().setReference("Patient/patient-" + (i - 1));
+            bundle.addEntry().setFullUrl("Observation/observation-" + i).setResource(observation);
+         } else {
+            bundle.addEntry().setFullUrl("Patient/patient-" + i).setResource(patient(i));
+         }
+      }
+      return bundle;
+   }
+
+   private Patient patient(int index) {
+      Patient patient = new Patient();
+      patient.setId("patient-" + index);
+      patient.addName().setFamily("Family" + index);
+      return patient;
+   }
+}
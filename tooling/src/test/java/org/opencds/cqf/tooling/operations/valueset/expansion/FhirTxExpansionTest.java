@@ -0,0 +1,133 @@
+package org.opencds.cqf.tooling.operations.valueset.expansion;
+
+import ca.uhn.fhir.context.FhirContext;
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.client.WireMock;
+import com.github.tomakehurst.wiremock.core.WireMockConfiguration;
+import org.apache.commons.io.FileUtils;
+import org.hl7.fhir.r4.model.CapabilityStatement;
+import org.hl7.fhir.r4.model.ValueSet;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+
+public class FhirTxExpansionTest {
+   private final FhirContext fhirContext = FhirContext.forR4Cached();
+
+   private Path tempDir;
+   private WireMockServer server;
+
+   @BeforeMethod
+   public void setUp() throws IOException {
+      tempDir = Files.createTempDirectory("fhir-tx-expansion");
+      server = new WireMockServer(WireMockConfiguration.options().dynamicPort());
+      server.start();
+      server.stubFor(WireMock.get(WireMock.urlPathEqualTo("/fhir/metadata"))
+              .willReturn(WireMock.okForContentType("application/fhir+json",
+                      fhirContext.newJsonParser().encodeResourceToString(
+                              new CapabilityStatement().setFhirVersion(org.hl7.fhir.r4.model.Enumerations.FHIRVersion._4_0_1)))));
+      ValueSet expanded = valueSet("1.0.0", "a");
+      expanded.getExpansion().addContains().setSystem("http://example.org/codes").setCode("a");
+      server.stubFor(WireMock.post(WireMock.urlPathEqualTo("/fhir/ValueSet/$expand"))
+              .willReturn(WireMock.okForContentType("application/fhir+json",
+                      fhirContext.newJsonParser().encodeResourceToString(expanded))));
+   }
+
+   @AfterMethod
+   public void tearDown() throws IOException {
+      server.stop();
+      FileUtils.deleteDirectory(tempDir.toFile());
+   }
+
+   private ValueSet valueSet(String version, String code) {
+      ValueSet valueSet = new ValueSet();
+      valueSet.setId("example");
+      valueSet.setUrl("http://example.org/ValueSet/example");
+      valueSet.setVersion(version);
+      valueSet.getCompose().addInclude().setSystem("http://example.org/codes").addConcept().setCode(code);
+      return valueSet;
+   }
+
+   private FhirTxExpansion expansion() {
+      FhirTxExpansion expansion = new FhirTxExpansion();
+      expansion.setFhirContext(fhirContext);
+      expansion.setFhirServer(server.baseUrl() + "/fhir");
+      expansion.setExpansionCachePath(tempDir.resolve("cache").toString());
+      expansion.setExpansionCacheTtl(24);
+      return expansion;
+   }
+
+   private int expandRequestCount() {
+      return server.findAll(WireMock.postRequestedFor(WireMock.urlPathEqualTo("/fhir/ValueSet/$expand"))).size();
+   }
+
+   @Test
+   void testCacheKeyFollowsServerVersionAndCompose() {
+      FhirTxExpansion expansion = expansion();
+      Path key = expansion.getCacheFile(valueSet("1.0.0", "a"));
+      assertNotNull(key);
+      assertEquals(expansion.getCacheFile(valueSet("1.0.0", "a")), key);
+      assertNotEquals(expansion.getCacheFile(valueSet("1.0.1", "a")), key);
+      assertNotEquals(expansion.getCacheFile(valueSet("1.0.0", "b")), key);
+
+      FhirTxExpansion otherServer = expansion();
+      otherServer.setFhirServer("http://tx.example.org/r4");
+      assertNotEquals(otherServer.getCacheFile(valueSet("1.0.0", "a")), key);
+
+      assertNull(expansion.getCacheFile(new ValueSet()));
+      expansion.setExpansionCachePath(null);
+      assertNull(expansion.getCacheFile(valueSet("1.0.0", "a")));
+   }
+
+   @Test
+   void testCachedExpansionIsReused() {
+      assertNotNull(expansion().expandValueSet(valueSet("1.0.0", "a")));
+      assertEquals(expandRequestCount(), 1);
+
+      ValueSet cached = (ValueSet) expansion().expandValueSet(valueSet("1.0.0", "a"));
+      assertEquals(expandRequestCount(), 1);
+      assertEquals(cached.getExpansion().getContainsFirstRep().getCode(), "a");
+   }
+
+   @Test
+   void testUnreadableCacheEntryFallsBackToServer() throws IOException {
+      FhirTxExpansion expansion = expansion();
+      Path cacheFile = expansion.getCacheFile(valueSet("1.0.0", "a"));
+      Files.createDirectories(cacheFile.getParent());
+      Files.write(cacheFile, "{ not json".getBytes(StandardCharsets.UTF_8));
+
+      ValueSet expanded = (ValueSet) expansion.expandValueSet(valueSet("1.0.0", "a"));
+      assertEquals(expandRequestCount(), 1);
+      assertEquals(expanded.getExpansion().getContainsFirstRep().getCode(), "a");
+      // The unreadable entry is replaced
+      assertNotNull(fhirContext.newJsonParser().parseResource(Files.readString(cacheFile)));
+   }
+
+   @Test
+   void testExpiredCacheEntryIsExpandedAgain() throws IOException {
+      Path cacheFile = expansion().getCacheFile(valueSet("1.0.0", "a"));
+      expansion().expandValueSet(valueSet("1.0.0", "a"));
+      Files.setLastModifiedTime(cacheFile, FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(25)));
+
+      expansion().expandValueSet(valueSet("1.0.0", "a"));
+      assertEquals(expandRequestCount(), 2);
+
+      FhirTxExpansion noExpiry = expansion();
+      noExpiry.setExpansionCacheTtl(0);
+      Files.setLastModifiedTime(cacheFile, FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(25)));
+      noExpiry.expandValueSet(valueSet("1.0.0", "a"));
+      assertEquals(expandRequestCount(), 2);
+   }
+}
@@ -0,0 +1,65 @@
+package org.opencds.cqf.tooling.processor;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.net.URISyntaxException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.fhir.ucum.UcumEssenceService;
+import org.fhir.ucum.UcumException;
+import org.fhir.ucum.UcumService;
+import org.hl7.fhir.r5.context.IWorkerContext;
+import org.testng.annotations.Test;
+
+public class CqlProcessorConcurrencyTest implements IWorkerContext.ILoggingService {
+
+    private static final String CQL_FOLDER = "/org/opencds/cqf/tooling/utilities/CompositeMeasures/cql";
+
+    @Test
+    public void testConcurrentTranslationMatchesSequentialTranslation() throws URISyntaxException, UcumException {
+        String folder = new File(CqlProcessorConcurrencyTest.class.getResource(CQL_FOLDER).toURI()).getAbsolutePath();
+
+        Map<String, CqlProcessor.CqlSourceFileInformation> sequential = translate(folder, 1);
+        Map<String, CqlProcessor.CqlSourceFileInformation> concurrent = translate(folder, 4);
+
+        assertTrue(sequential.size() > 1);
+        assertEquals(concurrent.keySet(), sequential.keySet());
+        for (Map.Entry<String, CqlProcessor.CqlSourceFileInformation> entry : sequential.entrySet()) {
+            CqlProcessor.CqlSourceFileInformation expected = entry.getValue();
+            CqlProcessor.CqlSourceFileInformation actual = concurrent.get(entry.getKey());
+            assertNotNull(expected.getElm(), entry.getKey());
+            assertEquals(actual.getElm(), expected.getElm(), entry.getKey());
+            assertEquals(actual.getJsonElm(), expected.getJsonElm(), entry.getKey());
+            assertEquals(actual.getErrors().size(), expected.getErrors().size(), entry.getKey());
+        }
+    }
+
+    private Map<String, CqlProcessor.CqlSourceFileInformation> translate(String folder, int threads) throws UcumException {
+        UcumService ucumService = new UcumEssenceService(UcumEssenceService.class.getResourceAsStream("/ucum-essence.xml"));
+        CqlProcessor processor = new CqlProcessor(null, Collections.singletonList(folder), null, this, ucumService,
+                null, null, false);
+        processor.setTranslationThreadCount(threads);
+        processor.execute();
+        return new TreeMap<>(processor.getFileMap());
+    }
+
+    @Override
+    public void logMessage(String msg) {
+        // not needed
+    }
+
+    @Override
+    public void logDebugMessage(IWorkerContext.ILoggingService.LogCategory category, String msg) {
+        // not needed
+    }
+
+    @Override
+    public boolean isDebugLogging() {
+        return false;
+    }
+}
@@ -0,0 +1,129 @@
+package org.opencds.cqf.tooling.processor;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+import org.apache.commons.io.FileUtils;
+import org.fhir.ucum.UcumEssenceService;
+import org.fhir.ucum.UcumException;
+import org.hl7.fhir.r5.context.IWorkerContext;
+import org.hl7.fhir.utilities.validation.ValidationMessage;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class ElmCacheTest {
+
+    private Path tempDir;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("elm-cache");
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(tempDir.toFile());
+    }
+
+    @Test
+    public void testEntryRoundTrip() {
+        ElmCache cache = new ElmCache(tempDir.toString());
+        assertNull(cache.get("key"));
+
+        ElmCache.Entry entry = new ElmCache.Entry();
+        entry.setCql("library Test version '1.0.0'".getBytes(StandardCharsets.UTF_8));
+        entry.setElm("<library/>".getBytes(StandardCharsets.UTF_8));
+        entry.setJsonElm("{\"library\":{}}".getBytes(StandardCharsets.UTF_8));
+        entry.setLibraryName("Test");
+        entry.setLibraryVersion("1.0.0");
+        entry.setRequirements("{\"resourceType\":\"Library\"}".getBytes(StandardCharsets.UTF_8));
+        entry.setMessages(Collections.singletonList(new ValidationMessage(ValidationMessage.Source.Publisher,
+                ValidationMessage.IssueType.PROCESSING, 3, 5, "Test", "Could not resolve membership operator",
+                ValidationMessage.IssueSeverity.WARNING)));
+        entry.setStatusMessage("[WARN] CQL Processing of Test.cql completed successfully");
+        cache.put("key", entry);
+
+        ElmCache.Entry cached = new ElmCache(tempDir.toString()).get("key");
+        assertNotNull(cached);
+        assertEquals(cached.getCql(), entry.getCql());
+        assertEquals(cached.getElm(), entry.getElm());
+        assertEquals(cached.getJsonElm(), entry.getJsonElm());
+        assertEquals(cached.getRequirements(), entry.getRequirements());
+        assertEquals(cached.getLibraryName(), "Test");
+        assertNull(cached.getLibrarySystem());
+        assertEquals(cached.getLibraryVersion(), "1.0.0");
+        assertEquals(cached.getStatusMessage(), entry.getStatusMessage());
+        assertEquals(cached.getMessages().size(), 1);
+        assertEquals(cached.getMessages().get(0).getLine(), 3);
+        assertEquals(cached.getMessages().get(0).getLevel(), ValidationMessage.IssueSeverity.WARNING);
+    }
+
+    @Test
+    public void testIncompleteEntryIsIgnored() throws IOException {
+        Files.createDirectories(tempDir.resolve("key"));
+        ElmCache cache = new ElmCache(tempDir.toString());
+
+        assertNull(cache.get("key"));
+        assertEquals(cache.getMissCount(), 1);
+    }
+
+    @Test
+    public void testTranslatorVersionIsIdentified() {
+        assertNotNull(CqlProcessor.getTranslatorVersion());
+    }
+
+    @Test
+    public void testLocalModelInfoInvalidatesCachedTranslation() throws IOException, UcumException {
+        Path cqlDir = Files.createDirectories(tempDir.resolve("cql"));
+        Files.write(cqlDir.resolve("Test.cql"),
+                "library Test version '1.0.0'\n\ndefine \"Answer\": 42\n".getBytes(StandardCharsets.UTF_8));
+        ElmCache cache = new ElmCache(tempDir.resolve("cache").toString());
+
+        translate(cqlDir, cache);
+        translate(cqlDir, cache);
+        assertEquals(cache.getHitCount(), 1);
+
+        Files.write(cqlDir.resolve("Other-modelinfo-1.0.0.xml"),
+                "<modelInfo name=\"Other\" version=\"1.0.0\"/>".getBytes(StandardCharsets.UTF_8));
+        translate(cqlDir, cache);
+        assertEquals(cache.getHitCount(), 1);
+        translate(cqlDir, cache);
+        assertEquals(cache.getHitCount(), 2);
+    }
+
+    private void translate(Path cqlDir, ElmCache cache) throws UcumException {
+        CqlProcessor processor = new CqlProcessor(null, Collections.singletonList(cqlDir.toString()), null,
+                new NoOpLoggingService(), new UcumEssenceService(UcumEssenceService.class.getResourceAsStream("/ucum-essence.xml")),
+                null, null, false);
+        processor.setElmCache(cache);
+        processor.execute();
+        assertEquals(processor.getFileMap().size(), 1);
+        assertTrue(processor.getFileMap().values().iterator().next().getElm().length > 0);
+    }
+
+    private static class NoOpLoggingService implements IWorkerContext.ILoggingService {
+        @Override
+        public void logMessage(String msg) {
+            // not needed
+        }
+
+        @Override
+        public void logDebugMessage(IWorkerContext.ILoggingService.LogCategory category, String msg) {
+            // not needed
+        }
+
+        @Override
+        public boolean isDebugLogging() {
+            return false;
+        }
+    }
+}
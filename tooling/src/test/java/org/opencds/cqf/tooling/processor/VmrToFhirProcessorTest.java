@@ -0,0 +1,53 @@
+package org.opencds.cqf.tooling.processor;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hl7.fhir.instance.model.api.IAnyResource;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.Patient;
+import org.testng.annotations.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+
+public class VmrToFhirProcessorTest {
+
+    private static final String VMR_OUTPUT = "/org/opencds/cqf/tooling/operation/vMROutput.xml";
+
+    private static final String UUID_PATTERN = "[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}";
+
+    private final IParser parser = FhirContext.forR4Cached().newJsonParser();
+
+    @Test
+    public void testStreamingMatchesTreeTransformation() throws URISyntaxException {
+        File file = new File(VmrToFhirProcessorTest.class.getResource(VMR_OUTPUT).toURI());
+
+        List<IAnyResource> treeResources = new ArrayList<>();
+        Patient treePatient = VmrToFhirProcessor.transform(file, false, treeResources);
+        List<IAnyResource> streamedResources = new ArrayList<>();
+        Patient streamedPatient = VmrToFhirProcessor.transform(file, true, streamedResources);
+
+        assertTrue(treeResources.size() > 100);
+        assertEquals(encode(streamedPatient), encode(treePatient));
+        assertEquals(encode(streamedResources), encode(treeResources));
+    }
+
+    // Ids are generated on each transformation, so they are masked
+    private String encode(IBaseResource resource) {
+        return parser.encodeResourceToString(resource).replaceAll(UUID_PATTERN, "uuid");
+    }
+
+    private List<String> encode(List<IAnyResource> resources) {
+        List<String> encoded = new ArrayList<>();
+        for (IAnyResource resource : resources) {
+            encoded.add(encode(resource));
+        }
+        return encoded;
+    }
+}
@@ -0,0 +1,38 @@
+package org.opencds.cqf.tooling.utilities;
+
+import static java.util.Arrays.asList;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import org.testng.annotations.Test;
+
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+
+public class ArgUtilsTests {
+
+    private static final String[] COUNT_OPTIONS = {"c", "count"};
+
+    private OptionSet parse(String... args) {
+        OptionParser parser = new OptionParser();
+        parser.acceptsAll(asList(COUNT_OPTIONS)).withOptionalArg();
+        return parser.parse(args);
+    }
+
+    @Test
+    public void testIntegerValue() {
+        assertEquals(ArgUtils.getIntegerValue(parse("--count=4"), COUNT_OPTIONS), Integer.valueOf(4));
+        assertNull(ArgUtils.getIntegerValue(parse(), COUNT_OPTIONS));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "count must be a number: four")
+    public void testIntegerValueMustBeANumber() {
+        ArgUtils.getIntegerValue(parse("--count=four"), COUNT_OPTIONS);
+    }
+
+    @Test
+    public void testLongValue() {
+        assertEquals(ArgUtils.getLongValue(parse("--count=5000000000"), COUNT_OPTIONS), Long.valueOf(5_000_000_000L));
+        assertNull(ArgUtils.getLongValue(parse(), COUNT_OPTIONS));
+    }
+}
@@ -0,0 +1,104 @@
+package org.opencds.cqf.tooling.utilities;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.commons.io.FileUtils;
+import org.hl7.fhir.r4.model.Patient;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class BoundedResourceCacheTests {
+
+    private Path tempDir;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("resource-cache");
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(tempDir.toFile());
+    }
+
+    private String writeFile(String name, String content) throws IOException {
+        File file = tempDir.resolve(name).toFile();
+        FileUtils.writeStringToFile(file, content, StandardCharsets.UTF_8);
+        return file.getAbsolutePath();
+    }
+
+    @Test
+    public void TestHitAndMiss() throws IOException {
+        BoundedResourceCache cache = new BoundedResourceCache(1024 * 1024);
+        String path = writeFile("patient.json", "{\"resourceType\":\"Patient\"}");
+        Patient patient = new Patient();
+
+        assertNull(cache.get(path));
+        cache.put(path, patient);
+        assertSame(cache.get(path), patient);
+
+        ResourceCache.Stats stats = cache.getStats();
+        assertEquals(stats.getHitCount(), 1);
+        assertEquals(stats.getMissCount(), 1);
+        assertEquals(stats.getSize(), 1);
+    }
+
+    @Test
+    public void TestInvalidatedWhenFileChanges() throws IOException {
+        BoundedResourceCache cache = new BoundedResourceCache(1024 * 1024);
+        String path = writeFile("patient.json", "{\"resourceType\":\"Patient\"}");
+        cache.put(path, new Patient());
+
+        writeFile("patient.json", "{\"resourceType\":\"Patient\",\"id\":\"changed\"}");
+
+        assertNull(cache.get(path));
+        assertEquals(cache.getStats().getSize(), 0);
+    }
+
+    @Test
+    public void TestLeastRecentlyUsedEvictedOverMaxWeight() throws IOException {
+        String content = "{\"resourceType\":\"Patient\"}";
+        long entryWeight = (long) content.length() * BoundedResourceCache.ESTIMATED_RETAINED_SIZE_FACTOR;
+        BoundedResourceCache cache = new BoundedResourceCache(entryWeight * 2);
+
+        String first = writeFile("first.json", content);
+        String second = writeFile("second.json", content);
+        String third = writeFile("third.json", content);
+        Patient firstPatient = new Patient();
+
+        cache.put(first, firstPatient);
+        cache.put(second, new Patient());
+        // touch first so that second is the least recently used
+        assertSame(cache.get(first), firstPatient);
+        cache.put(third, new Patient());
+
+        assertNull(cache.get(second));
+        assertSame(cache.get(first), firstPatient);
+        assertEquals(cache.getStats().getEvictionCount(), 1);
+        assertEquals(cache.getStats().getWeight(), entryWeight * 2);
+    }
+
+    @Test
+    public void TestUpdateOnlyReplacesCachedEntries() throws IOException {
+        BoundedResourceCache cache = new BoundedResourceCache(1024 * 1024);
+        String cachedPath = writeFile("cached.json", "{\"resourceType\":\"Patient\"}");
+        String uncachedPath = writeFile("uncached.json", "{\"resourceType\":\"Patient\"}");
+        cache.put(cachedPath, new Patient());
+
+        Patient updated = new Patient();
+        cache.update(cachedPath, updated);
+        cache.update(uncachedPath, new Patient());
+
+        assertSame(cache.get(cachedPath), updated);
+        assertNull(cache.get(uncachedPath));
+    }
+}
@@ -0,0 +1,129 @@
+package org.opencds.cqf.tooling.utilities;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class DirectoryIndexTests {
+
+    private Path tempDir;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("directory-index");
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(tempDir.toFile());
+    }
+
+    private String writeFile(String name) throws IOException {
+        File file = tempDir.resolve(name).toFile();
+        FileUtils.writeStringToFile(file, "{}", StandardCharsets.UTF_8);
+        return file.getPath();
+    }
+
+    // Backdates directories so their listings are trusted without waiting out the modification time granularity
+    private void backdateDirectories() throws IOException {
+        FileTime past = FileTime.fromMillis(System.currentTimeMillis() - 60000);
+        try (Stream<Path> paths = Files.walk(tempDir)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                if (Files.isDirectory(path)) {
+                    Files.setLastModifiedTime(path, past);
+                }
+            }
+        }
+    }
+
+    // The order File.listFiles gives, with each subdirectory's files where the subdirectory is listed
+    private static List<String> listFiles(String directoryPath) {
+        List<String> filePaths = new ArrayList<>();
+        File[] files = new File(directoryPath).listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    filePaths.addAll(listFiles(file.getPath()));
+                } else {
+                    filePaths.add(file.getPath());
+                }
+            }
+        }
+        return filePaths;
+    }
+
+    @Test
+    public void TestFilePaths() throws IOException {
+        String a = writeFile("a.json");
+        String b = writeFile("sub/b.json");
+        String c = writeFile("sub/nested/c.json");
+        DirectoryIndex index = new DirectoryIndex();
+
+        List<String> filePaths = index.getFilePaths(tempDir.toString(), true);
+        assertEquals(filePaths, listFiles(tempDir.toString()));
+        assertEquals(new HashSet<>(filePaths), new HashSet<>(Arrays.asList(a, b, c)));
+        assertEquals(index.getFilePaths(tempDir.toString(), false), List.of(a));
+        assertEquals(index.getFilePaths(a, true), List.of());
+        assertEquals(index.getFilePaths(tempDir.resolve("missing").toString(), true), List.of());
+    }
+
+    @Test
+    public void TestFilePathsKeepListingOrder() throws IOException {
+        for (String name : Arrays.asList("a.json", "b/b1.json", "b/b2.json", "c.json", "d/e/e1.json", "d/d1.json",
+                "f.json", "g/g1.json", "h.json")) {
+            writeFile(name);
+        }
+        DirectoryIndex index = new DirectoryIndex();
+
+        assertEquals(index.getFilePaths(tempDir.toString(), true), listFiles(tempDir.toString()));
+        // Served from the index
+        assertEquals(index.getFilePaths(tempDir.toString(), true), listFiles(tempDir.toString()));
+    }
+
+    @Test
+    public void TestDirectoryPaths() throws IOException {
+        writeFile("sub/nested/c.json");
+        DirectoryIndex index = new DirectoryIndex();
+        String sub = tempDir.resolve("sub").toString();
+        String nested = tempDir.resolve("sub").resolve("nested").toString();
+
+        assertEquals(index.getDirectoryPaths(tempDir.toString(), true), List.of(nested, sub));
+        assertEquals(index.getDirectoryPaths(tempDir.toString(), false), List.of(sub));
+    }
+
+    @Test
+    public void TestListingsAreReusedUntilDirectoryChanges() throws IOException {
+        String a = writeFile("sub/a.json");
+        backdateDirectories();
+        DirectoryIndex index = new DirectoryIndex();
+
+        assertEquals(index.getFilePaths(tempDir.toString(), true), List.of(a));
+        assertEquals(index.getFilePaths(tempDir.toString(), true), List.of(a));
+        assertEquals(index.getWalkCount(), 1);
+
+        String b = writeFile("sub/b.json");
+        List<String> filePaths = index.getFilePaths(tempDir.toString(), true);
+        assertEquals(filePaths, listFiles(tempDir.toString()));
+        assertEquals(new HashSet<>(filePaths), new HashSet<>(Arrays.asList(a, b)));
+        assertEquals(index.getWalkCount(), 2);
+
+        assertTrue(new File(a).delete());
+        assertEquals(index.getFilePaths(tempDir.toString(), true), List.of(b));
+    }
+}
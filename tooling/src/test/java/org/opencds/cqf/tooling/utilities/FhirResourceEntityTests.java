@@ -0,0 +1,37 @@
+package org.opencds.cqf.tooling.utilities;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.hl7.fhir.r4.model.Patient;
+import org.testng.annotations.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+
+public class FhirResourceEntityTests {
+
+    private final FhirContext fhirContext = FhirContext.forR4Cached();
+
+    @Test
+    public void testWritesEncodedResource() throws IOException {
+        Patient patient = new Patient();
+        patient.setId("example");
+        patient.addName().setFamily("Müller");
+
+        FhirResourceEntity entity = new FhirResourceEntity(patient, IOUtils.Encoding.JSON, fhirContext);
+        assertTrue(entity.isRepeatable());
+        assertEquals(entity.getContentLength(), -1);
+
+        // Each write encodes the resource again
+        for (int i = 0; i < 2; i++) {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            entity.writeTo(outputStream);
+            assertEquals(new String(outputStream.toByteArray(), StandardCharsets.UTF_8),
+                    IOUtils.encodeResourceAsString(patient, IOUtils.Encoding.JSON, fhirContext));
+        }
+    }
+}
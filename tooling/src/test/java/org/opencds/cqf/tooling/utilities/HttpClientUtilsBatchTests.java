@@ -0,0 +1,161 @@
+package org.opencds.cqf.tooling.utilities;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.tuple.Pair;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.OperationOutcome;
+import org.hl7.fhir.r4.model.Patient;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+
+public class HttpClientUtilsBatchTests {
+
+    private static final String SERVER = "http://localhost/fhir";
+    private static final String OTHER_SERVER = "http://other/fhir";
+
+    private final FhirContext fhirContext = FhirContext.forR4Cached();
+
+    @AfterMethod
+    public void tearDown() {
+        HttpClientUtils.resetPostSettings();
+    }
+
+    @Test
+    public void testBatchesAreGroupedByServerAndEncoding() {
+        HttpClientUtils.setPostBatching(2, HttpClientUtils.DEFAULT_MAX_POST_BATCH_BYTES);
+        Patient p1 = patient("p1");
+        Patient p2 = patient("p2");
+        Patient p3 = patient("p3");
+        Patient p4 = patient("p4");
+        Patient p5 = patient("p5");
+        Patient p6 = patient("p6");
+        Patient p7 = patient("p7");
+
+        List<List<IBaseResource>> batches = getBatches(Arrays.asList(
+                component(SERVER, p1, IOUtils.Encoding.JSON),
+                component(OTHER_SERVER, p2, IOUtils.Encoding.JSON),
+                component(SERVER, p3, IOUtils.Encoding.XML),
+                component(SERVER, p4, IOUtils.Encoding.JSON),
+                component(SERVER, p5, IOUtils.Encoding.JSON),
+                component(OTHER_SERVER, p6, IOUtils.Encoding.JSON),
+                component(SERVER, p7, IOUtils.Encoding.JSON)));
+
+        assertEquals(batches, Arrays.asList(
+                Arrays.asList(p1, p4),
+                Arrays.asList(p5, p7),
+                Arrays.asList(p2, p6),
+                Arrays.asList(p3)));
+    }
+
+    @Test
+    public void testBatchesAreLimitedByEncodedSize() {
+        Patient p1 = patient("p1");
+        Patient p2 = patient("p2");
+        Patient p3 = patient("p3");
+        Patient large = patient("p4");
+        large.addName().setFamily(StringUtils.repeat("x", 10_000));
+        long size = IOUtils.encodeResourceAsString(p1, IOUtils.Encoding.JSON, fhirContext).getBytes(StandardCharsets.UTF_8).length;
+        // Room for two of the small resources, but not three
+        HttpClientUtils.setPostBatching(10, size * 5 / 2);
+
+        List<List<IBaseResource>> batches = getBatches(Arrays.asList(
+                component(SERVER, p1, IOUtils.Encoding.JSON),
+                component(SERVER, large, IOUtils.Encoding.JSON),
+                component(SERVER, p2, IOUtils.Encoding.JSON),
+                component(SERVER, p3, IOUtils.Encoding.JSON)));
+
+        // The resource too large to batch is posted alone, without closing the batch it came between
+        assertEquals(batches, Arrays.asList(
+                Arrays.asList(large),
+                Arrays.asList(p1, p2),
+                Arrays.asList(p3)));
+    }
+
+    @Test
+    public void testEntryOutcomesFollowBatchOrder() {
+        List<HttpClientUtils.PostComponent> batch = Arrays.asList(
+                component(SERVER, patient("p1"), IOUtils.Encoding.JSON),
+                component(SERVER, patient("p2"), IOUtils.Encoding.JSON),
+                component(SERVER, patient("p3"), IOUtils.Encoding.JSON));
+        Bundle response = batchResponse();
+
+        assertOutcomes(HttpClientUtils.getBatchEntryOutcomes(batch,
+                fhirContext.newJsonParser().encodeResourceToString(response), fhirContext));
+        assertOutcomes(HttpClientUtils.getBatchEntryOutcomes(batch,
+                fhirContext.newXmlParser().encodeResourceToString(response), fhirContext));
+    }
+
+    @Test
+    public void testUnreadableBatchResponseFailsEveryEntry() {
+        List<HttpClientUtils.PostComponent> batch = Arrays.asList(
+                component(SERVER, patient("p1"), IOUtils.Encoding.JSON),
+                component(SERVER, patient("p2"), IOUtils.Encoding.JSON));
+
+        List<HttpClientUtils.BatchEntryOutcome> outcomes = HttpClientUtils.getBatchEntryOutcomes(batch, "not a bundle", fhirContext);
+        assertEquals(outcomes.size(), 2);
+        for (HttpClientUtils.BatchEntryOutcome outcome : outcomes) {
+            assertFalse(outcome.isSuccess());
+            assertTrue(outcome.getMessage().contains("No response for the resource"), outcome.getMessage());
+        }
+    }
+
+    // The first entry was created, the second rejected, and the third has no response
+    private void assertOutcomes(List<HttpClientUtils.BatchEntryOutcome> outcomes) {
+        assertEquals(outcomes.size(), 3);
+
+        assertTrue(outcomes.get(0).isSuccess());
+        assertEquals(outcomes.get(0).getMessage(), "[SUCCESS] Resource successfully posted to " + SERVER + ": p1");
+        assertEquals(outcomes.get(0).getLocation(), "Patient/p1/_history/1");
+
+        assertFalse(outcomes.get(1).isSuccess());
+        assertEquals(outcomes.get(1).getMessage(), "[FAIL] Error 400 from " + SERVER + ": p2: Invalid patient");
+        assertNull(outcomes.get(1).getLocation());
+
+        assertFalse(outcomes.get(2).isSuccess());
+        assertTrue(outcomes.get(2).getMessage().contains("p3"), outcomes.get(2).getMessage());
+        assertTrue(outcomes.get(2).getMessage().contains("No response for the resource"), outcomes.get(2).getMessage());
+    }
+
+    private Bundle batchResponse() {
+        Bundle bundle = new Bundle();
+        bundle.setType(Bundle.BundleType.BATCHRESPONSE);
+        bundle.addEntry().getResponse().setStatus("201 Created").setLocation("Patient/p1/_history/1");
+        OperationOutcome outcome = new OperationOutcome();
+        outcome.addIssue().setSeverity(OperationOutcome.IssueSeverity.ERROR)
+                .setCode(OperationOutcome.IssueType.PROCESSING).setDiagnostics("Invalid patient");
+        bundle.addEntry().getResponse().setStatus("400 Bad Request").setOutcome(outcome);
+        return bundle;
+    }
+
+    private List<List<IBaseResource>> getBatches(List<HttpClientUtils.PostComponent> postComponents) {
+        List<List<IBaseResource>> batches = new ArrayList<>();
+        for (Pair<List<IBaseResource>, Callable<Void>> task : HttpClientUtils.createBatchTasks(postComponents)) {
+            batches.add(task.getLeft());
+        }
+        return batches;
+    }
+
+    private HttpClientUtils.PostComponent component(String server, IBaseResource resource, IOUtils.Encoding encoding) {
+        return new HttpClientUtils.PostComponent(server, resource, encoding, fhirContext, null, false);
+    }
+
+    private Patient patient(String id) {
+        Patient patient = new Patient();
+        patient.setId(id);
+        return patient;
+    }
+}
@@ -0,0 +1,110 @@
+package org.opencds.cqf.tooling.utilities;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import org.testng.annotations.Test;
+
+public class HttpClientUtilsTests {
+
+    @Test
+    public void testLatencySummary() {
+        List<Long> latencies = new ArrayList<>();
+        for (long i = 100; i >= 1; i--) {
+            latencies.add(i);
+        }
+
+        assertEquals(HttpClientUtils.getLatencySummary(latencies),
+                "POST response times over 100 requests: p50=50ms, p90=90ms, p99=99ms, max=100ms");
+    }
+
+    @Test
+    public void testLatencySummarySingleRequest() {
+        assertEquals(HttpClientUtils.getLatencySummary(Collections.singletonList(42L)),
+                "POST response times over 1 requests: p50=42ms, p90=42ms, p99=42ms, max=42ms");
+        assertEquals(HttpClientUtils.getLatencySummary(Collections.emptyList()), "");
+    }
+
+    @Test
+    public void testThroughput() {
+        assertEquals(HttpClientUtils.getThroughput(50, 20L * 1024 * 1024, 4_000_000_000L), "12.5/s, 5.00 MB/s");
+        assertEquals(HttpClientUtils.getThroughput(0, 0, 0), "0.0/s, 0.00 MB/s");
+    }
+
+    @Test
+    public void testThroughputIgnoresDefaultLocale() {
+        Locale defaultLocale = Locale.getDefault();
+        Locale.setDefault(Locale.GERMANY);
+        try {
+            assertEquals(HttpClientUtils.getThroughput(50, 20L * 1024 * 1024, 4_000_000_000L), "12.5/s, 5.00 MB/s");
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+
+    @Test
+    public void testResolveLocation() {
+        assertEquals(HttpClientUtils.resolveLocation("http://localhost/fhir", "http://other/fhir/Library/1/_history/1"),
+                "http://other/fhir/Library/1/_history/1");
+        assertEquals(HttpClientUtils.resolveLocation("http://localhost/fhir/", "Library/1/_history/1"),
+                "http://localhost/fhir/Library/1/_history/1");
+        assertEquals(HttpClientUtils.resolveLocation("http://localhost/fhir", "/Library/1"),
+                "http://localhost/fhir/Library/1");
+        assertEquals(HttpClientUtils.resolveLocation("http://localhost/fhir", null), null);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testPostBatchSizeMustBePositive() {
+        HttpClientUtils.setPostBatching(0, HttpClientUtils.DEFAULT_MAX_POST_BATCH_BYTES);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testPostBatchBytesMustBePositive() {
+        HttpClientUtils.setPostBatching(100, 0);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testMaxSimultaneousPostCountMustBePositive() {
+        HttpClientUtils.setMaxSimultaneousPostCount(0);
+    }
+
+    @Test
+    public void testResetPostSettingsRestoresDefaults() {
+        HttpClientUtils.setMaxSimultaneousPostCount(3);
+        HttpClientUtils.resetPostSettings();
+        assertEquals(HttpClientUtils.getMaxSimultaneousPostCount(), HttpClientUtils.DEFAULT_MAX_SIMULTANEOUS_POST_COUNT);
+    }
+
+    @Test
+    public void testRetryableStatuses() {
+        assertTrue(HttpClientUtils.isRetryableStatus(429));
+        assertTrue(HttpClientUtils.isRetryableStatus(500));
+        assertTrue(HttpClientUtils.isRetryableStatus(503));
+        assertFalse(HttpClientUtils.isRetryableStatus(400));
+        assertFalse(HttpClientUtils.isRetryableStatus(404));
+        assertFalse(HttpClientUtils.isRetryableStatus(422));
+    }
+
+    @Test
+    public void testRetryDelayBacksOffExponentiallyWithJitter() {
+        for (int attempt = 1; attempt <= 4; attempt++) {
+            long backoff = 1000L << (attempt - 1);
+            long delay = HttpClientUtils.getRetryDelay(attempt, null, 1000, 5000);
+            assertTrue(delay >= Math.min(backoff, 5000) / 2 && delay <= Math.min(backoff, 5000), "attempt " + attempt + ": " + delay);
+        }
+    }
+
+    @Test
+    public void testRetryDelayHonoursRetryAfter() {
+        assertEquals(HttpClientUtils.getRetryDelay(1, "7", 1000, 5000), 7000);
+        // Unparseable values fall back to exponential backoff
+        long delay = HttpClientUtils.getRetryDelay(1, "soon", 1000, 5000);
+        assertTrue(delay >= 500 && delay <= 1000);
+    }
+}
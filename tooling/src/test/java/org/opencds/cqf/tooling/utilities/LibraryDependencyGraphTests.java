@@ -0,0 +1,135 @@
+package org.opencds.cqf.tooling.utilities;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.Library;
+import org.hl7.fhir.r4.model.RelatedArtifact;
+import org.opencds.cqf.tooling.utilities.IOUtils.Encoding;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+
+public class LibraryDependencyGraphTests {
+
+    private final FhirContext fhirContext = FhirContext.forR4Cached();
+
+    private Path tempDir;
+    private Path libraryDir;
+    private CountingResourceCache resourceCache;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("library-dependency-graph");
+        libraryDir = Files.createDirectories(tempDir.resolve("resources").resolve("library"));
+        resourceCache = new CountingResourceCache();
+        IOUtils.setResourceCache(resourceCache);
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        IOUtils.setResourceCache(new BoundedResourceCache());
+        IOUtils.cleanUp();
+        ResourceUtils.cleanUp();
+        FileUtils.deleteDirectory(tempDir.toFile());
+    }
+
+    @Test
+    public void testDiamondMatchesUncachedWalk() throws IOException {
+        // A includes B and C, which both include D, which includes E
+        String a = writeLibrary("Library-", "A", "B", "C");
+        writeLibrary("Library-", "B", "D");
+        writeLibrary("Library-", "C", "D");
+        writeLibrary("Library-", "D", "E");
+        writeLibrary("Library-", "E");
+
+        Map<String, IBaseResource> closure = LibraryDependencyGraph.getLibraryResources(a, fhirContext, Encoding.JSON, false);
+        assertEquals(closure.keySet(), walk(a));
+        assertEquals(closure.keySet(), new TreeSet<>(Arrays.asList("B", "C", "D", "E")));
+        assertSame(LibraryDependencyGraph.getLibraryResources(a, fhirContext, Encoding.JSON, false), closure);
+    }
+
+    @Test
+    public void testSharedDependencyIsWalkedOnce() throws IOException {
+        String a = writeLibrary("", "A", "B", "C");
+        writeLibrary("", "B", "D");
+        writeLibrary("", "C", "D");
+        String d = writeLibrary("", "D", "E");
+        String e = writeLibrary("", "E");
+
+        // The reads of E made by walking D on its own
+        LibraryDependencyGraph.getLibraryResources(d, fhirContext, Encoding.JSON, false);
+        int expected = resourceCache.getCount(e);
+        IOUtils.cleanUp();
+        ResourceUtils.cleanUp();
+        resourceCache.reset();
+
+        // D is reached through both B and C, but its closure is only built once
+        LibraryDependencyGraph.getLibraryResources(a, fhirContext, Encoding.JSON, false);
+        assertEquals(resourceCache.getCount(e), expected);
+    }
+
+    @Test(expectedExceptions = RuntimeException.class)
+    public void testMissingNestedDependencyFails() throws IOException {
+        String a = writeLibrary("", "A", "B");
+        writeLibrary("", "B", "Missing");
+
+        LibraryDependencyGraph.getLibraryResources(a, fhirContext, Encoding.JSON, false);
+    }
+
+    // The closure walked without memoization, each dependency read from the path its dependent resolves it to
+    private Set<String> walk(String path) {
+        Set<String> ids = new TreeSet<>();
+        for (String dependencyPath : ResourceUtils.getDepLibraryPaths(path, fhirContext, Encoding.JSON, false)) {
+            ids.add(IOUtils.readResource(dependencyPath, fhirContext).getIdElement().getIdPart());
+            ids.addAll(walk(dependencyPath));
+        }
+        return ids;
+    }
+
+    private String writeLibrary(String prefix, String id, String... dependencies) throws IOException {
+        Library library = new Library();
+        library.setId(id);
+        library.setName(id);
+        for (String dependency : dependencies) {
+            library.addRelatedArtifact().setType(RelatedArtifact.RelatedArtifactType.DEPENDSON).setResource("Library/" + dependency);
+        }
+        Path path = libraryDir.resolve(prefix + id + ".json");
+        Files.write(path, fhirContext.newJsonParser().encodeResourceToString(library).getBytes(StandardCharsets.UTF_8));
+        return path.toString();
+    }
+
+    private static class CountingResourceCache extends BoundedResourceCache {
+        private final Map<String, AtomicInteger> counts = new ConcurrentHashMap<>();
+
+        @Override
+        public IBaseResource get(String path) {
+            counts.computeIfAbsent(path, key -> new AtomicInteger()).incrementAndGet();
+            return super.get(path);
+        }
+
+        int getCount(String path) {
+            AtomicInteger count = counts.get(path);
+            return count == null ? 0 : count.get();
+        }
+
+        void reset() {
+            counts.clear();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package org.opencds.cqf.tooling.utilities;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.hl7.fhir.r4.model.Library;
+import org.hl7.fhir.r4.model.Patient;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+
+public class PostManifestTests {
+
+    private final FhirContext fhirContext = FhirContext.forR4Cached();
+
+    private Path tempDir;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("post-manifest");
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(tempDir.toFile());
+    }
+
+    @Test
+    public void testKeyIncludesServerTypeIdAndVersion() {
+        Library library = new Library();
+        library.setId("example");
+        library.setVersion("1.0.0");
+        assertEquals(PostManifest.getKey("http://localhost/fhir/", library, fhirContext, null),
+                "http://localhost/fhir|Library/example|1.0.0");
+
+        Patient patient = new Patient();
+        patient.setId("example");
+        assertEquals(PostManifest.getKey("http://localhost/fhir", patient, fhirContext, null),
+                "http://localhost/fhir|Patient/example|");
+
+        assertNull(PostManifest.getKey("http://localhost/fhir", new Patient(), fhirContext, null));
+    }
+
+    @Test
+    public void testHashChangesWithContent() {
+        Library library = new Library();
+        library.setId("example");
+        String hash = PostManifest.getHash(payload(library, IOUtils.Encoding.JSON));
+        assertEquals(PostManifest.getHash(payload(library.copy(), IOUtils.Encoding.JSON)), hash);
+
+        library.setTitle("Example");
+        assertNotEquals(PostManifest.getHash(payload(library, IOUtils.Encoding.JSON)), hash);
+    }
+
+    @Test
+    public void testHashIsOfThePostedEncoding() {
+        Library library = new Library();
+        library.setId("example");
+        byte[] json = payload(library, IOUtils.Encoding.JSON);
+        assertEquals(PostManifest.getHash(json), DigestUtils.sha256Hex(json));
+        assertNotEquals(PostManifest.getHash(payload(library, IOUtils.Encoding.XML)), PostManifest.getHash(json));
+    }
+
+    private byte[] payload(Library library, IOUtils.Encoding encoding) {
+        return IOUtils.encodeResourceAsString(library, encoding, fhirContext).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testEntriesAreSavedAndLoaded() {
+        String path = tempDir.resolve("manifest.json").toString();
+        PostManifest manifest = PostManifest.load(path);
+        assertNull(manifest.get("key"));
+
+        manifest.record("key", "hash", "http://localhost/fhir/Library/1/_history/2");
+        manifest.save();
+
+        PostManifest.Entry entry = PostManifest.load(path).get("key");
+        assertEquals(entry.getHash(), "hash");
+        assertEquals(entry.getLocation(), "http://localhost/fhir/Library/1/_history/2");
+    }
+}
@@ -0,0 +1,106 @@
+package org.opencds.cqf.tooling.utilities;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.hl7.elm.r1.ExpressionDef;
+import org.hl7.elm.r1.Library;
+import org.opencds.cqf.tooling.cql.exception.CqlTranslatorException;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class ResourceUtilsTranslationTests {
+
+    private static final String CQL_FOLDER = "/org/opencds/cqf/tooling/utilities/CompositeMeasures/cql";
+
+    private List<String> cqlPaths;
+
+    @BeforeMethod
+    public void setUp() throws URISyntaxException {
+        File folder = new File(ResourceUtilsTranslationTests.class.getResource(CQL_FOLDER).toURI());
+        cqlPaths = new ArrayList<>();
+        for (File file : folder.listFiles((dir, name) -> name.endsWith(".cql"))) {
+            cqlPaths.add(file.getAbsolutePath());
+        }
+        ResourceUtils.cleanUp();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        ResourceUtils.cleanUp();
+    }
+
+    @Test
+    public void testConcurrentTranslationMatchesSequentialTranslation() throws CqlTranslatorException, InterruptedException {
+        Map<String, List<String>> sequential = new TreeMap<>();
+        for (String path : cqlPaths) {
+            sequential.put(path, getStatementNames(ResourceUtils.getElmFromCql(path)));
+        }
+        ResourceUtils.cleanUp();
+
+        // One session, so one ModelManager, shared by every thread
+        Map<String, List<String>> concurrent = new TreeMap<>();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Map<String, Future<Library>> futures = new TreeMap<>();
+            for (String path : cqlPaths) {
+                futures.put(path, executor.submit(() -> ResourceUtils.getElmFromCql(path)));
+            }
+            for (Map.Entry<String, Future<Library>> entry : futures.entrySet()) {
+                concurrent.put(entry.getKey(), getStatementNames(get(entry.getValue())));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertTrue(sequential.size() > 1);
+        assertEquals(concurrent, sequential);
+    }
+
+    @Test
+    public void testTranslationsAvoidedCountsCompiledIncludes() throws CqlTranslatorException {
+        for (String path : cqlPaths) {
+            ResourceUtils.getElmFromCql(path);
+        }
+        // Each library was translated once, but the libraries included by several were only compiled once
+        int avoided = ResourceUtils.getTranslationsAvoided();
+        assertTrue(avoided > 0);
+
+        ResourceUtils.getElmFromCql(cqlPaths.get(0));
+        assertEquals(ResourceUtils.getTranslationsAvoided(), avoided + 1);
+
+        ResourceUtils.cleanUp();
+        assertEquals(ResourceUtils.getTranslationsAvoided(), 0);
+    }
+
+    private static List<String> getStatementNames(Library elm) {
+        List<String> names = new ArrayList<>();
+        names.add(elm.getIdentifier().getId() + "|" + elm.getIdentifier().getVersion());
+        if (elm.getStatements() != null) {
+            for (ExpressionDef def : elm.getStatements().getDef()) {
+                names.add(def.getName());
+            }
+        }
+        return names;
+    }
+
+    private static Library get(Future<Library> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw new AssertionError(e.getCause());
+        }
+    }
+}